@@ -0,0 +1,345 @@
+package com.peircean.glusterfs;
+
+import com.peircean.libgfapi_jni.internal.UtilJNI;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An AsynchronousFileChannel over glfs_pread_async/glfs_pwrite_async.  Requests are handed to libgfapi and completed
+ * from the filesystem's GlusterCompletionQueue.  Handlers run on the supplied executor, or on a shared pool of daemon
+ * threads when there is none, so a slow handler doesn't hold up the completion thread; the futures returned by the
+ * handler-less read and write are completed on the completion thread itself.  Heap buffers are staged through a
+ * direct buffer per request since libgfapi keeps hold of the memory until the request completes.
+ *
+ * @author <a href="http://about.me/louiszuckerman">Louis Zuckerman</a>
+ */
+@Getter(AccessLevel.PACKAGE)
+public class GlusterAsynchronousFileChannel extends AsynchronousFileChannel {
+    /**
+     * Runs the handlers of channels opened without an executor
+     */
+    static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger threads = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "gluster-async-handler-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final GlusterFileChannel channel;
+    private final GlusterCompletionQueue completionQueue;
+    private final ExecutorService executor;
+    private final boolean readable;
+    private final boolean writable;
+    private final AtomicInteger inflight = new AtomicInteger();
+    private volatile boolean closed = false;
+    /**
+     * Set when close() was called on the completion thread and left closing the file to the last request to finish
+     */
+    private volatile boolean closeDeferred = false;
+    private final AtomicBoolean fileClosed = new AtomicBoolean();
+
+    GlusterAsynchronousFileChannel(GlusterFileChannel channel, GlusterCompletionQueue completionQueue, ExecutorService executor) {
+        this.channel = channel;
+        this.completionQueue = completionQueue;
+        this.executor = null == executor ? DEFAULT_EXECUTOR : executor;
+        writable = channel.getOptions().contains(StandardOpenOption.WRITE);
+        readable = channel.getOptions().contains(StandardOpenOption.READ) || !writable;
+    }
+
+    @Override
+    public long size() throws IOException {
+        guardClosed();
+        return channel.size();
+    }
+
+    @Override
+    public AsynchronousFileChannel truncate(long size) throws IOException {
+        throw new UnsupportedOperationException("truncate is not supported at this time");
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+        guardClosed();
+        channel.force(metaData);
+    }
+
+    @Override
+    public <A> void lock(long position, long size, boolean shared, A attachment, CompletionHandler<FileLock, ? super A> handler) {
+        throw new UnsupportedOperationException("locking is not supported at this time");
+    }
+
+    @Override
+    public Future<FileLock> lock(long position, long size, boolean shared) {
+        throw new UnsupportedOperationException("locking is not supported at this time");
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+        throw new UnsupportedOperationException("locking is not supported at this time");
+    }
+
+    @Override
+    public <A> void read(ByteBuffer dst, long position, A attachment, CompletionHandler<Integer, ? super A> handler) {
+        if (null == handler) {
+            throw new NullPointerException("handler");
+        }
+        if (position < 0) {
+            throw new IllegalArgumentException("position can't be negative");
+        }
+        if (dst.isReadOnly()) {
+            throw new IllegalArgumentException("Read-only buffer");
+        }
+        if (!readable) {
+            throw new NonReadableChannelException();
+        }
+        submit(true, dst, position, attachment, handler);
+    }
+
+    @Override
+    public Future<Integer> read(ByteBuffer dst, long position) {
+        IoFuture future = new IoFuture();
+        read(dst, position, null, future);
+        return future;
+    }
+
+    @Override
+    public <A> void write(ByteBuffer src, long position, A attachment, CompletionHandler<Integer, ? super A> handler) {
+        if (null == handler) {
+            throw new NullPointerException("handler");
+        }
+        if (position < 0) {
+            throw new IllegalArgumentException("position can't be negative");
+        }
+        if (!writable) {
+            throw new NonWritableChannelException();
+        }
+        submit(false, src, position, attachment, handler);
+    }
+
+    @Override
+    public Future<Integer> write(ByteBuffer src, long position) {
+        IoFuture future = new IoFuture();
+        write(src, position, null, future);
+        return future;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Waits for outstanding requests to complete before closing the file, libgfapi still refers to it until then.  On
+     * the completion thread, which those requests need to complete, it returns at once and the file is closed when the
+     * last of them finishes.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (inflight.get() > 0 && completionQueue.isCompletionThread()) {
+            closeDeferred = true;
+            if (0 == inflight.get()) {
+                closeFile();
+            }
+            return;
+        }
+        synchronized (inflight) {
+            while (inflight.get() > 0) {
+                try {
+                    inflight.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for outstanding requests");
+                }
+            }
+        }
+        closeFile();
+    }
+
+    void closeFile() throws IOException {
+        if (fileClosed.compareAndSet(false, true)) {
+            channel.close();
+        }
+    }
+
+    <A> void submit(final boolean read, final ByteBuffer buffer, long position, final A attachment,
+                    final CompletionHandler<Integer, ? super A> handler) {
+        inflight.incrementAndGet();
+        if (closed) {
+            finished();
+            failed(new ClosedChannelException(), attachment, handler);
+            return;
+        }
+        final int bufferPosition = buffer.position();
+        final int remaining = buffer.remaining();
+        if (0 == remaining) {
+            finished();
+            completed(0, attachment, handler);
+            return;
+        }
+
+        final ByteBuffer direct = buffer.isDirect() ? buffer : ByteBuffer.allocateDirect(remaining);
+        long address = UtilJNI.GetDirectBufferAddress(direct);
+        if (direct == buffer) {
+            address += bufferPosition;
+        } else if (!read) {
+            direct.put(buffer.duplicate());
+        }
+
+        GlusterCompletionQueue.Completion completion = new GlusterCompletionQueue.Completion() {
+            @Override
+            public void completed(long result) {
+                // the request is finished before the handler runs, so that a handler may close the channel
+                IOException failure = null;
+                int transferred = (int) result;
+                try {
+                    if (result < 0) {
+                        failure = new IOException(UtilJNI.string(UtilJNI.strerror_jni((int) -result)));
+                    } else if (read && direct != buffer) {
+                        direct.position(0).limit(transferred);
+                        buffer.put(direct);
+                    } else {
+                        buffer.position(bufferPosition + transferred);
+                    }
+                } finally {
+                    finished();
+                }
+                if (null != failure) {
+                    failed(failure, attachment, handler);
+                } else {
+                    GlusterAsynchronousFileChannel.this.completed(read && 0 == transferred ? -1 : transferred,
+                            attachment, handler);
+                }
+            }
+        };
+
+        int ret = read
+                ? completionQueue.pread(channel.getFileptr(), address, remaining, position, completion)
+                : completionQueue.pwrite(channel.getFileptr(), address, remaining, position, completion);
+        if (ret < 0) {
+            finished();
+            failed(-GlusterCompletionQueue.ESHUTDOWN == ret ? new ClosedChannelException()
+                    : new IOException(UtilJNI.strerror()), attachment, handler);
+        }
+    }
+
+    void finished() {
+        if (0 == inflight.decrementAndGet()) {
+            synchronized (inflight) {
+                inflight.notifyAll();
+            }
+            if (closeDeferred) {
+                try {
+                    closeFile();
+                } catch (IOException e) {
+                    // nobody is left to report it to, close() has already returned
+                }
+            }
+        }
+    }
+
+    <A> void completed(final int result, final A attachment, final CompletionHandler<Integer, ? super A> handler) {
+        if (handler instanceof IoFuture) {
+            handler.completed(result, attachment);
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                handler.completed(result, attachment);
+            }
+        });
+    }
+
+    <A> void failed(final Throwable exc, final A attachment, final CompletionHandler<Integer, ? super A> handler) {
+        if (handler instanceof IoFuture) {
+            handler.failed(exc, attachment);
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                handler.failed(exc, attachment);
+            }
+        });
+    }
+
+    void guardClosed() throws ClosedChannelException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * The Future returned by the handler-less read and write, completed by the channel like any other handler but
+     * without going through the executor, since completing it never blocks.
+     */
+    static class IoFuture implements Future<Integer>, CompletionHandler<Integer, Object> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Integer result;
+        private volatile Throwable failure;
+
+        @Override
+        public void completed(Integer result, Object attachment) {
+            this.result = result;
+            done.countDown();
+        }
+
+        @Override
+        public void failed(Throwable exc, Object attachment) {
+            failure = exc;
+            done.countDown();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return 0 == done.getCount();
+        }
+
+        @Override
+        public Integer get() throws InterruptedException, ExecutionException {
+            done.await();
+            return outcome();
+        }
+
+        @Override
+        public Integer get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return outcome();
+        }
+
+        private Integer outcome() throws ExecutionException {
+            if (null != failure) {
+                throw new ExecutionException(failure);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.peircean.glusterfs;
+
+import com.peircean.libgfapi_jni.internal.GLFS;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Completes the async reads and writes of one GlusterFileSystem.  libgfapi's event threads queue their results
+ * natively and a single daemon thread drains them in batches, so any number of requests can be outstanding without
+ * a Java thread waiting on each one.  Once closed, a queue refuses new requests and can't be started again.
+ */
+@Getter(AccessLevel.PACKAGE)
+class GlusterCompletionQueue implements Runnable {
+    static final int BATCH_SIZE = 256;
+    static final int WAIT_MILLIS = 500;
+    /**
+     * What a request submitted after close returns, negated like the errors of glfs_pread_async/glfs_pwrite_async
+     */
+    static final int ESHUTDOWN = 108;
+
+    interface Completion {
+        /**
+         * @param result bytes transferred, or -errno
+         */
+        void completed(long result);
+    }
+
+    private final Map<Long, Completion> pending = new ConcurrentHashMap<Long, Completion>();
+    private final AtomicLong tokens = new AtomicLong();
+    private final String name;
+    /**
+     * Submissions hold the read lock, so close can't free the native queue while one is handing it to libgfapi
+     */
+    private final ReadWriteLock submissions = new ReentrantReadWriteLock();
+    private volatile long queueptr;
+    private Thread thread;
+    private volatile boolean running;
+    private boolean closed;
+
+    GlusterCompletionQueue(String name) {
+        this.name = name;
+    }
+
+    synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        if (closed) {
+            throw new IOException("Completion queue for " + name + " is closed");
+        }
+        queueptr = GLFS.glfsjni_queue_new();
+        if (0 == queueptr) {
+            throw new IOException("Unable to create completion queue for " + name);
+        }
+        running = true;
+        thread = new Thread(this, "gluster-completions-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return 0 once the read is queued, -ESHUTDOWN if the queue is closed, or what glfs_pread_async returned
+     */
+    int pread(long fileptr, long address, long count, long offset, Completion completion) {
+        submissions.readLock().lock();
+        try {
+            if (!running) {
+                return -ESHUTDOWN;
+            }
+            long token = tokens.incrementAndGet();
+            pending.put(token, completion);
+            int ret = GLFS.glfs_pread_async(fileptr, address, count, offset, 0, queueptr, token);
+            if (ret < 0) {
+                pending.remove(token);
+            }
+            return ret;
+        } finally {
+            submissions.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return 0 once the write is queued, -ESHUTDOWN if the queue is closed, or what glfs_pwrite_async returned
+     */
+    int pwrite(long fileptr, long address, int count, long offset, Completion completion) {
+        submissions.readLock().lock();
+        try {
+            if (!running) {
+                return -ESHUTDOWN;
+            }
+            long token = tokens.incrementAndGet();
+            pending.put(token, completion);
+            int ret = GLFS.glfs_pwrite_async(fileptr, address, count, offset, 0, queueptr, token);
+            if (ret < 0) {
+                pending.remove(token);
+            }
+            return ret;
+        } finally {
+            submissions.readLock().unlock();
+        }
+    }
+
+    boolean isCompletionThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public void run() {
+        long[] completions = new long[2 * BATCH_SIZE];
+        while (running || !pending.isEmpty()) {
+            int count = GLFS.glfsjni_queue_take(queueptr, completions, BATCH_SIZE, WAIT_MILLIS);
+            dispatch(completions, count);
+        }
+    }
+
+    void dispatch(long[] completions, int count) {
+        for (int i = 0; i < count; i++) {
+            Completion completion = pending.remove(completions[2 * i]);
+            if (null != completion) {
+                try {
+                    completion.completed(completions[2 * i + 1]);
+                } catch (RuntimeException e) {
+                    // one misbehaving handler must not stop the others from completing
+                }
+            }
+        }
+    }
+
+    /**
+     * Refuses new requests, lets outstanding ones finish, then stops the dispatch thread and frees the native queue.
+     */
+    synchronized void close() throws IOException {
+        submissions.writeLock().lock();
+        try {
+            closed = true;
+            if (!running) {
+                return;
+            }
+            running = false;
+        } finally {
+            submissions.writeLock().unlock();
+        }
+        GLFS.glfsjni_queue_wakeup(queueptr);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while draining completion queue for " + name);
+        }
+        GLFS.glfsjni_queue_free(queueptr);
+        queueptr = 0;
+    }
+}
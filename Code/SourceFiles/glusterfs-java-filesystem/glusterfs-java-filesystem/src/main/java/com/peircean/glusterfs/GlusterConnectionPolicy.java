@@ -0,0 +1,58 @@
+package com.peircean.glusterfs;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Chooses which of a volume's glfs_t instances an operation runs on when the filesystem was opened with more than one
+ * connection.
+ */
+public interface GlusterConnectionPolicy {
+    /**
+     * @param path        absolute path the operation is on
+     * @param outstanding channels and directory streams open on each instance, one slot per instance
+     * @return index of the instance to use
+     */
+    int select(String path, AtomicIntegerArray outstanding);
+
+    /**
+     * Takes each instance in turn.
+     */
+    class RoundRobin implements GlusterConnectionPolicy {
+        private final AtomicInteger next = new AtomicInteger();
+
+        @Override
+        public int select(String path, AtomicIntegerArray outstanding) {
+            return (next.getAndIncrement() & Integer.MAX_VALUE) % outstanding.length();
+        }
+    }
+
+    /**
+     * Takes the instance with the fewest open channels and directory streams.
+     */
+    class LeastOutstanding implements GlusterConnectionPolicy {
+        @Override
+        public int select(String path, AtomicIntegerArray outstanding) {
+            int best = 0;
+            for (int i = 1; i < outstanding.length(); i++) {
+                if (outstanding.get(i) < outstanding.get(best)) {
+                    best = i;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * Keeps everything in one directory on the same instance, so that instance's inode and dentry caches stay warm
+     * for it.
+     */
+    class PathAffinity implements GlusterConnectionPolicy {
+        @Override
+        public int select(String path, AtomicIntegerArray outstanding) {
+            int slash = path.lastIndexOf('/');
+            String dir = slash > 0 ? path.substring(0, slash) : "/";
+            return (dir.hashCode() & Integer.MAX_VALUE) % outstanding.length();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.peircean.glusterfs;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Streams one open file into another through two direct buffers.  While one buffer is being written the next block is
+ * already being read into the other with an async pread, so the copy runs at the speed of the slower direction rather
+ * than the sum of both.
+ */
+@Getter(AccessLevel.PACKAGE)
+class GlusterCopyEngine {
+    static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private final int bufferSize;
+
+    GlusterCopyEngine(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Copy buffer size must be positive: " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Copies everything from in, starting at offset 0, to the same offsets in out.
+     *
+     * @return how many bytes were copied and how long it took
+     */
+    GlusterCopyResult copy(AsynchronousFileChannel in, FileChannel out) throws IOException {
+        long start = System.nanoTime();
+        ByteBuffer reading = ByteBuffer.allocateDirect(bufferSize);
+        ByteBuffer writing = ByteBuffer.allocateDirect(bufferSize);
+        long position = 0;
+
+        Future<Integer> pending = in.read(reading, position);
+        int read;
+        while ((read = await(pending)) >= 0) {
+            ByteBuffer full = reading;
+            reading = writing;
+            writing = full;
+            writing.flip();
+            reading.clear();
+
+            long writePosition = position;
+            position += read;
+            pending = in.read(reading, position);
+
+            while (writing.hasRemaining()) {
+                writePosition += out.write(writing, writePosition);
+            }
+        }
+        return new GlusterCopyResult(position, System.nanoTime() - start);
+    }
+
+    int await(Future<Integer> pending) throws IOException {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while copying");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
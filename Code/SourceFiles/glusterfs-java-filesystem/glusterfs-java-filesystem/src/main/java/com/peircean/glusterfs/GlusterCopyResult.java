@@ -0,0 +1,16 @@
+package com.peircean.glusterfs;
+
+import lombok.Data;
+
+/**
+ * The size and duration of one streamed copy.
+ */
+@Data
+public class GlusterCopyResult {
+    private final long bytes;
+    private final long nanos;
+
+    public double getBytesPerSecond() {
+        return 0 == nanos ? 0 : bytes * 1e9 / nanos;
+    }
+}
@@ -0,0 +1,46 @@
+package com.peircean.glusterfs;
+
+/**
+ * Running totals of the streamed copies made on one GlusterFileSystem, so copy throughput can be checked against the
+ * link speed.  Copies done on the servers with glfs_copy_file_range don't move data through the client and aren't
+ * counted.
+ */
+public class GlusterCopyStatistics {
+    private long copies;
+    private long bytes;
+    private long nanos;
+    private GlusterCopyResult last;
+
+    synchronized void record(GlusterCopyResult result) {
+        copies++;
+        bytes += result.getBytes();
+        nanos += result.getNanos();
+        last = result;
+    }
+
+    public synchronized long getCopies() {
+        return copies;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * @return the average rate over every streamed copy so far
+     */
+    public synchronized double getBytesPerSecond() {
+        return 0 == nanos ? 0 : bytes * 1e9 / nanos;
+    }
+
+    /**
+     * @return the most recent streamed copy, or null if there hasn't been one
+     */
+    public synchronized GlusterCopyResult getLast() {
+        return last;
+    }
+}
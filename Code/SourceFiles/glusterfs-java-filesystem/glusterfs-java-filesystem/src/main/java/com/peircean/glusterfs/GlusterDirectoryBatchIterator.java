@@ -0,0 +1,113 @@
+package com.peircean.glusterfs;
+
+import com.peircean.libgfapi_jni.internal.GLFS;
+import com.peircean.libgfapi_jni.internal.UtilJNI;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates a directory a buffer of entries at a time with glfs_readdir_batch, one JNI call per 64KB of entries.
+ * Entries stay packed in the buffer and a name is only decoded into a path when that entry is returned or has to be
+ * shown to the filter.
+ */
+@Getter(AccessLevel.PACKAGE)
+@Setter(AccessLevel.PACKAGE)
+class GlusterDirectoryBatchIterator implements Iterator<Path> {
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final int HEADER_SIZE = 11;
+
+    private final GlusterDirectoryStream stream;
+    private final DirectoryStream.Filter<? super Path> filter;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.nativeOrder());
+    private int position;
+    private int limit;
+    private boolean exhausted;
+    private int nextEntry = -1;
+    private GlusterPath nextPath;
+
+    GlusterDirectoryBatchIterator(GlusterDirectoryStream stream, DirectoryStream.Filter<? super Path> filter) {
+        this.stream = stream;
+        this.filter = filter;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextEntry >= 0 || null != nextPath) {
+            return true;
+        }
+        while (position < limit || fill()) {
+            int entry = position;
+            position += HEADER_SIZE + nameLength(entry);
+            if (null == filter) {
+                nextEntry = entry;
+                return true;
+            }
+            GlusterPath path = resolve(entry);
+            try {
+                if (filter.accept(path)) {
+                    nextPath = path;
+                    return true;
+                }
+            } catch (IOException e) {
+                throw new DirectoryIteratorException(e);
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public GlusterPath next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more entries");
+        }
+        GlusterPath path = null != nextPath ? nextPath : resolve(nextEntry);
+        nextPath = null;
+        nextEntry = -1;
+        return path;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    boolean fill() {
+        if (exhausted) {
+            return false;
+        }
+        int used = GLFS.glfs_readdir_batch(stream.getDirHandle(), UtilJNI.GetDirectBufferAddress(buffer), BUFFER_SIZE);
+        if (used < 0) {
+            exhausted = true;
+            throw new DirectoryIteratorException(new IOException(UtilJNI.strerror()));
+        }
+        if (0 == used) {
+            exhausted = true;
+            return false;
+        }
+        position = 0;
+        limit = used;
+        return true;
+    }
+
+    int nameLength(int entry) {
+        return buffer.getShort(entry + 9) & 0xffff;
+    }
+
+    GlusterPath resolve(int entry) {
+        byte[] name = new byte[nameLength(entry)];
+        ByteBuffer source = buffer.duplicate();
+        source.position(entry + HEADER_SIZE);
+        source.get(name);
+        return (GlusterPath) stream.getDir().resolve(new String(name));
+    }
+}
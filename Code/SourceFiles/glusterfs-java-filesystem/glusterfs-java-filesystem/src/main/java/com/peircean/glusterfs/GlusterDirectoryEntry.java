@@ -0,0 +1,13 @@
+package com.peircean.glusterfs;
+
+import lombok.Data;
+
+/**
+ * A directory entry as returned by glfs_readdirplus_r, the path together with the attributes that came with it.  Those
+ * are the entry's own attributes, as lstat would give them: a symbolic link is reported as a link, not as its target.
+ */
+@Data
+public class GlusterDirectoryEntry {
+    private final GlusterPath path;
+    private final GlusterFileAttributes attributes;
+}
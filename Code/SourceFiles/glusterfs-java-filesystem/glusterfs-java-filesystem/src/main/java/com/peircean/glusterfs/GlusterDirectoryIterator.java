@@ -1,24 +1,45 @@
 package com.peircean.glusterfs;
 
 import com.peircean.libgfapi_jni.internal.GLFS;
+import com.peircean.libgfapi_jni.internal.UtilJNI;
 import com.peircean.libgfapi_jni.internal.structs.dirent;
+import com.peircean.libgfapi_jni.internal.structs.stat;
 import lombok.Data;
 
 import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
+/**
+ * Reads a directory one entry at a time.  hasNext() reads the next entry ahead and holds it until next() returns it, so
+ * calling it again doesn't skip one.  With plus, entries come from glfs_readdirplus_r and nextAttributes are those of
+ * the entry itself, as lstat would give them, so a symbolic link has its own attributes rather than its target's.
+ * A failed read, or a filter that throws, ends the iteration with a DirectoryIteratorException.
+ */
 @Data
 class GlusterDirectoryIterator<T> implements Iterator<GlusterPath> {
     private GlusterDirectoryStream stream;
     private DirectoryStream.Filter<? super Path> filter;
     private dirent current, next;
     private GlusterPath nextPath;
+    private boolean plus = false;
+    private GlusterFileAttributes nextAttributes;
+    /**
+     * Set while nextPath has been read ahead but not yet returned, and once the directory has run out
+     */
+    private boolean fetched, done;
 
     @Override
     public boolean hasNext() {
+        if (fetched) {
+            return true;
+        }
+        if (done) {
+            return false;
+        }
         advance();
         if (null != filter) {
             try {
@@ -26,27 +47,48 @@ class GlusterDirectoryIterator<T> implements Iterator<GlusterPath> {
                     advance();
                 }
             } catch (IOException e) {
-                current = null;
-                next = null;
-                return false;
+                finish();
+                throw new DirectoryIteratorException(e);
             }
         }
 
         if (next != null && next.d_ino == 0) {
-            current = null;
-            next = null;
+            finish();
             return false;
         }
 
+        fetched = true;
         return true;
     }
 
+    void finish() {
+        current = null;
+        next = null;
+        nextPath = null;
+        done = true;
+    }
+
     void advance() {
         String name;
         do {
             current = new dirent();
             long nextPtr = dirent.malloc(dirent.SIZE_OF);
-            GLFS.glfs_readdir_r(stream.getDirHandle(), current, nextPtr);
+            stat stat = null;
+            int ret;
+            if (plus) {
+                stat = new stat();
+                ret = GLFS.glfs_readdirplus_r(stream.getDirHandle(), stat, current, nextPtr);
+            } else {
+                ret = GLFS.glfs_readdir_r(stream.getDirHandle(), current, nextPtr);
+            }
+            if (0 != ret) {
+                dirent.free(nextPtr);
+                finish();
+                throw new DirectoryIteratorException(new IOException(UtilJNI.strerror()));
+            }
+            if (plus) {
+                nextAttributes = GlusterFileAttributes.fromStat(stat);
+            }
 
             next = new dirent();
             dirent.memmove(next, nextPtr, dirent.SIZE_OF);
@@ -59,10 +101,11 @@ class GlusterDirectoryIterator<T> implements Iterator<GlusterPath> {
 
     @Override
     public GlusterPath next() {
-        if (nextPath == null) {
+        if (!hasNext()) {
             throw new NoSuchElementException("No more entries");
         }
 
+        fetched = false;
         return nextPath;
     }
 
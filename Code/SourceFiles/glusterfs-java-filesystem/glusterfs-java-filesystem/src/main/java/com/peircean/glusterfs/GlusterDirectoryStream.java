@@ -12,35 +12,91 @@ import java.util.Iterator;
 public class GlusterDirectoryStream implements DirectoryStream<Path> {
     private GlusterFileSystem fileSystem;
     private long dirHandle = 0;
-    private GlusterDirectoryIterator iterator;
+    private int connection;
+    private Iterator<?> iterator;
     private boolean closed = false;
     private GlusterPath dir;
     private DirectoryStream.Filter<? super Path> filter;
 
     @Override
     public Iterator<Path> iterator() {
-        if (null != iterator || closed) {
-            throw new IllegalStateException("Already iterating!");
-        }
+        guardIterating();
+        GlusterDirectoryBatchIterator iterator = new GlusterDirectoryBatchIterator(this, filter);
+        this.iterator = iterator;
+        return iterator;
+    }
+
+    /**
+     * Iterates with glfs_readdirplus_r, so every entry comes back with its attributes from the same round trip rather
+     * than needing a stat of its own.  The attributes don't follow symbolic links, like lstat.
+     */
+    public Iterator<GlusterDirectoryEntry> entryIterator() {
+        final GlusterDirectoryIterator iterator = newIterator(true);
+        return new Iterator<GlusterDirectoryEntry>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public GlusterDirectoryEntry next() {
+                return new GlusterDirectoryEntry(iterator.next(), iterator.getNextAttributes());
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    GlusterDirectoryIterator newIterator(boolean plus) {
+        guardIterating();
         GlusterDirectoryIterator iterator = new GlusterDirectoryIterator();
         iterator.setStream(this);
         iterator.setFilter(filter);
+        iterator.setPlus(plus);
         this.iterator = iterator;
         return iterator;
     }
 
+    /**
+     * @return where the listing has got to, for carrying it on later in another stream on the same directory.  Only
+     * exact with entryIterator(), since iterator() reads ahead a buffer at a time.
+     */
+    public long tell() {
+        return GLFS.glfs_telldir(dirHandle);
+    }
+
+    /**
+     * Carries on a listing from a position returned by tell().  Call before iterating.
+     */
+    public void seek(long position) {
+        GLFS.glfs_seekdir(dirHandle, position);
+    }
+
+    void guardIterating() {
+        if (null != iterator || closed) {
+            throw new IllegalStateException("Already iterating!");
+        }
+    }
+
     @Override
     public void close() throws IOException {
         if (!closed) {
             GLFS.glfs_close(dirHandle);
             closed = true;
+            fileSystem.release(connection);
         }
     }
 
     public void open(GlusterPath path) {
         dir = path;
         if (dirHandle == 0) {
-            dirHandle = GLFS.glfs_opendir(path.getFileSystem().getVolptr(), path.getString());
+            GlusterFileSystem fileSystem = path.getFileSystem();
+            String pathString = path.getString();
+            connection = fileSystem.acquire(pathString);
+            dirHandle = GLFS.glfs_opendir(fileSystem.getVolptr(connection), pathString);
         } else {
             throw new IllegalStateException("Already open!");
         }
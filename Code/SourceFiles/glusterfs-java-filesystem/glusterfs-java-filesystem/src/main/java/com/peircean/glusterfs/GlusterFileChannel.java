@@ -6,7 +6,9 @@ import com.peircean.libgfapi_jni.internal.UtilJNI;
 import com.peircean.libgfapi_jni.internal.structs.stat;
 import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -25,6 +27,12 @@ import java.util.*;
 @Data
 @NoArgsConstructor(access = AccessLevel.PACKAGE)
 public class GlusterFileChannel extends FileChannel {
+	static final int MAX_STAGING = 1024 * 1024;
+	/**
+	 * Each thread stages heap buffers through its own direct buffer, so channels used from several threads don't share
+	 * one, and a thread reusing it doesn't allocate direct memory per call
+	 */
+	private static final ThreadLocal<ByteBuffer> stagingBuffers = new ThreadLocal<>();
 	public static final Map<StandardOpenOption, Integer> optionMap = new HashMap<StandardOpenOption, Integer>();
 
 	static {
@@ -42,8 +50,12 @@ public class GlusterFileChannel extends FileChannel {
 	private Set<? extends OpenOption> options = new HashSet<>();
 	private FileAttribute<?> attrs[] = null;
 	private long fileptr;
+	private int connection;
 	private long position;
 	private boolean closed = false;
+	@Getter(AccessLevel.PACKAGE)
+	@Setter(AccessLevel.PACKAGE)
+	private GlusterReadAhead readAhead;
 
 	void init(GlusterFileSystem fileSystem, Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
 		this.fileSystem = fileSystem;
@@ -57,22 +69,47 @@ public class GlusterFileChannel extends FileChannel {
 		int mode = GlusterFileAttributes.parseAttrs(attrs);
 
 		String pathString = path.toUri().getPath();
+		connection = fileSystem.acquire(pathString);
+		long volptr = fileSystem.getVolptr(connection);
+		GlusterHandleCache handleCache = fileSystem.getHandleCache(volptr);
 		boolean createNew = options.contains(StandardOpenOption.CREATE_NEW);
 		if (options.contains(StandardOpenOption.CREATE) || createNew) {
-			fileptr = GLFS.glfs_creat(fileSystem.getVolptr(), pathString, flags, mode);
+			fileptr = null == handleCache ? GLFS.glfs_creat(volptr, pathString, flags, mode) :
+					handleCache.creat(pathString, flags, mode);
 		}
 
 		if (createNew && 0 == fileptr) {
+			fileSystem.release(connection);
 			throw new FileAlreadyExistsException(path.toString());
 		}
 
 		if (0 >= fileptr) {
-			fileptr = GLFS.glfs_open(fileSystem.getVolptr(), pathString, flags);
+			fileptr = null == handleCache ? GLFS.glfs_open(volptr, pathString, flags) :
+					handleCache.open(pathString, flags);
 		}
 
 		if (0 >= fileptr) {
+			fileSystem.release(connection);
 			throw new IOException("Unable to create or open file '" + pathString + "' on volume '" + fileSystem.toString() + "'");
 		}
+		if (isWritable()) {
+			fileSystem.invalidate(pathString);
+		}
+	}
+
+	/**
+	 * Reads ahead once the channel is read sequentially, when the filesystem was given a read-ahead size and the channel
+	 * is only open for reading.  A prefetched window is served as it was read, so it won't show writes made to the file
+	 * since through another channel or client.
+	 */
+	void enableReadAhead() {
+		if (!isWritable() && fileSystem.getReadAheadSize() > 0) {
+			readAhead = new GlusterReadAhead(this, fileSystem.getReadAheadSize());
+		}
+	}
+
+	boolean isWritable() {
+		return options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND);
 	}
 
 	int parseOptions(Set<? extends OpenOption> options) {
@@ -89,16 +126,88 @@ public class GlusterFileChannel extends FileChannel {
 	@Override
 	public int read(ByteBuffer byteBuffer) throws IOException {
 		guardClosed();
-		byte[] bytes = byteBuffer.array();
-		long read = GLFS.glfs_read(fileptr, bytes, bytes.length, 0);
-        if (read < 0) {
-            throw new IOException(UtilJNI.strerror());
-        }
+		int remaining = byteBuffer.remaining();
+		long read = null == readAhead ? readBuffer(byteBuffer) : readAhead.read(byteBuffer, position);
+		if (read < 0) {
+			throw new IOException(UtilJNI.strerror());
+		}
 		position += read;
-        byteBuffer.position((int)read);
+		if (0 == read && remaining > 0) {
+			return -1;
+		}
 		return (int) read;
 	}
 
+	/**
+	 * Reads into the buffer between its position and limit with a single native call, advancing its position.
+	 * Direct buffers are read into by address.  Heap buffers are read through this thread's staging buffer, so only the
+	 * window being read is copied, and a window bigger than MAX_STAGING is read short.
+	 */
+	long readBuffer(ByteBuffer byteBuffer) {
+		int bufferPosition = byteBuffer.position();
+		int remaining = byteBuffer.remaining();
+		if (!byteBuffer.isDirect()) {
+			ByteBuffer stage = staging(remaining);
+			long read = readBuffer(stage);
+			if (read > 0) {
+				stage.flip();
+				byteBuffer.put(stage);
+			}
+			return read;
+		}
+		long address = UtilJNI.GetDirectBufferAddress(byteBuffer);
+		long read = GLFS.glfs_read(fileptr, address + bufferPosition, remaining, 0);
+		if (read > 0) {
+			byteBuffer.position(bufferPosition + (int) read);
+		}
+		return read;
+	}
+
+	/**
+	 * Writes the buffer between its position and limit, advancing its position.  Direct buffers are written by address
+	 * with a single native call.  Heap buffers are copied through this thread's staging buffer MAX_STAGING bytes at a
+	 * time, stopping at the first short write.
+	 */
+	long writeBuffer(ByteBuffer byteBuffer) {
+		if (!byteBuffer.isDirect()) {
+			long total = 0;
+			while (byteBuffer.hasRemaining()) {
+				ByteBuffer stage = stage(byteBuffer);
+				int staged = stage.remaining();
+				long written = writeBuffer(stage);
+				if (written < 0) {
+					return 0 == total ? written : total;
+				}
+				byteBuffer.position(byteBuffer.position() + (int) written);
+				total += written;
+				if (written < staged) {
+					break;
+				}
+			}
+			return total;
+		}
+		int bufferPosition = byteBuffer.position();
+		long address = UtilJNI.GetDirectBufferAddress(byteBuffer);
+		long written = GLFS.glfs_write(fileptr, address + bufferPosition, byteBuffer.remaining(), 0);
+		if (written > 0) {
+			byteBuffer.position(bufferPosition + (int) written);
+		}
+		return written;
+	}
+
+	/**
+	 * @return this thread's staging buffer holding the next bytes of the heap buffer, up to MAX_STAGING, without
+	 * advancing it
+	 */
+	ByteBuffer stage(ByteBuffer byteBuffer) {
+		ByteBuffer stage = staging(byteBuffer.remaining());
+		ByteBuffer window = byteBuffer.duplicate();
+		window.limit(window.position() + stage.remaining());
+		stage.put(window);
+		stage.flip();
+		return stage;
+	}
+
     @Override
     public long read(ByteBuffer[] byteBuffers, int offset, int length) throws IOException {
         guardClosed();
@@ -112,55 +221,62 @@ public class GlusterFileChannel extends FileChannel {
             throw new NonReadableChannelException();
         }
 
-        long totalRead = 0L;
-        try {
-            totalRead = readHelper(byteBuffers, offset, length);
-        } finally {
-            if (totalRead > 0) {
-                position += totalRead;
-            }
+        GlusterIoVector vector = new GlusterIoVector(byteBuffers, offset, length, staging(byteBuffers, offset, length), false);
+        if (0 == vector.remaining()) {
+            return 0;
+        }
+        if (null != readAhead) {
+            // reads through the read ahead leave the file offset where it was
+            GLFS.glfs_lseek(fileptr, position, 0);
+        }
+        long read = GLFS.glfs_readv(fileptr, vector.getIov(), vector.getCount(), 0);
+        if (read < 0) {
+            throw new IOException(UtilJNI.strerror());
+        }
+        if (0 == read) {
+            return -1;
         }
-        return totalRead;
+        vector.complete(read);
+        position += read;
+        return read;
     }
 
-    private long readHelper(ByteBuffer[] byteBuffers, int offset, int length) throws IOException {
-        long totalRead = 0L;
-        boolean endOfStream = false;
-        for (int i = offset; i < length + offset && !endOfStream; i++) {
-            byte[] bytes = byteBuffers[i].array();
-            int remaining;
-            while ((remaining = byteBuffers[i].remaining()) > 0) {
-                long read = GLFS.glfs_read(fileptr, bytes, remaining, 0);
-                if (read < 0) {
-                    throw new IOException(UtilJNI.strerror());
-                }
-                totalRead += read;
-                byteBuffers[i].position((int)read);
-                if (0 == read) {
-                    endOfStream = true;
-                    break;
-                }
-            }
+    /**
+     * @return this thread's direct buffer, grown to stage the heap buffers in the slice up to MAX_STAGING bytes, or null
+     * if they are all direct.  A vector over a bigger slice stops where the buffer is full.
+     */
+    ByteBuffer staging(ByteBuffer[] byteBuffers, int offset, int length) {
+        int size = GlusterIoVector.stagingSize(byteBuffers, offset, length, MAX_STAGING);
+        if (0 == size) {
+            return null;
         }
+        return staging(size);
+    }
 
-        if (endOfStream && totalRead == 0) {
-            return -1;
+    /**
+     * @return this thread's direct buffer, cleared and limited to size bytes, or to MAX_STAGING if size is bigger
+     */
+    ByteBuffer staging(int size) {
+        size = Math.min(size, MAX_STAGING);
+        ByteBuffer buffer = stagingBuffers.get();
+        if (null == buffer || buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(size);
+            stagingBuffers.set(buffer);
         }
-
-        return totalRead;
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
     }
 
     @Override
     public int write(ByteBuffer byteBuffer) throws IOException {
         guardClosed();
-        byte[] buf = byteBuffer.array();
-        int written = GLFS.glfs_write(fileptr, buf, buf.length, 0);
+        long written = writeBuffer(byteBuffer);
         if (written < 0) {
             throw new IOException(UtilJNI.strerror());
         }
         position += written;
-        byteBuffer.position(written);
-        return written;
+        return (int) written;
     }
 
     @Override
@@ -177,19 +293,26 @@ public class GlusterFileChannel extends FileChannel {
         }
 
         long totalWritten = 0L;
-
-        for (int i = offset; i < length + offset; i++) {
-            int remaining = byteBuffers[i].remaining();
-            while (remaining > 0) {
-                byte[] bytes = byteBuffers[i].array();
-                int written = GLFS.glfs_write(fileptr, bytes, remaining, 0);
-                if (written < 0) {
-                    throw new IOException();
-                }
-                position += written;
-                byteBuffers[i].position(written);
-                totalWritten += written;
-                remaining = byteBuffers[i].remaining();
+        int end = offset + length;
+        while (offset < end) {
+            GlusterIoVector vector = new GlusterIoVector(byteBuffers, offset, end - offset, staging(byteBuffers, offset, end - offset), true);
+            long remaining = vector.remaining();
+            if (0 == remaining) {
+                offset += vector.getCount();
+                continue;
+            }
+            long written = GLFS.glfs_writev(fileptr, vector.getIov(), vector.getCount(), 0);
+            if (written < 0) {
+                throw new IOException(UtilJNI.strerror());
+            }
+            if (0 == written) {
+                break;
+            }
+            vector.complete(written);
+            position += written;
+            totalWritten += written;
+            while (offset < end && !byteBuffers[offset].hasRemaining()) {
+                offset++;
             }
         }
         return totalWritten;
@@ -256,58 +379,91 @@ public class GlusterFileChannel extends FileChannel {
 	@Override
 	public int read(ByteBuffer byteBuffer, long position) throws IOException {
 		guardClosed();
-        if (position < 0) {
-            throw new IllegalArgumentException();
-        }
-        if (!options.contains(StandardOpenOption.READ)) {
-            throw new NonReadableChannelException();
-        }
-        if (position >= size()) {
-            return -1;
-        }
-        int whence = 0; //SEEK_SET
-        int seek = GLFS.glfs_lseek(fileptr, position, whence);
-        if (seek < 0) {
-            throw new IOException();
-        }
-        byte[] bytes = byteBuffer.array();
-        long read = GLFS.glfs_read(fileptr, bytes, bytes.length, 0);
-        seek = GLFS.glfs_lseek(fileptr, this.position, whence);
+		if (position < 0) {
+			throw new IllegalArgumentException();
+		}
+		if (!options.contains(StandardOpenOption.READ)) {
+			throw new NonReadableChannelException();
+		}
+		int remaining = byteBuffer.remaining();
+		long read = preadBuffer(byteBuffer, position);
+		if (read < 0) {
+			throw new IOException(UtilJNI.strerror());
+		}
+		if (0 == read && remaining > 0) {
+			return -1;
+		}
+		return (int) read;
+	}
 
-        if (seek < 0) {
-            throw new IOException(UtilJNI.strerror());
-        }
+	@Override
+	public int write(ByteBuffer byteBuffer, long position) throws IOException {
+		guardClosed();
+		if (position < 0) {
+			throw new IllegalArgumentException();
+		}
+		if (!options.contains(StandardOpenOption.WRITE)) {
+			throw new NonWritableChannelException();
+		}
+		long written = pwriteBuffer(byteBuffer, position);
+		if (written < 0) {
+			throw new IOException(UtilJNI.strerror());
+		}
+		return (int) written;
+	}
 
-        return (int) read;
+	/**
+	 * Like {@link #readBuffer(ByteBuffer)} but reads at the given file offset, leaving the file pointer untouched.
+	 */
+	long preadBuffer(ByteBuffer byteBuffer, long offset) {
+		int bufferPosition = byteBuffer.position();
+		int remaining = byteBuffer.remaining();
+		if (!byteBuffer.isDirect()) {
+			ByteBuffer stage = staging(remaining);
+			long read = preadBuffer(stage, offset);
+			if (read > 0) {
+				stage.flip();
+				byteBuffer.put(stage);
+			}
+			return read;
+		}
+		long address = UtilJNI.GetDirectBufferAddress(byteBuffer);
+		long read = GLFS.glfs_pread(fileptr, address + bufferPosition, remaining, offset, 0);
+		if (read > 0) {
+			byteBuffer.position(bufferPosition + (int) read);
+		}
+		return read;
 	}
 
-    @Override
-    public int write(ByteBuffer byteBuffer, long position) throws IOException {
-        guardClosed();
-        if (position < 0) {
-            throw new IllegalArgumentException();
-        }
-        if (!options.contains(StandardOpenOption.WRITE)) {
-            throw new NonWritableChannelException();
-        }
-        if (position >= size()) {
-            byte[] bytes = byteBuffer.array();
-            byte[] temp = Arrays.copyOf(bytes, bytes.length + (int) (position - size()));
-            byteBuffer = ByteBuffer.wrap(temp);
-        }
-        int whence = 0; //SEEK_SET
-        int seek = GLFS.glfs_lseek(fileptr, position, whence);
-        if (seek < 0) {
-            throw new IOException();
-        }
-        byte[] bytes = byteBuffer.array();
-        long written = GLFS.glfs_write(fileptr, bytes, bytes.length, 0);
-        seek = GLFS.glfs_lseek(fileptr, this.position, whence);
-        if (seek < 0) {
-            throw new IOException();
-        }
-        return (int) written;
-    }
+	/**
+	 * Like {@link #writeBuffer(ByteBuffer)} but writes at the given file offset, leaving the file pointer untouched.
+	 */
+	long pwriteBuffer(ByteBuffer byteBuffer, long offset) {
+		if (!byteBuffer.isDirect()) {
+			long total = 0;
+			while (byteBuffer.hasRemaining()) {
+				ByteBuffer stage = stage(byteBuffer);
+				int staged = stage.remaining();
+				long written = pwriteBuffer(stage, offset + total);
+				if (written < 0) {
+					return 0 == total ? written : total;
+				}
+				byteBuffer.position(byteBuffer.position() + (int) written);
+				total += written;
+				if (written < staged) {
+					break;
+				}
+			}
+			return total;
+		}
+		int bufferPosition = byteBuffer.position();
+		long address = UtilJNI.GetDirectBufferAddress(byteBuffer);
+		long written = GLFS.glfs_pwrite(fileptr, address + bufferPosition, byteBuffer.remaining(), offset, 0);
+		if (written > 0) {
+			byteBuffer.position(bufferPosition + (int) written);
+		}
+		return written;
+	}
 
 	@Override
 	public MappedByteBuffer map(MapMode mapMode, long l, long l2) throws IOException {
@@ -327,11 +483,18 @@ public class GlusterFileChannel extends FileChannel {
 	@Override
 	protected void implCloseChannel() throws IOException {
 		if (!closed) {
+			if (null != readAhead) {
+				readAhead.close();
+			}
 			int close = GLFS.glfs_close(fileptr);
 			if (0 != close) {
 				throw new IOException("Close returned nonzero");
 			}
 			closed = true;
+			fileSystem.release(connection);
+			if (isWritable()) {
+				fileSystem.invalidate(path.getString());
+			}
 		}
 	}
 
@@ -9,8 +9,11 @@ import java.nio.file.attribute.UserPrincipalLookupService;
 import java.nio.file.spi.FileSystemProvider;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.regex.Pattern;
 
 /**
@@ -18,7 +21,7 @@ import java.util.regex.Pattern;
  */
 @Getter(AccessLevel.PACKAGE)
 @Setter(AccessLevel.PACKAGE)
-@EqualsAndHashCode(exclude = {"provider", "volptr"}, callSuper = false)
+@EqualsAndHashCode(of = {"host", "volname"}, callSuper = false)
 @RequiredArgsConstructor(access = AccessLevel.PACKAGE)
 public class GlusterFileSystem extends FileSystem {
     private static final String SEPARATOR = "/";
@@ -30,21 +33,323 @@ public class GlusterFileSystem extends FileSystem {
     private final String volname;
     @NonNull
     private long volptr;
+    private long[] volptrs;
+    private AtomicIntegerArray outstanding;
+    private GlusterConnectionPolicy connectionPolicy;
+    private GlusterCompletionQueue completionQueue;
+    private int copyBufferSize = GlusterCopyEngine.DEFAULT_BUFFER_SIZE;
+    private final GlusterCopyStatistics copyStatistics = new GlusterCopyStatistics();
+    private final AtomicInteger references = new AtomicInteger(1);
+    private GlusterStatCache statCache;
+    private GlusterNegativeCache negativeCache;
+    private GlusterHandleCache[] handleCaches;
+    private GlusterUpcallDispatcher upcallDispatcher;
+    private GlusterWatchCheckpoints watchCheckpoints;
+    private int watchScanThreads = GlusterWatchService.DEFAULT_SCAN_THREADS;
+    private int watchMaxEvents = GlusterWatchService.DEFAULT_MAX_EVENTS;
+    private boolean watchCoalesceEvents = true;
+    private int readAheadSize;
 
     @Override
     public FileSystemProvider provider() {
         return provider;
     }
 
+    /**
+     * Takes another reference on this filesystem, as long as its last one has not already been closed.
+     */
+    boolean retain() {
+        while (true) {
+            int count = references.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases one reference.  The volume is only disconnected, and dropped from the provider's cache, once the last
+     * reference is closed.  Only the close that takes the count from 1 to 0 does that, so closing an already closed
+     * filesystem, or closing it from two threads at once, never tears it down twice.  Nothing can retry a close that
+     * fails part way, so the connections are finished even when stopping the background threads fails, and the first
+     * failure is thrown afterwards.
+     */
     @Override
     public void close() throws IOException {
-        if (isOpen()) {
-            int fini = provider.close(volptr);
+        if (release()) {
+            provider.evict(this);
+            IOException failure = null;
+            int fini;
+            try {
+                if (null != upcallDispatcher) {
+                    try {
+                        upcallDispatcher.close();
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                if (null != completionQueue) {
+                    try {
+                        completionQueue.close();
+                    } catch (IOException e) {
+                        if (null == failure) {
+                            failure = e;
+                        }
+                    }
+                }
+            } finally {
+                fini = disconnect();
+            }
+            if (null != failure) {
+                throw failure;
+            }
             if (0 != fini) {
                 throw new IOException("Unable to close filesystem: " + volname);
             }
+        }
+    }
+
+    /**
+     * Closes the cached handles and finishes every glfs_t instance.
+     *
+     * @return 0, or non-zero when an instance failed to finish
+     */
+    int disconnect() {
+        if (null != handleCaches) {
+            for (GlusterHandleCache handleCache : handleCaches) {
+                handleCache.close();
+            }
+        }
+        int fini = provider.close(volptr);
+        if (null != volptrs) {
+            for (int i = 1; i < volptrs.length; i++) {
+                fini |= provider.close(volptrs[i]);
+            }
+            volptrs = null;
+        }
+        if (0 == fini) {
             volptr = -1;
         }
+        return fini;
+    }
+
+    /**
+     * Drops one reference, never below zero.
+     *
+     * @return whether that was the last one
+     */
+    boolean release() {
+        while (true) {
+            int count = references.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (references.compareAndSet(count, count - 1)) {
+                return 1 == count;
+            }
+        }
+    }
+
+    /**
+     * Forgets anything cached about path after this client has changed it.
+     */
+    void invalidate(String path) {
+        if (null != statCache) {
+            statCache.invalidate(path);
+        }
+        if (null != negativeCache) {
+            negativeCache.invalidate(path);
+        }
+    }
+
+    /**
+     * Forgets anything cached about path and everything beneath it, after this client has moved or removed it.
+     */
+    void invalidateTree(String path) {
+        if (null != statCache) {
+            statCache.invalidateTree(path);
+        }
+        if (null != negativeCache) {
+            negativeCache.invalidateTree(path);
+        }
+        if (null != handleCaches) {
+            for (GlusterHandleCache handleCache : handleCaches) {
+                handleCache.invalidateTree(path);
+            }
+        }
+    }
+
+    /**
+     * Applies a cache invalidation the servers sent because another client changed inode.  The paths cached for it
+     * are forgotten, along with everything beneath them when it was renamed or dropped.  Its parent directories are
+     * forgotten too, with the paths recently found missing in them, as it may have just been created there.
+     * <p/>
+     * Only parents whose paths the stat or handle caches hold can be matched to missing paths.  Under any other parent,
+     * a path another client creates may still be reported missing until its negative cache entry expires.
+     */
+    void upcall(int flags, long inode, long parent, long oldParent) {
+        boolean moved = 0 != (flags & (GlusterUpcallDispatcher.UP_RENAME | GlusterUpcallDispatcher.UP_FORGET));
+        Set<String> parents = pathsOf(parent);
+        Set<String> oldParents = pathsOf(oldParent);
+        for (String path : pathsOf(inode)) {
+            if (moved) {
+                invalidateTree(path);
+            } else {
+                invalidate(path);
+            }
+        }
+        invalidateEntries(parent, parents);
+        invalidateEntries(oldParent, oldParents);
+    }
+
+    private void invalidateEntries(long dir, Set<String> paths) {
+        if (0 == dir) {
+            return;
+        }
+        for (String path : paths) {
+            invalidate(path);
+            if (null != negativeCache) {
+                negativeCache.invalidateTree(path);
+            }
+        }
+    }
+
+    /**
+     * @return the paths the caches hold for inode
+     */
+    Set<String> pathsOf(long inode) {
+        Set<String> paths = new HashSet<String>();
+        if (0 == inode) {
+            return paths;
+        }
+        if (null != statCache) {
+            paths.addAll(statCache.pathsOf(inode));
+        }
+        if (null != handleCaches) {
+            for (GlusterHandleCache handleCache : handleCaches) {
+                paths.addAll(handleCache.pathsOf(inode));
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Starts applying the servers' cache invalidation upcalls, checking for them every pollMillis when idle.
+     */
+    void enableUpcalls(long pollMillis) {
+        upcallDispatcher = new GlusterUpcallDispatcher(this, pollMillis);
+        upcallDispatcher.start();
+    }
+
+    /**
+     * Has the watch services of this filesystem checkpoint their keys to files in directory, on the local filesystem.
+     */
+    void enableWatchCheckpoints(Path directory) {
+        watchCheckpoints = new GlusterWatchCheckpoints(directory, host + ":" + volname);
+    }
+
+    /**
+     * Keeps up to size directory handles for each glfs_t instance, so paths are looked up relative to their parent.
+     * Call after {@link #setConnections(long[], GlusterConnectionPolicy)}.
+     */
+    void enableHandleCache(int size) {
+        int connections = null == volptrs ? 1 : volptrs.length;
+        handleCaches = new GlusterHandleCache[connections];
+        for (int i = 0; i < connections; i++) {
+            handleCaches[i] = new GlusterHandleCache(this, getVolptr(i), size);
+        }
+    }
+
+    /**
+     * @return the directory handles held on the instance volptr, or null when handles are not cached
+     */
+    GlusterHandleCache getHandleCache(long volptr) {
+        if (null == handleCaches) {
+            return null;
+        }
+        for (GlusterHandleCache handleCache : handleCaches) {
+            if (handleCache.getVolptr() == volptr) {
+                return handleCache;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Spreads work across several glfs_t instances of this volume.  volptrs[0] must be the instance the filesystem was
+     * created with.
+     */
+    void setConnections(long[] volptrs, GlusterConnectionPolicy connectionPolicy) {
+        this.volptrs = volptrs;
+        this.outstanding = new AtomicIntegerArray(volptrs.length);
+        this.connectionPolicy = connectionPolicy;
+    }
+
+    /**
+     * Picks the instance a channel or directory stream on path will hold, counting it as outstanding there until
+     * {@link #release(int)}.
+     *
+     * @return the connection to pass to {@link #getVolptr(int)}
+     */
+    int acquire(String path) {
+        if (null == volptrs) {
+            return 0;
+        }
+        int connection = connectionPolicy.select(path, outstanding);
+        outstanding.incrementAndGet(connection);
+        return connection;
+    }
+
+    void release(int connection) {
+        if (null != volptrs) {
+            outstanding.decrementAndGet(connection);
+        }
+    }
+
+    long getVolptr(int connection) {
+        return null == volptrs ? volptr : volptrs[connection];
+    }
+
+    /**
+     * @return the instance to run a one-off metadata operation on path with.  With several connections this need not be
+     * the instance a channel open on path holds, so the operation sees what that instance's caches see: a stat may not
+     * yet reflect a write made through the channel, and glfs_copy_file_range between fds on different instances fails
+     * with EXDEV.
+     */
+    long getVolptr(String path) {
+        return null == volptrs ? volptr : volptrs[connectionPolicy.select(path, outstanding)];
+    }
+
+    /**
+     * @return the queue this volume's async channels complete through, started on first use
+     * @throws ClosedFileSystemException once the filesystem is closed, since its queue is closed with it
+     */
+    synchronized GlusterCompletionQueue getCompletionQueue() throws IOException {
+        if (!isOpen()) {
+            throw new ClosedFileSystemException();
+        }
+        if (null == completionQueue) {
+            completionQueue = new GlusterCompletionQueue(host + ":" + volname);
+        }
+        completionQueue.start();
+        return completionQueue;
+    }
+
+    /**
+     * @return throughput of the copies this volume has streamed through the client
+     */
+    public GlusterCopyStatistics getCopyStatistics() {
+        return copyStatistics;
+    }
+
+    /**
+     * @return the cache of paths recently found missing, with its hit and miss counts, or null when it is not enabled
+     */
+    public GlusterNegativeCache getNegativeCache() {
+        return negativeCache;
     }
 
     @Override
@@ -125,7 +430,7 @@ public class GlusterFileSystem extends FileSystem {
 
     @Override
     public WatchService newWatchService() throws IOException {
-        return new GlusterWatchService();
+        return new GlusterWatchService(this);
     }
 
     public String toString() {
@@ -1,6 +1,7 @@
 package com.peircean.glusterfs;
 
 import com.peircean.libgfapi_jni.internal.GLFS;
+import com.peircean.libgfapi_jni.internal.UtilJNI;
 import com.peircean.libgfapi_jni.internal.structs.stat;
 import com.peircean.libgfapi_jni.internal.structs.statvfs;
 import lombok.AccessLevel;
@@ -9,12 +10,16 @@ import lombok.Getter;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.*;
 import java.nio.file.attribute.*;
 import java.nio.file.spi.FileSystemProvider;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 
 import static com.peircean.libgfapi_jni.internal.GLFS.*;
 
@@ -26,32 +31,247 @@ public class GlusterFileSystemProvider extends FileSystemProvider {
     public static final String GLUSTER = "gluster";
     public static final int GLUSTERD_PORT = 24007;
     public static final String TCP = "tcp";
+    /**
+     * newFileSystem env key for the buffer size, in bytes, used when copying through the client
+     */
+    public static final String COPY_BUFFER_SIZE = "copyBufferSize";
+    /**
+     * newFileSystem env key for the number of glfs_t instances to open on the volume, default 1.  Each instance has its
+     * own client-side caches, and a metadata operation may run on a different one than the channel that last wrote the
+     * file, so with more than one a stat can briefly miss this client's own writes, and server-side copies between
+     * channels on different instances fall back to streaming through the client.
+     */
+    public static final String CONNECTIONS = "connections";
+    /**
+     * newFileSystem env key for how work is spread over those instances: a {@link GlusterConnectionPolicy}, its class
+     * name, or one of "round-robin" (the default), "least-outstanding" or "path-affinity"
+     */
+    public static final String CONNECTION_POLICY = "connectionPolicy";
+    /**
+     * newFileSystem env key for how long, in milliseconds, stat results are cached; caching is off unless this is set
+     */
+    public static final String STAT_CACHE_TTL = "statCacheTtl";
+    /**
+     * newFileSystem env key for the most stat results to cache, default 10000
+     */
+    public static final String STAT_CACHE_SIZE = "statCacheSize";
+    /**
+     * newFileSystem env key for how long, in milliseconds, a path found missing is remembered as missing; off unless set
+     */
+    public static final String NEGATIVE_CACHE_TTL = "negativeCacheTtl";
+    /**
+     * newFileSystem env key for the most missing paths to remember, default 10000
+     */
+    public static final String NEGATIVE_CACHE_SIZE = "negativeCacheSize";
+    /**
+     * newFileSystem env key for the most directory handles to keep per connection, so that files are looked up
+     * relative to their parent directory's handle; off unless set.  Handles are only dropped when this client changes
+     * their directories or an upcall reports another client did, so this needs UPCALL_POLL_INTERVAL set too.
+     */
+    public static final String HANDLE_CACHE_SIZE = "handleCacheSize";
+    /**
+     * newFileSystem env key for how often, in milliseconds, an idle volume is checked for the cache invalidation
+     * upcalls sent when other clients change files, so that the caches above can use long TTLs; off unless set.  The
+     * volume needs features.cache-invalidation on.
+     */
+    public static final String UPCALL_POLL_INTERVAL = "upcallPollInterval";
+    /**
+     * newFileSystem env key for a local directory in which watch services checkpoint what their keys have seen, so
+     * that a directory registered again after a restart reports what changed while nothing was watching; off unless set
+     */
+    public static final String WATCH_CHECKPOINT_DIRECTORY = "watchCheckpointDirectory";
+    /**
+     * newFileSystem env key for how many directories each watch service scans at once, default 4
+     */
+    public static final String WATCH_SCAN_THREADS = "watchScanThreads";
+    /**
+     * newFileSystem env key for the most events a watch key holds until they are polled, default 512, beyond which it
+     * drops them and reports OVERFLOW
+     */
+    public static final String WATCH_MAX_EVENTS = "watchMaxEvents";
+    /**
+     * newFileSystem env key for whether a watch key merges the events it holds for the same path, so that a file
+     * created and modified before being polled is only reported created; default true
+     */
+    public static final String WATCH_COALESCE_EVENTS = "watchCoalesceEvents";
+    /**
+     * newFileSystem env key for the largest window, in bytes, that a channel opened only for reading prefetches once
+     * it is being read sequentially.  Off by default.  Each such channel can hold two windows of direct memory, and
+     * won't see writes made by others to a window it has already read.
+     */
+    public static final String READ_AHEAD_SIZE = "readAheadSize";
     @Getter(AccessLevel.PACKAGE)
-    private static Map<String, GlusterFileSystem> cache = new HashMap<String, GlusterFileSystem>();
+    private static ConcurrentMap<String, GlusterFileSystem> cache = new ConcurrentHashMap<String, GlusterFileSystem>();
+    /**
+     * Serializes connecting and evicting each authority, so a slow connect only holds up callers of the same volume.
+     * A lock is kept once made, so none is ever replaced while someone waits on it; there is one per authority used.
+     */
+    private static final ConcurrentMap<String, Object> connectLocks = new ConcurrentHashMap<String, Object>();
 
     @Override
     public String getScheme() {
         return GLUSTER;
     }
 
+    /**
+     * Opens the volume, or, when it is already open, takes another reference on the open filesystem so that it stays
+     * connected until every caller has closed it.  The env map only applies when a new connection is made.
+     */
     @Override
     public FileSystem newFileSystem(URI uri, Map<String, ?> stringMap) throws IOException {
         String authorityString = uri.getAuthority();
         String[] authority = parseAuthority(authorityString);
+        synchronized (connectLock(authorityString)) {
+            GlusterFileSystem cached = cache.get(authorityString);
+            if (null != cached && cached.retain()) {
+                return cached;
+            }
+            GlusterFileSystem fileSystem = connect(authorityString, authority, stringMap);
+            cache.put(authorityString, fileSystem);
+            return fileSystem;
+        }
+    }
+
+    /**
+     * Parses every env option before opening anything, so that a bad one fails fast, then opens the glfs_t instances.
+     * If anything fails after that, the instances already initialized are finished and the upcall dispatcher stopped
+     * before the exception is rethrown.
+     */
+    GlusterFileSystem connect(String authorityString, String[] authority, Map<String, ?> stringMap) {
+        int copyBufferSize = intOption(stringMap, COPY_BUFFER_SIZE, GlusterCopyEngine.DEFAULT_BUFFER_SIZE);
+        int connections = Math.max(1, intOption(stringMap, CONNECTIONS, 1));
+        GlusterConnectionPolicy connectionPolicy = connections > 1 ? connectionPolicy(stringMap.get(CONNECTION_POLICY)) : null;
+        long statCacheTtl = longOption(stringMap, STAT_CACHE_TTL, 0);
+        int statCacheSize = intOption(stringMap, STAT_CACHE_SIZE, GlusterStatCache.DEFAULT_SIZE);
+        long negativeCacheTtl = longOption(stringMap, NEGATIVE_CACHE_TTL, 0);
+        int negativeCacheSize = intOption(stringMap, NEGATIVE_CACHE_SIZE, GlusterNegativeCache.DEFAULT_SIZE);
+        int handleCacheSize = intOption(stringMap, HANDLE_CACHE_SIZE, 0);
+        long upcallPollInterval = longOption(stringMap, UPCALL_POLL_INTERVAL, 0);
+        if (handleCacheSize > 0 && upcallPollInterval <= 0) {
+            throw new IllegalArgumentException(HANDLE_CACHE_SIZE + " needs " + UPCALL_POLL_INTERVAL + " set as well");
+        }
+        int watchScanThreads = intOption(stringMap, WATCH_SCAN_THREADS, GlusterWatchService.DEFAULT_SCAN_THREADS);
+        int readAheadSize = intOption(stringMap, READ_AHEAD_SIZE, 0);
+        int watchMaxEvents = intOption(stringMap, WATCH_MAX_EVENTS, GlusterWatchService.DEFAULT_MAX_EVENTS);
+        boolean watchCoalesceEvents = booleanOption(stringMap, WATCH_COALESCE_EVENTS, true);
+        Path watchCheckpointDirectory = null != stringMap && stringMap.containsKey(WATCH_CHECKPOINT_DIRECTORY) ?
+                Paths.get(String.valueOf(stringMap.get(WATCH_CHECKPOINT_DIRECTORY))) : null;
 
         String volname = authority[1];
-        long volptr = glfsNew(volname);
+        long[] volptrs = new long[connections];
+        GlusterFileSystem fileSystem = null;
+        try {
+            for (int i = 0; i < connections; i++) {
+                volptrs[i] = glfsNew(volname);
+                glfsSetVolfileServer(authority[0], volptrs[i]);
+                glfsInit(authorityString, volptrs[i]);
+            }
 
-        glfsSetVolfileServer(authority[0], volptr);
+//            GLFS.glfs_set_logging(volptrs[0], "/tmp/gluster-java.log", 9);
 
-        glfsInit(authorityString, volptr);
+            fileSystem = new GlusterFileSystem(this, authority[0], volname, volptrs[0]);
+            fileSystem.setCopyBufferSize(copyBufferSize);
+            if (connections > 1) {
+                fileSystem.setConnections(volptrs, connectionPolicy);
+            }
+            if (statCacheTtl > 0) {
+                fileSystem.setStatCache(new GlusterStatCache(statCacheTtl, statCacheSize));
+            }
+            if (negativeCacheTtl > 0) {
+                fileSystem.setNegativeCache(new GlusterNegativeCache(negativeCacheTtl, negativeCacheSize));
+            }
+            if (handleCacheSize > 0) {
+                fileSystem.enableHandleCache(handleCacheSize);
+            }
+            if (upcallPollInterval > 0) {
+                fileSystem.enableUpcalls(upcallPollInterval);
+            }
+            fileSystem.setWatchScanThreads(watchScanThreads);
+            fileSystem.setReadAheadSize(readAheadSize);
+            fileSystem.setWatchMaxEvents(watchMaxEvents);
+            fileSystem.setWatchCoalesceEvents(watchCoalesceEvents);
+            if (null != watchCheckpointDirectory) {
+                fileSystem.enableWatchCheckpoints(watchCheckpointDirectory);
+            }
+            return fileSystem;
+        } catch (RuntimeException e) {
+            abandon(fileSystem, volptrs);
+            throw e;
+        }
+    }
+
+    /**
+     * Undoes a connect() that failed part way: stops what the filesystem started and finishes every glfs_t created.
+     */
+    void abandon(GlusterFileSystem fileSystem, long[] volptrs) {
+        if (null != fileSystem) {
+            if (null != fileSystem.getUpcallDispatcher()) {
+                try {
+                    fileSystem.getUpcallDispatcher().close();
+                } catch (IOException e) {
+                    // the connect failure is what gets reported
+                }
+            }
+            if (null != fileSystem.getHandleCaches()) {
+                for (GlusterHandleCache handleCache : fileSystem.getHandleCaches()) {
+                    handleCache.close();
+                }
+            }
+        }
+        for (long volptr : volptrs) {
+            if (0 != volptr) {
+                close(volptr);
+            }
+        }
+    }
 
-//        GLFS.glfs_set_logging(volptr, "/tmp/gluster-java.log", 9);
+    /**
+     * @return the env map's value for key as an int, or defaultValue when it isn't set
+     */
+    static int intOption(Map<String, ?> stringMap, String key, int defaultValue) {
+        if (null == stringMap || !stringMap.containsKey(key)) {
+            return defaultValue;
+        }
+        return Integer.parseInt(String.valueOf(stringMap.get(key)));
+    }
 
-        GlusterFileSystem fileSystem = new GlusterFileSystem(this, authority[0], volname, volptr);
-        cache.put(authorityString, fileSystem);
+    static long longOption(Map<String, ?> stringMap, String key, long defaultValue) {
+        if (null == stringMap || !stringMap.containsKey(key)) {
+            return defaultValue;
+        }
+        return Long.parseLong(String.valueOf(stringMap.get(key)));
+    }
 
-        return fileSystem;
+    static boolean booleanOption(Map<String, ?> stringMap, String key, boolean defaultValue) {
+        if (null == stringMap || !stringMap.containsKey(key)) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(String.valueOf(stringMap.get(key)));
+    }
+
+    Object connectLock(String authorityString) {
+        Object lock = connectLocks.get(authorityString);
+        if (null == lock) {
+            Object created = new Object();
+            lock = connectLocks.putIfAbsent(authorityString, created);
+            if (null == lock) {
+                lock = created;
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Drops a filesystem whose last reference has been closed, unless the authority has since been reopened.  The
+     * check is by identity, under the authority's lock, as a reopened filesystem is equal to the one it replaces.
+     */
+    void evict(GlusterFileSystem fileSystem) {
+        String authorityString = fileSystem.getHost() + ":" + fileSystem.getVolname();
+        synchronized (connectLock(authorityString)) {
+            if (cache.get(authorityString) == fileSystem) {
+                cache.remove(authorityString);
+            }
+        }
     }
 
     String[] parseAuthority(String authority) {
@@ -66,6 +286,26 @@ public class GlusterFileSystemProvider extends FileSystemProvider {
         return aarr;
     }
 
+    GlusterConnectionPolicy connectionPolicy(Object policy) {
+        if (null == policy || "round-robin".equals(policy)) {
+            return new GlusterConnectionPolicy.RoundRobin();
+        }
+        if (policy instanceof GlusterConnectionPolicy) {
+            return (GlusterConnectionPolicy) policy;
+        }
+        if ("least-outstanding".equals(policy)) {
+            return new GlusterConnectionPolicy.LeastOutstanding();
+        }
+        if ("path-affinity".equals(policy)) {
+            return new GlusterConnectionPolicy.PathAffinity();
+        }
+        try {
+            return (GlusterConnectionPolicy) Class.forName(String.valueOf(policy)).newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Unknown connection policy: " + policy, e);
+        }
+    }
+
     long glfsNew(String volname) {
         long volptr = glfs_new(volname);
         if (0 == volptr) {
@@ -90,10 +330,11 @@ public class GlusterFileSystemProvider extends FileSystemProvider {
 
     @Override
     public FileSystem getFileSystem(URI uri) {
-        if (!cache.containsKey(uri.getAuthority())) {
+        GlusterFileSystem fileSystem = cache.get(uri.getAuthority());
+        if (null == fileSystem) {
             throw new FileSystemNotFoundException("No cached filesystem for: " + uri.getAuthority());
         }
-        return cache.get(uri.getAuthority());
+        return fileSystem;
     }
 
     @Override
@@ -101,35 +342,62 @@ public class GlusterFileSystemProvider extends FileSystemProvider {
         if (!uri.getScheme().equals(getScheme())) {
             throw new IllegalArgumentException("No support for scheme: " + uri.getScheme());
         }
-        try {
-            FileSystem fileSystem = getFileSystem(uri);
-            return fileSystem.getPath(uri.getPath());
-        } catch (FileSystemNotFoundException e) {
+        FileSystem fileSystem = cache.get(uri.getAuthority());
+        if (null == fileSystem) {
+            fileSystem = openFileSystem(uri);
         }
+        return fileSystem.getPath(uri.getPath());
+    }
 
-        try {
-            return newFileSystem(uri, null).getPath(uri.getPath());
-        } catch (IOException e) {
-            throw new FileSystemNotFoundException("Unable to open a connection to " + uri.getAuthority());
+    /**
+     * Connects a volume on behalf of getPath.  The cache owns that connection, so no extra reference is taken when
+     * another caller got there first.
+     */
+    FileSystem openFileSystem(URI uri) {
+        synchronized (connectLock(uri.getAuthority())) {
+            FileSystem fileSystem = cache.get(uri.getAuthority());
+            if (null != fileSystem) {
+                return fileSystem;
+            }
+            try {
+                return newFileSystem(uri, null);
+            } catch (IOException e) {
+                throw new FileSystemNotFoundException("Unable to open a connection to " + uri.getAuthority());
+            }
         }
     }
 
     @Override
     public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> openOptions, FileAttribute<?>... fileAttributes) throws IOException {
-        return newFileChannelHelper(path, openOptions, fileAttributes);
+        GlusterFileChannel channel = (GlusterFileChannel) newFileChannelHelper(path, openOptions, fileAttributes);
+        channel.enableReadAhead();
+        return channel;
     }
 
     @Override
     public FileChannel newFileChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
-        return newFileChannelHelper(path, options, attrs);
+        GlusterFileChannel channel = (GlusterFileChannel) newFileChannelHelper(path, options, attrs);
+        channel.enableReadAhead();
+        return channel;
     }
 
+    /**
+     * Opens a channel without read ahead.  Async channels and the source of a copy read through the completion queue
+     * or copy_file_range, so only newFileChannel and newByteChannel turn it on.
+     */
     FileChannel newFileChannelHelper(Path path, Set<? extends OpenOption> options, FileAttribute<?>[] attrs) throws IOException {
         GlusterFileChannel channel = new GlusterFileChannel();
         channel.init((GlusterFileSystem) getFileSystem(path.toUri()), path, options, attrs);
         return channel;
     }
 
+    @Override
+    public AsynchronousFileChannel newAsynchronousFileChannel(Path path, Set<? extends OpenOption> options, ExecutorService executor, FileAttribute<?>... attrs) throws IOException {
+        GlusterFileSystem fileSystem = (GlusterFileSystem) getFileSystem(path.toUri());
+        GlusterFileChannel channel = (GlusterFileChannel) newFileChannelHelper(path, options, attrs);
+        return new GlusterAsynchronousFileChannel(channel, fileSystem.getCompletionQueue(), executor);
+    }
+
     @Override
     public DirectoryStream<Path> newDirectoryStream(Path path, DirectoryStream.Filter<? super Path> filter) throws IOException {
         if (!Files.isDirectory(path)) {
@@ -146,47 +414,64 @@ public class GlusterFileSystemProvider extends FileSystemProvider {
 
     @Override
     public void createDirectory(Path path, FileAttribute<?>... fileAttributes) throws IOException {
-        if (Files.exists(path)) {
-            throw new FileAlreadyExistsException(path.toString());
-        }
-        if (!Files.exists(path.getParent())) {
-            throw new IOException();
-        }
-
         int mode = 0775;
 
         if (fileAttributes.length > 0) {
             mode = GlusterFileAttributes.parseAttrs(fileAttributes);
         }
 
-        int ret = GLFS.glfs_mkdir(((GlusterFileSystem) path.getFileSystem()).getVolptr(), path.toString(), mode);
+        GlusterFileSystem fileSystem = (GlusterFileSystem) path.getFileSystem();
+        String pathString = path.toString();
+        int ret = GLFS.glfsjni_mkdir(fileSystem.getVolptr(pathString), pathString, mode);
+        fileSystem.invalidate(pathString);
 
         if (ret < 0) {
-            throw new IOException(path.toString());
+            throw errnoException(-ret, pathString, null);
         }
     }
 
+    /**
+     * Unlinks path, only falling back to rmdir when the server reports that it is a directory.
+     */
     @Override
     public void delete(Path path) throws IOException {
-        if (!Files.exists(path)) {
-            throw new NoSuchFileException(path.toString());
-        }
-        if (Files.isDirectory(path)) {
-            if(!directoryIsEmpty(path)) {
-                throw new DirectoryNotEmptyException(path.toString());
-            }
-
-            int ret = GLFS.glfs_rmdir(((GlusterFileSystem)path.getFileSystem()).getVolptr(), path.toString());
-
-            if (ret < 0) {
-                throw new IOException(path.toString());
-            }
+        GlusterFileSystem fileSystem = (GlusterFileSystem) path.getFileSystem();
+        String pathString = path.toString();
+        long volptr = fileSystem.getVolptr(pathString);
+        int ret = GLFS.glfsjni_unlink(volptr, pathString);
+        if (-UtilJNI.EISDIR == ret) {
+            ret = GLFS.glfsjni_rmdir(volptr, pathString);
+            fileSystem.invalidateTree(pathString);
         } else {
-            int ret = GLFS.glfs_unlink(((GlusterFileSystem) path.getFileSystem()).getVolptr(), path.toString());
+            fileSystem.invalidate(pathString);
+        }
 
-            if (ret < 0) {
-                throw new IOException(path.toString());
-            }
+        if (ret < 0) {
+            throw errnoException(-ret, pathString, null);
+        }
+    }
+
+    /**
+     * @param errno  errno reported by a failed call, as a positive number
+     * @param path   path the call was on
+     * @param other  the second path of a two path call, or null
+     * @return the java.nio.file exception that describes the failure
+     */
+    static IOException errnoException(int errno, String path, String other) {
+        switch (errno) {
+            case UtilJNI.ENOENT:
+                return new NoSuchFileException(path, other, null);
+            case UtilJNI.EEXIST:
+                return new FileAlreadyExistsException(path, other, null);
+            case UtilJNI.ENOTEMPTY:
+                return new DirectoryNotEmptyException(null == other ? path : other);
+            case UtilJNI.EPERM:
+            case UtilJNI.EACCES:
+                return new AccessDeniedException(path, other, null);
+            case UtilJNI.ENOTDIR:
+                return new NotDirectoryException(path);
+            default:
+                return new FileSystemException(path, other, UtilJNI.string(UtilJNI.strerror_jni(errno)));
         }
     }
 
@@ -236,11 +521,13 @@ public class GlusterFileSystemProvider extends FileSystemProvider {
 
     void copyFileAttributes(Path path, Path path2) throws IOException {
         stat stat = new stat();
-        long volptr = ((GlusterFileSystem) path.getFileSystem()).getVolptr();
+        GlusterFileSystem fileSystem = (GlusterFileSystem) path.getFileSystem();
+        long volptr = fileSystem.getVolptr(path2.toString());
         int retStat = glfs_stat(volptr, path.toString(), stat);
         int retChmod = 0;
         if (0664 != stat.st_mode) {
             retChmod = GLFS.glfs_chmod(volptr, path2.toString(), stat.st_mode);
+            fileSystem.invalidate(path2.toString());
         }
         if (retStat < 0 || retChmod < 0) {
             throw new IOException("Could not copy file attributes.");
@@ -248,27 +535,48 @@ public class GlusterFileSystemProvider extends FileSystemProvider {
     }
 
     void copyFileContent(Path path, Path path2) throws IOException {
-        Set<StandardOpenOption> options = new HashSet<>();
-        options.add(StandardOpenOption.READ);
-
-        byte[] readBytes = new byte[8192];
-        FileChannel channel = newFileChannel(path, options);
-        ByteBuffer readBuffer = ByteBuffer.wrap(readBytes);
-
-        boolean writtenTo = false;
-        int read = channel.read(readBuffer);
-
-        while (read > 0) {
-            byte[] writeBytes = Arrays.copyOf(readBytes, read);
-            if (!writtenTo) {
-                Files.write(path2, writeBytes, StandardOpenOption.TRUNCATE_EXISTING);
-                writtenTo = true;
-            } else {
-                Files.write(path2, writeBytes, StandardOpenOption.APPEND);
+        if (path.getFileSystem().equals(path2.getFileSystem()) && copyFileContentOnServer(path, path2)) {
+            return;
+        }
+        copyFileContentStreaming(path, path2);
+    }
+
+    /**
+     * Copies within a volume with glfs_copy_file_range so the data never leaves the servers.
+     *
+     * @return false, having copied nothing, when the server or libgfapi can't do the copy
+     */
+    boolean copyFileContentOnServer(Path path, Path path2) throws IOException {
+        try (GlusterFileChannel in = (GlusterFileChannel) newFileChannelHelper(path, EnumSet.of(StandardOpenOption.READ),
+                new FileAttribute<?>[0]);
+             GlusterFileChannel out = (GlusterFileChannel) newFileChannel(path2,
+                     EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+            long size = in.size();
+            long copied = 0;
+            while (copied < size) {
+                long ret = GLFS.glfs_copy_file_range(in.getFileptr(), copied, out.getFileptr(), copied, size - copied);
+                if (GLFS.COPY_UNSUPPORTED == ret && 0 == copied) {
+                    return false;
+                }
+                if (ret < 0) {
+                    throw new IOException("Server-side copy failed: " + UtilJNI.strerror());
+                }
+                if (0 == ret) {
+                    break;
+                }
+                copied += ret;
             }
-            read = channel.read(readBuffer);
+            return true;
+        }
+    }
+
+    void copyFileContentStreaming(Path path, Path path2) throws IOException {
+        GlusterFileSystem fileSystem = (GlusterFileSystem) path2.getFileSystem();
+        GlusterCopyEngine engine = new GlusterCopyEngine(fileSystem.getCopyBufferSize());
+        try (AsynchronousFileChannel in = newAsynchronousFileChannel(path, EnumSet.of(StandardOpenOption.READ), null);
+             FileChannel out = newFileChannel(path2, EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+            fileSystem.getCopyStatistics().record(engine.copy(in, out));
         }
-        channel.close();
     }
 
     boolean directoryIsEmpty(Path path) throws IOException {
@@ -280,14 +588,16 @@ public class GlusterFileSystemProvider extends FileSystemProvider {
         }
     }
 
+    /**
+     * Renames path directly and lets the server report a missing source or a non-empty target, so the only extra
+     * lookup is for an existing target when REPLACE_EXISTING isn't given.  A file does not replace a directory, even an
+     * empty one, since removing the directory first would leave neither in place if the rename then failed; the server's
+     * EISDIR is reported as FileAlreadyExistsException instead.
+     */
     @Override
     public void move(Path path, Path path2, CopyOption... copyOptions) throws IOException {
         guardAbsolutePath(path);
         guardAbsolutePath(path2);
-        guardFileExists(path);
-        if (Files.exists(path2) && isSameFile(path, path2)) {
-            return;
-        }
 
         boolean overwrite = false;
         for (CopyOption co : copyOptions) {
@@ -300,17 +610,30 @@ public class GlusterFileSystemProvider extends FileSystemProvider {
         }
 
         FileSystem fileSystem = path.getFileSystem();
-
+        if (!fileSystem.equals(path2.getFileSystem())) {
+            throw new UnsupportedOperationException("Can not move file to a different file system");
+        }
         if (!overwrite && Files.exists(path2)) {
+            if (isSameFile(path, path2)) {
+                return;
+            }
             throw new FileAlreadyExistsException("Target " + path2 + " exists and REPLACE_EXISTING not specified");
         }
-        if (Files.isDirectory(path2) && !directoryIsEmpty(path2)) {
-            throw new DirectoryNotEmptyException("Target not empty: " + path2);
+
+        GlusterFileSystem glusterFileSystem = (GlusterFileSystem) fileSystem;
+        String source = ((GlusterPath) path).getString();
+        String target = ((GlusterPath) path2).getString();
+        long volptr = glusterFileSystem.getVolptr(target);
+        int ret = GLFS.glfsjni_rename(volptr, source, target);
+        glusterFileSystem.invalidateTree(source);
+        glusterFileSystem.invalidateTree(target);
+
+        if (-UtilJNI.EISDIR == ret) {
+            throw new FileAlreadyExistsException(source, target, "Target is a directory");
         }
-        if (!fileSystem.equals(path2.getFileSystem())) {
-            throw new UnsupportedOperationException("Can not move file to a different file system");
+        if (ret < 0) {
+            throw errnoException(-ret, source, target);
         }
-        GLFS.glfs_rename(((GlusterFileSystem) fileSystem).getVolptr(), ((GlusterPath) path).getString(), ((GlusterPath) path2).getString());
     }
 
     void guardFileExists(Path path) throws NoSuchFileException {
@@ -336,21 +659,65 @@ public class GlusterFileSystemProvider extends FileSystemProvider {
         guardFileExists(path);
         guardFileExists(path2);
 
-        stat stat1 = statPath(path);
-        stat stat2 = statPath(path2);
-        
-        return stat1.st_ino == stat2.st_ino;
+        GlusterFileAttributes stat1 = statPath(path);
+        GlusterFileAttributes stat2 = statPath(path2);
+
+        return stat1.getInode() == stat2.getInode();
     }
 
-    stat statPath(Path path) throws IOException {
+    GlusterFileAttributes statPath(Path path) throws IOException {
+        GlusterFileAttributes attributes = attributes(path, true);
+        if (null == attributes) {
+            throw new IOException("Stat failed for " + ((GlusterPath) path).getString());
+        }
+        return attributes;
+    }
+
+    /**
+     * Stats path, answering from the filesystem's stat and negative lookup caches when they have a fresh entry.
+     *
+     * @return null when path does not exist
+     */
+    GlusterFileAttributes attributes(Path path, boolean followLinks) {
+        return attributes((GlusterFileSystem) path.getFileSystem(), ((GlusterPath) path).getString(), followLinks);
+    }
+
+    GlusterFileAttributes attributes(GlusterFileSystem fileSystem, String pathString, boolean followLinks) {
+        GlusterStatCache statCache = fileSystem.getStatCache();
+        if (null != statCache) {
+            GlusterFileAttributes cached = statCache.get(pathString, followLinks);
+            if (null != cached) {
+                return cached;
+            }
+        }
+        GlusterNegativeCache negativeCache = fileSystem.getNegativeCache();
+        if (null != negativeCache && negativeCache.isMissing(pathString, followLinks)) {
+            return null;
+        }
+
         stat stat = new stat();
-        String pathString = ((GlusterPath) path).getString();
-        int ret = GLFS.glfs_stat(((GlusterFileSystem) path.getFileSystem()).getVolptr(),
-                pathString, stat);
-        if (ret != 0) {
-            throw new IOException("Stat failed for " + pathString);
+        long volptr = fileSystem.getVolptr(pathString);
+        GlusterHandleCache handleCache = fileSystem.getHandleCache(volptr);
+        int ret;
+        if (null != handleCache) {
+            ret = handleCache.stat(pathString, stat, followLinks);
+        } else if (followLinks) {
+            ret = GLFS.glfs_stat(volptr, pathString, stat);
+        } else {
+            ret = GLFS.glfs_lstat(volptr, pathString, stat);
+        }
+        if (-1 == ret) {
+            if (null != negativeCache && UtilJNI.ENOENT == UtilJNI.errno()) {
+                negativeCache.put(pathString, followLinks);
+            }
+            return null;
+        }
+
+        GlusterFileAttributes attributes = GlusterFileAttributes.fromStat(stat);
+        if (null != statCache) {
+            statCache.put(pathString, followLinks, attributes);
         }
-        return stat;
+        return attributes;
     }
 
     @Override
@@ -369,16 +736,16 @@ public class GlusterFileSystemProvider extends FileSystemProvider {
 
     @Override
     public void checkAccess(Path path, AccessMode... accessModes) throws IOException {
-        long volptr = ((GlusterFileSystem) path.getFileSystem()).getVolptr();
+        GlusterFileSystem fileSystem = (GlusterFileSystem) path.getFileSystem();
         String pathString = ((GlusterPath) path).getString();
-
-        stat stat = new stat();
-        int ret = GLFS.glfs_lstat(volptr, pathString, stat);
-
-        if (-1 == ret) {
+        if (null == attributes(fileSystem, pathString, false)) {
             throw new NoSuchFileException("");
         }
 
+        if (0 == accessModes.length) {
+            return;
+        }
+        long volptr = fileSystem.getVolptr(pathString);
         for (AccessMode m : accessModes) {
             int access = GLFS.glfs_access(volptr, pathString, modeInt(m));
             if (-1 == access) {
@@ -411,8 +778,6 @@ public class GlusterFileSystemProvider extends FileSystemProvider {
         if (type.equals(DosFileAttributes.class)) {
             throw new UnsupportedOperationException(type + " attribute type is not supported, only PosixFileAttributes & its superinterfaces");
         }
-        stat stat = new stat();
-
         boolean followSymlinks = true;
         for (LinkOption lo : linkOptions) {
             if (lo.equals(LinkOption.NOFOLLOW_LINKS)) {
@@ -420,19 +785,13 @@ public class GlusterFileSystemProvider extends FileSystemProvider {
                 break;
             }
         }
-        int ret;
-        String pathString = ((GlusterPath) path).getString();
-        if (followSymlinks) {
-            ret = GLFS.glfs_stat(((GlusterFileSystem) path.getFileSystem()).getVolptr(), pathString, stat);
-        } else {
-            ret = GLFS.glfs_lstat(((GlusterFileSystem) path.getFileSystem()).getVolptr(), pathString, stat);
-        }
 
-        if (-1 == ret) {
+        GlusterFileAttributes attributes = attributes(path, followSymlinks);
+        if (null == attributes) {
             throw new NoSuchFileException("");
         }
 
-        return (A) GlusterFileAttributes.fromStat(stat);
+        return (A) attributes;
     }
 
     @Override
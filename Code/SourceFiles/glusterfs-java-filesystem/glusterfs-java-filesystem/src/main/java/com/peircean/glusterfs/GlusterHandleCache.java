@@ -0,0 +1,222 @@
+package com.peircean.glusterfs;
+
+import com.peircean.libgfapi_jni.internal.GLFS;
+import com.peircean.libgfapi_jni.internal.GlusterOpenOption;
+import com.peircean.libgfapi_jni.internal.structs.stat;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps glfs_object handles for recently used directories of one glfs_t instance, so a file in a deep tree is looked
+ * up relative to its parent's handle with glfs_h_lookupat instead of having every path component resolved again.
+ * The least recently used handles are closed once the cache is full; a handle that is in use when it is dropped is
+ * closed by its last user.
+ * <p/>
+ * Handles don't expire.  A directory another client renames or removes is only dropped once an upcall reports it, so
+ * the provider only enables this cache alongside upcalls.
+ */
+@Getter(AccessLevel.PACKAGE)
+class GlusterHandleCache {
+    private final GlusterFileSystem fileSystem;
+    private final long volptr;
+    private final int size;
+    private final LinkedHashMap<GlusterPath, Handle> handles;
+
+    GlusterHandleCache(GlusterFileSystem fileSystem, long volptr, final int size) {
+        this.fileSystem = fileSystem;
+        this.volptr = volptr;
+        this.size = size;
+        this.handles = new LinkedHashMap<GlusterPath, Handle>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<GlusterPath, Handle> eldest) {
+                if (size() > size) {
+                    retire(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Same as glfs_stat, or glfs_lstat when followLinks is false.
+     */
+    int stat(String path, stat stat, boolean followLinks) {
+        long object = lookup(path, stat, followLinks);
+        if (0 == object) {
+            return -1;
+        }
+        GLFS.glfs_h_close(object);
+        return 0;
+    }
+
+    /**
+     * Same as glfs_open.
+     */
+    long open(String path, int flags) {
+        long object = lookup(path, new stat(), true);
+        if (0 == object) {
+            return 0;
+        }
+        long fd = GLFS.glfs_h_open(volptr, object, flags);
+        GLFS.glfs_h_close(object);
+        return fd;
+    }
+
+    /**
+     * Same as glfs_creat.
+     */
+    long creat(String path, int flags, int mode) {
+        Handle dir = acquireParent(path);
+        long object;
+        try {
+            object = GLFS.glfs_h_creat(volptr, objectOf(dir), nameIn(dir, path), flags, mode, new stat());
+        } finally {
+            release(dir);
+        }
+        if (0 == object) {
+            return 0;
+        }
+        long fd = GLFS.glfs_h_open(volptr, object, flags & ~(GlusterOpenOption.O_CREAT | GlusterOpenOption.O_EXCL));
+        GLFS.glfs_h_close(object);
+        return fd;
+    }
+
+    long lookup(String path, stat stat, boolean followLinks) {
+        Handle dir = acquireParent(path);
+        try {
+            return GLFS.glfs_h_lookupat(volptr, objectOf(dir), nameIn(dir, path), stat, followLinks ? 1 : 0);
+        } finally {
+            release(dir);
+        }
+    }
+
+    /**
+     * @return the handle of path's parent directory, or null when the parent is the root or can't be looked up
+     */
+    Handle acquireParent(String path) {
+        String parent = GlusterStatCache.parent(path);
+        if (null == parent || "/".equals(parent)) {
+            return null;
+        }
+        return acquire(new GlusterPath(fileSystem, parent));
+    }
+
+    Handle acquire(GlusterPath dir) {
+        synchronized (this) {
+            Handle handle = handles.get(dir);
+            if (null != handle) {
+                handle.users++;
+                return handle;
+            }
+        }
+        stat stat = new stat();
+        long object = GLFS.glfs_h_lookupat(volptr, 0, dir.getString(), stat, 1);
+        if (0 == object) {
+            return null;
+        }
+        synchronized (this) {
+            Handle handle = handles.get(dir);
+            if (null != handle) {
+                GLFS.glfs_h_close(object);
+            } else {
+                handle = new Handle(dir.getString(), object, stat.st_ino);
+                handles.put(dir, handle);
+            }
+            handle.users++;
+            return handle;
+        }
+    }
+
+    synchronized void release(Handle handle) {
+        if (null == handle) {
+            return;
+        }
+        handle.users--;
+        if (handle.retired && 0 == handle.users) {
+            GLFS.glfs_h_close(handle.object);
+        }
+    }
+
+    /**
+     * Drops the handles of path and every directory beneath it, for when this client renames or removes it.
+     */
+    synchronized void invalidateTree(String path) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        Iterator<Handle> iterator = handles.values().iterator();
+        while (iterator.hasNext()) {
+            Handle handle = iterator.next();
+            if (handle.path.equals(path) || handle.path.startsWith(prefix)) {
+                iterator.remove();
+                retire(handle);
+            }
+        }
+    }
+
+    /**
+     * @return the directories held whose inode is inode
+     */
+    synchronized Set<String> pathsOf(long inode) {
+        Set<String> paths = new HashSet<String>();
+        for (Handle handle : handles.values()) {
+            if (handle.inode == inode) {
+                paths.add(handle.path);
+            }
+        }
+        return paths;
+    }
+
+    synchronized void close() {
+        for (Handle handle : handles.values()) {
+            retire(handle);
+        }
+        handles.clear();
+    }
+
+    private void retire(Handle handle) {
+        handle.retired = true;
+        if (0 == handle.users) {
+            GLFS.glfs_h_close(handle.object);
+        }
+    }
+
+    private static long objectOf(Handle dir) {
+        return null == dir ? 0 : dir.object;
+    }
+
+    private static String nameIn(Handle dir, String path) {
+        return null == dir ? path : path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    static class Handle {
+        private final String path;
+        private final long object;
+        private final long inode;
+        private int users;
+        private boolean retired;
+
+        Handle(String path, long object, long inode) {
+            this.path = path;
+            this.object = object;
+            this.inode = inode;
+        }
+
+        long getObject() {
+            return object;
+        }
+
+        int getUsers() {
+            return users;
+        }
+
+        boolean isRetired() {
+            return retired;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.peircean.glusterfs;
+
+import com.peircean.libgfapi_jni.internal.UtilJNI;
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Describes a slice of a ByteBuffer array as the (address, length) pairs that glfs_readv/glfs_writev take in place of
+ * a struct iovec array, so the whole slice goes to libgfapi in one call.  Direct buffers are referenced where they are,
+ * heap buffers are staged through a single direct buffer supplied by the caller.  The slice ends where the staging
+ * buffer is full, so only part of the last heap buffer in it may be described.
+ */
+@Getter
+class GlusterIoVector {
+    static final int IOV_MAX = 1024;
+
+    private final ByteBuffer[] buffers;
+    private final int offset;
+    private int count;
+    private final long[] iov;
+    private final ByteBuffer staging;
+    private final int[] stagingOffsets;
+    private final boolean forWrite;
+
+    GlusterIoVector(ByteBuffer[] buffers, int offset, int length, ByteBuffer staging, boolean forWrite) {
+        this.buffers = buffers;
+        this.offset = offset;
+        this.count = Math.min(length, IOV_MAX);
+        this.staging = staging;
+        this.forWrite = forWrite;
+        iov = new long[2 * count];
+        stagingOffsets = new int[count];
+
+        long stagingAddress = null == staging ? 0 : UtilJNI.GetDirectBufferAddress(staging);
+        int staged = 0;
+        int room = null == staging ? 0 : staging.limit();
+        for (int i = 0; i < count; i++) {
+            ByteBuffer buffer = buffers[offset + i];
+            int remaining = buffer.remaining();
+            if (buffer.isDirect()) {
+                iov[2 * i] = UtilJNI.GetDirectBufferAddress(buffer) + buffer.position();
+            } else if (remaining > 0) {
+                if (0 == room - staged) {
+                    count = i;
+                    break;
+                }
+                remaining = Math.min(remaining, room - staged);
+                stagingOffsets[i] = staged;
+                if (forWrite) {
+                    ByteBuffer source = buffer.duplicate();
+                    source.limit(source.position() + remaining);
+                    ByteBuffer target = staging.duplicate();
+                    target.position(staged);
+                    target.put(source);
+                }
+                iov[2 * i] = stagingAddress + staged;
+                staged += remaining;
+            }
+            iov[2 * i + 1] = remaining;
+            if (remaining < buffer.remaining()) {
+                count = i + 1;
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return how many bytes of staging space the heap buffers in this slice need, up to max
+     */
+    static int stagingSize(ByteBuffer[] buffers, int offset, int length, int max) {
+        long size = 0;
+        for (int i = offset; i < offset + Math.min(length, IOV_MAX) && size < max; i++) {
+            if (!buffers[i].isDirect()) {
+                size += buffers[i].remaining();
+            }
+        }
+        return (int) Math.min(size, max);
+    }
+
+    long remaining() {
+        long remaining = 0;
+        for (int i = 0; i < count; i++) {
+            remaining += iov[2 * i + 1];
+        }
+        return remaining;
+    }
+
+    /**
+     * Advances the buffers over the bytes libgfapi transferred, copying staged bytes back into heap buffers on reads.
+     */
+    void complete(long transferred) {
+        for (int i = 0; i < count && transferred > 0; i++) {
+            ByteBuffer buffer = buffers[offset + i];
+            int n = (int) Math.min(buffer.remaining(), transferred);
+            if (!forWrite && !buffer.isDirect()) {
+                ByteBuffer source = staging.duplicate();
+                source.position(stagingOffsets[i]);
+                source.limit(stagingOffsets[i] + n);
+                buffer.put(source);
+            } else {
+                buffer.position(buffer.position() + n);
+            }
+            transferred -= n;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.peircean.glusterfs;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers paths a GlusterFileSystem recently found not to exist, so probes for files that aren't there yet don't
+ * each cost a lookup on the servers.  Entries live for a short fixed time and the oldest are dropped once the cache is
+ * full.  Paths this client creates, renames or makes directories at are forgotten straight away; paths created by
+ * other clients are only seen once their entries expire, or once an upcall reports a change to a directory whose path
+ * this client has cached.  The TTL bounds how long such a file can go unseen.
+ */
+public class GlusterNegativeCache {
+    static final int DEFAULT_SIZE = 10000;
+
+    @Getter(AccessLevel.PACKAGE)
+    private final long ttlNanos;
+    @Getter(AccessLevel.PACKAGE)
+    private final int size;
+    @Getter(AccessLevel.PACKAGE)
+    private final LinkedHashMap<String, Long> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    GlusterNegativeCache(long ttlMillis, final int size) {
+        this.ttlNanos = ttlMillis * 1000000L;
+        this.size = size;
+        this.entries = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > size;
+            }
+        };
+    }
+
+    /**
+     * @return true, counting a hit, when path was recently found missing; otherwise counts a miss
+     */
+    synchronized boolean isMissing(String path, boolean followLinks) {
+        String key = GlusterStatCache.key(path, followLinks);
+        Long created = entries.get(key);
+        if (null != created && now() - created < ttlNanos) {
+            hits.incrementAndGet();
+            return true;
+        }
+        if (null != created) {
+            entries.remove(key);
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    synchronized void put(String path, boolean followLinks) {
+        entries.put(GlusterStatCache.key(path, followLinks), now());
+    }
+
+    synchronized void invalidate(String path) {
+        entries.remove(GlusterStatCache.key(path, true));
+        entries.remove(GlusterStatCache.key(path, false));
+    }
+
+    /**
+     * Forgets path and everything beneath it, for when a directory is renamed into place.
+     */
+    synchronized void invalidateTree(String path) {
+        invalidate(path);
+        String prefix = path.endsWith("/") ? path : path + "/";
+        Iterator<String> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().startsWith(prefix, 1)) {
+                keys.remove();
+            }
+        }
+    }
+
+    long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * @return lookups answered from this cache without going to the servers
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return lookups that had to go to the servers
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return paths currently remembered as missing
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+}
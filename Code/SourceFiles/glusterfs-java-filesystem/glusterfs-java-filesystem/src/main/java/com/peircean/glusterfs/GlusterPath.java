@@ -272,7 +272,28 @@ public class GlusterPath implements Path {
 
     @Override
     public WatchKey register(WatchService watchService, WatchEvent.Kind<?>[] kinds, WatchEvent.Modifier... modifiers) throws IOException {
-        throw new UnsupportedOperationException("GlusterWatchService does not support modifiers at this time.");
+        boolean tree = false;
+        PathMatcher filter = null;
+        for (WatchEvent.Modifier modifier : modifiers) {
+            if (GlusterWatchEventModifier.FILE_TREE.name().equals(modifier.name())) {
+                tree = true;
+            } else if (modifier instanceof GlusterWatchFilter) {
+                filter = ((GlusterWatchFilter) modifier).getMatcher();
+            } else {
+                throw new UnsupportedOperationException("GlusterWatchService does not support modifier: " + modifier.name());
+            }
+        }
+        if (!tree && null == filter) {
+            return register(watchService, kinds);
+        }
+        guardRegisterWatchService(watchService);
+        guardRegisterWatchDirectory();
+
+        GlusterWatchService service = (GlusterWatchService) watchService;
+        if (null == filter) {
+            return service.registerTree(this, kinds);
+        }
+        return tree ? service.registerTree(this, filter, kinds) : service.registerPath(this, filter, kinds);
     }
 
     @Override
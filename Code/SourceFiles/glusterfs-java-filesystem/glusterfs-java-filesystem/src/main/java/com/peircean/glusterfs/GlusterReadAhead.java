@@ -0,0 +1,249 @@
+package com.peircean.glusterfs;
+
+import com.peircean.libgfapi_jni.internal.UtilJNI;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedFileSystemException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Prefetches ahead of a GlusterFileChannel that is being read sequentially, so that a reader taking 8KB at a time, like
+ * the InputStream from Files.newInputStream, waits on one round trip per window rather than one per read.
+ * <p/>
+ * After SEQUENTIAL_READS reads in a row, each starting where the one before ended, further reads are served from a
+ * window of the file read with one pread, and the next window is requested with glfs_pread_async while the caller works
+ * through this one.  Each prefetched window that is used is twice the size of the last, from MIN_WINDOW up to
+ * maxWindow.  A read anywhere else drops the windows and starts over.  Reads of maxWindow or more go straight to the
+ * file.
+ * <p/>
+ * Windows are direct buffers, so each channel reading ahead can hold two of maxWindow bytes.  A window is served as it
+ * was read, without checking the file again, so writes made after it was read aren't seen until the next window.
+ */
+@Getter(AccessLevel.PACKAGE)
+@Setter(AccessLevel.PACKAGE)
+class GlusterReadAhead {
+    static final int MIN_WINDOW = 128 * 1024;
+    static final int SEQUENTIAL_READS = 2;
+
+    private final GlusterFileChannel channel;
+    private final int maxWindow;
+    private int window;
+    /**
+     * Where a read carrying on from the last one would start, and how many in a row have
+     */
+    private long expected = -1;
+    private int sequential;
+    private Window current;
+    private Window ahead;
+    private ByteBuffer spare;
+    /**
+     * Prefetches dropped while still in flight, which have to complete before the file is closed
+     */
+    private final List<Window> abandoned = new LinkedList<>();
+
+    GlusterReadAhead(GlusterFileChannel channel, int maxWindow) {
+        this.channel = channel;
+        this.maxWindow = maxWindow;
+        this.window = Math.min(MIN_WINDOW, maxWindow);
+    }
+
+    /**
+     * Reads into the buffer from position, like GlusterFileChannel.readBuffer.
+     *
+     * @return the bytes read, 0 at the end of the file, or -1 with errno set
+     */
+    synchronized long read(ByteBuffer dst, long position) throws IOException {
+        if (position != expected) {
+            sequential = 0;
+            window = Math.min(MIN_WINDOW, maxWindow);
+            discard();
+        }
+        sequential++;
+        long read;
+        if (sequential <= SEQUENTIAL_READS || dst.remaining() >= maxWindow) {
+            read = channel.preadBuffer(dst, position);
+        } else {
+            read = readWindows(dst, position);
+        }
+        expected = position + Math.max(read, 0);
+        return read;
+    }
+
+    long readWindows(ByteBuffer dst, long position) throws IOException {
+        long copied = 0;
+        while (dst.hasRemaining()) {
+            Window w = windowAt(position + copied);
+            if (null == w) {
+                return 0 == copied ? -1 : copied;
+            }
+            int offset = (int) (position + copied - w.offset);
+            int count = Math.min(w.length - offset, dst.remaining());
+            if (count <= 0) {
+                break;
+            }
+            ByteBuffer source = w.buffer.duplicate();
+            source.limit(offset + count).position(offset);
+            dst.put(source);
+            copied += count;
+            if (w.length < w.buffer.capacity() && offset + count == w.length) {
+                // a short window ends at the end of the file
+                break;
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * @return the window holding position, waiting for the one prefetched or reading one if need be, or null when the
+     * read failed
+     */
+    Window windowAt(long position) throws IOException {
+        if (null != current && current.contains(position)) {
+            return current;
+        }
+        if (null != ahead && ahead.offset == position) {
+            Window next = ahead;
+            ahead = null;
+            long result = next.await();
+            if (result >= 0) {
+                next.length = (int) result;
+                recycle(current);
+                current = next;
+                window = Math.min(window * 2, maxWindow);
+                prefetch();
+                return current;
+            }
+            // the prefetch failed, so read it again for an errno to report
+        }
+        discard();
+        Window w = new Window(buffer(window), position);
+        long read = channel.preadBuffer(w.buffer, position);
+        if (read < 0) {
+            recycle(w);
+            return null;
+        }
+        w.length = (int) read;
+        current = w;
+        prefetch();
+        return current;
+    }
+
+    /**
+     * Asks for the window after the current one, unless the current one already reached the end of the file.  Without a
+     * completion queue the next window is simply read when it is needed.
+     */
+    void prefetch() {
+        if (current.length < current.buffer.capacity()) {
+            return;
+        }
+        GlusterCompletionQueue completionQueue;
+        try {
+            completionQueue = channel.getFileSystem().getCompletionQueue();
+        } catch (IOException | ClosedFileSystemException e) {
+            return;
+        }
+        Window next = new Window(buffer(window), current.offset + current.length);
+        long address = UtilJNI.GetDirectBufferAddress(next.buffer);
+        if (completionQueue.pread(channel.getFileptr(), address, next.buffer.capacity(), next.offset, next) >= 0) {
+            ahead = next;
+        } else {
+            recycle(next);
+        }
+    }
+
+    ByteBuffer buffer(int size) {
+        ByteBuffer buffer = spare;
+        spare = null;
+        if (null == buffer || buffer.capacity() != size) {
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    void recycle(Window w) {
+        if (null != w) {
+            spare = w.buffer;
+        }
+    }
+
+    /**
+     * Drops both windows.  A prefetch still in flight keeps its buffer until it completes, so that isn't reused.
+     */
+    void discard() {
+        recycle(current);
+        current = null;
+        Iterator<Window> i = abandoned.iterator();
+        while (i.hasNext()) {
+            if (i.next().isDone()) {
+                i.remove();
+            }
+        }
+        if (null != ahead) {
+            abandoned.add(ahead);
+            ahead = null;
+        }
+    }
+
+    /**
+     * Waits for the prefetches still in flight, which must complete before the file is closed.
+     */
+    synchronized void close() throws IOException {
+        discard();
+        for (Window w : abandoned) {
+            w.await();
+        }
+        abandoned.clear();
+        spare = null;
+    }
+
+    static class Window implements GlusterCompletionQueue.Completion {
+        final ByteBuffer buffer;
+        final long offset;
+        int length;
+        private boolean done;
+        private long result;
+
+        Window(ByteBuffer buffer, long offset) {
+            this.buffer = buffer;
+            this.offset = offset;
+        }
+
+        boolean contains(long position) {
+            return position >= offset && position < offset + length;
+        }
+
+        synchronized boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public synchronized void completed(long result) {
+            this.result = result;
+            done = true;
+            notifyAll();
+        }
+
+        /**
+         * @return bytes read, or -errno
+         */
+        synchronized long await() throws InterruptedIOException {
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for read ahead");
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.peircean.glusterfs;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers recent stat and lstat results for a GlusterFileSystem so that repeated existence and type checks of the
+ * same paths don't each go to the servers.  Entries expire after a fixed time and the least recently used are dropped
+ * once the cache is full.  Changes made through this client invalidate the affected entries; changes made by other
+ * clients are only seen once the entries expire, unless the servers' cache invalidation upcalls are being polled.
+ */
+@Getter(AccessLevel.PACKAGE)
+class GlusterStatCache {
+    static final int DEFAULT_SIZE = 10000;
+
+    private final long ttlNanos;
+    private final int size;
+    private final LinkedHashMap<String, Entry> entries;
+
+    GlusterStatCache(long ttlMillis, final int size) {
+        this.ttlNanos = ttlMillis * 1000000L;
+        this.size = size;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > size;
+            }
+        };
+    }
+
+    synchronized GlusterFileAttributes get(String path, boolean followLinks) {
+        String key = key(path, followLinks);
+        Entry entry = entries.get(key);
+        if (null == entry) {
+            return null;
+        }
+        if (now() - entry.created >= ttlNanos) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.attributes;
+    }
+
+    synchronized void put(String path, boolean followLinks, GlusterFileAttributes attributes) {
+        entries.put(key(path, followLinks), new Entry(attributes, now()));
+    }
+
+    /**
+     * Drops path and its parent, whose mtime changes when an entry is created or removed in it.
+     */
+    synchronized void invalidate(String path) {
+        remove(path);
+        String parent = parent(path);
+        if (null != parent) {
+            remove(parent);
+        }
+    }
+
+    /**
+     * Drops path, its parent and everything cached beneath it, for when a directory is renamed or removed.
+     */
+    synchronized void invalidateTree(String path) {
+        invalidate(path);
+        String prefix = path.endsWith("/") ? path : path + "/";
+        Iterator<String> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().startsWith(prefix, 1)) {
+                keys.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return the paths whose cached attributes are those of inode
+     */
+    synchronized Set<String> pathsOf(long inode) {
+        Set<String> paths = new HashSet<String>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().attributes.getInode() == inode) {
+                paths.add(entry.getKey().substring(1));
+            }
+        }
+        return paths;
+    }
+
+    long now() {
+        return System.nanoTime();
+    }
+
+    private void remove(String path) {
+        entries.remove(key(path, true));
+        entries.remove(key(path, false));
+    }
+
+    static String key(String path, boolean followLinks) {
+        return (followLinks ? "F" : "L") + path;
+    }
+
+    static String parent(String path) {
+        int slash = path.lastIndexOf('/', path.length() - 2);
+        if (slash < 0 || "/".equals(path)) {
+            return null;
+        }
+        return 0 == slash ? "/" : path.substring(0, slash);
+    }
+
+    private static class Entry {
+        private final GlusterFileAttributes attributes;
+        private final long created;
+
+        Entry(GlusterFileAttributes attributes, long created) {
+            this.attributes = attributes;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.peircean.glusterfs;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * What a tree watch saw of every file and directory under its root, kept in parallel primitive arrays so that a
+ * million entries cost about 32 bytes each plus their names, rather than a map of paths to events.
+ * <p/>
+ * Entries are identified by their path relative to the root, as UTF-8 in a single byte array.  Once sorted by the
+ * 64-bit FNV-1a hash of that name, two snapshots are compared in one merge pass.  Directories are stored with a size of
+ * -1 so that only their appearance and disappearance are reported.
+ */
+@Getter(AccessLevel.PACKAGE)
+class GlusterTreeSnapshot {
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    static final int INITIAL_CAPACITY = 64;
+    static final long DIRECTORY = -1L;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private int size;
+    private long[] hashes = new long[INITIAL_CAPACITY];
+    private long[] mtimes = new long[INITIAL_CAPACITY];
+    private long[] sizes = new long[INITIAL_CAPACITY];
+    private int[] nameOffsets = new int[INITIAL_CAPACITY];
+    private int[] nameLengths = new int[INITIAL_CAPACITY];
+    private byte[] names = new byte[INITIAL_CAPACITY * 16];
+    private int namesLength;
+
+    /**
+     * @param name  the entry's path relative to the root of the tree
+     * @param mtime its modification time in milliseconds, ignored for directories
+     * @param bytes its size, or DIRECTORY
+     */
+    void add(String name, long mtime, long bytes) {
+        if (size == hashes.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+            hashes = Arrays.copyOf(hashes, capacity);
+            mtimes = Arrays.copyOf(mtimes, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+            nameLengths = Arrays.copyOf(nameLengths, capacity);
+        }
+        byte[] encoded = name.getBytes(UTF8);
+        if (namesLength + encoded.length > names.length) {
+            names = Arrays.copyOf(names, Math.max(names.length * 2, namesLength + encoded.length));
+        }
+        System.arraycopy(encoded, 0, names, namesLength, encoded.length);
+        hashes[size] = hash(encoded);
+        mtimes[size] = DIRECTORY == bytes ? 0 : mtime;
+        sizes[size] = bytes;
+        nameOffsets[size] = namesLength;
+        nameLengths[size] = encoded.length;
+        namesLength += encoded.length;
+        size++;
+    }
+
+    static long hash(byte[] name) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : name) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    String name(int i) {
+        return new String(names, nameOffsets[i], nameLengths[i], UTF8);
+    }
+
+    boolean isDirectory(int i) {
+        return DIRECTORY == sizes[i];
+    }
+
+    long mtime(int i) {
+        return mtimes[i];
+    }
+
+    long size(int i) {
+        return sizes[i];
+    }
+
+    /**
+     * Writes the entries in their current order: a count, then each name's length and bytes, mtime and size.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeInt(nameLengths[i]);
+            out.write(names, nameOffsets[i], nameLengths[i]);
+            out.writeLong(mtimes[i]);
+            out.writeLong(sizes[i]);
+        }
+    }
+
+    /**
+     * @return the snapshot written by write(), sorted
+     */
+    static GlusterTreeSnapshot read(DataInput in) throws IOException {
+        GlusterTreeSnapshot snapshot = new GlusterTreeSnapshot();
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupt snapshot, " + count + " entries");
+        }
+        for (int i = 0; i < count; i++) {
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("Corrupt snapshot, name of " + length + " bytes");
+            }
+            byte[] name = new byte[length];
+            in.readFully(name);
+            long mtime = in.readLong();
+            snapshot.add(new String(name, UTF8), mtime, in.readLong());
+        }
+        snapshot.sort();
+        return snapshot;
+    }
+
+    /**
+     * Orders entry i of a against entry j of b by hash, then by name so that colliding hashes still merge correctly.
+     */
+    static int compare(GlusterTreeSnapshot a, int i, GlusterTreeSnapshot b, int j) {
+        if (a.hashes[i] != b.hashes[j]) {
+            return a.hashes[i] < b.hashes[j] ? -1 : 1;
+        }
+        int length = Math.min(a.nameLengths[i], b.nameLengths[j]);
+        for (int k = 0; k < length; k++) {
+            int x = a.names[a.nameOffsets[i] + k] & 0xff;
+            int y = b.names[b.nameOffsets[j] + k] & 0xff;
+            if (x != y) {
+                return x - y;
+            }
+        }
+        return a.nameLengths[i] - b.nameLengths[j];
+    }
+
+    /**
+     * Sorts the entries in place.  The arrays are trimmed first, since a finished snapshot is kept until the next scan.
+     */
+    void sort() {
+        hashes = Arrays.copyOf(hashes, size);
+        mtimes = Arrays.copyOf(mtimes, size);
+        sizes = Arrays.copyOf(sizes, size);
+        nameOffsets = Arrays.copyOf(nameOffsets, size);
+        nameLengths = Arrays.copyOf(nameLengths, size);
+        names = Arrays.copyOf(names, namesLength);
+        sort(0, size - 1);
+    }
+
+    /**
+     * Quicksort that recurses into the smaller side only, so its stack stays logarithmic whatever the input.
+     */
+    private void sort(int low, int high) {
+        while (high - low >= INSERTION_SORT_THRESHOLD) {
+            swap(low + (high - low) / 2, high);
+            int store = low;
+            for (int i = low; i < high; i++) {
+                if (compare(this, i, this, high) < 0) {
+                    swap(i, store++);
+                }
+            }
+            swap(store, high);
+            if (store - low < high - store) {
+                sort(low, store - 1);
+                low = store + 1;
+            } else {
+                sort(store + 1, high);
+                high = store - 1;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && compare(this, j - 1, this, j) > 0; j--) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        long hash = hashes[i];
+        hashes[i] = hashes[j];
+        hashes[j] = hash;
+        long mtime = mtimes[i];
+        mtimes[i] = mtimes[j];
+        mtimes[j] = mtime;
+        long bytes = sizes[i];
+        sizes[i] = sizes[j];
+        sizes[j] = bytes;
+        int offset = nameOffsets[i];
+        nameOffsets[i] = nameOffsets[j];
+        nameOffsets[j] = offset;
+        int length = nameLengths[i];
+        nameLengths[i] = nameLengths[j];
+        nameLengths[j] = length;
+    }
+}
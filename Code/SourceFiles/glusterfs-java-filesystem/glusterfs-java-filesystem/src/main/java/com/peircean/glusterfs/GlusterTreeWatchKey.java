@@ -0,0 +1,285 @@
+package com.peircean.glusterfs;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Watches a directory and everything below it, registered with GlusterWatchEventModifier.FILE_TREE.  Each scan walks
+ * the whole tree into a GlusterTreeSnapshot and merges it against the previous one, so memory grows with the number of
+ * entries but not with the number of events.  Event contexts are paths relative to the watched directory, like
+ * "2016/01/02/part-0001".
+ * <p/>
+ * Only the inodes of the directories are kept for upcalls.  Creating, removing or renaming an entry signals its parent,
+ * while a file written in place is picked up by the next full rescan.
+ */
+@Getter(AccessLevel.PACKAGE)
+@Setter(AccessLevel.PACKAGE)
+public class GlusterTreeWatchKey extends GlusterWatchKey {
+    private GlusterTreeSnapshot snapshot;
+    /**
+     * The snapshot and directory inodes of a walk that is part way through, and the directories it has still to list
+     */
+    private GlusterTreeSnapshot walking;
+    private Set<Long> walkingDirectories;
+    private Deque<String> queue;
+
+    public GlusterTreeWatchKey(GlusterPath path, WatchEvent.Kind[] kinds) {
+        super(path, kinds);
+    }
+
+    /**
+     * Walks the tree and queues events for what changed since the last walk.  The first walk only reports files
+     * modified since the key was registered.  A walk that runs past the scan slice is carried on by the next update(),
+     * and reports nothing until it is complete.
+     */
+    @Override
+    synchronized public boolean update() {
+        setSignalled(false);
+        long now = System.currentTimeMillis();
+        setLastScanned(now);
+        long deadline = getScanSlice() > 0 ? now + getScanSlice() : Long.MAX_VALUE;
+        if (!isScanning()) {
+            setLastFullScan(now);
+            setStale(false);
+            walking = new GlusterTreeSnapshot();
+            walkingDirectories = new HashSet<>();
+            GlusterFileAttributes root = directoryAttributes();
+            if (null != root) {
+                setInode(root.getInode());
+                walkingDirectories.add(root.getInode());
+            }
+            queue = new ArrayDeque<>();
+            queue.add("");
+            setCursor(0);
+        }
+        if (!walk(deadline)) {
+            walking = null;
+            return false;
+        }
+        if (!queue.isEmpty()) {
+            return false;
+        }
+        GlusterTreeSnapshot current = walking;
+        walking = null;
+        current.sort();
+        setInodes(walkingDirectories);
+        GlusterTreeSnapshot previous = snapshot;
+        snapshot = current;
+        if (null == previous) {
+            return reportCreated(current);
+        }
+        return compare(previous, current);
+    }
+
+    @Override
+    boolean isScanning() {
+        return null != walking;
+    }
+
+    /**
+     * Lists the directories queued, breadth first, until the deadline passes.  The one being listed then stays at the
+     * head of the queue with the cursor saying where in it to carry on.
+     *
+     * @return false when the watched directory itself could not be listed, in which case nothing is reported
+     */
+    boolean walk(long deadline) {
+        while (!queue.isEmpty()) {
+            String prefix = queue.peek();
+            Path dir = prefix.isEmpty() ? getPath() : getPath().resolve(prefix);
+            DirectoryStream<Path> paths;
+            try {
+                paths = Files.newDirectoryStream(dir);
+            } catch (IOException e) {
+                if (prefix.isEmpty()) {
+                    return false;
+                }
+                // removed while walking; its entries are reported deleted
+                queue.poll();
+                setCursor(0);
+                continue;
+            }
+            boolean complete;
+            try {
+                complete = list(prefix, paths, deadline);
+            } finally {
+                try {
+                    paths.close();
+                } catch (IOException e) {
+                }
+            }
+            if (!complete) {
+                return true;
+            }
+            queue.poll();
+            setCursor(0);
+            if (System.currentTimeMillis() >= deadline) {
+                return true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the entries of one directory to the walk, queueing its subdirectories.
+     *
+     * @return false when the deadline passed part way through, leaving the cursor where to carry on
+     */
+    boolean list(String prefix, DirectoryStream<Path> paths, long deadline) {
+        if (paths instanceof GlusterDirectoryStream) {
+            GlusterDirectoryStream stream = (GlusterDirectoryStream) paths;
+            if (0 != getCursor()) {
+                stream.seek(getCursor());
+            }
+            Iterator<GlusterDirectoryEntry> entries = stream.entryIterator();
+            while (entries.hasNext()) {
+                GlusterDirectoryEntry entry = entries.next();
+                GlusterFileAttributes attributes = entry.getAttributes();
+                String name = childName(prefix, entry.getPath());
+                if (attributes.isDirectory()) {
+                    walkingDirectories.add(attributes.getInode());
+                    if (accepts(name)) {
+                        walking.add(name, 0, GlusterTreeSnapshot.DIRECTORY);
+                    }
+                    queue.add(name);
+                } else if (accepts(name)) {
+                    walking.add(name, attributes.lastModifiedTime().toMillis(), attributes.size());
+                }
+                if (System.currentTimeMillis() >= deadline) {
+                    setCursor(stream.tell());
+                    return false;
+                }
+            }
+        } else {
+            for (Path f : paths) {
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(f, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    continue;
+                }
+                String name = childName(prefix, f);
+                if (attributes.isDirectory()) {
+                    if (accepts(name)) {
+                        walking.add(name, 0, GlusterTreeSnapshot.DIRECTORY);
+                    }
+                    queue.add(name);
+                } else if (accepts(name)) {
+                    walking.add(name, attributes.lastModifiedTime().toMillis(), attributes.size());
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether the filter, if any, accepts the entry at name relative to the root
+     */
+    boolean accepts(String name) {
+        return null == getFilter() || getFilter().matches(new GlusterPath(getPath().getFileSystem(), name));
+    }
+
+    String childName(String prefix, Path child) {
+        String name = child.getFileName().toString();
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    boolean reportCreated(GlusterTreeSnapshot current) {
+        boolean newEvents = false;
+        for (int i = 0; i < current.getSize(); i++) {
+            if (!current.isDirectory(i) && current.mtime(i) > getLastPolled()) {
+                newEvents |= report(StandardWatchEventKinds.ENTRY_CREATE, current, i);
+            }
+        }
+        return newEvents;
+    }
+
+    /**
+     * Merges two sorted snapshots, reporting entries only in previous as deleted, entries only in current as created,
+     * and files whose mtime or size differ as modified.
+     */
+    boolean compare(GlusterTreeSnapshot previous, GlusterTreeSnapshot current) {
+        boolean newEvents = false;
+        int i = 0;
+        int j = 0;
+        while (i < previous.getSize() || j < current.getSize()) {
+            int order;
+            if (i == previous.getSize()) {
+                order = 1;
+            } else if (j == current.getSize()) {
+                order = -1;
+            } else {
+                order = GlusterTreeSnapshot.compare(previous, i, current, j);
+            }
+            if (order < 0) {
+                newEvents |= report(StandardWatchEventKinds.ENTRY_DELETE, previous, i++);
+            } else if (order > 0) {
+                newEvents |= report(StandardWatchEventKinds.ENTRY_CREATE, current, j++);
+            } else {
+                if (previous.isDirectory(i) != current.isDirectory(j)) {
+                    newEvents |= report(StandardWatchEventKinds.ENTRY_DELETE, previous, i);
+                    newEvents |= report(StandardWatchEventKinds.ENTRY_CREATE, current, j);
+                } else if (!current.isDirectory(j)
+                        && (previous.mtime(i) != current.mtime(j) || previous.size(i) != current.size(j))) {
+                    newEvents |= report(StandardWatchEventKinds.ENTRY_MODIFY, current, j);
+                }
+                i++;
+                j++;
+            }
+        }
+        return newEvents;
+    }
+
+    boolean report(WatchEvent.Kind<Path> kind, GlusterTreeSnapshot snapshot, int i) {
+        return report(kind, new GlusterPath(getPath().getFileSystem(), snapshot.name(i)), snapshot.mtime(i));
+    }
+
+    @Override
+    void forget() {
+        super.forget();
+        snapshot = null;
+        walking = null;
+    }
+
+    @Override
+    synchronized GlusterTreeSnapshot toSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * The next scan is merged against the checkpointed snapshot, reporting exactly what changed in between.
+     */
+    @Override
+    synchronized void restore(GlusterTreeSnapshot snapshot, long lastPolled) {
+        this.snapshot = snapshot;
+        setLastPolled(lastPolled);
+    }
+
+    @Override
+    synchronized public List<WatchEvent<?>> pollEvents() {
+        if (!isReady()) {
+            return new LinkedList<>();
+        }
+        setReady(false);
+        setDelivered(true);
+        List<WatchEvent<?>> events = getPending().drain(this);
+        setLastPolled(System.currentTimeMillis());
+        return events;
+    }
+}
@@ -0,0 +1,144 @@
+package com.peircean.glusterfs;
+
+import com.peircean.libgfapi_jni.internal.GLFS;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Polls the cache invalidation upcalls that the servers send when another client changes an inode this client has
+ * looked up, and turns them into invalidations of the GlusterFileSystem's caches.  Upcalls are only sent for volumes
+ * with features.cache-invalidation on.  libgfapi queues them per glfs_t, so every connection of the volume is drained
+ * in turn by a single daemon thread, which sleeps for the poll interval whenever all of them are empty.
+ */
+@Getter(AccessLevel.PACKAGE)
+class GlusterUpcallDispatcher implements Runnable {
+    static final int EVENT_SIZE = 5;
+    /**
+     * GLFS_UPCALL_INODE_INVALIDATE
+     */
+    static final int INODE_INVALIDATE = 1;
+    /**
+     * GFAPI_UP_RENAME and GFAPI_UP_FORGET, after which nothing cached beneath the inode's old path is valid
+     */
+    static final int UP_RENAME = 0x80;
+    static final int UP_FORGET = 0x100;
+
+    interface Listener {
+        /**
+         * Called on the dispatch thread for each inode invalidation, after the filesystem's caches have been updated.
+         * Inodes the upcall doesn't carry are 0.
+         */
+        void upcall(int flags, long inode, long parent, long oldParent);
+    }
+
+    private final GlusterFileSystem fileSystem;
+    private final long pollMillis;
+    private final AtomicLong events = new AtomicLong();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private Thread thread;
+    private volatile boolean running;
+    /**
+     * Set while the servers' upcalls can't be read, typically because the volume doesn't have cache invalidation on,
+     * so that anything relying on them knows to poll instead
+     */
+    private volatile boolean failing;
+
+    GlusterUpcallDispatcher(GlusterFileSystem fileSystem, long pollMillis) {
+        this.fileSystem = fileSystem;
+        this.pollMillis = pollMillis;
+    }
+
+    synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "gluster-upcalls-" + fileSystem.getHost() + ":" + fileSystem.getVolname());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        long[] event = new long[EVENT_SIZE];
+        while (running) {
+            if (0 == poll(event)) {
+                try {
+                    Thread.sleep(pollMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Dispatches every upcall pending on the volume's connections.
+     *
+     * @return the number dispatched
+     */
+    int poll(long[] event) {
+        long[] volptrs = fileSystem.getVolptrs();
+        int connections = null == volptrs ? 1 : volptrs.length;
+        int taken = 0;
+        boolean failed = false;
+        for (int i = 0; i < connections; i++) {
+            long volptr = fileSystem.getVolptr(i);
+            int ret;
+            while ((ret = GLFS.glfsjni_poll_upcall(volptr, event)) > 0) {
+                dispatch(event);
+                taken++;
+            }
+            failed |= ret < 0;
+        }
+        failing = failed;
+        return taken;
+    }
+
+    void dispatch(long[] event) {
+        events.incrementAndGet();
+        if (INODE_INVALIDATE != event[0]) {
+            return;
+        }
+        int flags = (int) event[1];
+        try {
+            fileSystem.upcall(flags, event[2], event[3], event[4]);
+        } catch (RuntimeException e) {
+            // a bad event must not stop later ones from invalidating
+        }
+        for (Listener listener : listeners) {
+            try {
+                listener.upcall(flags, event[2], event[3], event[4]);
+            } catch (RuntimeException e) {
+                // nor one listener stop the others from hearing of it
+            }
+        }
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    synchronized void close() throws IOException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while stopping upcall dispatcher for " + thread.getName());
+        }
+    }
+}
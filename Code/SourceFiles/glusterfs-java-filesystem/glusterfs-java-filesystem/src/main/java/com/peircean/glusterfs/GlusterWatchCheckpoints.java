@@ -0,0 +1,108 @@
+package com.peircean.glusterfs;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Keeps what each watch key has seen in a file of its own in a local directory, so that a key registered again after
+ * a restart starts from where it left off and its first scan reports what changed in between.
+ * <p/>
+ * A checkpoint is a GlusterTreeSnapshot behind a short header naming the volume and watched path, written to a
+ * temporary file and moved into place so that a crash leaves either the old checkpoint or the new one.
+ */
+@Getter(AccessLevel.PACKAGE)
+class GlusterWatchCheckpoints {
+    static final int MAGIC = 0x47574350;
+    static final int VERSION = 1;
+    static final String SUFFIX = ".checkpoint";
+
+    private final Path directory;
+    private final String volume;
+
+    GlusterWatchCheckpoints(Path directory, String volume) {
+        this.directory = directory;
+        this.volume = volume;
+    }
+
+    /**
+     * @return what identifies key's checkpoint: the volume, the watched path and whether the whole tree is watched
+     */
+    String idOf(GlusterWatchKey key) {
+        return volume + (key instanceof GlusterTreeWatchKey ? " tree " : " directory ") + key.getPath();
+    }
+
+    Path fileOf(String id) {
+        return directory.resolve(String.format("%016x", GlusterTreeSnapshot.hash(id.getBytes(GlusterTreeSnapshot.UTF8)))
+                + SUFFIX);
+    }
+
+    /**
+     * @return false when the checkpoint could not be written, leaving the last one in place
+     */
+    boolean save(GlusterWatchKey key) {
+        GlusterTreeSnapshot snapshot = key.toSnapshot();
+        if (null == snapshot) {
+            return false;
+        }
+        String id = idOf(key);
+        Path temporary = null;
+        try {
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory, "watch", ".tmp");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(id);
+                out.writeLong(key.getLastPolled());
+                snapshot.write(out);
+            } finally {
+                out.close();
+            }
+            Files.move(temporary, fileOf(id), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            if (null != temporary) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException ignored) {
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Loads key's checkpoint into it, if it has one.  A checkpoint that can't be read is ignored and the key starts
+     * afresh, as it would without checkpoints.
+     *
+     * @return whether a checkpoint was loaded
+     */
+    boolean restore(GlusterWatchKey key) {
+        String id = idOf(key);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(fileOf(id))));
+            try {
+                if (MAGIC != in.readInt() || VERSION != in.readInt() || !id.equals(in.readUTF())) {
+                    return false;
+                }
+                long lastPolled = in.readLong();
+                key.restore(GlusterTreeSnapshot.read(in), lastPolled);
+                return true;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package com.peircean.glusterfs;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 
 import java.nio.file.Path;
 import java.nio.file.StandardWatchEventKinds;
@@ -12,6 +15,12 @@ public class GlusterWatchEvent implements WatchEvent<Path> {
     private Kind<Path> kind = StandardWatchEventKinds.ENTRY_CREATE;
     private int count = 0;
     private long lastModified;
+    /**
+     * Set when the path was deleted and then created again, which is only reported modified to keys watching that
+     */
+    @Getter(AccessLevel.PACKAGE)
+    @Setter(AccessLevel.PACKAGE)
+    private boolean replaced;
 
     public Kind<Path> kind() {
         return kind;
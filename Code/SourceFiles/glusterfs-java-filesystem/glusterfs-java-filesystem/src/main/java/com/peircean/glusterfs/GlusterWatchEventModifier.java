@@ -0,0 +1,14 @@
+package com.peircean.glusterfs;
+
+import java.nio.file.WatchEvent;
+
+/**
+ * Modifiers accepted by GlusterPath.register.  A modifier of another class with the same name, such as the JDK's
+ * com.sun.nio.file.ExtendedWatchEventModifier.FILE_TREE, is treated the same.
+ */
+public enum GlusterWatchEventModifier implements WatchEvent.Modifier {
+    /**
+     * Watch the directory and everything below it with a single key
+     */
+    FILE_TREE
+}
@@ -0,0 +1,150 @@
+package com.peircean.glusterfs;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * The events a watch key has found but not yet handed out, at most maxEvents of them.  With coalescing on, a path has
+ * at most one event, and another event for it is merged into that one the way the consumer would see the two together:
+ * a file created and then written is only reported created, one created and deleted again isn't reported at all, and one
+ * deleted and created again is reported modified, or as deleted and then created to a key that doesn't watch
+ * ENTRY_MODIFY.
+ * <p/>
+ * Once the queue is full, events for paths not already in it are dropped, and the next drain() ends with an OVERFLOW
+ * event counting them, so that the consumer knows to rescan the directory itself.
+ */
+@Getter(AccessLevel.PACKAGE)
+@Setter(AccessLevel.PACKAGE)
+class GlusterWatchEventQueue {
+    /**
+     * Keyed by context when coalescing, otherwise by the order the events were offered in
+     */
+    private final Map<Object, GlusterWatchEvent> events = new LinkedHashMap<>();
+    private int maxEvents = GlusterWatchService.DEFAULT_MAX_EVENTS;
+    private boolean coalesce = true;
+    private long sequence;
+    private int overflow;
+
+    /**
+     * @return whether there is anything to deliver once this event has been merged in
+     */
+    boolean offer(WatchEvent.Kind<Path> kind, Path context, long lastModified) {
+        GlusterWatchEvent event = coalesce ? events.get(context) : null;
+        if (null != event) {
+            merge(event, kind, lastModified);
+        } else if (events.size() >= maxEvents) {
+            overflow++;
+        } else {
+            event = new GlusterWatchEvent(context);
+            event.setKind(kind);
+            event.setCount(1);
+            event.setLastModified(lastModified);
+            events.put(coalesce ? context : sequence++, event);
+        }
+        return !isEmpty();
+    }
+
+    void merge(GlusterWatchEvent event, WatchEvent.Kind<Path> kind, long lastModified) {
+        event.setLastModified(Math.max(event.getLastModified(), lastModified));
+        if (is(event.kind(), StandardWatchEventKinds.ENTRY_CREATE)) {
+            if (is(kind, StandardWatchEventKinds.ENTRY_DELETE)) {
+                events.remove(event.context());
+            }
+        } else if (is(event.kind(), StandardWatchEventKinds.ENTRY_DELETE)
+                && is(kind, StandardWatchEventKinds.ENTRY_CREATE)) {
+            event.setKind(StandardWatchEventKinds.ENTRY_MODIFY);
+            event.setCount(1);
+            event.setReplaced(true);
+        } else if (is(event.kind(), kind)) {
+            event.setCount(event.getCount() + 1);
+        } else if (is(kind, StandardWatchEventKinds.ENTRY_DELETE)) {
+            event.setKind(kind);
+            event.setCount(1);
+            event.setReplaced(false);
+        }
+    }
+
+    static boolean is(WatchEvent.Kind<?> kind, WatchEvent.Kind<?> other) {
+        return kind.name().equals(other.name());
+    }
+
+    boolean isEmpty() {
+        return events.isEmpty() && 0 == overflow;
+    }
+
+    int size() {
+        return events.size();
+    }
+
+    /**
+     * Empties the queue.
+     *
+     * @return the events of the kinds key watches, in the order their paths first had one, followed by an OVERFLOW event
+     * if any were dropped, which is delivered whatever the kinds
+     */
+    LinkedList<WatchEvent<?>> drain(GlusterWatchKey key) {
+        LinkedList<WatchEvent<?>> drained = new LinkedList<>();
+        for (GlusterWatchEvent event : events.values()) {
+            if (event.isReplaced() && !key.kindsContains(StandardWatchEventKinds.ENTRY_MODIFY)) {
+                addIfWatched(drained, key, split(event, StandardWatchEventKinds.ENTRY_DELETE));
+                addIfWatched(drained, key, split(event, StandardWatchEventKinds.ENTRY_CREATE));
+            } else {
+                addIfWatched(drained, key, event);
+            }
+        }
+        if (overflow > 0) {
+            drained.add(new Overflow(overflow));
+        }
+        events.clear();
+        overflow = 0;
+        return drained;
+    }
+
+    static void addIfWatched(LinkedList<WatchEvent<?>> drained, GlusterWatchKey key, GlusterWatchEvent event) {
+        if (key.kindsContains(event.kind())) {
+            drained.add(event);
+        }
+    }
+
+    /**
+     * @return one of the two events a replaced path's event stands for
+     */
+    static GlusterWatchEvent split(GlusterWatchEvent event, WatchEvent.Kind<Path> kind) {
+        GlusterWatchEvent part = new GlusterWatchEvent(event.context());
+        part.setKind(kind);
+        part.setCount(1);
+        part.setLastModified(event.getLastModified());
+        return part;
+    }
+
+    static class Overflow implements WatchEvent<Object> {
+        private final int count;
+
+        Overflow(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public Kind<Object> kind() {
+            return StandardWatchEventKinds.OVERFLOW;
+        }
+
+        @Override
+        public int count() {
+            return count;
+        }
+
+        @Override
+        public Object context() {
+            return null;
+        }
+    }
+}
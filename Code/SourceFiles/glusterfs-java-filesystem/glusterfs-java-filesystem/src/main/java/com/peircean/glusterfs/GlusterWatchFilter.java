@@ -0,0 +1,23 @@
+package com.peircean.glusterfs;
+
+import lombok.Data;
+
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchEvent;
+
+/**
+ * A modifier for GlusterPath.register that only watches the entries its matcher accepts, such as
+ * fileSystem.getPathMatcher("glob:*.parquet").  The matcher is given each entry's name relative to the watched
+ * directory, the context its events would carry, and entries it rejects are neither stat'ed nor remembered by the key.
+ * The subdirectories of a watched tree are still walked whether or not they match.
+ */
+@Data
+public class GlusterWatchFilter implements WatchEvent.Modifier {
+    public static final String NAME = "FILTER";
+    private final PathMatcher matcher;
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+}
@@ -1,48 +1,285 @@
 package com.peircean.glusterfs;
 
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NonNull;
 
 import java.io.IOException;
 import java.nio.file.*;
+import java.nio.file.attribute.PosixFileAttributes;
 import java.util.*;
 
 @Data
 @EqualsAndHashCode(of = "path")
 public class GlusterWatchKey implements WatchKey {
-    private boolean valid = true;
-    private boolean ready = true;
+    private volatile boolean valid = true;
+    private volatile boolean ready = true;
     Map<Path, GlusterWatchEvent> events = new HashMap<>();
     final private GlusterPath path;
     @NonNull
     private WatchEvent.Kind[] kinds;
+    /**
+     * Which entries to watch, by their name relative to the watched directory; all of them when null
+     */
+    private PathMatcher filter;
     private long lastPolled = (new Date()).getTime();
+    /**
+     * Whether something may have changed in the directory since it was last scanned.  Keys start out signalled so
+     * that they are scanned once; after that an upcall-driven GlusterWatchService only rescans them when signalled.
+     */
+    private volatile boolean signalled = true;
+    private long lastScanned;
+    /**
+     * How long the watch service waits between polls of this directory, which doubles each time it finds nothing new
+     * and drops back to minInterval when it finds events, between the bounds the service started the key with
+     */
+    private long minInterval = GlusterWatchService.MIN_PERIOD;
+    private long maxInterval = GlusterWatchService.MAX_PERIOD;
+    private long interval = GlusterWatchService.PERIOD;
+    private long nextScan;
+    /**
+     * How long, in milliseconds, one update() may list for before leaving the rest for the next; 0 for no limit
+     */
+    private long scanSlice = GlusterWatchService.SCAN_SLICE;
+    /**
+     * The files and inodes found so far by a listing that is part way through, and where to carry it on from.  The
+     * files are hashed, as every known file is looked up in them once the listing completes.
+     */
+    private Set<Path> scanFiles;
+    private Set<Long> scanInodes;
+    private long cursor;
+    /**
+     * The inodes of the directory and the files in it as of the last scan, for matching upcalls to this key
+     */
+    private Set<Long> inodes = new HashSet<>();
+    private long inode;
+    /**
+     * Set when a file in the directory may have changed in place, which leaves the directory's own times alone
+     */
+    private volatile boolean stale;
+    private long lastFullScan;
+    /**
+     * The directory's mtime and ctime, in seconds, and when this client first saw them
+     */
+    private long dirModified = -1;
+    private long dirChanged = -1;
+    private long dirTimesSeen;
+    /**
+     * Whether the key has moved on since it was last checkpointed, and whether the events it has found since have
+     * been taken; a checkpoint is only written once they have, so that a restart can't lose them
+     */
+    private volatile boolean checkpointDue = true;
+    private volatile boolean delivered = true;
+    /**
+     * Set from a checkpoint until the next full scan, which then reports any file it doesn't know of as created
+     */
+    private boolean restored;
+    /**
+     * The events found since the last pollEvents(), bounded and coalesced as the watch service configured it
+     */
+    @Getter(AccessLevel.PACKAGE)
+    private final GlusterWatchEventQueue pending = new GlusterWatchEventQueue();
 
     @Override
     public boolean isValid() {
         return valid;
     }
 
-    public boolean update() {
+    /**
+     * Rescans the directory.  Called from one of the watch service's scanner threads, while pollEvents() may be called
+     * from any other.
+     * <p/>
+     * The directory is stat'ed first and not listed again when its mtime and ctime are what the last full scan saw,
+     * since entries being created, removed or renamed moves them.  Writes to existing files don't, so the directory is
+     * still fully rescanned every GlusterWatchService.FULL_SCAN_PERIOD, or as soon as it is marked stale.
+     * <p/>
+     * A listing that runs past scanSlice milliseconds stops where it got to and carries on from there next time, so
+     * that a huge directory doesn't hold up the others.  Created and modified files are reported as they are found,
+     * deleted ones once the listing is complete.
+     */
+    synchronized public boolean update() {
+        signalled = false;
+        long now = System.currentTimeMillis();
+        lastScanned = now;
+        long deadline = scanSlice > 0 ? now + scanSlice : Long.MAX_VALUE;
+        if (!isScanning()) {
+            GlusterFileAttributes dir = directoryAttributes();
+            if (null != dir && isUnchanged(dir, now)) {
+                return false;
+            }
+            stale = false;
+            lastFullScan = now;
+            scanFiles = new HashSet<>();
+            scanInodes = new HashSet<>();
+            if (null != dir) {
+                scanInodes.add(dir.getInode());
+            }
+            cursor = 0;
+        }
         DirectoryStream<Path> paths;
         try {
-            paths = Files.newDirectoryStream(path);
+            paths = openDirectory();
         } catch (IOException e) {
+            scanFiles = null;
             return false;
         }
-        List<Path> files = new LinkedList<>();
         boolean newEvents = false;
-        for (Path f : paths) {
-            newEvents |= processExistingFile(files, f);
+        boolean complete = true;
+        boolean plus = false;
+        try {
+            if (paths instanceof GlusterDirectoryStream) {
+                plus = true;
+                GlusterDirectoryStream stream = (GlusterDirectoryStream) paths;
+                if (0 != cursor) {
+                    stream.seek(cursor);
+                }
+                Iterator<GlusterDirectoryEntry> entries = stream.entryIterator();
+                while (entries.hasNext()) {
+                    GlusterDirectoryEntry entry = entries.next();
+                    scanInodes.add(entry.getAttributes().getInode());
+                    newEvents |= processExistingFile(scanFiles, entry.getPath(), entry.getAttributes());
+                    if (System.currentTimeMillis() >= deadline) {
+                        cursor = stream.tell();
+                        complete = false;
+                        break;
+                    }
+                }
+            } else {
+                for (Path f : paths) {
+                    newEvents |= processExistingFile(scanFiles, f);
+                }
+            }
+        } finally {
+            try {
+                paths.close();
+            } catch (IOException e) {
+            }
+        }
+        if (!complete) {
+            return newEvents;
+        }
+        if (plus) {
+            inodes = scanInodes;
         }
         for (Path f : events.keySet()) {
-            newEvents |= checkDeleted(files, f);
+            newEvents |= checkDeleted(scanFiles, f);
         }
+        scanFiles = null;
+        scanInodes = null;
+        cursor = 0;
+        restored = false;
         return newEvents;
     }
 
-    boolean processExistingFile(List<Path> files, Path f) {
+    /**
+     * Lists the directory through the filter, so that the entries it rejects go no further than the listing.
+     */
+    DirectoryStream<Path> openDirectory() throws IOException {
+        if (null == filter) {
+            return Files.newDirectoryStream(path);
+        }
+        final PathMatcher matcher = filter;
+        return Files.newDirectoryStream(path, new DirectoryStream.Filter<Path>() {
+            @Override
+            public boolean accept(Path entry) {
+                return matcher.matches(entry.getFileName());
+            }
+        });
+    }
+
+    /**
+     * Swaps the filter of a key whose directory is registered again.  What the key knows of the directory went through
+     * the old filter, so it starts over as though it had just been registered.
+     */
+    synchronized void changeFilter(PathMatcher filter) {
+        if (this.filter == filter) {
+            return;
+        }
+        this.filter = filter;
+        forget();
+    }
+
+    void forget() {
+        events.clear();
+        scanFiles = null;
+        scanInodes = null;
+        cursor = 0;
+        dirModified = -1;
+        dirChanged = -1;
+        lastPolled = System.currentTimeMillis();
+        restored = false;
+        signalled = true;
+    }
+
+    /**
+     * @return whether a listing is part way through, to be carried on by the next update()
+     */
+    boolean isScanning() {
+        return null != scanFiles;
+    }
+
+    /**
+     * @return the files last seen in the directory, by name, with the modification times their events carry
+     */
+    synchronized GlusterTreeSnapshot toSnapshot() {
+        GlusterTreeSnapshot snapshot = new GlusterTreeSnapshot();
+        for (Map.Entry<Path, GlusterWatchEvent> entry : events.entrySet()) {
+            GlusterWatchEvent event = entry.getValue();
+            if (!StandardWatchEventKinds.ENTRY_DELETE.name().equals(event.kind().name())) {
+                snapshot.add(entry.getKey().getFileName().toString(), event.getLastModified(), 0);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Picks up from a checkpoint written by toSnapshot(), as though the files in it had been seen by an earlier scan
+     * and lastPolled were when their events were last taken.
+     */
+    synchronized void restore(GlusterTreeSnapshot snapshot, long lastPolled) {
+        events.clear();
+        for (int i = 0; i < snapshot.getSize(); i++) {
+            Path f = path.resolve(snapshot.name(i));
+            GlusterWatchEvent event = new GlusterWatchEvent(f.getFileName());
+            event.setLastModified(snapshot.mtime(i));
+            events.put(f, event);
+        }
+        this.lastPolled = lastPolled;
+        restored = true;
+    }
+
+    GlusterFileAttributes directoryAttributes() {
+        try {
+            PosixFileAttributes attributes = Files.readAttributes(path, PosixFileAttributes.class);
+            if (attributes instanceof GlusterFileAttributes) {
+                return (GlusterFileAttributes) attributes;
+            }
+        } catch (IOException e) {
+            // the scan will find the directory gone
+        }
+        return null;
+    }
+
+    /**
+     * Times only have a resolution of a second, so entries created in the same second as a scan could be missed
+     * without moving them again.  They are only trusted once a full scan has started a second after this client first
+     * saw them, which is after that second ended on the servers too, whatever their clocks say.
+     */
+    boolean isUnchanged(GlusterFileAttributes dir, long now) {
+        inode = dir.getInode();
+        if (dir.getMtime() != dirModified || dir.getCtime() != dirChanged) {
+            dirModified = dir.getMtime();
+            dirChanged = dir.getCtime();
+            dirTimesSeen = now;
+            return false;
+        }
+        return !stale && lastFullScan >= dirTimesSeen + GlusterWatchService.MILLIS_PER_SECOND
+                && now - lastFullScan < GlusterWatchService.FULL_SCAN_PERIOD;
+    }
+
+    boolean processExistingFile(Set<Path> files, Path f) {
         if (Files.isDirectory(f)) {
             return false;
         }
@@ -55,6 +292,18 @@ public class GlusterWatchKey implements WatchKey {
             return false;
         }
 
+        return processLastModified(f, lastModified);
+    }
+
+    boolean processExistingFile(Set<Path> files, Path f, GlusterFileAttributes attributes) {
+        if (attributes.isDirectory()) {
+            return false;
+        }
+        files.add(f);
+        return processLastModified(f, attributes.lastModifiedTime().toMillis());
+    }
+
+    boolean processLastModified(Path f, long lastModified) {
         GlusterWatchEvent event = events.get(f);
         if (null != event) {
             return checkModified(event, lastModified);
@@ -63,23 +312,30 @@ public class GlusterWatchKey implements WatchKey {
         }
     }
 
-    boolean checkDeleted(List<Path> files, Path f) {
+    boolean checkDeleted(Set<Path> files, Path f) {
         GlusterWatchEvent event = events.get(f);
         if (!files.contains(f) &&
                 !StandardWatchEventKinds.ENTRY_DELETE.name().equals(event.kind().name())) {
             event.setLastModified((new Date()).getTime());
             event.setKind(StandardWatchEventKinds.ENTRY_DELETE);
             event.setCount(event.getCount() + 1);
-            return true;
+            return report(event.kind(), event.context(), event.getLastModified());
         }
         return false;
     }
 
     boolean checkCreated(Path f, long lastModified) {
+        if (restored) {
+            // created while nothing was watching, perhaps with an older mtime copied from elsewhere
+            lastModified = Math.max(lastModified, lastPolled + 1);
+        }
         GlusterWatchEvent event = new GlusterWatchEvent(f.getFileName());
         event.setLastModified(lastModified);
         events.put(f, event);
-        return (lastModified > lastPolled);
+        if (lastModified > lastPolled) {
+            return report(event.kind(), event.context(), lastModified);
+        }
+        return false;
     }
 
     boolean checkModified(GlusterWatchEvent event, long lastModified) {
@@ -92,11 +348,21 @@ public class GlusterWatchKey implements WatchKey {
                 event.setKind(StandardWatchEventKinds.ENTRY_MODIFY);
                 event.setCount(event.getCount() + 1);
             }
-            return true;
+            return report(event.kind(), event.context(), lastModified);
         }
         return false;
     }
 
+    /**
+     * Queues an event if this key watches its kind.  Events of other kinds only update what the key remembers of the
+     * directory, so they neither take room in the queue nor wake the consumer.
+     *
+     * @return whether the event was queued and there is something to deliver
+     */
+    boolean report(WatchEvent.Kind<Path> kind, Path context, long lastModified) {
+        return kindsContains(kind) && pending.offer(kind, context, lastModified);
+    }
+
     boolean kindsContains(WatchEvent.Kind kind) {
         for (WatchEvent.Kind k : kinds) {
             if (k.name().equals(kind.name())) {
@@ -112,27 +378,20 @@ public class GlusterWatchKey implements WatchKey {
             return new LinkedList<>();
         }
         ready = false;
+        delivered = true;
         return findPendingEvents();
     }
 
+    /**
+     * Takes the events queued since the last poll, and moves lastPolled on past every modification time seen so far.
+     */
     LinkedList<WatchEvent<?>> findPendingEvents() {
         long maxModifiedTime = lastPolled;
-        LinkedList<WatchEvent<?>> pendingEvents = new LinkedList<>();
-        for (Path p : events.keySet()) {
-            long lastModified = queueEventIfPending(pendingEvents, p);
-            maxModifiedTime = Math.max(maxModifiedTime, lastModified);
+        for (GlusterWatchEvent e : events.values()) {
+            maxModifiedTime = Math.max(maxModifiedTime, e.getLastModified());
         }
         lastPolled = maxModifiedTime;
-        return pendingEvents;
-    }
-
-    private long queueEventIfPending(LinkedList<WatchEvent<?>> pendingEvents, Path p) {
-        GlusterWatchEvent e = events.get(p);
-        long lastModified = e.getLastModified();
-        if (lastModified > lastPolled && kindsContains(e.kind())) {
-            pendingEvents.add(e);
-        }
-        return lastModified;
+        return pending.drain(this);
     }
 
     @Override
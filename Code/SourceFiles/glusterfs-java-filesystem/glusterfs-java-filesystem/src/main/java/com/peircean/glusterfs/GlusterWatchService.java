@@ -4,131 +4,549 @@ import lombok.Data;
 
 import java.io.IOException;
 import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.PathMatcher;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.NoSuchElementException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Watches directories by scanning them on a background thread, which queues each key that has events for take() and
+ * poll().  When the filesystem is polling the servers' cache invalidation upcalls, a directory is only rescanned after
+ * an upcall for it or one of its files, or once every UPCALL_REFRESH_PERIOD: the servers stop sending upcalls for
+ * inodes a client hasn't looked at within features.cache-invalidation-timeout, so quiet directories are rescanned that
+ * often to keep hearing of them.  Without upcalls, or while they are failing, each directory is polled at an interval of
+ * its own, which backs off while it is quiet and tightens again once it has events.
+ * <p/>
+ * The keys that are due are rescanned on a pool of scanThreads workers, each scan limited to a slice of SCAN_SLICE
+ * milliseconds after which a huge directory carries on where it left off next time round, so that it can't hold up
+ * the events of the others.  With one thread the scans run on the scanner thread itself.
+ * <p/>
+ * When the filesystem has watch checkpoints enabled, a key is checkpointed once the events it found have been taken,
+ * and a key registered for the same path later, by this JVM or the next, carries on from that checkpoint.
+ */
 @Data
 public class GlusterWatchService implements WatchService {
     public static final int MILLIS_PER_SECOND = 1000;
     public static final int MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
     public static final int MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
     public static final int MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+    /**
+     * The interval a key starts polling at, and the longest the scanner sleeps without looking at which keys are due
+     */
     public static long PERIOD = 100L;
+    /**
+     * The shortest and longest intervals a key starts with, for polling a directory that has just had events and one
+     * that hasn't had any for a while
+     */
+    public static long MIN_PERIOD = 50L;
+    public static long MAX_PERIOD = MILLIS_PER_MINUTE;
+    /**
+     * The most keys rescanned each time round, most overdue first, so that one pass over many due directories doesn't
+     * hold up checkpoints and newly registered keys
+     */
+    public static int SCAN_BUDGET = 64;
+    /**
+     * How long, in milliseconds, one scan of a key may take before it stops and carries on next time round
+     */
+    public static long SCAN_SLICE = 50L;
+    /**
+     * How many keys are scanned at once unless the filesystem says otherwise
+     */
+    public static final int DEFAULT_SCAN_THREADS = 4;
+    /**
+     * The most events a key holds for its consumer unless the filesystem says otherwise, as many as the JDK's own
+     * watch service does, after which it reports OVERFLOW
+     */
+    public static final int DEFAULT_MAX_EVENTS = 512;
+    public static long UPCALL_REFRESH_PERIOD = 30 * MILLIS_PER_SECOND;
+    /**
+     * How often a directory whose own times haven't moved is listed anyway, to catch files modified in place
+     */
+    public static long FULL_SCAN_PERIOD = 10 * MILLIS_PER_SECOND;
+    private static final AtomicInteger SERVICES = new AtomicInteger();
+    /**
+     * Queued when the service closes, so that threads blocked in take() or poll() wake up to find it closed
+     */
+    static final GlusterWatchKey CLOSED = new GlusterWatchKey(null, new WatchEvent.Kind[0]);
 
-    private Set<GlusterWatchKey> paths = new HashSet<>();
-    private Set<GlusterWatchKey> pendingPaths = new HashSet<>();
-    private boolean running = true;
+    private final Set<GlusterWatchKey> paths = Collections.newSetFromMap(new ConcurrentHashMap<GlusterWatchKey, Boolean>());
+    private final BlockingQueue<GlusterWatchKey> pendingPaths = new LinkedBlockingQueue<>();
+    private volatile boolean running = true;
+    private final GlusterFileSystem fileSystem;
+    /**
+     * The keys holding each inode, since a directory can be watched on its own and as part of a tree.  Keys compare by
+     * path, so each inode's keys are kept by identity.  Guarded by itself.
+     */
+    private final Map<Long, Set<GlusterWatchKey>> inodes = new HashMap<>();
+    private final Semaphore wakeups = new Semaphore(0);
+    private Thread scanner;
+    private final int scanThreads;
+    /**
+     * How many events each key may hold, and whether it merges those for the same path
+     */
+    private final int maxEvents;
+    private final boolean coalesceEvents;
+    private ExecutorService workers;
+    /**
+     * The keys being scanned, which are not handed to another worker until their scan is done
+     */
+    private final Set<GlusterWatchKey> scanning = Collections.newSetFromMap(new ConcurrentHashMap<GlusterWatchKey, Boolean>());
+    /**
+     * The keys in pendingPaths, so the scanner can skip them without walking the queue under its lock
+     */
+    private final Set<GlusterWatchKey> queued = Collections.newSetFromMap(new ConcurrentHashMap<GlusterWatchKey, Boolean>());
+    private final GlusterWatchCheckpoints checkpoints;
+    private final GlusterUpcallDispatcher.Listener listener = new GlusterUpcallDispatcher.Listener() {
+        @Override
+        public void upcall(int flags, long inode, long parent, long oldParent) {
+            boolean signalled = signal(inode);
+            signalled |= signal(parent);
+            signalled |= signal(oldParent);
+            if (signalled) {
+                wakeups.release();
+            }
+        }
+    };
+
+    public GlusterWatchService() {
+        this(null);
+    }
+
+    GlusterWatchService(GlusterFileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+        this.checkpoints = null == fileSystem ? null : fileSystem.getWatchCheckpoints();
+        this.scanThreads = null == fileSystem ? 1 : fileSystem.getWatchScanThreads();
+        this.maxEvents = null == fileSystem ? DEFAULT_MAX_EVENTS : fileSystem.getWatchMaxEvents();
+        this.coalesceEvents = null == fileSystem || fileSystem.isWatchCoalesceEvents();
+        GlusterUpcallDispatcher dispatcher = getUpcallDispatcher();
+        if (null != dispatcher) {
+            dispatcher.addListener(listener);
+        }
+    }
+
+    public synchronized WatchKey registerPath(GlusterPath path, WatchEvent.Kind... kinds) {
+        return registerPath(path, (PathMatcher) null, kinds);
+    }
+
+    /**
+     * Watches only the files in path that filter accepts, or all of them when it is null.
+     */
+    public synchronized WatchKey registerPath(GlusterPath path, PathMatcher filter, WatchEvent.Kind... kinds) {
+        GlusterWatchKey key = new GlusterWatchKey(path, kinds);
+        key.setFilter(filter);
+        return register(key);
+    }
+
+    /**
+     * Watches path and everything below it with one key.
+     */
+    public synchronized WatchKey registerTree(GlusterPath path, WatchEvent.Kind... kinds) {
+        return registerTree(path, (PathMatcher) null, kinds);
+    }
 
-    public WatchKey registerPath(GlusterPath path, WatchEvent.Kind... kinds) {
+    public synchronized WatchKey registerTree(GlusterPath path, PathMatcher filter, WatchEvent.Kind... kinds) {
+        GlusterTreeWatchKey key = new GlusterTreeWatchKey(path, kinds);
+        key.setFilter(filter);
+        return register(key);
+    }
+
+    /**
+     * Registering a directory again only changes the kinds and filter of its key, unless it switches between watching
+     * the directory and watching the tree, which cancels the old key in favour of the new one.  Called with this locked.
+     */
+    WatchKey register(GlusterWatchKey key) {
         if (!running) {
             throw new ClosedWatchServiceException();
         }
         for (GlusterWatchKey k : paths) {
-            if (k.getPath().equals(path)) {
-                k.setKinds(kinds);
-                return k;
+            if (k.getPath().equals(key.getPath())) {
+                if (k.isValid() && k.getClass().equals(key.getClass())) {
+                    k.setKinds(key.getKinds());
+                    k.changeFilter(key.getFilter());
+                    return k;
+                }
+                k.cancel();
+                paths.remove(k);
+                forget(k);
+                break;
             }
         }
-        GlusterWatchKey key = new GlusterWatchKey(path, kinds);
+        if (maxEvents > 0) {
+            key.getPending().setMaxEvents(maxEvents);
+        }
+        key.getPending().setCoalesce(coalesceEvents);
+        if (null != checkpoints) {
+            checkpoints.restore(key);
+        }
         paths.add(key);
+        startScanner();
+        wakeups.release();
         return key;
     }
 
+    /**
+     * Starts the thread that scans the registered directories, and the workers it hands them to, once there is one to
+     * scan.  Called with this locked.
+     */
+    void startScanner() {
+        if (null != scanner) {
+            return;
+        }
+        final String name = "gluster-watch-" + SERVICES.incrementAndGet();
+        if (scanThreads > 1) {
+            final AtomicInteger threads = new AtomicInteger();
+            workers = Executors.newFixedThreadPool(scanThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, name + "-worker-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        scanner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running) {
+                    long wait = scanAll();
+                    try {
+                        wakeups.tryAcquire(wait, TimeUnit.MILLISECONDS);
+                        wakeups.drainPermits();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, name);
+        scanner.setDaemon(true);
+        scanner.start();
+    }
+
     @Override
     public void close() throws IOException {
-        if (running) {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
             running = false;
-            for (GlusterWatchKey k : paths) {
-                k.cancel();
+        }
+        GlusterUpcallDispatcher dispatcher = getUpcallDispatcher();
+        if (null != dispatcher) {
+            dispatcher.removeListener(listener);
+        }
+        for (GlusterWatchKey k : paths) {
+            checkpoint(k);
+            k.cancel();
+        }
+        wakeups.release();
+        synchronized (this) {
+            if (null != workers) {
+                workers.shutdown();
             }
         }
+        pendingPaths.offer(CLOSED);
     }
 
-    WatchKey popPending() {
-        Iterator<GlusterWatchKey> iterator = pendingPaths.iterator();
-        try {
-            GlusterWatchKey key = iterator.next();
-            iterator.remove();
-            return key;
-        } catch (NoSuchElementException e) {
-            return null;
+    GlusterUpcallDispatcher getUpcallDispatcher() {
+        return null == fileSystem ? null : fileSystem.getUpcallDispatcher();
+    }
+
+    /**
+     * @return whether keys can wait for upcalls to tell them to rescan
+     */
+    boolean isEventDriven() {
+        GlusterUpcallDispatcher dispatcher = getUpcallDispatcher();
+        return null != dispatcher && dispatcher.isRunning() && !dispatcher.isFailing();
+    }
+
+    /**
+     * @return whether inode belongs to a watched directory, each of which is now due a rescan; a full one when inode is
+     * one of its files, which may have been written without the directory's times moving
+     */
+    boolean signal(long inode) {
+        if (0 == inode) {
+            return false;
+        }
+        synchronized (inodes) {
+            Set<GlusterWatchKey> keys = inodes.get(inode);
+            if (null == keys) {
+                return false;
+            }
+            for (GlusterWatchKey key : keys) {
+                if (inode != key.getInode()) {
+                    key.setStale(true);
+                }
+                key.setSignalled(true);
+            }
+            return true;
         }
     }
-    
-    @Override
-    public WatchKey poll() {
-        if (!running) {
-            throw new ClosedWatchServiceException();
+
+    void index(Long inode, GlusterWatchKey key) {
+        synchronized (inodes) {
+            Set<GlusterWatchKey> keys = inodes.get(inode);
+            if (null == keys) {
+                keys = Collections.newSetFromMap(new IdentityHashMap<GlusterWatchKey, Boolean>());
+                inodes.put(inode, keys);
+            }
+            keys.add(key);
         }
-        WatchKey pending = popPending();
-        if (null != pending) {
-            return pending;
+    }
+
+    void unindex(Long inode, GlusterWatchKey key) {
+        synchronized (inodes) {
+            Set<GlusterWatchKey> keys = inodes.get(inode);
+            if (null != keys && keys.remove(key) && keys.isEmpty()) {
+                inodes.remove(inode);
+            }
         }
-        for (GlusterWatchKey k : paths) {
-            if (k.isValid() && k.isReady() && k.update()) {
-                pendingPaths.add(k);
+    }
+
+    /**
+     * Stops matching upcalls to key, once it is cancelled.
+     */
+    void forget(GlusterWatchKey key) {
+        for (Long inode : key.getInodes()) {
+            unindex(inode, key);
+        }
+    }
+
+    boolean needsScan(GlusterWatchKey key, boolean eventDriven, long now) {
+        if (key.isScanning()) {
+            return true;
+        }
+        if (eventDriven) {
+            return key.isSignalled() || now - key.getLastScanned() >= UPCALL_REFRESH_PERIOD;
+        }
+        return now >= key.getNextScan();
+    }
+
+    /**
+     * @return when key is next due a scan that nothing has signalled
+     */
+    long dueAt(GlusterWatchKey key, boolean eventDriven) {
+        return eventDriven ? key.getLastScanned() + UPCALL_REFRESH_PERIOD : key.getNextScan();
+    }
+
+    /**
+     * Tightens key's interval to its minimum when the scan found events, otherwise doubles it up to its maximum.  A
+     * key whose scan is part way through keeps its interval and is due again straight away.
+     */
+    void reschedule(GlusterWatchKey key, boolean changed, long now) {
+        if (key.isScanning()) {
+            key.setNextScan(now);
+            return;
+        }
+        long interval = changed ? key.getMinInterval() : Math.min(key.getInterval() * 2, key.getMaxInterval());
+        interval = Math.max(interval, key.getMinInterval());
+        key.setInterval(interval);
+        key.setNextScan(now + interval);
+    }
+
+    /**
+     * Rescans key and points the upcalls of the inodes it now holds at it.  A key cancelled meanwhile lets them go
+     * again, in case scanAll already forgot it.
+     */
+    boolean scan(GlusterWatchKey key) {
+        if (null == fileSystem) {
+            return key.update();
+        }
+        Set<Long> before = key.getInodes();
+        boolean changed = key.update();
+        if (changed) {
+            key.setDelivered(false);
+            key.setCheckpointDue(true);
+        }
+        Set<Long> after = key.getInodes();
+        for (Long inode : before) {
+            if (!after.contains(inode)) {
+                unindex(inode, key);
             }
         }
-        return popPending();
+        for (Long inode : after) {
+            index(inode, key);
+        }
+        if (!key.isValid()) {
+            forget(key);
+        }
+        return changed;
     }
 
-    @Override
-    public WatchKey poll(long timeout, TimeUnit unit) {
-        long timeoutMillis = timeoutToMillis(timeout, unit);
-        long loops = 0;
-        while (running) {
-            WatchKey key = poll();
-            if (key != null) {
-                return key;
-            }
-            if ((loops * PERIOD) > timeoutMillis) {
-                return null;
-            }
-            loops++;
+    /**
+     * Checkpoints key if it has been scanned since it was last checkpointed and its events have all been taken.
+     */
+    void checkpoint(GlusterWatchKey key) {
+        if (null != checkpoints && key.isCheckpointDue() && key.isDelivered() && 0 != key.getLastScanned()) {
+            key.setCheckpointDue(false);
+            if (!checkpoints.save(key)) {
+                key.setCheckpointDue(true);
+            }
+        }
+    }
+
+    /**
+     * Hands up to SCAN_BUDGET of the keys that are due to the workers, less any still being scanned, signalled ones
+     * first and then the most overdue.  Keys with new events are queued.  Keys already queued or being scanned, or
+     * whose events have been taken but not reset, are left alone.
+     *
+     * @return how long the scanner can sleep before another key is due, at most PERIOD
+     */
+    long scanAll() {
+        final boolean eventDriven = isEventDriven();
+        long now = System.currentTimeMillis();
+        List<GlusterWatchKey> signalled = new ArrayList<>();
+        List<GlusterWatchKey> due = new ArrayList<>();
+        for (GlusterWatchKey k : paths) {
             try {
-                Thread.sleep(PERIOD);
-            } catch (InterruptedException e) {
+                checkpoint(k);
+                if (!k.isValid()) {
+                    paths.remove(k);
+                    forget(k);
+                    continue;
+                }
+                if (!scanning.contains(k) && k.isValid() && k.isReady() && !queued.contains(k)
+                        && needsScan(k, eventDriven, now)) {
+                    (k.isSignalled() ? signalled : due).add(k);
+                }
+            } catch (RuntimeException e) {
+                // keep watching the other directories; this one is retried next time round
             }
         }
-        throw new ClosedWatchServiceException();
+        Collections.sort(due, new Comparator<GlusterWatchKey>() {
+            @Override
+            public int compare(GlusterWatchKey a, GlusterWatchKey b) {
+                long x = dueAt(a, eventDriven);
+                long y = dueAt(b, eventDriven);
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        signalled.addAll(due);
+        due = signalled;
+        int budget = Math.max(SCAN_BUDGET - scanning.size(), 0);
+        if (due.size() > budget) {
+            due = due.subList(0, budget);
+        }
+        for (GlusterWatchKey k : due) {
+            submit(k);
+        }
+        return timeUntilDue(eventDriven, System.currentTimeMillis());
     }
 
-    @Override
-    public WatchKey take() {
-        while (running) {
-            WatchKey key = poll();
-            if (key != null) {
-                return key;
+    /**
+     * Scans key on a worker, or right here when there are none.  The scanner is woken when a worker finishes, since
+     * the key may be due again straight away.
+     */
+    void submit(final GlusterWatchKey key) {
+        scanning.add(key);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scanAndQueue(key);
+                } finally {
+                    scanning.remove(key);
+                    if (null != workers) {
+                        wakeups.release();
+                    }
+                }
             }
-            try {
-                Thread.sleep(PERIOD);
-            } catch (InterruptedException e) {
+        };
+        if (null == workers) {
+            task.run();
+            return;
+        }
+        try {
+            workers.execute(task);
+        } catch (RejectedExecutionException e) {
+            // closing
+            scanning.remove(key);
+        }
+    }
+
+    void scanAndQueue(GlusterWatchKey key) {
+        boolean changed = false;
+        try {
+            changed = scan(key);
+            if (changed) {
+                enqueue(key);
             }
+        } catch (RuntimeException e) {
+            // keep watching the other directories; this one backs off like a quiet one
         }
-        throw new ClosedWatchServiceException();
+        reschedule(key, changed, System.currentTimeMillis());
     }
 
-    long timeoutToMillis(long timeout, TimeUnit unit) {
-        switch (unit) {
-            case DAYS:
-                return (timeout * MILLIS_PER_DAY);
-            case HOURS:
-                return (timeout * MILLIS_PER_HOUR);
-            case MINUTES:
-                return (timeout * MILLIS_PER_MINUTE);
-            case SECONDS:
-                return (timeout * MILLIS_PER_SECOND);
-            case MILLISECONDS:
-                return timeout;
-            default: //MICROS & NANOS
-                return -1;
+    void enqueue(GlusterWatchKey key) {
+        queued.add(key);
+        pendingPaths.offer(key);
+    }
+
+    /**
+     * @return how long until the first of the keys that can be scanned is due, at most PERIOD
+     */
+    long timeUntilDue(boolean eventDriven, long now) {
+        long wait = PERIOD;
+        for (GlusterWatchKey k : paths) {
+            if (!scanning.contains(k) && !queued.contains(k) && k.isValid() && k.isReady()) {
+                wait = Math.min(wait, dueAt(k, eventDriven) - now);
+            }
+        }
+        return Math.max(wait, 0);
+    }
+
+    /**
+     * @return a queued key, or null when none is queued; throws once the service is closed
+     */
+    WatchKey popPending(GlusterWatchKey key) {
+        if (CLOSED == key) {
+            pendingPaths.offer(CLOSED);
+            throw new ClosedWatchServiceException();
+        }
+        if (null != key) {
+            queued.remove(key);
+        }
+        return key;
+    }
+
+    @Override
+    public WatchKey poll() {
+        if (!running) {
+            throw new ClosedWatchServiceException();
+        }
+        return popPending(pendingPaths.poll());
+    }
+
+    @Override
+    public WatchKey poll(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!running) {
+            throw new ClosedWatchServiceException();
         }
+        return popPending(pendingPaths.poll(timeout, unit));
     }
 
+    @Override
+    public WatchKey take() throws InterruptedException {
+        if (!running) {
+            throw new ClosedWatchServiceException();
+        }
+        return popPending(pendingPaths.take());
+    }
 }
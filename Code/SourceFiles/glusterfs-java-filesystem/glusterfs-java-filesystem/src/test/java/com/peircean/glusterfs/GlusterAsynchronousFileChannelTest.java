@@ -0,0 +1,420 @@
+package com.peircean.glusterfs;
+
+import com.peircean.libgfapi_jni.internal.UtilJNI;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.*;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({UtilJNI.class})
+public class GlusterAsynchronousFileChannelTest extends TestCase {
+    public static final long FILEPTR = 1234L;
+    @Spy
+    private GlusterFileChannel spyChannel = new GlusterFileChannel();
+    @Mock
+    private GlusterCompletionQueue mockQueue;
+    @Mock
+    private CompletionHandler<Integer, Object> mockHandler;
+    @Mock
+    private ExecutorService mockExecutor;
+
+    private GlusterAsynchronousFileChannel open(StandardOpenOption... options) {
+        Set<OpenOption> set = new HashSet<OpenOption>();
+        for (StandardOpenOption option : options) {
+            set.add(option);
+        }
+        doReturn(set).when(spyChannel).getOptions();
+        doReturn(FILEPTR).when(spyChannel).getFileptr();
+        return new GlusterAsynchronousFileChannel(spyChannel, mockQueue, new CallerRuns());
+    }
+
+    /**
+     * Runs handlers on the calling thread, so tests can verify them as soon as a request completes
+     */
+    static class CallerRuns extends AbstractExecutorService {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return null;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+    private GlusterCompletionQueue.Completion capturePread(long address, long count, long position) {
+        ArgumentCaptor<GlusterCompletionQueue.Completion> completion = ArgumentCaptor.forClass(GlusterCompletionQueue.Completion.class);
+        verify(mockQueue).pread(eq(FILEPTR), eq(address), eq(count), eq(position), completion.capture());
+        return completion.getValue();
+    }
+
+    @Test
+    public void testNew_whenNoReadOrWrite() {
+        GlusterAsynchronousFileChannel channel = open();
+        assertTrue(channel.isReadable());
+        assertFalse(channel.isWritable());
+    }
+
+    @Test
+    public void testRead_whenDirectBuffer() {
+        GlusterAsynchronousFileChannel channel = open(StandardOpenOption.READ);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(10);
+        buffer.position(2);
+        Object attachment = new Object();
+        mockStatic(UtilJNI.class);
+        when(UtilJNI.GetDirectBufferAddress(buffer)).thenReturn(1000L);
+        doReturn(0).when(mockQueue).pread(eq(FILEPTR), eq(1002L), eq(8L), eq(50L), any(GlusterCompletionQueue.Completion.class));
+
+        channel.read(buffer, 50L, attachment, mockHandler);
+        assertEquals(1, channel.getInflight().get());
+        capturePread(1002L, 8L, 50L).completed(5);
+
+        verify(mockHandler).completed(5, attachment);
+        assertEquals(7, buffer.position());
+        assertEquals(0, channel.getInflight().get());
+    }
+
+    @Test
+    public void testRead_whenHeapBuffer() {
+        GlusterAsynchronousFileChannel channel = open(StandardOpenOption.READ);
+        byte[] bytes = new byte[6];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position(1);
+        mockStatic(UtilJNI.class);
+        when(UtilJNI.GetDirectBufferAddress(any(ByteBuffer.class))).thenReturn(2000L);
+        ArgumentCaptor<ByteBuffer> staging = ArgumentCaptor.forClass(ByteBuffer.class);
+
+        channel.read(buffer, 0L, null, mockHandler);
+        GlusterCompletionQueue.Completion completion = capturePread(2000L, 5L, 0L);
+        verifyStatic();
+        UtilJNI.GetDirectBufferAddress(staging.capture());
+        staging.getValue().put("abc".getBytes());
+        completion.completed(3);
+
+        verify(mockHandler).completed(3, null);
+        assertEquals(4, buffer.position());
+        assertEquals('a', bytes[1]);
+        assertEquals('c', bytes[3]);
+    }
+
+    @Test
+    public void testRead_whenEndOfFile() {
+        GlusterAsynchronousFileChannel channel = open(StandardOpenOption.READ);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(10);
+        mockStatic(UtilJNI.class);
+        when(UtilJNI.GetDirectBufferAddress(buffer)).thenReturn(1000L);
+
+        channel.read(buffer, 100L, null, mockHandler);
+        capturePread(1000L, 10L, 100L).completed(0);
+
+        verify(mockHandler).completed(-1, null);
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void testRead_whenFailing() {
+        GlusterAsynchronousFileChannel channel = open(StandardOpenOption.READ);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(10);
+        mockStatic(UtilJNI.class);
+        when(UtilJNI.GetDirectBufferAddress(buffer)).thenReturn(1000L);
+        when(UtilJNI.strerror_jni(5)).thenReturn(777L);
+        when(UtilJNI.string(777L)).thenReturn("Input/output error");
+        ArgumentCaptor<Throwable> failure = ArgumentCaptor.forClass(Throwable.class);
+
+        channel.read(buffer, 0L, null, mockHandler);
+        capturePread(1000L, 10L, 0L).completed(-5);
+
+        verify(mockHandler).failed(failure.capture(), eq(null));
+        assertTrue(failure.getValue() instanceof IOException);
+        assertEquals("Input/output error", failure.getValue().getMessage());
+        assertEquals(0, channel.getInflight().get());
+    }
+
+    @Test
+    public void testRead_whenSubmitFails() {
+        GlusterAsynchronousFileChannel channel = open(StandardOpenOption.READ);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(10);
+        mockStatic(UtilJNI.class);
+        when(UtilJNI.GetDirectBufferAddress(buffer)).thenReturn(1000L);
+        when(UtilJNI.strerror()).thenReturn("Bad file descriptor");
+        doReturn(-1).when(mockQueue).pread(anyLong(), anyLong(), anyLong(), anyLong(), any(GlusterCompletionQueue.Completion.class));
+
+        channel.read(buffer, 0L, null, mockHandler);
+
+        verify(mockHandler).failed(isA(IOException.class), eq(null));
+        assertEquals(0, channel.getInflight().get());
+    }
+
+    @Test
+    public void testRead_whenQueueClosed() {
+        GlusterAsynchronousFileChannel channel = open(StandardOpenOption.READ);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(10);
+        mockStatic(UtilJNI.class);
+        when(UtilJNI.GetDirectBufferAddress(buffer)).thenReturn(1000L);
+        doReturn(-GlusterCompletionQueue.ESHUTDOWN).when(mockQueue).pread(anyLong(), anyLong(), anyLong(), anyLong(),
+                any(GlusterCompletionQueue.Completion.class));
+
+        channel.read(buffer, 0L, null, mockHandler);
+
+        verify(mockHandler).failed(isA(ClosedChannelException.class), eq(null));
+        assertEquals(0, channel.getInflight().get());
+    }
+
+    @Test
+    public void testRead_whenClosed() throws IOException {
+        GlusterAsynchronousFileChannel channel = open(StandardOpenOption.READ);
+        doNothing().when(spyChannel).implCloseChannel();
+        channel.close();
+
+        channel.read(ByteBuffer.allocate(10), 0L, null, mockHandler);
+
+        verify(mockHandler).failed(isA(ClosedChannelException.class), eq(null));
+        verify(spyChannel).implCloseChannel();
+        verifyZeroInteractions(mockQueue);
+    }
+
+    @Test(expected = NonReadableChannelException.class)
+    public void testRead_whenNotReadable() {
+        GlusterAsynchronousFileChannel channel = open(StandardOpenOption.WRITE);
+        channel.read(ByteBuffer.allocate(10), 0L, null, mockHandler);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRead_whenNegativePosition() {
+        GlusterAsynchronousFileChannel channel = open(StandardOpenOption.READ);
+        channel.read(ByteBuffer.allocate(10), -1L, null, mockHandler);
+    }
+
+    @Test
+    public void testRead_whenBufferFull() {
+        GlusterAsynchronousFileChannel channel = open(StandardOpenOption.READ);
+        ByteBuffer buffer = ByteBuffer.allocate(0);
+
+        channel.read(buffer, 0L, null, mockHandler);
+
+        verify(mockHandler).completed(0, null);
+        verifyZeroInteractions(mockQueue);
+    }
+
+    @Test
+    public void testRead_future() throws Exception {
+        GlusterAsynchronousFileChannel channel = open(StandardOpenOption.READ);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(10);
+        mockStatic(UtilJNI.class);
+        when(UtilJNI.GetDirectBufferAddress(buffer)).thenReturn(1000L);
+
+        Future<Integer> future = channel.read(buffer, 0L);
+        assertFalse(future.isDone());
+        capturePread(1000L, 10L, 0L).completed(10);
+
+        assertTrue(future.isDone());
+        assertEquals(10, (int) future.get());
+    }
+
+    @Test
+    public void testWrite_whenHeapBuffer() {
+        GlusterAsynchronousFileChannel channel = open(StandardOpenOption.WRITE);
+        ByteBuffer buffer = ByteBuffer.wrap("hello".getBytes());
+        mockStatic(UtilJNI.class);
+        when(UtilJNI.GetDirectBufferAddress(any(ByteBuffer.class))).thenReturn(2000L);
+        ArgumentCaptor<ByteBuffer> staging = ArgumentCaptor.forClass(ByteBuffer.class);
+
+        channel.write(buffer, 20L, null, mockHandler);
+
+        verify(mockQueue).pwrite(eq(FILEPTR), eq(2000L), eq(5), eq(20L), any(GlusterCompletionQueue.Completion.class));
+        verifyStatic();
+        UtilJNI.GetDirectBufferAddress(staging.capture());
+        assertEquals('h', staging.getValue().get(0));
+        assertEquals('o', staging.getValue().get(4));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test(expected = NonWritableChannelException.class)
+    public void testWrite_whenNotWritable() {
+        GlusterAsynchronousFileChannel channel = open(StandardOpenOption.READ);
+        channel.write(ByteBuffer.allocate(10), 0L, null, mockHandler);
+    }
+
+    @Test
+    public void testCompleted_whenExecutor() {
+        doReturn(new HashSet<OpenOption>()).when(spyChannel).getOptions();
+        GlusterAsynchronousFileChannel channel = new GlusterAsynchronousFileChannel(spyChannel, mockQueue, mockExecutor);
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+
+        channel.completed(4, null, mockHandler);
+
+        verify(mockExecutor).execute(task.capture());
+        verify(mockHandler, never()).completed(anyInt(), any());
+        task.getValue().run();
+        verify(mockHandler).completed(4, null);
+    }
+
+    @Test
+    public void testNew_whenNoExecutor() {
+        doReturn(new HashSet<OpenOption>()).when(spyChannel).getOptions();
+        GlusterAsynchronousFileChannel channel = new GlusterAsynchronousFileChannel(spyChannel, mockQueue, null);
+        assertSame(GlusterAsynchronousFileChannel.DEFAULT_EXECUTOR, channel.getExecutor());
+    }
+
+    @Test
+    public void testCompleted_whenFuture() throws Exception {
+        doReturn(new HashSet<OpenOption>()).when(spyChannel).getOptions();
+        GlusterAsynchronousFileChannel channel = new GlusterAsynchronousFileChannel(spyChannel, mockQueue, mockExecutor);
+        GlusterAsynchronousFileChannel.IoFuture future = new GlusterAsynchronousFileChannel.IoFuture();
+
+        channel.completed(4, null, future);
+
+        verify(mockExecutor, never()).execute(any(Runnable.class));
+        assertEquals(4, (int) future.get());
+    }
+
+    @Test
+    public void testRead_finishedBeforeHandler() {
+        final GlusterAsynchronousFileChannel channel = open(StandardOpenOption.READ);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(10);
+        mockStatic(UtilJNI.class);
+        when(UtilJNI.GetDirectBufferAddress(buffer)).thenReturn(1000L);
+        final int[] inflight = new int[]{-1};
+        CompletionHandler<Integer, Object> handler = new CompletionHandler<Integer, Object>() {
+            @Override
+            public void completed(Integer result, Object attachment) {
+                inflight[0] = channel.getInflight().get();
+            }
+
+            @Override
+            public void failed(Throwable exc, Object attachment) {
+            }
+        };
+
+        channel.read(buffer, 0L, null, handler);
+        assertEquals(1, channel.getInflight().get());
+        capturePread(1000L, 10L, 0L).completed(10);
+
+        assertEquals(0, inflight[0]);
+    }
+
+    @Test
+    public void testClose_whenCompletionThread() throws Exception {
+        GlusterAsynchronousFileChannel channel = open(StandardOpenOption.READ);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(10);
+        mockStatic(UtilJNI.class);
+        when(UtilJNI.GetDirectBufferAddress(buffer)).thenReturn(1000L);
+        doNothing().when(spyChannel).implCloseChannel();
+        doReturn(true).when(mockQueue).isCompletionThread();
+
+        channel.read(buffer, 0L, null, mockHandler);
+        GlusterCompletionQueue.Completion completion = capturePread(1000L, 10L, 0L);
+        channel.close();
+
+        assertFalse(channel.isOpen());
+        verify(spyChannel, never()).implCloseChannel();
+
+        completion.completed(10);
+
+        verify(spyChannel).implCloseChannel();
+        verify(mockHandler).completed(10, null);
+    }
+
+    @Test
+    public void testClose_whenCompletionThreadAndIdle() throws Exception {
+        GlusterAsynchronousFileChannel channel = open(StandardOpenOption.READ);
+        doNothing().when(spyChannel).implCloseChannel();
+        doReturn(true).when(mockQueue).isCompletionThread();
+
+        channel.close();
+
+        verify(spyChannel).implCloseChannel();
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void testIoFuture_whenFailed() throws Exception {
+        GlusterAsynchronousFileChannel.IoFuture future = new GlusterAsynchronousFileChannel.IoFuture();
+        future.failed(new IOException(), null);
+        assertTrue(future.isDone());
+        future.get();
+    }
+
+    @Test
+    public void testClose_waitsForOutstandingRequests() throws Exception {
+        final GlusterAsynchronousFileChannel channel = open(StandardOpenOption.READ);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(10);
+        mockStatic(UtilJNI.class);
+        when(UtilJNI.GetDirectBufferAddress(buffer)).thenReturn(1000L);
+        doNothing().when(spyChannel).implCloseChannel();
+
+        channel.read(buffer, 0L, null, mockHandler);
+        GlusterCompletionQueue.Completion completion = capturePread(1000L, 10L, 0L);
+        Thread closer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        closer.start();
+        closer.join(200);
+        assertTrue(closer.isAlive());
+        assertFalse(channel.isOpen());
+        verify(spyChannel, never()).implCloseChannel();
+
+        completion.completed(10);
+        closer.join(5000);
+
+        assertFalse(closer.isAlive());
+        verify(spyChannel).implCloseChannel();
+    }
+}
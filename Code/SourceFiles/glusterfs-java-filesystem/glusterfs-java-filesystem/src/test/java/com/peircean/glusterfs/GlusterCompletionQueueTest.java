@@ -0,0 +1,148 @@
+package com.peircean.glusterfs;
+
+import com.peircean.libgfapi_jni.internal.GLFS;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.IOException;
+
+import static org.mockito.Mockito.*;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({GLFS.class})
+public class GlusterCompletionQueueTest extends TestCase {
+    public static final long QUEUEPTR = 4321L;
+    public static final long FILEPTR = 1234L;
+    @Mock
+    private GlusterCompletionQueue.Completion mockCompletion;
+    @Mock
+    private GlusterCompletionQueue.Completion otherCompletion;
+
+    private GlusterCompletionQueue queue = new GlusterCompletionQueue("host:vol");
+
+    @Test
+    public void testPread() throws IOException {
+        mockStatic(GLFS.class);
+        when(GLFS.glfs_pread_async(FILEPTR, 1000L, 10L, 50L, 0, QUEUEPTR, 1L)).thenReturn(0);
+        startQueue();
+
+        assertEquals(0, queue.pread(FILEPTR, 1000L, 10L, 50L, mockCompletion));
+
+        assertEquals(mockCompletion, queue.getPending().get(1L));
+        verifyStatic();
+        GLFS.glfs_pread_async(FILEPTR, 1000L, 10L, 50L, 0, QUEUEPTR, 1L);
+        queue.getPending().clear();
+        queue.close();
+    }
+
+    @Test
+    public void testPwrite_whenSubmitFails() throws IOException {
+        mockStatic(GLFS.class);
+        when(GLFS.glfs_pwrite_async(FILEPTR, 1000L, 10, 50L, 0, QUEUEPTR, 1L)).thenReturn(-1);
+        startQueue();
+
+        assertEquals(-1, queue.pwrite(FILEPTR, 1000L, 10, 50L, mockCompletion));
+
+        assertTrue(queue.getPending().isEmpty());
+        verify(mockCompletion, never()).completed(anyLong());
+        queue.close();
+    }
+
+    @Test
+    public void testPwrite_whenNotStarted() {
+        mockStatic(GLFS.class);
+
+        assertEquals(-GlusterCompletionQueue.ESHUTDOWN, queue.pwrite(FILEPTR, 1000L, 10, 50L, mockCompletion));
+
+        assertTrue(queue.getPending().isEmpty());
+        verifyStatic(never());
+        GLFS.glfs_pwrite_async(anyLong(), anyLong(), anyInt(), anyLong(), anyInt(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void testPread_whenClosed() throws IOException {
+        mockStatic(GLFS.class);
+        startQueue();
+        queue.close();
+
+        assertEquals(-GlusterCompletionQueue.ESHUTDOWN, queue.pread(FILEPTR, 1000L, 10L, 50L, mockCompletion));
+
+        assertTrue(queue.getPending().isEmpty());
+        verifyStatic(never());
+        GLFS.glfs_pread_async(anyLong(), anyLong(), anyLong(), anyLong(), anyInt(), anyLong(), anyLong());
+    }
+
+    @Test(expected = IOException.class)
+    public void testStart_whenClosed() throws IOException {
+        mockStatic(GLFS.class);
+        startQueue();
+        queue.close();
+
+        queue.start();
+    }
+
+    private void startQueue() throws IOException {
+        when(GLFS.glfsjni_queue_new()).thenReturn(QUEUEPTR);
+        when(GLFS.glfsjni_queue_take(eq(QUEUEPTR), any(long[].class), eq(GlusterCompletionQueue.BATCH_SIZE),
+                eq(GlusterCompletionQueue.WAIT_MILLIS))).thenReturn(0);
+        queue.start();
+    }
+
+    @Test
+    public void testDispatch() {
+        queue.getPending().put(1L, mockCompletion);
+        queue.getPending().put(2L, otherCompletion);
+        doThrow(new IllegalStateException()).when(otherCompletion).completed(-5L);
+
+        queue.dispatch(new long[]{2L, -5L, 1L, 10L, 99L, 1L}, 2);
+
+        verify(otherCompletion).completed(-5L);
+        verify(mockCompletion).completed(10L);
+        assertTrue(queue.getPending().isEmpty());
+    }
+
+    @Test
+    public void testDispatch_whenTokenUnknown() {
+        queue.getPending().put(1L, mockCompletion);
+
+        queue.dispatch(new long[]{7L, 10L}, 1);
+
+        verify(mockCompletion, never()).completed(anyLong());
+        assertEquals(1, queue.getPending().size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testStart_whenQueueNotCreated() throws IOException {
+        mockStatic(GLFS.class);
+        when(GLFS.glfsjni_queue_new()).thenReturn(0L);
+
+        queue.start();
+    }
+
+    @Test
+    public void testStartAndClose() throws IOException {
+        mockStatic(GLFS.class);
+        when(GLFS.glfsjni_queue_new()).thenReturn(QUEUEPTR);
+        when(GLFS.glfsjni_queue_take(eq(QUEUEPTR), any(long[].class), eq(GlusterCompletionQueue.BATCH_SIZE),
+                eq(GlusterCompletionQueue.WAIT_MILLIS))).thenReturn(0);
+
+        queue.start();
+        assertTrue(queue.isRunning());
+        assertTrue(queue.getThread().isDaemon());
+        queue.close();
+
+        assertFalse(queue.isRunning());
+        assertFalse(queue.getThread().isAlive());
+        assertEquals(0, queue.getQueueptr());
+        verifyStatic();
+        GLFS.glfsjni_queue_wakeup(QUEUEPTR);
+        verifyStatic();
+        GLFS.glfsjni_queue_free(QUEUEPTR);
+    }
+}
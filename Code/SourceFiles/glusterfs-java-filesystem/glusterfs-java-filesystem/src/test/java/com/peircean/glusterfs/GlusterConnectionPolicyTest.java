@@ -0,0 +1,40 @@
+package com.peircean.glusterfs;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class GlusterConnectionPolicyTest extends TestCase {
+    private AtomicIntegerArray outstanding = new AtomicIntegerArray(3);
+
+    @Test
+    public void testRoundRobin() {
+        GlusterConnectionPolicy policy = new GlusterConnectionPolicy.RoundRobin();
+        assertEquals(0, policy.select("/a", outstanding));
+        assertEquals(1, policy.select("/a", outstanding));
+        assertEquals(2, policy.select("/a", outstanding));
+        assertEquals(0, policy.select("/a", outstanding));
+    }
+
+    @Test
+    public void testLeastOutstanding() {
+        GlusterConnectionPolicy policy = new GlusterConnectionPolicy.LeastOutstanding();
+        assertEquals(0, policy.select("/a", outstanding));
+        outstanding.set(0, 2);
+        outstanding.set(1, 1);
+        outstanding.set(2, 1);
+        assertEquals(1, policy.select("/a", outstanding));
+        outstanding.set(1, 3);
+        assertEquals(2, policy.select("/a", outstanding));
+    }
+
+    @Test
+    public void testPathAffinity() {
+        GlusterConnectionPolicy policy = new GlusterConnectionPolicy.PathAffinity();
+        int dir = policy.select("/foo/bar/a", outstanding);
+        assertEquals(dir, policy.select("/foo/bar/b", outstanding));
+        assertEquals(("/foo/bar".hashCode() & Integer.MAX_VALUE) % 3, dir);
+        assertEquals(("/".hashCode() & Integer.MAX_VALUE) % 3, policy.select("/a", outstanding));
+    }
+}
@@ -0,0 +1,135 @@
+package com.peircean.glusterfs;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.*;
+
+@RunWith(PowerMockRunner.class)
+public class GlusterCopyEngineTest extends TestCase {
+    @Mock
+    private AsynchronousFileChannel mockIn;
+    @Mock
+    private FileChannel mockOut;
+    @Mock
+    private Future<Integer> mockFuture;
+
+    private final byte[] source = "the quick brown fox jumps".getBytes();
+    private final ByteArrayOutputStream target = new ByteArrayOutputStream();
+    private final List<Long> readPositions = new ArrayList<Long>();
+
+    private void stubChannels(final int maxWrite) throws IOException {
+        doAnswer(new Answer<Future<Integer>>() {
+            @Override
+            public Future<Integer> answer(InvocationOnMock invocation) throws Exception {
+                ByteBuffer buffer = (ByteBuffer) invocation.getArguments()[0];
+                long position = (Long) invocation.getArguments()[1];
+                readPositions.add(position);
+                int count = (int) Math.min(buffer.remaining(), source.length - position);
+                if (count > 0) {
+                    buffer.put(source, (int) position, count);
+                }
+                Future<Integer> future = mock(Future.class);
+                doReturn(count > 0 ? count : -1).when(future).get();
+                return future;
+            }
+        }).when(mockIn).read(any(ByteBuffer.class), anyLong());
+        doAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                ByteBuffer buffer = (ByteBuffer) invocation.getArguments()[0];
+                long position = (Long) invocation.getArguments()[1];
+                assertEquals(target.size(), position);
+                byte[] bytes = new byte[Math.min(buffer.remaining(), maxWrite)];
+                buffer.get(bytes);
+                target.write(bytes, 0, bytes.length);
+                return bytes.length;
+            }
+        }).when(mockOut).write(any(ByteBuffer.class), anyLong());
+    }
+
+    @Test
+    public void testCopy() throws IOException {
+        stubChannels(Integer.MAX_VALUE);
+
+        GlusterCopyResult result = new GlusterCopyEngine(10).copy(mockIn, mockOut);
+
+        assertEquals(source.length, result.getBytes());
+        assertEquals(new String(source), new String(target.toByteArray()));
+        assertEquals("[0, 10, 20, 25]", readPositions.toString());
+        assertTrue(result.getNanos() > 0);
+    }
+
+    @Test
+    public void testCopy_whenWritesArePartial() throws IOException {
+        stubChannels(3);
+
+        GlusterCopyResult result = new GlusterCopyEngine(8).copy(mockIn, mockOut);
+
+        assertEquals(source.length, result.getBytes());
+        assertEquals(new String(source), new String(target.toByteArray()));
+    }
+
+    @Test
+    public void testCopy_whenEmpty() throws IOException {
+        doReturn(mockFuture).when(mockIn).read(any(ByteBuffer.class), anyLong());
+        try {
+            doReturn(-1).when(mockFuture).get();
+        } catch (Exception e) {
+            fail();
+        }
+
+        GlusterCopyResult result = new GlusterCopyEngine(10).copy(mockIn, mockOut);
+
+        assertEquals(0, result.getBytes());
+        verify(mockIn).read(any(ByteBuffer.class), anyLong());
+        verifyZeroInteractions(mockOut);
+    }
+
+    @Test(expected = IOException.class)
+    public void testCopy_whenReadFails() throws Exception {
+        doReturn(mockFuture).when(mockIn).read(any(ByteBuffer.class), anyLong());
+        doThrow(new ExecutionException(new IOException("Input/output error"))).when(mockFuture).get();
+
+        new GlusterCopyEngine(10).copy(mockIn, mockOut);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNew_whenBufferSizeNotPositive() {
+        new GlusterCopyEngine(0);
+    }
+
+    @Test
+    public void testStatistics() {
+        GlusterCopyStatistics statistics = new GlusterCopyStatistics();
+        assertEquals(0.0, statistics.getBytesPerSecond());
+        assertNull(statistics.getLast());
+
+        GlusterCopyResult first = new GlusterCopyResult(1000, 500000000L);
+        statistics.record(first);
+        statistics.record(new GlusterCopyResult(3000, 1500000000L));
+
+        assertEquals(2000.0, first.getBytesPerSecond());
+        assertEquals(2, statistics.getCopies());
+        assertEquals(4000, statistics.getBytes());
+        assertEquals(2000.0, statistics.getBytesPerSecond());
+        assertEquals(3000, statistics.getLast().getBytes());
+    }
+}
@@ -0,0 +1,144 @@
+package com.peircean.glusterfs;
+
+import com.peircean.libgfapi_jni.internal.GLFS;
+import com.peircean.libgfapi_jni.internal.UtilJNI;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({GLFS.class, UtilJNI.class})
+public class GlusterDirectoryBatchIteratorTest {
+    private static final long DIR_HANDLE = 12345L;
+    private static final long BUFFER_ADDRESS = 4444L;
+
+    @Mock
+    private GlusterDirectoryStream mockStream;
+    @Mock
+    private GlusterPath mockDir;
+    @Mock
+    private GlusterPath fooPath;
+    @Mock
+    private GlusterPath barPath;
+    @Mock
+    private DirectoryStream.Filter<? super Path> mockFilter;
+    private ByteBuffer buffer;
+
+    @Before
+    public void setUp() {
+        doReturn(DIR_HANDLE).when(mockStream).getDirHandle();
+        doReturn(mockDir).when(mockStream).getDir();
+        doReturn(fooPath).when(mockDir).resolve("foo");
+        doReturn(barPath).when(mockDir).resolve("bar");
+        mockStatic(UtilJNI.class);
+        when(UtilJNI.GetDirectBufferAddress(any(ByteBuffer.class))).thenReturn(BUFFER_ADDRESS);
+        mockStatic(GLFS.class);
+    }
+
+    private void batches(final String[]... batches) {
+        final int[] call = {0};
+        when(GLFS.glfs_readdir_batch(DIR_HANDLE, BUFFER_ADDRESS, GlusterDirectoryBatchIterator.BUFFER_SIZE))
+                .thenAnswer(new Answer<Integer>() {
+                    @Override
+                    public Integer answer(InvocationOnMock invocation) {
+                        return call[0] < batches.length ? pack(batches[call[0]++]) : 0;
+                    }
+                });
+    }
+
+    private int pack(String... names) {
+        ByteBuffer target = buffer.duplicate().order(buffer.order());
+        target.clear();
+        for (String name : names) {
+            target.putLong(1L);
+            target.put((byte) 8);
+            target.putShort((short) name.length());
+            target.put(name.getBytes());
+        }
+        return target.position();
+    }
+
+    private GlusterDirectoryBatchIterator iterator(DirectoryStream.Filter<? super Path> filter) {
+        GlusterDirectoryBatchIterator iterator = new GlusterDirectoryBatchIterator(mockStream, filter);
+        buffer = iterator.getBuffer();
+        return iterator;
+    }
+
+    @Test
+    public void testIterate_acrossBatches() {
+        GlusterDirectoryBatchIterator iterator = iterator(null);
+        batches(new String[]{"foo"}, new String[]{"bar"});
+
+        assertTrue(iterator.hasNext());
+        assertEquals(fooPath, iterator.next());
+        assertTrue(iterator.hasNext());
+        assertEquals(barPath, iterator.next());
+        assertFalse(iterator.hasNext());
+        assertFalse(iterator.hasNext());
+
+        verifyStatic(times(3));
+        GLFS.glfs_readdir_batch(DIR_HANDLE, BUFFER_ADDRESS, GlusterDirectoryBatchIterator.BUFFER_SIZE);
+    }
+
+    @Test
+    public void testIterate_decodesOnlyReturnedNames() {
+        GlusterDirectoryBatchIterator iterator = iterator(null);
+        batches(new String[]{"foo", "bar"});
+
+        assertTrue(iterator.hasNext());
+        verify(mockDir, never()).resolve(any(String.class));
+        assertEquals(fooPath, iterator.next());
+        verify(mockDir).resolve("foo");
+        verify(mockDir, never()).resolve("bar");
+    }
+
+    @Test
+    public void testIterate_whenFilter() throws IOException {
+        GlusterDirectoryBatchIterator iterator = iterator(mockFilter);
+        batches(new String[]{"foo", "bar"});
+        when(mockFilter.accept(fooPath)).thenReturn(false);
+        when(mockFilter.accept(barPath)).thenReturn(true);
+
+        assertTrue(iterator.hasNext());
+        assertEquals(barPath, iterator.next());
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testNext_whenEmpty() {
+        GlusterDirectoryBatchIterator iterator = iterator(null);
+        batches();
+        iterator.next();
+    }
+
+    @Test(expected = DirectoryIteratorException.class)
+    public void testHasNext_whenReaddirFails() {
+        GlusterDirectoryBatchIterator iterator = iterator(null);
+        when(GLFS.glfs_readdir_batch(DIR_HANDLE, BUFFER_ADDRESS, GlusterDirectoryBatchIterator.BUFFER_SIZE)).thenReturn(-1);
+        when(UtilJNI.strerror()).thenReturn("Bad file descriptor");
+        iterator.hasNext();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testRemove() {
+        iterator(null).remove();
+    }
+}
@@ -1,7 +1,9 @@
 package com.peircean.glusterfs;
 
 import com.peircean.libgfapi_jni.internal.GLFS;
+import com.peircean.libgfapi_jni.internal.UtilJNI;
 import com.peircean.libgfapi_jni.internal.structs.dirent;
+import com.peircean.libgfapi_jni.internal.structs.stat;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
@@ -12,6 +14,8 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.core.classloader.annotations.SuppressStaticInitializationFor;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Path;
 import java.util.NoSuchElementException;
@@ -20,7 +24,7 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({GLFS.class, GlusterDirectoryIterator.class, dirent.class})
+@PrepareForTest({GLFS.class, UtilJNI.class, GlusterDirectoryIterator.class, dirent.class, GlusterFileAttributes.class})
 @SuppressStaticInitializationFor("com.peircean.libgfapi_jni.internal.structs.dirent")
 public class GlusterDirectoryIteratorTest {
 
@@ -37,6 +41,10 @@ public class GlusterDirectoryIteratorTest {
     @Mock
     private dirent mockNextDirent;
     @Mock
+    private stat mockStat;
+    @Mock
+    private GlusterFileAttributes mockAttributes;
+    @Mock
     private DirectoryStream.Filter<? super Path> mockFilter;
     @Spy
     private GlusterDirectoryIterator iterator = new GlusterDirectoryIterator();
@@ -55,6 +63,25 @@ public class GlusterDirectoryIteratorTest {
         verify(mockFilter, times(2)).accept(fakeResultPath);
     }
 
+    @Test
+    public void testHasNext_whenFilterThrows() throws Exception {
+        iterator.setFilter(mockFilter);
+        iterator.setNextPath(fakeResultPath);
+        IOException failure = new IOException();
+        when(mockFilter.accept(fakeResultPath)).thenThrow(failure);
+        mockNextDirent.d_ino = 1;
+        iterator.setNext(mockNextDirent);
+        doNothing().when(iterator).advance();
+        try {
+            iterator.hasNext();
+            fail();
+        } catch (DirectoryIteratorException e) {
+            assertEquals(failure, e.getCause());
+        }
+        assertTrue(iterator.isDone());
+        assertFalse(iterator.hasNext());
+    }
+
     @Test
     public void testHasNext_whenFilter_andNoNext() throws Exception {
         iterator.setFilter(mockFilter);
@@ -206,16 +233,114 @@ public class GlusterDirectoryIteratorTest {
         }
     }
 
+    @Test
+    public void testAdvance_whenPlus() throws Exception {
+        doReturn(dirHandle).when(mockStream).getDirHandle();
+        iterator.setStream(mockStream);
+        iterator.setPlus(true);
+        PowerMockito.whenNew(dirent.class).withNoArguments().thenReturn(mockCurrentDirent, mockNextDirent);
+        PowerMockito.whenNew(stat.class).withNoArguments().thenReturn(mockStat);
+        long nextPtr = 4444l;
+        PowerMockito.mockStatic(dirent.class);
+        Mockito.when(dirent.malloc(dirent.SIZE_OF)).thenReturn(nextPtr);
+        PowerMockito.mockStatic(GLFS.class);
+        PowerMockito.when(GLFS.glfs_readdirplus_r(dirHandle, mockStat, mockCurrentDirent, nextPtr)).thenReturn(0);
+        PowerMockito.mockStatic(GlusterFileAttributes.class);
+        PowerMockito.when(GlusterFileAttributes.fromStat(mockStat)).thenReturn(mockAttributes);
+        Mockito.doReturn(mockPath).when(mockStream).getDir();
+        when(mockCurrentDirent.getName()).thenReturn("foo");
+        when(mockPath.resolve("foo")).thenReturn(fakeResultPath);
+
+        iterator.advance();
+
+        assertEquals(fakeResultPath, iterator.getNextPath());
+        assertEquals(mockAttributes, iterator.getNextAttributes());
+        PowerMockito.verifyStatic();
+        GLFS.glfs_readdirplus_r(dirHandle, mockStat, mockCurrentDirent, nextPtr);
+        PowerMockito.verifyStatic(never());
+        GLFS.glfs_readdir_r(anyLong(), any(dirent.class), anyLong());
+    }
+
+    @Test
+    public void testAdvance_whenReadFails() throws Exception {
+        doReturn(dirHandle).when(mockStream).getDirHandle();
+        iterator.setStream(mockStream);
+        PowerMockito.whenNew(dirent.class).withNoArguments().thenReturn(mockCurrentDirent);
+        long nextPtr = 4444l;
+        PowerMockito.mockStatic(dirent.class);
+        Mockito.when(dirent.malloc(dirent.SIZE_OF)).thenReturn(nextPtr);
+        PowerMockito.mockStatic(GLFS.class);
+        PowerMockito.when(GLFS.glfs_readdir_r(dirHandle, mockCurrentDirent, nextPtr)).thenReturn(-1);
+        PowerMockito.mockStatic(UtilJNI.class);
+        PowerMockito.when(UtilJNI.strerror()).thenReturn("Input/output error");
+
+        try {
+            iterator.advance();
+            fail();
+        } catch (DirectoryIteratorException e) {
+            assertEquals("Input/output error", e.getCause().getMessage());
+        }
+
+        assertTrue(iterator.isDone());
+        PowerMockito.verifyStatic();
+        dirent.free(nextPtr);
+        verify(mockStream, never()).getDir();
+    }
+
     @Test(expected = NoSuchElementException.class)
     public void testNext_whenNoNext() {
+        mockNextDirent.d_ino = 0;
+        iterator.setNext(mockNextDirent);
+        doNothing().when(iterator).advance();
         iterator.next();
     }
 
     @Test
     public void testNext() {
         iterator.setNextPath(fakeResultPath);
+        iterator.setFetched(true);
         GlusterPath path = iterator.next();
         assertEquals(fakeResultPath, path);
+        assertFalse(iterator.isFetched());
+    }
+
+    @Test
+    public void testHasNext_isIdempotent() {
+        mockNextDirent.d_ino = 1;
+        iterator.setNext(mockNextDirent);
+        iterator.setNextPath(fakeResultPath);
+        doNothing().when(iterator).advance();
+
+        assertTrue(iterator.hasNext());
+        assertTrue(iterator.hasNext());
+        verify(iterator).advance();
+
+        assertEquals(fakeResultPath, iterator.next());
+        assertTrue(iterator.hasNext());
+        verify(iterator, times(2)).advance();
+    }
+
+    @Test
+    public void testHasNext_whenDone() {
+        mockNextDirent.d_ino = 0;
+        iterator.setNext(mockNextDirent);
+        doNothing().when(iterator).advance();
+
+        assertFalse(iterator.hasNext());
+        assertFalse(iterator.hasNext());
+        verify(iterator).advance();
+        assertTrue(iterator.isDone());
+    }
+
+    @Test
+    public void testNext_withoutHasNext() {
+        mockNextDirent.d_ino = 1;
+        iterator.setNext(mockNextDirent);
+        iterator.setNextPath(fakeResultPath);
+        doNothing().when(iterator).advance();
+
+        assertEquals(fakeResultPath, iterator.next());
+        verify(iterator).advance();
     }
 
     @Test(expected = UnsupportedOperationException.class)
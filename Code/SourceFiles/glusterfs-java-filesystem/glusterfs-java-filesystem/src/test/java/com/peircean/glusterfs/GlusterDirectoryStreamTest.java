@@ -15,6 +15,7 @@ import java.nio.file.Path;
 import java.util.Iterator;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.verify;
 import static org.powermock.api.mockito.PowerMockito.*;
@@ -29,12 +30,18 @@ public class GlusterDirectoryStreamTest {
     @Mock
     private GlusterDirectoryIterator mockIterator;
 
+    @Mock
+    private GlusterDirectoryBatchIterator mockBatchIterator;
+
     @Mock
     private GlusterPath mockPath;
 
     @Mock
     private GlusterFileSystem mockFileSystem;
 
+    @Mock
+    private GlusterFileAttributes mockAttributes;
+
     @Mock
     private DirectoryStream.Filter<? super Path> mockFilter;
 
@@ -51,7 +58,7 @@ public class GlusterDirectoryStreamTest {
     public void testOpenDirectory() {
         String fakePath = "/foo/baz";
         doReturn(mockFileSystem).when(mockPath).getFileSystem();
-        doReturn(fsHandle).when(mockFileSystem).getVolptr();
+        doReturn(fsHandle).when(mockFileSystem).getVolptr(0);
         doReturn(fakePath).when(mockPath).getString();
 
         mockStatic(GLFS.class);
@@ -63,7 +70,7 @@ public class GlusterDirectoryStreamTest {
         assertEquals(false, stream.isClosed());
         assertEquals(mockPath, stream.getDir());
         verify(mockPath).getFileSystem();
-        verify(mockFileSystem).getVolptr();
+        verify(mockFileSystem).getVolptr(0);
         verify(mockPath).getString();
         verifyStatic();
         GLFS.glfs_opendir(fsHandle, fakePath);
@@ -85,15 +92,53 @@ public class GlusterDirectoryStreamTest {
     public void testIterator() throws Exception {
         stream.setClosed(false);
         stream.setFilter(mockFilter);
-        whenNew(GlusterDirectoryIterator.class).
-                withNoArguments().thenReturn(mockIterator);
+        whenNew(GlusterDirectoryBatchIterator.class).
+                withArguments(stream, mockFilter).thenReturn(mockBatchIterator);
         stream.setDirHandle(dirHandle);
         Iterator<Path> iterator = stream.iterator();
-        verifyNew(GlusterDirectoryIterator.class).withNoArguments();
-        assertEquals(mockIterator, iterator);
+        verifyNew(GlusterDirectoryBatchIterator.class).withArguments(stream, mockFilter);
+        assertEquals(mockBatchIterator, iterator);
+        assertEquals(mockBatchIterator, stream.getIterator());
+    }
+
+    @Test
+    public void testEntryIterator() throws Exception {
+        stream.setFilter(mockFilter);
+        whenNew(GlusterDirectoryIterator.class).
+                withNoArguments().thenReturn(mockIterator);
+        doReturn(true).when(mockIterator).hasNext();
+        doReturn(mockPath).when(mockIterator).next();
+        doReturn(mockAttributes).when(mockIterator).getNextAttributes();
+
+        Iterator<GlusterDirectoryEntry> iterator = stream.entryIterator();
+
         assertEquals(mockIterator, stream.getIterator());
         verify(mockIterator).setStream(stream);
         verify(mockIterator).setFilter(mockFilter);
+        verify(mockIterator).setPlus(true);
+        assertTrue(iterator.hasNext());
+        GlusterDirectoryEntry entry = iterator.next();
+        assertEquals(mockPath, entry.getPath());
+        assertEquals(mockAttributes, entry.getAttributes());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEntryIterator_whenAlreadyIterating() {
+        stream.setIterator(mockIterator);
+        stream.entryIterator();
+    }
+
+    @Test
+    public void testTellAndSeek() {
+        stream.setDirHandle(dirHandle);
+        mockStatic(GLFS.class);
+        when(GLFS.glfs_telldir(dirHandle)).thenReturn(77L);
+
+        assertEquals(77L, stream.tell());
+        stream.seek(77L);
+
+        verifyStatic();
+        GLFS.glfs_seekdir(dirHandle, 77L);
     }
 
     @Test
@@ -111,6 +156,8 @@ public class GlusterDirectoryStreamTest {
     @Test
     public void testClose() throws IOException {
         stream.setDirHandle(dirHandle);
+        stream.setFileSystem(mockFileSystem);
+        stream.setConnection(2);
         mockStatic(GLFS.class);
         Mockito.when(GLFS.glfs_close(dirHandle)).thenReturn(0);
 
@@ -118,6 +165,7 @@ public class GlusterDirectoryStreamTest {
 
         verifyStatic();
         GLFS.glfs_close(dirHandle);
+        verify(mockFileSystem).release(2);
     }
 
 }
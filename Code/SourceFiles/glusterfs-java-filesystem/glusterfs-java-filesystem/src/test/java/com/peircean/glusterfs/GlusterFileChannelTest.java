@@ -2,6 +2,7 @@ package com.peircean.glusterfs;
 
 import com.peircean.libgfapi_jni.internal.GLFS;
 import com.peircean.libgfapi_jni.internal.GlusterOpenOption;
+import com.peircean.libgfapi_jni.internal.UtilJNI;
 import com.peircean.libgfapi_jni.internal.structs.stat;
 import junit.framework.TestCase;
 import org.junit.Test;
@@ -19,6 +20,7 @@ import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
+import java.nio.channels.NonReadableChannelException;
 import java.nio.channels.NonWritableChannelException;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.OpenOption;
@@ -26,7 +28,6 @@ import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
-import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -38,15 +39,13 @@ import static org.powermock.api.mockito.PowerMockito.verifyStatic;
  * @author <a href="http://about.me/louiszuckerman">Louis Zuckerman</a>
  */
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({GLFS.class, GlusterFileChannel.class, GlusterFileAttributes.class})
+@PrepareForTest({GLFS.class, UtilJNI.class, GlusterFileChannel.class, GlusterFileAttributes.class})
 public class GlusterFileChannelTest extends TestCase {
 
 	@Mock
 	private GlusterPath mockPath;
 	@Mock
 	private GlusterFileSystem mockFileSystem;
-	@Mock
-	private ByteBuffer mockBuffer;
 	@Spy
 	private GlusterFileChannel channel = new GlusterFileChannel();
 
@@ -103,7 +102,7 @@ public class GlusterFileChannelTest extends TestCase {
 		long createptr = created ? 4321l : 0;
 		long openptr = opened ? 4321l : 0;
 		URI pathUri = new URI("gluster://server:volume" + path);
-		doReturn(volptr).when(mockFileSystem).getVolptr();
+		doReturn(volptr).when(mockFileSystem).getVolptr(0);
 		doReturn(pathUri).when(mockPath).toUri();
 		doReturn(flags).when(channel).parseOptions(options);
 
@@ -124,7 +123,7 @@ public class GlusterFileChannelTest extends TestCase {
 		assertEquals(options, channel.getOptions());
 		assertEquals(null, channel.getAttrs());
 
-		verify(mockFileSystem).getVolptr();
+		verify(mockFileSystem).getVolptr(0);
 		verify(mockPath).toUri();
 		verify(channel).parseOptions(options);
 
@@ -140,6 +139,82 @@ public class GlusterFileChannelTest extends TestCase {
 		}
 	}
 
+	@Test
+	public void testNewFileChannel_whenHandleCache() throws IOException, URISyntaxException {
+		Set<StandardOpenOption> options = new HashSet<StandardOpenOption>();
+		options.add(StandardOpenOption.WRITE);
+		options.add(StandardOpenOption.CREATE);
+		int flags = GlusterOpenOption.WRITE().create().getValue();
+		long volptr = 1234l;
+		String path = "/foo/bar";
+		GlusterHandleCache handleCache = Mockito.mock(GlusterHandleCache.class);
+		doReturn(true).when(mockPath).isAbsolute();
+		doReturn(volptr).when(mockFileSystem).getVolptr(0);
+		doReturn(handleCache).when(mockFileSystem).getHandleCache(volptr);
+		doReturn(new URI("gluster://server:volume" + path)).when(mockPath).toUri();
+		doReturn(flags).when(channel).parseOptions(options);
+		doReturn(0L).when(handleCache).creat(eq(path), eq(flags), anyInt());
+		doReturn(4321l).when(handleCache).open(path, flags);
+		mockStatic(GLFS.class);
+
+		channel.init(mockFileSystem, mockPath, options);
+
+		assertEquals(4321l, channel.getFileptr());
+		verify(handleCache).creat(eq(path), eq(flags), anyInt());
+		verifyStatic(never());
+		GLFS.glfs_open(anyLong(), anyString(), anyInt());
+	}
+
+	@Test
+	public void testNewFileChannel_whenReadOnly() throws IOException, URISyntaxException {
+		Set<StandardOpenOption> options = new HashSet<StandardOpenOption>();
+		options.add(StandardOpenOption.READ);
+		long volptr = 1234l;
+		String path = "/foo/bar";
+		doReturn(true).when(mockPath).isAbsolute();
+		doReturn(volptr).when(mockFileSystem).getVolptr(0);
+		doReturn(new URI("gluster://server:volume" + path)).when(mockPath).toUri();
+		doReturn(GlusterOpenOption.O_RDONLY).when(channel).parseOptions(options);
+		doReturn(4096).when(mockFileSystem).getReadAheadSize();
+		mockStatic(GLFS.class);
+		when(GLFS.glfs_open(volptr, path, GlusterOpenOption.O_RDONLY)).thenReturn(4321l);
+
+		channel.init(mockFileSystem, mockPath, options);
+		assertNull(channel.getReadAhead());
+
+		channel.enableReadAhead();
+
+		assertEquals(4096, channel.getReadAhead().getMaxWindow());
+		assertEquals(channel, channel.getReadAhead().getChannel());
+	}
+
+	@Test
+	public void testEnableReadAhead_whenNoReadAheadSize() {
+		Set<StandardOpenOption> options = new HashSet<StandardOpenOption>();
+		options.add(StandardOpenOption.READ);
+		channel.setOptions(options);
+		channel.setFileSystem(mockFileSystem);
+		doReturn(0).when(mockFileSystem).getReadAheadSize();
+
+		channel.enableReadAhead();
+
+		assertNull(channel.getReadAhead());
+	}
+
+	@Test
+	public void testEnableReadAhead_whenWritable() {
+		Set<StandardOpenOption> options = new HashSet<StandardOpenOption>();
+		options.add(StandardOpenOption.READ);
+		options.add(StandardOpenOption.WRITE);
+		channel.setOptions(options);
+		channel.setFileSystem(mockFileSystem);
+		doReturn(4096).when(mockFileSystem).getReadAheadSize();
+
+		channel.enableReadAhead();
+
+		assertNull(channel.getReadAhead());
+	}
+
 	@Test
 	public void testParseOptions() {
 		Set<StandardOpenOption> options = new HashSet<StandardOpenOption>();
@@ -157,26 +232,237 @@ public class GlusterFileChannelTest extends TestCase {
 		long fileptr = 1234l;
 		channel.setFileptr(fileptr);
 
-		byte[] bytes = new byte[]{'a', 'b', 'c'};
+		byte[] bytes = new byte[3];
 		long bufferLength = bytes.length;
 		long offset = 4;
 		channel.setPosition(offset);
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		ByteBuffer staging = ByteBuffer.allocateDirect(3);
+		staging.put(new byte[]{'a', 'b', 'c'}).clear();
+		doReturn(staging).when(channel).staging(3);
+		long stagingAddress = 5000l;
 
+		mockStatic(UtilJNI.class);
+		when(UtilJNI.GetDirectBufferAddress(staging)).thenReturn(stagingAddress);
 		mockStatic(GLFS.class);
-		when(GLFS.glfs_read(fileptr, bytes, bufferLength, 0)).thenReturn(bufferLength);
-
-		doReturn(bytes).when(mockBuffer).array();
+		when(GLFS.glfs_read(fileptr, stagingAddress, bufferLength, 0)).thenReturn(bufferLength);
 
-		int read = channel.read(mockBuffer);
+		int read = channel.read(buffer);
 
 		assertEquals(bufferLength, read);
+		assertEquals(bufferLength, buffer.position());
+		assertEquals("abc", new String(bytes));
 
 		verify(channel).guardClosed();
-		verify(mockBuffer).array();
 		assertEquals(bufferLength + offset, channel.getPosition());
 
 		verifyStatic();
-		GLFS.glfs_read(fileptr, bytes, bufferLength, 0);
+		GLFS.glfs_read(fileptr, stagingAddress, bufferLength, 0);
+	}
+
+	@Test
+	public void testRead1Arg_whenSlicedBuffer() throws IOException {
+		doNothing().when(channel).guardClosed();
+		long fileptr = 1234l;
+		channel.setFileptr(fileptr);
+
+		byte[] bytes = new byte[10];
+		ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+		wrapped.position(2);
+		ByteBuffer buffer = wrapped.slice();
+		buffer.position(1);
+		buffer.limit(5);
+		ByteBuffer staging = ByteBuffer.allocateDirect(4);
+		staging.put(new byte[]{'w', 'x', 'y', 'z'}).clear();
+		doReturn(staging).when(channel).staging(4);
+		long stagingAddress = 5000l;
+
+		mockStatic(UtilJNI.class);
+		when(UtilJNI.GetDirectBufferAddress(staging)).thenReturn(stagingAddress);
+		mockStatic(GLFS.class);
+		when(GLFS.glfs_read(fileptr, stagingAddress, 4L, 0)).thenReturn(2L);
+
+		int read = channel.read(buffer);
+
+		assertEquals(2, read);
+		assertEquals(3, buffer.position());
+		assertEquals(2, channel.getPosition());
+		assertEquals("wx", new String(bytes, 3, 2));
+		assertEquals(0, bytes[5]);
+	}
+
+	@Test
+	public void testStaging_isLimitedToSize() {
+		ByteBuffer staging = channel.staging(10);
+		assertTrue(staging.isDirect());
+		assertEquals(0, staging.position());
+		assertEquals(10, staging.limit());
+
+		assertEquals(GlusterFileChannel.MAX_STAGING, channel.staging(GlusterFileChannel.MAX_STAGING + 1).limit());
+		assertEquals(5, channel.staging(5).limit());
+	}
+
+	@Test
+	public void testRead1Arg_whenDirectBuffer() throws IOException {
+		doNothing().when(channel).guardClosed();
+		long fileptr = 1234l;
+		channel.setFileptr(fileptr);
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+		buffer.position(4);
+		buffer.limit(12);
+		long address = 8000l;
+
+		mockStatic(UtilJNI.class);
+		when(UtilJNI.GetDirectBufferAddress(buffer)).thenReturn(address);
+		mockStatic(GLFS.class);
+		when(GLFS.glfs_read(fileptr, address + 4, 8L, 0)).thenReturn(8L);
+
+		int read = channel.read(buffer);
+
+		assertEquals(8, read);
+		assertEquals(12, buffer.position());
+		assertEquals(8, channel.getPosition());
+
+		verifyStatic();
+		GLFS.glfs_read(fileptr, address + 4, 8L, 0);
+	}
+
+	@Test
+	public void testRead1Arg_whenEndOfStream() throws IOException {
+		doNothing().when(channel).guardClosed();
+		long fileptr = 1234l;
+		channel.setFileptr(fileptr);
+
+		ByteBuffer buffer = ByteBuffer.allocate(10);
+		ByteBuffer staging = ByteBuffer.allocateDirect(10);
+		doReturn(staging).when(channel).staging(10);
+
+		mockStatic(UtilJNI.class);
+		when(UtilJNI.GetDirectBufferAddress(staging)).thenReturn(5000l);
+		mockStatic(GLFS.class);
+		when(GLFS.glfs_read(fileptr, 5000l, 10L, 0)).thenReturn(0L);
+
+		int read = channel.read(buffer);
+
+		assertEquals(-1, read);
+		assertEquals(0, buffer.position());
+	}
+
+	@Test
+	public void testRead1Arg_whenReadAhead() throws IOException {
+		doNothing().when(channel).guardClosed();
+		GlusterReadAhead readAhead = Mockito.mock(GlusterReadAhead.class);
+		channel.setReadAhead(readAhead);
+		channel.setPosition(4);
+		ByteBuffer buffer = ByteBuffer.allocate(10);
+		doReturn(10L).when(readAhead).read(buffer, 4);
+		mockStatic(GLFS.class);
+
+		int read = channel.read(buffer);
+
+		assertEquals(10, read);
+		assertEquals(14, channel.getPosition());
+		verifyStatic(never());
+		GLFS.glfs_read(anyLong(), anyLong(), anyLong(), anyInt());
+	}
+
+	@Test
+	public void testWrite1Arg_whenDirectBuffer() throws IOException {
+		doNothing().when(channel).guardClosed();
+		long fileptr = 1234l;
+		channel.setFileptr(fileptr);
+		channel.setPosition(5);
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+		buffer.position(6);
+		long address = 8000l;
+
+		mockStatic(UtilJNI.class);
+		when(UtilJNI.GetDirectBufferAddress(buffer)).thenReturn(address);
+		mockStatic(GLFS.class);
+		when(GLFS.glfs_write(fileptr, address + 6, 10L, 0)).thenReturn(10L);
+
+		int written = channel.write(buffer);
+
+		assertEquals(10, written);
+		assertEquals(16, buffer.position());
+		assertEquals(15, channel.getPosition());
+
+		verifyStatic();
+		GLFS.glfs_write(fileptr, address + 6, 10L, 0);
+	}
+
+	@Test
+	public void testWrite1Arg_whenHeapBufferHasOffset() throws IOException {
+		doNothing().when(channel).guardClosed();
+		long fileptr = 1234l;
+		channel.setFileptr(fileptr);
+
+		byte[] bytes = "0123456789".getBytes();
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, 3, 5);
+		ByteBuffer staging = ByteBuffer.allocateDirect(5);
+		doReturn(staging).when(channel).staging(5);
+
+		mockStatic(UtilJNI.class);
+		when(UtilJNI.GetDirectBufferAddress(staging)).thenReturn(5000l);
+		mockStatic(GLFS.class);
+		when(GLFS.glfs_write(fileptr, 5000l, 5L, 0)).thenReturn(5L);
+
+		int written = channel.write(buffer);
+
+		assertEquals(5, written);
+		assertEquals(8, buffer.position());
+		byte[] staged = new byte[5];
+		staging.clear();
+		staging.get(staged);
+		assertEquals("34567", new String(staged));
+
+		verifyStatic();
+		GLFS.glfs_write(fileptr, 5000l, 5L, 0);
+	}
+
+	@Test
+	public void testWrite1Arg_whenHeapBufferBiggerThanStaging() throws IOException {
+		doNothing().when(channel).guardClosed();
+		long fileptr = 1234l;
+		channel.setFileptr(fileptr);
+
+		int size = GlusterFileChannel.MAX_STAGING + 10;
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+
+		mockStatic(UtilJNI.class);
+		when(UtilJNI.GetDirectBufferAddress(any(ByteBuffer.class))).thenReturn(5000l);
+		mockStatic(GLFS.class);
+		when(GLFS.glfs_write(fileptr, 5000l, (long) GlusterFileChannel.MAX_STAGING, 0)).thenReturn((long) GlusterFileChannel.MAX_STAGING);
+		when(GLFS.glfs_write(fileptr, 5000l, 10L, 0)).thenReturn(10L);
+
+		int written = channel.write(buffer);
+
+		assertEquals(size, written);
+		assertFalse(buffer.hasRemaining());
+		assertEquals(size, channel.getPosition());
+	}
+
+	@Test
+	public void testWrite1Arg_whenHeapBufferWrittenShort() throws IOException {
+		doNothing().when(channel).guardClosed();
+		long fileptr = 1234l;
+		channel.setFileptr(fileptr);
+
+		ByteBuffer buffer = ByteBuffer.allocate(GlusterFileChannel.MAX_STAGING + 10);
+
+		mockStatic(UtilJNI.class);
+		when(UtilJNI.GetDirectBufferAddress(any(ByteBuffer.class))).thenReturn(5000l);
+		mockStatic(GLFS.class);
+		when(GLFS.glfs_write(fileptr, 5000l, (long) GlusterFileChannel.MAX_STAGING, 0)).thenReturn(100L);
+
+		int written = channel.write(buffer);
+
+		assertEquals(100, written);
+		assertEquals(100, buffer.position());
+		verifyStatic(times(1));
+		GLFS.glfs_write(anyLong(), anyLong(), anyLong(), anyInt());
 	}
 
 	@Test
@@ -196,21 +482,138 @@ public class GlusterFileChannelTest extends TestCase {
 		int length = 2;
 		int offset = 0;
 
+		ByteBuffer staging = ByteBuffer.allocateDirect(20);
+		doReturn(staging).when(channel).staging(buffers, offset, length);
+		long stagingAddress = 5000L;
+		long[] iov = new long[]{stagingAddress, 10, stagingAddress + 10, 10};
+
+		mockStatic(UtilJNI.class);
+		when(UtilJNI.GetDirectBufferAddress(staging)).thenReturn(stagingAddress);
 		mockStatic(GLFS.class);
-		when(GLFS.glfs_write(fileptr, bytes1, 10, 0)).thenReturn(10);
-		when(GLFS.glfs_write(fileptr, bytes2, 10, 0)).thenReturn(10);
+		when(GLFS.glfs_writev(fileptr, iov, 2, 0)).thenReturn(20L);
 
 		long ret = channel.write(buffers, offset, length);
 
 		assertEquals(ret, 20);
+		assertFalse(buffer1.hasRemaining());
+		assertFalse(buffer2.hasRemaining());
+		assertEquals(20, channel.getPosition());
 
-		verifyStatic(times(2));
-		GLFS.glfs_write(fileptr, bytes1, 10, 0);
+		verifyStatic();
+		GLFS.glfs_writev(fileptr, iov, 2, 0);
 
 		verify(mockOptions).contains(StandardOpenOption.WRITE);
 		verify(channel).guardClosed();
 	}
 
+	@Test
+	public void testStaging_reusesThreadBuffer() {
+		ByteBuffer[] small = new ByteBuffer[]{ByteBuffer.allocate(10)};
+		ByteBuffer[] large = new ByteBuffer[]{ByteBuffer.allocate(GlusterFileChannel.MAX_STAGING), ByteBuffer.allocate(10)};
+
+		ByteBuffer first = channel.staging(small, 0, 1);
+		assertTrue(first.isDirect());
+		assertTrue(first.capacity() >= 10);
+		assertSame(first, channel.staging(small, 0, 1));
+
+		ByteBuffer grown = channel.staging(large, 0, 2);
+		assertEquals(GlusterFileChannel.MAX_STAGING, grown.capacity());
+		assertSame(grown, channel.staging(large, 0, 2));
+		assertSame(grown, channel.staging(small, 0, 1));
+	}
+
+	@Test
+	public void testStaging_whenAllDirect() {
+		assertNull(channel.staging(new ByteBuffer[]{ByteBuffer.allocateDirect(10)}, 0, 1));
+	}
+
+	@Test
+	public void testWrite3Arg_whenPartiallyWritten() throws IOException {
+		doNothing().when(channel).guardClosed();
+		long fileptr = 1234L;
+		channel.setFileptr(fileptr);
+		Set<? extends OpenOption> mockOptions = Mockito.mock(Set.class);
+		channel.setOptions(mockOptions);
+		doReturn(true).when(mockOptions).contains(StandardOpenOption.WRITE);
+
+		ByteBuffer buffer1 = ByteBuffer.allocateDirect(10);
+		ByteBuffer buffer2 = ByteBuffer.allocateDirect(6);
+		buffer2.put("foobar".getBytes()).clear();
+		ByteBuffer[] buffers = new ByteBuffer[]{buffer1, buffer2};
+		long[] firstIov = new long[]{1000L, 10, 2000L, 6};
+		long[] secondIov = new long[]{1004L, 6, 2000L, 6};
+
+		mockStatic(UtilJNI.class);
+		when(UtilJNI.GetDirectBufferAddress(buffer1)).thenReturn(1000L);
+		when(UtilJNI.GetDirectBufferAddress(buffer2)).thenReturn(2000L);
+		mockStatic(GLFS.class);
+		when(GLFS.glfs_writev(fileptr, firstIov, 2, 0)).thenReturn(4L);
+		when(GLFS.glfs_writev(fileptr, secondIov, 2, 0)).thenReturn(12L);
+
+		long ret = channel.write(buffers, 0, 2);
+
+		assertEquals(16, ret);
+		assertFalse(buffer1.hasRemaining());
+		assertFalse(buffer2.hasRemaining());
+	}
+
+	@Test
+	public void testRead3Arg_whenMixedBuffers() throws IOException {
+		doNothing().when(channel).guardClosed();
+		long fileptr = 1234L;
+		channel.setFileptr(fileptr);
+		Set<? extends OpenOption> mockOptions = Mockito.mock(Set.class);
+		channel.setOptions(mockOptions);
+		doReturn(true).when(mockOptions).contains(StandardOpenOption.READ);
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(8);
+		byte[] bytes = new byte[4];
+		ByteBuffer heap = ByteBuffer.wrap(bytes);
+		ByteBuffer[] buffers = new ByteBuffer[]{direct, heap};
+		ByteBuffer staging = ByteBuffer.allocateDirect(4);
+		staging.put(new byte[]{'w', 'x', 'y', 'z'}, 0, 4).clear();
+		doReturn(staging).when(channel).staging(buffers, 0, 2);
+		long[] iov = new long[]{1000L, 8, 2000L, 4};
+
+		mockStatic(UtilJNI.class);
+		when(UtilJNI.GetDirectBufferAddress(direct)).thenReturn(1000L);
+		when(UtilJNI.GetDirectBufferAddress(staging)).thenReturn(2000L);
+		mockStatic(GLFS.class);
+		when(GLFS.glfs_readv(fileptr, iov, 2, 0)).thenReturn(11L);
+
+		long read = channel.read(buffers, 0, 2);
+
+		assertEquals(11, read);
+		assertEquals(8, direct.position());
+		assertEquals(3, heap.position());
+		assertEquals("wxy", new String(bytes, 0, 3));
+		assertEquals(11, channel.getPosition());
+
+		verifyStatic();
+		GLFS.glfs_readv(fileptr, iov, 2, 0);
+	}
+
+	@Test
+	public void testRead3Arg_whenEndOfStream() throws IOException {
+		doNothing().when(channel).guardClosed();
+		long fileptr = 1234L;
+		channel.setFileptr(fileptr);
+		Set<? extends OpenOption> mockOptions = Mockito.mock(Set.class);
+		channel.setOptions(mockOptions);
+		doReturn(true).when(mockOptions).contains(StandardOpenOption.READ);
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(8);
+		ByteBuffer[] buffers = new ByteBuffer[]{buffer};
+
+		mockStatic(UtilJNI.class);
+		when(UtilJNI.GetDirectBufferAddress(buffer)).thenReturn(1000L);
+		mockStatic(GLFS.class);
+		when(GLFS.glfs_readv(fileptr, new long[]{1000L, 8}, 1, 0)).thenReturn(0L);
+
+		assertEquals(-1, channel.read(buffers, 0, 1));
+		assertEquals(0, buffer.position());
+	}
+
 	@Test(expected = NonWritableChannelException.class)
 	public void testWrite3Arg_whenChannelNotOpenedForWrite() throws IOException {
 		doNothing().when(channel).guardClosed();
@@ -292,108 +695,150 @@ public class GlusterFileChannelTest extends TestCase {
 	}
 
 	@Test
-	public void testWrite2Arg_positionLessThanSize() throws IOException {
-		testWrite2Arg_helper(false);
-	}
-
-	@Test
-	public void testWrite2Arg_positionGreaterThanSize() throws IOException {
-		testWrite2Arg_helper(true);
-	}
-
-	private void testWrite2Arg_helper(boolean testingPositionSize) throws IOException {
+	public void testWrite2Arg() throws IOException {
 		doNothing().when(channel).guardClosed();
 		long fileptr = 1234L;
 		channel.setFileptr(fileptr);
 		Set<? extends OpenOption> mockOptions = Mockito.mock(Set.class);
 		channel.setOptions(mockOptions);
 		doReturn(true).when(mockOptions).contains(StandardOpenOption.WRITE);
-		channel.setPosition(0L);
-		doReturn(3L).when(channel).size();
+		channel.setPosition(7L);
 
-		byte[] bytes = new byte[10];
-		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		ByteBuffer buffer = ByteBuffer.allocate(10);
 		long position = 2L;
+		ByteBuffer staging = ByteBuffer.allocateDirect(10);
+		doReturn(staging).when(channel).staging(10);
 
-		if (testingPositionSize) {
-			position = 3L;
-			mockStatic(Arrays.class);
-			when(Arrays.copyOf(bytes, bytes.length)).thenReturn(bytes);
-			mockStatic(ByteBuffer.class);
-			when(ByteBuffer.wrap(bytes)).thenReturn(buffer);
-		}
-
+		mockStatic(UtilJNI.class);
+		when(UtilJNI.GetDirectBufferAddress(staging)).thenReturn(5000L);
 		mockStatic(GLFS.class);
-		when(GLFS.glfs_write(fileptr, bytes, 10, 0)).thenReturn(10);
-		when(GLFS.glfs_lseek(fileptr, position, 0)).thenReturn(0);
-		when(GLFS.glfs_lseek(fileptr, 0L, 0)).thenReturn(0);
+		when(GLFS.glfs_pwrite(fileptr, 5000L, 10L, position, 0)).thenReturn(10L);
 
 		int ret = channel.write(buffer, position);
 
-		assertEquals(ret, 10);
+		assertEquals(10, ret);
+		assertEquals(10, buffer.position());
+		assertEquals(7L, channel.getPosition());
 
 		verifyStatic();
-		GLFS.glfs_lseek(fileptr, 0L, 0);
-		verifyStatic();
-		GLFS.glfs_lseek(fileptr, position, 0);
-		verifyStatic();
-		GLFS.glfs_write(fileptr, bytes, 10, 0);
-
-		if (testingPositionSize) {
-			verifyStatic();
-			ByteBuffer.wrap(bytes);
-			verifyStatic();
-			Arrays.copyOf(bytes, bytes.length);
-		}
-
-		verify(channel, times(testingPositionSize ? 2 : 1)).size();
+		GLFS.glfs_pwrite(fileptr, 5000L, 10L, position, 0);
+		verifyStatic(never());
+		GLFS.glfs_lseek(anyLong(), anyLong(), anyInt());
+		verify(channel, never()).size();
 		verify(mockOptions).contains(StandardOpenOption.WRITE);
 		verify(channel).guardClosed();
 	}
 
 	@Test(expected = IOException.class)
-	public void testWrite2Arg_firstSeekFails() throws IOException {
+	public void testWrite2Arg_whenFailing() throws IOException {
 		doNothing().when(channel).guardClosed();
 		long fileptr = 1234L;
 		channel.setFileptr(fileptr);
 		Set<? extends OpenOption> mockOptions = Mockito.mock(Set.class);
 		channel.setOptions(mockOptions);
 		doReturn(true).when(mockOptions).contains(StandardOpenOption.WRITE);
-		channel.setPosition(0L);
-		doReturn(3L).when(channel).size();
 
-		byte[] bytes = new byte[10];
-		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		ByteBuffer buffer = ByteBuffer.allocate(10);
 		long position = 2L;
 
+		mockStatic(UtilJNI.class);
+		when(UtilJNI.GetDirectBufferAddress(any(ByteBuffer.class))).thenReturn(5000L);
 		mockStatic(GLFS.class);
-		when(GLFS.glfs_write(fileptr, bytes, 10, 0)).thenReturn(10);
-		when(GLFS.glfs_lseek(fileptr, position, 0)).thenReturn(0);
-		when(GLFS.glfs_lseek(fileptr, 0L, 0)).thenReturn(-1);
+		when(GLFS.glfs_pwrite(fileptr, 5000L, 10L, position, 0)).thenReturn(-1L);
 
 		channel.write(buffer, position);
 	}
 
-	@Test(expected = IOException.class)
-	public void testWrite2Arg_secondSeekFails() throws IOException {
+	@Test
+	public void testRead2Arg() throws IOException {
 		doNothing().when(channel).guardClosed();
 		long fileptr = 1234L;
 		channel.setFileptr(fileptr);
 		Set<? extends OpenOption> mockOptions = Mockito.mock(Set.class);
 		channel.setOptions(mockOptions);
-		doReturn(true).when(mockOptions).contains(StandardOpenOption.WRITE);
-		channel.setPosition(0L);
-		doReturn(3L).when(channel).size();
+		doReturn(true).when(mockOptions).contains(StandardOpenOption.READ);
+		channel.setPosition(3L);
 
-		byte[] bytes = new byte[10];
-		ByteBuffer buffer = ByteBuffer.wrap(bytes);
-		long position = 2L;
+		ByteBuffer buffer = ByteBuffer.allocateDirect(10);
+		long address = 8000L;
+		long position = 100L;
 
+		mockStatic(UtilJNI.class);
+		when(UtilJNI.GetDirectBufferAddress(buffer)).thenReturn(address);
 		mockStatic(GLFS.class);
-		when(GLFS.glfs_write(fileptr, bytes, 10, 0)).thenReturn(10);
-		when(GLFS.glfs_lseek(fileptr, position, 0)).thenReturn(-1);
+		when(GLFS.glfs_pread(fileptr, address, 10L, position, 0)).thenReturn(6L);
 
-		channel.write(buffer, position);
+		int ret = channel.read(buffer, position);
+
+		assertEquals(6, ret);
+		assertEquals(6, buffer.position());
+		assertEquals(3L, channel.getPosition());
+
+		verifyStatic();
+		GLFS.glfs_pread(fileptr, address, 10L, position, 0);
+		verify(channel, never()).size();
+	}
+
+	@Test
+	public void testRead2Arg_whenEndOfFile() throws IOException {
+		doNothing().when(channel).guardClosed();
+		long fileptr = 1234L;
+		channel.setFileptr(fileptr);
+		Set<? extends OpenOption> mockOptions = Mockito.mock(Set.class);
+		channel.setOptions(mockOptions);
+		doReturn(true).when(mockOptions).contains(StandardOpenOption.READ);
+
+		ByteBuffer buffer = ByteBuffer.allocate(10);
+		long position = 100L;
+
+		mockStatic(UtilJNI.class);
+		when(UtilJNI.GetDirectBufferAddress(any(ByteBuffer.class))).thenReturn(5000L);
+		mockStatic(GLFS.class);
+		when(GLFS.glfs_pread(fileptr, 5000L, 10L, position, 0)).thenReturn(0L);
+
+		int ret = channel.read(buffer, position);
+
+		assertEquals(-1, ret);
+		assertEquals(0, buffer.position());
+	}
+
+	@Test
+	public void testRead2Arg_whenHeapBuffer() throws IOException {
+		doNothing().when(channel).guardClosed();
+		long fileptr = 1234L;
+		channel.setFileptr(fileptr);
+		Set<? extends OpenOption> mockOptions = Mockito.mock(Set.class);
+		channel.setOptions(mockOptions);
+		doReturn(true).when(mockOptions).contains(StandardOpenOption.READ);
+
+		byte[] bytes = new byte[8];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, 2, 4);
+		long position = 100L;
+		ByteBuffer staging = ByteBuffer.allocateDirect(4);
+		staging.put("wxyz".getBytes()).clear();
+		doReturn(staging).when(channel).staging(4);
+
+		mockStatic(UtilJNI.class);
+		when(UtilJNI.GetDirectBufferAddress(staging)).thenReturn(5000L);
+		mockStatic(GLFS.class);
+		when(GLFS.glfs_pread(fileptr, 5000L, 4L, position, 0)).thenReturn(3L);
+
+		int ret = channel.read(buffer, position);
+
+		assertEquals(3, ret);
+		assertEquals(5, buffer.position());
+		assertEquals("wxy", new String(bytes, 2, 3));
+		assertEquals(0, bytes[5]);
+	}
+
+	@Test(expected = NonReadableChannelException.class)
+	public void testRead2Arg_whenChannelNonReadable() throws IOException {
+		doNothing().when(channel).guardClosed();
+		Set<? extends OpenOption> mockOptions = Mockito.mock(Set.class);
+		channel.setOptions(mockOptions);
+		doReturn(false).when(mockOptions).contains(StandardOpenOption.READ);
+
+		channel.read(ByteBuffer.allocate(1), 0L);
 	}
 
 	@Test(expected = NonWritableChannelException.class)
@@ -534,6 +979,8 @@ public class GlusterFileChannelTest extends TestCase {
 	public void testImplCloseChannel() throws IOException {
 		long fileptr = 1234l;
 		channel.setFileptr(fileptr);
+		channel.setFileSystem(mockFileSystem);
+		channel.setConnection(2);
 
 		mockStatic(GLFS.class);
 		when(GLFS.glfs_close(fileptr)).thenReturn(0);
@@ -544,6 +991,25 @@ public class GlusterFileChannelTest extends TestCase {
 
 		verifyStatic();
 		GLFS.glfs_close(fileptr);
+		verify(mockFileSystem).release(2);
+	}
+
+	@Test
+	public void testImplCloseChannel_whenReadAhead() throws IOException {
+		long fileptr = 1234l;
+		channel.setFileptr(fileptr);
+		channel.setFileSystem(mockFileSystem);
+		GlusterReadAhead readAhead = Mockito.mock(GlusterReadAhead.class);
+		channel.setReadAhead(readAhead);
+
+		mockStatic(GLFS.class);
+		when(GLFS.glfs_close(fileptr)).thenReturn(0);
+
+		channel.implCloseChannel();
+
+		verify(readAhead).close();
+		verifyStatic();
+		GLFS.glfs_close(fileptr);
 	}
 
 	@Test
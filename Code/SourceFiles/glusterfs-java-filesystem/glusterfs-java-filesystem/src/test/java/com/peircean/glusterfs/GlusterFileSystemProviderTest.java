@@ -1,14 +1,18 @@
 package com.peircean.glusterfs;
 
 import com.peircean.libgfapi_jni.internal.GLFS;
+import com.peircean.libgfapi_jni.internal.UtilJNI;
 import com.peircean.libgfapi_jni.internal.structs.stat;
 import com.peircean.libgfapi_jni.internal.structs.statvfs;
 import junit.framework.TestCase;
+import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.Spy;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
@@ -16,6 +20,7 @@ import org.powermock.modules.junit4.PowerMockRunner;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.AsynchronousFileChannel;
 import java.nio.channels.ByteChannel;
 import java.nio.channels.FileChannel;
 import java.nio.file.*;
@@ -24,6 +29,9 @@ import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
@@ -36,7 +44,7 @@ import static org.powermock.api.mockito.PowerMockito.*;
  * @author <a href="http://about.me/louiszuckerman">Louis Zuckerman</a>
  */
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({GLFS.class, Files.class, GlusterFileSystemProvider.class, GlusterFileChannel.class, GlusterFileAttributes.class,
+@PrepareForTest({GLFS.class, UtilJNI.class, Files.class, GlusterFileSystemProvider.class, GlusterFileChannel.class, GlusterFileAttributes.class,
         GlusterDirectoryStream.class, GlusterFileSystem.class})
 public class GlusterFileSystemProviderTest extends TestCase {
 
@@ -53,6 +61,12 @@ public class GlusterFileSystemProviderTest extends TestCase {
     @Mock
     private GlusterFileChannel mockChannel;
     @Mock
+    private GlusterCompletionQueue mockCompletionQueue;
+    @Mock
+    private GlusterAsynchronousFileChannel mockAsyncChannel;
+    @Mock
+    private GlusterCopyEngine mockCopyEngine;
+    @Mock
     private GlusterDirectoryIterator mockIterator;
     @Mock
     private GlusterDirectoryStream mockStream;
@@ -61,6 +75,11 @@ public class GlusterFileSystemProviderTest extends TestCase {
     @Spy
     private GlusterFileSystemProvider provider = new GlusterFileSystemProvider();
 
+    @After
+    public void tearDown() {
+        provider.getCache().clear();
+    }
+
     @Test
     public void testGetScheme() {
         GlusterFileSystemProvider p = new GlusterFileSystemProvider();
@@ -83,6 +102,7 @@ public class GlusterFileSystemProviderTest extends TestCase {
         verify(provider).glfsInit(authority, volptr);
         assertTrue(provider.getCache().containsKey(authority));
         assertEquals(fileSystem, provider.getCache().get(authority));
+        assertEquals(0, ((GlusterFileSystem) fileSystem).getReadAheadSize());
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -177,6 +197,277 @@ public class GlusterFileSystemProviderTest extends TestCase {
         assertEquals(mockFileSystem, provider.getFileSystem(new URI("gluster://foo:bar/baz")));
     }
 
+    @Test
+    public void testNewFileSystem_whenCopyBufferSizeGiven() throws IOException, URISyntaxException {
+        String authority = SERVER + ":" + VOLNAME;
+        doReturn(new String[]{SERVER, VOLNAME}).when(provider).parseAuthority(authority);
+        long volptr = 1234l;
+        doReturn(volptr).when(provider).glfsNew(VOLNAME);
+        doNothing().when(provider).glfsSetVolfileServer(SERVER, volptr);
+        doNothing().when(provider).glfsInit(authority, volptr);
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put(GlusterFileSystemProvider.COPY_BUFFER_SIZE, "65536");
+        GlusterFileSystem fileSystem = (GlusterFileSystem) provider.newFileSystem(new URI("gluster://" + authority), env);
+        assertEquals(65536, fileSystem.getCopyBufferSize());
+    }
+
+    @Test
+    public void testNewFileSystem_whenConnectionsGiven() throws IOException, URISyntaxException {
+        String authority = SERVER + ":" + VOLNAME;
+        doReturn(new String[]{SERVER, VOLNAME}).when(provider).parseAuthority(authority);
+        doReturn(1234L).doReturn(1235L).doReturn(1236L).when(provider).glfsNew(VOLNAME);
+        doNothing().when(provider).glfsSetVolfileServer(eq(SERVER), anyLong());
+        doNothing().when(provider).glfsInit(eq(authority), anyLong());
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put(GlusterFileSystemProvider.CONNECTIONS, 3);
+        env.put(GlusterFileSystemProvider.CONNECTION_POLICY, "least-outstanding");
+        GlusterFileSystem fileSystem = (GlusterFileSystem) provider.newFileSystem(new URI("gluster://" + authority), env);
+        assertEquals(1234L, fileSystem.getVolptr());
+        assertTrue(Arrays.equals(new long[]{1234L, 1235L, 1236L}, fileSystem.getVolptrs()));
+        assertTrue(fileSystem.getConnectionPolicy() instanceof GlusterConnectionPolicy.LeastOutstanding);
+        verify(provider, times(3)).glfsNew(VOLNAME);
+        verify(provider).glfsInit(authority, 1236L);
+    }
+
+    @Test
+    public void testConnect_whenOptionInvalid() {
+        String authority = SERVER + ":" + VOLNAME;
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put(GlusterFileSystemProvider.CONNECTIONS, 2);
+        env.put(GlusterFileSystemProvider.STAT_CACHE_TTL, "soon");
+        try {
+            provider.connect(authority, new String[]{SERVER, VOLNAME}, env);
+            fail("Expected NumberFormatException");
+        } catch (NumberFormatException e) {
+            // expected
+        }
+        verify(provider, never()).glfsNew(anyString());
+    }
+
+    @Test
+    public void testConnect_whenLaterInitFails() {
+        String authority = SERVER + ":" + VOLNAME;
+        doReturn(1234L).doReturn(1235L).when(provider).glfsNew(VOLNAME);
+        doNothing().when(provider).glfsSetVolfileServer(eq(SERVER), anyLong());
+        doNothing().when(provider).glfsInit(authority, 1234L);
+        doThrow(new IllegalArgumentException()).when(provider).glfsInit(authority, 1235L);
+        doReturn(0).when(provider).close(anyLong());
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put(GlusterFileSystemProvider.CONNECTIONS, 2);
+        try {
+            provider.connect(authority, new String[]{SERVER, VOLNAME}, env);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        verify(provider).close(1234L);
+        verify(provider).close(1235L);
+    }
+
+    @Test
+    public void testAbandon() throws IOException {
+        GlusterFileSystem fileSystem = PowerMockito.mock(GlusterFileSystem.class);
+        GlusterUpcallDispatcher dispatcher = PowerMockito.mock(GlusterUpcallDispatcher.class);
+        GlusterHandleCache handleCache = PowerMockito.mock(GlusterHandleCache.class);
+        doReturn(dispatcher).when(fileSystem).getUpcallDispatcher();
+        doReturn(new GlusterHandleCache[]{handleCache}).when(fileSystem).getHandleCaches();
+        doReturn(0).when(provider).close(anyLong());
+
+        provider.abandon(fileSystem, new long[]{1234L, 0L});
+
+        verify(dispatcher).close();
+        verify(handleCache).close();
+        verify(provider).close(1234L);
+        verify(provider, never()).close(0L);
+    }
+
+    @Test
+    public void testConnectionPolicy() {
+        assertTrue(provider.connectionPolicy(null) instanceof GlusterConnectionPolicy.RoundRobin);
+        assertTrue(provider.connectionPolicy("round-robin") instanceof GlusterConnectionPolicy.RoundRobin);
+        assertTrue(provider.connectionPolicy("path-affinity") instanceof GlusterConnectionPolicy.PathAffinity);
+        assertTrue(provider.connectionPolicy(GlusterConnectionPolicy.LeastOutstanding.class.getName())
+                instanceof GlusterConnectionPolicy.LeastOutstanding);
+        GlusterConnectionPolicy policy = new GlusterConnectionPolicy.PathAffinity();
+        assertEquals(policy, provider.connectionPolicy(policy));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConnectionPolicy_whenUnknown() {
+        provider.connectionPolicy("fastest");
+    }
+
+    @Test
+    public void testConnectLock() {
+        String authority = SERVER + ":" + VOLNAME;
+        assertSame(provider.connectLock(authority), provider.connectLock(new String(authority)));
+        assertNotSame(provider.connectLock(authority), provider.connectLock(SERVER + ":other"));
+    }
+
+    @Test
+    public void testNewFileSystem_whenOtherAuthorityConnecting() throws Exception {
+        final String authority = SERVER + ":other";
+        final GlusterFileSystem other = new GlusterFileSystem(provider, SERVER, "other", 1L);
+        doReturn(other).when(provider).connect(eq(authority), any(String[].class), anyMap());
+        final FileSystem[] opened = new FileSystem[1];
+        Thread opener = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    opened[0] = provider.newFileSystem(new URI("gluster://" + authority), null);
+                } catch (Exception e) {
+                    // opened stays null
+                }
+            }
+        };
+        synchronized (provider.connectLock(SERVER + ":" + VOLNAME)) {
+            opener.start();
+            opener.join(5000);
+        }
+        assertSame(other, opened[0]);
+        provider.getCache().remove(authority);
+    }
+
+    @Test
+    public void testOptions() {
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put("int", "12");
+        env.put("long", 34L);
+        env.put("boolean", "false");
+        assertEquals(12, GlusterFileSystemProvider.intOption(env, "int", 1));
+        assertEquals(1, GlusterFileSystemProvider.intOption(env, "missing", 1));
+        assertEquals(1, GlusterFileSystemProvider.intOption(null, "int", 1));
+        assertEquals(34L, GlusterFileSystemProvider.longOption(env, "long", 2L));
+        assertEquals(2L, GlusterFileSystemProvider.longOption(env, "missing", 2L));
+        assertFalse(GlusterFileSystemProvider.booleanOption(env, "boolean", true));
+        assertTrue(GlusterFileSystemProvider.booleanOption(env, "missing", true));
+    }
+
+    @Test
+    public void testNewFileSystem_whenStatCacheTtlGiven() throws IOException, URISyntaxException {
+        String authority = SERVER + ":" + VOLNAME;
+        long volptr = 1234l;
+        doReturn(volptr).when(provider).glfsNew(VOLNAME);
+        doNothing().when(provider).glfsSetVolfileServer(SERVER, volptr);
+        doNothing().when(provider).glfsInit(authority, volptr);
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put(GlusterFileSystemProvider.STAT_CACHE_TTL, "500");
+        env.put(GlusterFileSystemProvider.STAT_CACHE_SIZE, 20);
+        GlusterFileSystem fileSystem = (GlusterFileSystem) provider.newFileSystem(new URI("gluster://" + authority), env);
+        assertEquals(500000000L, fileSystem.getStatCache().getTtlNanos());
+        assertEquals(20, fileSystem.getStatCache().getSize());
+    }
+
+    @Test
+    public void testNewFileSystem_whenNegativeCacheTtlGiven() throws IOException, URISyntaxException {
+        String authority = SERVER + ":" + VOLNAME;
+        long volptr = 1234l;
+        doReturn(volptr).when(provider).glfsNew(VOLNAME);
+        doNothing().when(provider).glfsSetVolfileServer(SERVER, volptr);
+        doNothing().when(provider).glfsInit(authority, volptr);
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put(GlusterFileSystemProvider.NEGATIVE_CACHE_TTL, 250);
+        GlusterFileSystem fileSystem = (GlusterFileSystem) provider.newFileSystem(new URI("gluster://" + authority), env);
+        assertEquals(250000000L, fileSystem.getNegativeCache().getTtlNanos());
+        assertEquals(GlusterNegativeCache.DEFAULT_SIZE, fileSystem.getNegativeCache().getSize());
+        assertNull(fileSystem.getStatCache());
+    }
+
+    @Test
+    public void testNewFileSystem_whenHandleCacheSizeGiven() throws IOException, URISyntaxException {
+        String authority = SERVER + ":" + VOLNAME;
+        long volptr = 1234l;
+        doReturn(volptr).when(provider).glfsNew(VOLNAME);
+        doNothing().when(provider).glfsSetVolfileServer(SERVER, volptr);
+        doNothing().when(provider).glfsInit(authority, volptr);
+        doReturn(0).when(provider).close(volptr);
+        mockStatic(GLFS.class);
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put(GlusterFileSystemProvider.HANDLE_CACHE_SIZE, "64");
+        env.put(GlusterFileSystemProvider.UPCALL_POLL_INTERVAL, 5);
+        GlusterFileSystem fileSystem = (GlusterFileSystem) provider.newFileSystem(new URI("gluster://" + authority), env);
+        assertEquals(64, fileSystem.getHandleCache(volptr).getSize());
+        fileSystem.close();
+    }
+
+    @Test
+    public void testConnect_whenHandleCacheWithoutUpcalls() {
+        String authority = SERVER + ":" + VOLNAME;
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put(GlusterFileSystemProvider.HANDLE_CACHE_SIZE, "64");
+        try {
+            provider.connect(authority, new String[]{SERVER, VOLNAME}, env);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        verify(provider, never()).glfsNew(anyString());
+    }
+
+    @Test
+    public void testNewFileSystem_whenUpcallPollIntervalGiven() throws IOException, URISyntaxException {
+        String authority = SERVER + ":" + VOLNAME;
+        long volptr = 1234l;
+        doReturn(volptr).when(provider).glfsNew(VOLNAME);
+        doNothing().when(provider).glfsSetVolfileServer(SERVER, volptr);
+        doNothing().when(provider).glfsInit(authority, volptr);
+        doReturn(0).when(provider).close(volptr);
+        mockStatic(GLFS.class);
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put(GlusterFileSystemProvider.UPCALL_POLL_INTERVAL, 5);
+        GlusterFileSystem fileSystem = (GlusterFileSystem) provider.newFileSystem(new URI("gluster://" + authority), env);
+        GlusterUpcallDispatcher dispatcher = fileSystem.getUpcallDispatcher();
+        assertEquals(5L, dispatcher.getPollMillis());
+        assertTrue(dispatcher.isRunning());
+        fileSystem.close();
+        assertFalse(dispatcher.isRunning());
+    }
+
+    @Test
+    public void testNewFileSystem_whenWatchCheckpointDirectoryGiven() throws IOException, URISyntaxException {
+        String authority = SERVER + ":" + VOLNAME;
+        long volptr = 1234l;
+        doReturn(volptr).when(provider).glfsNew(VOLNAME);
+        doNothing().when(provider).glfsSetVolfileServer(SERVER, volptr);
+        doNothing().when(provider).glfsInit(authority, volptr);
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put(GlusterFileSystemProvider.WATCH_CHECKPOINT_DIRECTORY, "/var/lib/watches");
+        env.put(GlusterFileSystemProvider.WATCH_SCAN_THREADS, "8");
+        GlusterFileSystem fileSystem = (GlusterFileSystem) provider.newFileSystem(new URI("gluster://" + authority), env);
+        assertEquals(8, fileSystem.getWatchScanThreads());
+        GlusterWatchCheckpoints checkpoints = fileSystem.getWatchCheckpoints();
+        assertEquals(Paths.get("/var/lib/watches"), checkpoints.getDirectory());
+        assertEquals(authority, checkpoints.getVolume());
+    }
+
+    @Test
+    public void testNewFileSystem_whenWatchEventLimitsGiven() throws IOException, URISyntaxException {
+        String authority = SERVER + ":" + VOLNAME;
+        long volptr = 1234l;
+        doReturn(volptr).when(provider).glfsNew(VOLNAME);
+        doNothing().when(provider).glfsSetVolfileServer(SERVER, volptr);
+        doNothing().when(provider).glfsInit(authority, volptr);
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put(GlusterFileSystemProvider.WATCH_MAX_EVENTS, "100");
+        env.put(GlusterFileSystemProvider.WATCH_COALESCE_EVENTS, "false");
+        GlusterFileSystem fileSystem = (GlusterFileSystem) provider.newFileSystem(new URI("gluster://" + authority), env);
+        assertEquals(100, fileSystem.getWatchMaxEvents());
+        assertFalse(fileSystem.isWatchCoalesceEvents());
+    }
+
+    @Test
+    public void testNewFileSystem_whenReadAheadSizeGiven() throws IOException, URISyntaxException {
+        String authority = SERVER + ":" + VOLNAME;
+        long volptr = 1234l;
+        doReturn(volptr).when(provider).glfsNew(VOLNAME);
+        doNothing().when(provider).glfsSetVolfileServer(SERVER, volptr);
+        doNothing().when(provider).glfsInit(authority, volptr);
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put(GlusterFileSystemProvider.READ_AHEAD_SIZE, "65536");
+        GlusterFileSystem fileSystem = (GlusterFileSystem) provider.newFileSystem(new URI("gluster://" + authority), env);
+        assertEquals(65536, fileSystem.getReadAheadSize());
+    }
+
     @Test
     public void testNewFileChannel() throws Exception {
         FileAttribute<?>[] attrs = new FileAttribute[0];
@@ -184,6 +475,7 @@ public class GlusterFileSystemProviderTest extends TestCase {
         doReturn(mockChannel).when(provider).newFileChannelHelper(mockPath, opts, attrs);
         FileChannel fileChannel = provider.newFileChannel(mockPath, opts, attrs);
         verify(provider).newFileChannelHelper(mockPath, opts, attrs);
+        verify(mockChannel).enableReadAhead();
         assertEquals(mockChannel, fileChannel);
     }
 
@@ -194,9 +486,37 @@ public class GlusterFileSystemProviderTest extends TestCase {
         doReturn(mockChannel).when(provider).newFileChannelHelper(mockPath, opts, attrs);
         ByteChannel fileChannel = provider.newByteChannel(mockPath, opts, attrs);
         verify(provider).newFileChannelHelper(mockPath, opts, attrs);
+        verify(mockChannel).enableReadAhead();
         assertEquals(mockChannel, fileChannel);
     }
 
+    @Test
+    public void testNewAsynchronousFileChannel() throws Exception {
+        FileAttribute<?>[] attrs = new FileAttribute[0];
+        Set<OpenOption> opts = new HashSet<OpenOption>();
+        opts.add(StandardOpenOption.WRITE);
+        URI uri = new URI("foo://bar/baz");
+        doReturn(uri).when(mockPath).toUri();
+        doReturn(mockFileSystem).when(provider).getFileSystem(uri);
+        doReturn(mockChannel).when(provider).newFileChannelHelper(mockPath, opts, attrs);
+        doReturn(opts).when(mockChannel).getOptions();
+        doReturn(mockCompletionQueue).when(mockFileSystem).getCompletionQueue();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AsynchronousFileChannel channel = provider.newAsynchronousFileChannel(mockPath, opts, executor, attrs);
+            verify(provider).newFileChannelHelper(mockPath, opts, attrs);
+            verify(mockFileSystem).getCompletionQueue();
+            GlusterAsynchronousFileChannel asyncChannel = (GlusterAsynchronousFileChannel) channel;
+            assertEquals(mockChannel, asyncChannel.getChannel());
+            assertEquals(mockCompletionQueue, asyncChannel.getCompletionQueue());
+            assertEquals(executor, asyncChannel.getExecutor());
+            assertTrue(asyncChannel.isWritable());
+            assertFalse(asyncChannel.isReadable());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     @Test
     public void testNewFileChannelHelper() throws Exception {
         Set<? extends OpenOption> options = new HashSet<OpenOption>();
@@ -217,7 +537,6 @@ public class GlusterFileSystemProviderTest extends TestCase {
     @Test(expected = FileSystemNotFoundException.class)
     public void testGetPath_whenCantCreateFilesystem() throws URISyntaxException, IOException {
         URI uri = new URI("gluster://foo:bar/baz");
-        doThrow(FileSystemNotFoundException.class).when(provider).getFileSystem(uri);
         doThrow(IOException.class).when(provider).newFileSystem(uri, null);
         provider.getPath(uri);
     }
@@ -242,7 +561,6 @@ public class GlusterFileSystemProviderTest extends TestCase {
     @Test
     public void testGetPath_whenNotCached() throws URISyntaxException, IOException {
         URI uri = new URI("gluster://foo:bar/baz");
-        doThrow(FileSystemNotFoundException.class).when(provider).getFileSystem(uri);
         doReturn(mockFileSystem).when(provider).newFileSystem(uri, null);
         doReturn(mockPath).when(mockFileSystem).getPath(uri.getPath());
         Path path = provider.getPath(uri);
@@ -251,6 +569,87 @@ public class GlusterFileSystemProviderTest extends TestCase {
         verify(mockFileSystem).getPath(uri.getPath());
     }
 
+    @Test
+    public void testGetPath_whenOpenedMeanwhile() throws URISyntaxException, IOException {
+        URI uri = new URI("gluster://foo:bar/baz");
+        provider.getCache().put(uri.getAuthority(), mockFileSystem);
+        assertEquals(mockFileSystem, provider.openFileSystem(uri));
+        verify(provider, never()).newFileSystem(uri, null);
+    }
+
+    @Test
+    public void testNewFileSystem_whenAlreadyOpen() throws IOException, URISyntaxException {
+        String authority = SERVER + ":" + VOLNAME;
+        long volptr = 1234l;
+        doReturn(volptr).when(provider).glfsNew(VOLNAME);
+        doNothing().when(provider).glfsSetVolfileServer(SERVER, volptr);
+        doNothing().when(provider).glfsInit(authority, volptr);
+        doReturn(0).when(provider).close(volptr);
+        URI uri = new URI("gluster://" + authority);
+
+        GlusterFileSystem first = (GlusterFileSystem) provider.newFileSystem(uri, null);
+        GlusterFileSystem second = (GlusterFileSystem) provider.newFileSystem(uri, null);
+
+        assertSame(first, second);
+        assertEquals(2, first.getReferences().get());
+        verify(provider).glfsInit(authority, volptr);
+        first.close();
+        assertSame(first, provider.getCache().get(authority));
+        second.close();
+        assertFalse(provider.getCache().containsKey(authority));
+        verify(provider).close(volptr);
+    }
+
+    @Test
+    public void testNewFileSystem_whenRacing() throws Exception {
+        final String authority = SERVER + ":" + VOLNAME;
+        final URI uri = new URI("gluster://" + authority);
+        final CountDownLatch initializing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doReturn(1234l).when(provider).glfsNew(VOLNAME);
+        doNothing().when(provider).glfsSetVolfileServer(SERVER, 1234l);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                initializing.countDown();
+                release.await();
+                return null;
+            }
+        }).when(provider).glfsInit(authority, 1234l);
+        final Path[] paths = new Path[2];
+        Thread[] threads = new Thread[2];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    paths[index] = provider.getPath(uri);
+                }
+            };
+            threads[i].start();
+        }
+        initializing.await();
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+
+        verify(provider).glfsInit(authority, 1234l);
+        assertSame(paths[0].getFileSystem(), paths[1].getFileSystem());
+        assertEquals(1, ((GlusterFileSystem) paths[0].getFileSystem()).getReferences().get());
+    }
+
+    @Test
+    public void testEvict_whenReopened() {
+        GlusterFileSystem closing = new GlusterFileSystem(provider, SERVER, VOLNAME, 1L);
+        GlusterFileSystem reopened = new GlusterFileSystem(provider, SERVER, VOLNAME, 2L);
+        provider.getCache().put(SERVER + ":" + VOLNAME, reopened);
+        provider.evict(closing);
+        assertSame(reopened, provider.getCache().get(SERVER + ":" + VOLNAME));
+        provider.evict(reopened);
+        assertTrue(provider.getCache().isEmpty());
+    }
+
     @Test(expected = UnsupportedOperationException.class)
     public void testReadAttributes_whenDosAttributes() throws IOException {
         provider.readAttributes(mockPath, DosFileAttributes.class);
@@ -271,7 +670,7 @@ public class GlusterFileSystemProviderTest extends TestCase {
         String path = "/foo/bar";
 
         doReturn(mockFileSystem).when(mockPath).getFileSystem();
-        doReturn(volptr).when(mockFileSystem).getVolptr();
+        doReturn(volptr).when(mockFileSystem).getVolptr(anyString());
         doReturn(path).when(mockPath).getString();
 
         stat stat = new stat();
@@ -289,7 +688,7 @@ public class GlusterFileSystemProviderTest extends TestCase {
         assertEquals(fakeAttributes, attributes);
 
         verify(mockPath).getFileSystem();
-        verify(mockFileSystem).getVolptr();
+        verify(mockFileSystem).getVolptr(anyString());
         verify(mockPath).getString();
 
         verifyNew(stat.class).withNoArguments();
@@ -301,6 +700,98 @@ public class GlusterFileSystemProviderTest extends TestCase {
         GlusterFileAttributes.fromStat(stat);
     }
 
+    @Test
+    public void testReadAttributes_whenCached() throws Exception {
+        GlusterStatCache statCache = new GlusterStatCache(1000L, 10);
+        GlusterFileAttributes cached = new GlusterFileAttributes(123, 234, 345, 12345l, 222111l, 121212l, 212121, 2234231l);
+        statCache.put("/foo/bar", true, cached);
+        doReturn(mockFileSystem).when(mockPath).getFileSystem();
+        doReturn(statCache).when(mockFileSystem).getStatCache();
+        doReturn("/foo/bar").when(mockPath).getString();
+        mockStatic(GLFS.class);
+
+        assertEquals(cached, provider.readAttributes(mockPath, GlusterFileAttributes.class));
+
+        verify(mockFileSystem, never()).getVolptr(anyString());
+        verifyStatic(never());
+        GLFS.glfs_stat(anyLong(), anyString(), any(stat.class));
+    }
+
+    @Test
+    public void testReadAttributes_whenNotCached() throws Exception {
+        long volptr = 1234l;
+        GlusterStatCache statCache = new GlusterStatCache(1000L, 10);
+        doReturn(mockFileSystem).when(mockPath).getFileSystem();
+        doReturn(statCache).when(mockFileSystem).getStatCache();
+        doReturn(volptr).when(mockFileSystem).getVolptr(anyString());
+        doReturn("/foo/bar").when(mockPath).getString();
+        stat stat = new stat();
+        whenNew(stat.class).withNoArguments().thenReturn(stat);
+        mockStatic(GLFS.class);
+        when(GLFS.glfs_lstat(volptr, "/foo/bar", stat)).thenReturn(0);
+
+        GlusterFileAttributes attributes = provider.readAttributes(mockPath, GlusterFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+
+        assertEquals(attributes, statCache.get("/foo/bar", false));
+        assertNull(statCache.get("/foo/bar", true));
+    }
+
+    @Test
+    public void testReadAttributes_whenKnownMissing() throws Exception {
+        GlusterNegativeCache negativeCache = new GlusterNegativeCache(1000L, 10);
+        negativeCache.put("/foo/_SUCCESS", true);
+        doReturn(mockFileSystem).when(mockPath).getFileSystem();
+        doReturn(negativeCache).when(mockFileSystem).getNegativeCache();
+        doReturn("/foo/_SUCCESS").when(mockPath).getString();
+        mockStatic(GLFS.class);
+
+        try {
+            provider.readAttributes(mockPath, GlusterFileAttributes.class);
+            fail("Expected NoSuchFileException");
+        } catch (NoSuchFileException e) {
+        }
+
+        assertEquals(1, negativeCache.getHits());
+        verify(mockFileSystem, never()).getVolptr(anyString());
+        verifyStatic(never());
+        GLFS.glfs_stat(anyLong(), anyString(), any(stat.class));
+    }
+
+    @Test
+    public void testAttributes_whenMissing() throws Exception {
+        long volptr = 1234l;
+        GlusterNegativeCache negativeCache = new GlusterNegativeCache(1000L, 10);
+        doReturn(negativeCache).when(mockFileSystem).getNegativeCache();
+        doReturn(volptr).when(mockFileSystem).getVolptr(anyString());
+        mockStatic(GLFS.class);
+        when(GLFS.glfs_lstat(eq(volptr), anyString(), any(stat.class))).thenReturn(-1);
+        mockStatic(UtilJNI.class);
+        when(UtilJNI.errno()).thenReturn(UtilJNI.ENOENT, 13);
+
+        assertNull(provider.attributes(mockFileSystem, "/foo/.lock", false));
+        assertNull(provider.attributes(mockFileSystem, "/foo/secret", false));
+
+        assertEquals(1, negativeCache.getEntryCount());
+        assertEquals(2, negativeCache.getMisses());
+        assertTrue(negativeCache.isMissing("/foo/.lock", false));
+    }
+
+    @Test
+    public void testAttributes_whenHandleCache() throws Exception {
+        long volptr = 1234l;
+        GlusterHandleCache handleCache = Mockito.mock(GlusterHandleCache.class);
+        doReturn(volptr).when(mockFileSystem).getVolptr(anyString());
+        doReturn(handleCache).when(mockFileSystem).getHandleCache(volptr);
+        doReturn(0).when(handleCache).stat(eq("/foo/bar"), any(stat.class), eq(true));
+        mockStatic(GLFS.class);
+
+        assertNotNull(provider.attributes(mockFileSystem, "/foo/bar", true));
+
+        verify(handleCache).stat(eq("/foo/bar"), any(stat.class), eq(true));
+        verifyStatic(never());
+        GLFS.glfs_stat(anyLong(), anyString(), any(stat.class));
+    }
+
     @Test(expected = NoSuchFileException.class)
     public void testReadAttributes_dontFollowLinks_whenNoSuchFile() throws Exception {
         readAttributes_dontFollowLinks_helper(false);
@@ -316,7 +807,7 @@ public class GlusterFileSystemProviderTest extends TestCase {
         String path = "/foo/bar";
 
         doReturn(mockFileSystem).when(mockPath).getFileSystem();
-        doReturn(volptr).when(mockFileSystem).getVolptr();
+        doReturn(volptr).when(mockFileSystem).getVolptr(anyString());
         doReturn(path).when(mockPath).getString();
 
         stat stat = new stat();
@@ -334,7 +825,7 @@ public class GlusterFileSystemProviderTest extends TestCase {
         assertEquals(fakeAttributes, attributes);
 
         verify(mockPath).getFileSystem();
-        verify(mockFileSystem).getVolptr();
+        verify(mockFileSystem).getVolptr(anyString());
         verify(mockPath).getString();
 
         verifyNew(stat.class).withNoArguments();
@@ -348,91 +839,81 @@ public class GlusterFileSystemProviderTest extends TestCase {
 
     @Test(expected = NoSuchFileException.class)
     public void testDelete_whenFileDoesNotExist() throws IOException {
-        mockStatic(Files.class);
-        when(Files.exists(mockPath)).thenReturn(false);
-
-        provider.delete(mockPath);
+        delete_helper(-UtilJNI.ENOENT, 0);
     }
 
     @Test(expected = DirectoryNotEmptyException.class)
     public void testDelete_whenDirectoryIsNotEmpty() throws IOException {
-        mockStatic(Files.class);
-        when(Files.exists(mockPath)).thenReturn(true);
-        when(Files.isDirectory(mockPath)).thenReturn(true);
-        doReturn(false).when(provider).directoryIsEmpty(mockPath);
-
-        provider.delete(mockPath);
+        delete_helper(-UtilJNI.EISDIR, -UtilJNI.ENOTEMPTY);
     }
 
     @Test(expected = IOException.class)
     public void testDelete_whenDirectoryAndFailing() throws IOException {
-        delete_helper(true, false);
+        delete_helper(-UtilJNI.EISDIR, -5);
     }
 
-    @Test(expected = IOException.class)
+    @Test(expected = AccessDeniedException.class)
     public void testDelete_whenFileAndFailing() throws IOException {
-        delete_helper(false, false);
+        delete_helper(-UtilJNI.EACCES, 0);
     }
 
     @Test
     public void testDelete_whenFileAndSuccess() throws IOException {
-        delete_helper(false, true);
+        delete_helper(0, 0);
+        verifyStatic(never());
+        GLFS.glfsjni_rmdir(anyLong(), anyString());
+        verify(mockFileSystem).invalidate("/foo");
     }
 
     @Test
     public void testDelete_whenDirectoryAndSuccess() throws IOException {
-        delete_helper(true, true);
+        delete_helper(-UtilJNI.EISDIR, 0);
+        verifyStatic();
+        GLFS.glfsjni_rmdir(1234L, "/foo");
+        verify(mockFileSystem).invalidateTree("/foo");
     }
 
-    private void delete_helper(boolean directory, boolean success) throws IOException {
+    private void delete_helper(int unlink, int rmdir) throws IOException {
         long volptr = 1234L;
         String path = "/foo";
 
         mockStatic(Files.class);
         mockStatic(GLFS.class);
+        mockStatic(UtilJNI.class);
 
-        when(Files.exists(mockPath)).thenReturn(true);
         doReturn(mockFileSystem).when(mockPath).getFileSystem();
-        doReturn(volptr).when(mockFileSystem).getVolptr();
+        doReturn(volptr).when(mockFileSystem).getVolptr(anyString());
         doReturn(path).when(mockPath).toString();
-
-        if (directory) {
-            when(Files.isDirectory(mockPath)).thenReturn(true);
-            doReturn(true).when(provider).directoryIsEmpty(mockPath);
-            if (success) {
-                when(GLFS.glfs_rmdir(volptr, path)).thenReturn(0);
-            } else {
-                when(GLFS.glfs_rmdir(volptr, path)).thenReturn(-1);
-            }
-        } else {
-            when(Files.isDirectory(mockPath)).thenReturn(false);
-            if (success) {
-                when(GLFS.glfs_unlink(volptr, path)).thenReturn(0);
-            } else {
-                when(GLFS.glfs_unlink(volptr, path)).thenReturn(-1);
-            }
-        }
+        when(GLFS.glfsjni_unlink(volptr, path)).thenReturn(unlink);
+        when(GLFS.glfsjni_rmdir(volptr, path)).thenReturn(rmdir);
 
         provider.delete(mockPath);
 
-        if (success) {
-            verifyStatic();
-            Files.exists(mockPath);
-            verifyStatic();
-            Files.isDirectory(mockPath);
-
-            verify(mockPath).getFileSystem();
-            verify(mockFileSystem).getVolptr();
-
-            if (directory) {
-                verify(provider).directoryIsEmpty(mockPath);
-                verifyStatic();
-                GLFS.glfs_rmdir(volptr, path);
-            } else {
-                verifyStatic();
-                GLFS.glfs_unlink(volptr, path);
-            }
-        }
+        verify(mockPath).getFileSystem();
+        verify(mockFileSystem).getVolptr(anyString());
+        verifyStatic();
+        GLFS.glfsjni_unlink(volptr, path);
+        verifyStatic(never());
+        Files.exists(mockPath);
+    }
+
+    @Test
+    public void testErrnoException() {
+        mockStatic(UtilJNI.class);
+        when(UtilJNI.strerror_jni(5)).thenReturn(777L);
+        when(UtilJNI.string(777L)).thenReturn("Input/output error");
+
+        assertTrue(GlusterFileSystemProvider.errnoException(UtilJNI.ENOENT, "/a", null) instanceof NoSuchFileException);
+        assertTrue(GlusterFileSystemProvider.errnoException(UtilJNI.EEXIST, "/a", null) instanceof FileAlreadyExistsException);
+        assertTrue(GlusterFileSystemProvider.errnoException(UtilJNI.EACCES, "/a", null) instanceof AccessDeniedException);
+        assertTrue(GlusterFileSystemProvider.errnoException(UtilJNI.ENOTDIR, "/a", null) instanceof NotDirectoryException);
+        IOException notEmpty = GlusterFileSystemProvider.errnoException(UtilJNI.ENOTEMPTY, "/a", "/b");
+        assertTrue(notEmpty instanceof DirectoryNotEmptyException);
+        assertEquals("/b", ((DirectoryNotEmptyException) notEmpty).getFile());
+        FileSystemException other = (FileSystemException) GlusterFileSystemProvider.errnoException(5, "/a", "/b");
+        assertEquals("/a", other.getFile());
+        assertEquals("/b", other.getOtherFile());
+        assertEquals("Input/output error", other.getReason());
     }
 
     @Test
@@ -461,7 +942,7 @@ public class GlusterFileSystemProviderTest extends TestCase {
     public void testCheckAccess_whenFileDoesNotExist() throws IOException {
         doReturn(mockFileSystem).when(mockPath).getFileSystem();
         long volptr = 1234l;
-        doReturn(volptr).when(mockFileSystem).getVolptr();
+        doReturn(volptr).when(mockFileSystem).getVolptr(anyString());
         String path = "/foo/bar";
         doReturn(path).when(mockPath).getString();
         stat stat = new stat();
@@ -475,7 +956,7 @@ public class GlusterFileSystemProviderTest extends TestCase {
     public void testCheckAccess_whenDenied() throws IOException {
         doReturn(mockFileSystem).when(mockPath).getFileSystem();
         long volptr = 1234l;
-        doReturn(volptr).when(mockFileSystem).getVolptr();
+        doReturn(volptr).when(mockFileSystem).getVolptr(anyString());
         String path = "/foo/bar";
         doReturn(path).when(mockPath).getString();
         int mode = 4;
@@ -491,7 +972,7 @@ public class GlusterFileSystemProviderTest extends TestCase {
     public void testCheckAccess() throws IOException {
         long volptr = 1234l;
         doReturn(mockFileSystem).when(mockPath).getFileSystem();
-        doReturn(volptr).when(mockFileSystem).getVolptr();
+        doReturn(volptr).when(mockFileSystem).getVolptr(anyString());
         String path = "/foo/bar";
         doReturn(path).when(mockPath).getString();
         int mode = 4;
@@ -506,11 +987,27 @@ public class GlusterFileSystemProviderTest extends TestCase {
         GLFS.glfs_access(volptr, path, mode);
 
         verify(mockPath).getFileSystem();
-        verify(mockFileSystem).getVolptr();
+        verify(mockFileSystem, times(2)).getVolptr(anyString());
         verify(mockPath).getString();
 
     }
 
+    @Test
+    public void testCheckAccess_whenExistenceCached() throws IOException {
+        GlusterStatCache statCache = new GlusterStatCache(1000L, 10);
+        statCache.put("/foo/bar", false, new GlusterFileAttributes(0644, 0, 0, 0L, 0L, 0L, 0L, 1L));
+        doReturn(mockFileSystem).when(mockPath).getFileSystem();
+        doReturn(statCache).when(mockFileSystem).getStatCache();
+        doReturn("/foo/bar").when(mockPath).getString();
+        mockStatic(GLFS.class);
+
+        provider.checkAccess(mockPath);
+
+        verify(mockFileSystem, never()).getVolptr(anyString());
+        verifyStatic(never());
+        GLFS.glfs_lstat(anyLong(), anyString(), any(stat.class));
+    }
+
     @Test
     public void testGetTotalSpace() throws Exception {
         mockStatic(GLFS.class);
@@ -732,25 +1229,142 @@ public class GlusterFileSystemProviderTest extends TestCase {
         PowerMockito.verifyNoMoreInteractions(Files.class);
     }
 
+    @Test
+    public void testCopyFileContent_whenSameVolume() throws IOException {
+        GlusterFileSystem fileSystem = new GlusterFileSystem(provider, SERVER, VOLNAME, 1L);
+        doReturn(fileSystem).when(mockPath).getFileSystem();
+        doReturn(new GlusterFileSystem(provider, SERVER, VOLNAME, 2L)).when(targetPath).getFileSystem();
+        doReturn(true).when(provider).copyFileContentOnServer(mockPath, targetPath);
+
+        provider.copyFileContent(mockPath, targetPath);
+
+        verify(provider).copyFileContentOnServer(mockPath, targetPath);
+        verify(provider, never()).copyFileContentStreaming(mockPath, targetPath);
+    }
+
+    @Test
+    public void testCopyFileContent_whenServerCopyUnsupported() throws IOException {
+        GlusterFileSystem fileSystem = new GlusterFileSystem(provider, SERVER, VOLNAME, 1L);
+        doReturn(fileSystem).when(mockPath).getFileSystem();
+        doReturn(new GlusterFileSystem(provider, SERVER, VOLNAME, 2L)).when(targetPath).getFileSystem();
+        doReturn(false).when(provider).copyFileContentOnServer(mockPath, targetPath);
+        doNothing().when(provider).copyFileContentStreaming(mockPath, targetPath);
+
+        provider.copyFileContent(mockPath, targetPath);
+
+        verify(provider).copyFileContentOnServer(mockPath, targetPath);
+        verify(provider).copyFileContentStreaming(mockPath, targetPath);
+    }
+
+    @Test
+    public void testCopyFileContent_whenDifferentVolumes() throws IOException {
+        doReturn(mockFileSystem).when(mockPath).getFileSystem();
+        doReturn(differentMockFileSystem).when(targetPath).getFileSystem();
+        doNothing().when(provider).copyFileContentStreaming(mockPath, targetPath);
+
+        provider.copyFileContent(mockPath, targetPath);
+
+        verify(provider, never()).copyFileContentOnServer(mockPath, targetPath);
+        verify(provider).copyFileContentStreaming(mockPath, targetPath);
+    }
+
+    GlusterFileChannel[] serverCopyChannels(long size) throws IOException {
+        GlusterFileChannel in = PowerMockito.spy(new GlusterFileChannel());
+        GlusterFileChannel out = PowerMockito.spy(new GlusterFileChannel());
+        in.setFileptr(11L);
+        out.setFileptr(22L);
+        doReturn(size).when(in).size();
+        doNothing().when(in).implCloseChannel();
+        doNothing().when(out).implCloseChannel();
+        doReturn(in).when(provider).newFileChannelHelper(eq(mockPath), eq(EnumSet.of(StandardOpenOption.READ)),
+                any(FileAttribute[].class));
+        doReturn(out).when(provider).newFileChannel(targetPath,
+                EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+        return new GlusterFileChannel[]{in, out};
+    }
+
+    @Test
+    public void testCopyFileContentOnServer() throws IOException {
+        GlusterFileChannel[] channels = serverCopyChannels(10L);
+        mockStatic(GLFS.class);
+        when(GLFS.glfs_copy_file_range(11L, 0L, 22L, 0L, 10L)).thenReturn(6L);
+        when(GLFS.glfs_copy_file_range(11L, 6L, 22L, 6L, 4L)).thenReturn(4L);
+
+        assertTrue(provider.copyFileContentOnServer(mockPath, targetPath));
+
+        verifyStatic();
+        GLFS.glfs_copy_file_range(11L, 6L, 22L, 6L, 4L);
+        verify(channels[0]).implCloseChannel();
+        verify(channels[1]).implCloseChannel();
+    }
+
+    @Test
+    public void testCopyFileContentOnServer_whenUnsupported() throws IOException {
+        GlusterFileChannel[] channels = serverCopyChannels(10L);
+        mockStatic(GLFS.class);
+        when(GLFS.glfs_copy_file_range(11L, 0L, 22L, 0L, 10L)).thenReturn(GLFS.COPY_UNSUPPORTED);
+
+        assertFalse(provider.copyFileContentOnServer(mockPath, targetPath));
+
+        verify(channels[1]).implCloseChannel();
+    }
+
+    @Test(expected = IOException.class)
+    public void testCopyFileContentOnServer_whenFailing() throws IOException {
+        serverCopyChannels(10L);
+        mockStatic(GLFS.class);
+        mockStatic(UtilJNI.class);
+        when(GLFS.glfs_copy_file_range(11L, 0L, 22L, 0L, 10L)).thenReturn(4L);
+        when(GLFS.glfs_copy_file_range(11L, 4L, 22L, 4L, 6L)).thenReturn(GLFS.COPY_UNSUPPORTED);
+        when(UtilJNI.strerror()).thenReturn("Function not implemented");
+
+        provider.copyFileContentOnServer(mockPath, targetPath);
+    }
+
+    @Test
+    public void testCopyFileContentStreaming() throws Exception {
+        GlusterFileSystem fileSystem = new GlusterFileSystem(provider, SERVER, VOLNAME, 1L);
+        fileSystem.setCopyBufferSize(4096);
+        doReturn(fileSystem).when(targetPath).getFileSystem();
+        doReturn(mockAsyncChannel).when(provider).newAsynchronousFileChannel(mockPath, EnumSet.of(StandardOpenOption.READ), null);
+        GlusterFileChannel out = PowerMockito.spy(new GlusterFileChannel());
+        doNothing().when(out).implCloseChannel();
+        doReturn(out).when(provider).newFileChannel(targetPath,
+                EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+        whenNew(GlusterCopyEngine.class).withArguments(4096).thenReturn(mockCopyEngine);
+        GlusterCopyResult result = new GlusterCopyResult(100L, 10L);
+        doReturn(result).when(mockCopyEngine).copy(mockAsyncChannel, out);
+
+        provider.copyFileContentStreaming(mockPath, targetPath);
+
+        verify(mockCopyEngine).copy(mockAsyncChannel, out);
+        verify(mockAsyncChannel).close();
+        verify(out).implCloseChannel();
+        assertEquals(result, fileSystem.getCopyStatistics().getLast());
+    }
+
     @Test
     public void testMoveFile_whenSameFile() throws IOException {
         mockStatic(Files.class);
         when(Files.exists(targetPath)).thenReturn(true);
 
-        doNothing().when(provider).guardFileExists(mockPath);
         doNothing().when(provider).guardAbsolutePath(mockPath);
         doNothing().when(provider).guardAbsolutePath(targetPath);
+        GlusterFileSystem mfs = Mockito.mock(GlusterFileSystem.class);
+        doReturn(mfs).when(mockPath).getFileSystem();
+        doReturn(mfs).when(targetPath).getFileSystem();
 
         doReturn(true).when(provider).isSameFile(mockPath, targetPath);
+        mockStatic(GLFS.class);
 
         provider.move(mockPath, targetPath);
 
-        verify(provider).guardFileExists(mockPath);
         verify(provider).guardAbsolutePath(mockPath);
         verify(provider).guardAbsolutePath(targetPath);
 
         verify(provider).isSameFile(mockPath, targetPath);
-        verify(mockPath, never()).getFileSystem();
+        verifyStatic(never());
+        GLFS.glfsjni_rename(anyLong(), anyString(), anyString());
 
         verifyStatic();
         Files.exists(targetPath);
@@ -758,15 +1372,10 @@ public class GlusterFileSystemProviderTest extends TestCase {
 
     @Test(expected = AtomicMoveNotSupportedException.class)
     public void testMoveFile_whenAtomicMove() throws IOException {
-        mockStatic(Files.class);
-        PowerMockito.when(Files.exists(targetPath)).thenReturn(false);
-
-        doNothing().when(provider).guardFileExists(mockPath);
         doNothing().when(provider).guardAbsolutePath(mockPath);
         doNothing().when(provider).guardAbsolutePath(targetPath);
 
         CopyOption copyOption = StandardCopyOption.ATOMIC_MOVE;
-        doReturn(false).when(provider).isSameFile(mockPath, targetPath);
         provider.move(mockPath, targetPath, copyOption);
     }
 
@@ -776,44 +1385,72 @@ public class GlusterFileSystemProviderTest extends TestCase {
         mockStatic(Files.class);
         PowerMockito.when(Files.exists(targetPath)).thenReturn(true);
 
-        doNothing().when(provider).guardFileExists(mockPath);
         doNothing().when(provider).guardAbsolutePath(mockPath);
         doNothing().when(provider).guardAbsolutePath(targetPath);
+        GlusterFileSystem mfs = Mockito.mock(GlusterFileSystem.class);
+        doReturn(mfs).when(mockPath).getFileSystem();
+        doReturn(mfs).when(targetPath).getFileSystem();
 
         doReturn(false).when(provider).isSameFile(mockPath, targetPath);
-        when(Files.exists(targetPath)).thenReturn(true);
         provider.move(mockPath, targetPath);
     }
 
     @Test(expected = DirectoryNotEmptyException.class)
     public void testMoveFile_whenTargetDirNotEmpty_andReplaceExisting() throws IOException {
-        mockStatic(Files.class);
-        PowerMockito.when(Files.exists(targetPath)).thenReturn(true);
+        move_helper(-UtilJNI.ENOTEMPTY);
+    }
 
-        doNothing().when(provider).guardFileExists(mockPath);
+    @Test(expected = NoSuchFileException.class)
+    public void testMoveFile_whenSourceDoesNotExist() throws IOException {
+        move_helper(-UtilJNI.ENOENT);
+    }
+
+    @Test
+    public void testMoveFile_whenTargetIsDirectory() throws IOException {
+        long volptr = 12345L;
+        mockStatic(GLFS.class);
+        when(GLFS.glfsjni_rename(volptr, "/foo/src", "/foo/dst")).thenReturn(-UtilJNI.EISDIR);
+
+        try {
+            move_helper(null);
+            fail();
+        } catch (FileAlreadyExistsException e) {
+        }
+
+        verifyStatic(never());
+        GLFS.glfsjni_rmdir(anyLong(), anyString());
+        verifyStatic(times(1));
+        GLFS.glfsjni_rename(volptr, "/foo/src", "/foo/dst");
+    }
+
+    private void move_helper(Integer rename) throws IOException {
         doNothing().when(provider).guardAbsolutePath(mockPath);
         doNothing().when(provider).guardAbsolutePath(targetPath);
+        GlusterFileSystem mfs = Mockito.mock(GlusterFileSystem.class);
+        doReturn(mfs).when(mockPath).getFileSystem();
+        doReturn(mfs).when(targetPath).getFileSystem();
+        doReturn("/foo/src").when(mockPath).getString();
+        doReturn("/foo/dst").when(targetPath).getString();
+        doReturn(12345L).when(mfs).getVolptr(anyString());
+        if (null != rename) {
+            mockStatic(GLFS.class);
+            when(GLFS.glfsjni_rename(12345L, "/foo/src", "/foo/dst")).thenReturn(rename);
+        }
+        mockStatic(Files.class);
 
-        doReturn(false).when(provider).isSameFile(mockPath, targetPath);
-        when(Files.isDirectory(targetPath)).thenReturn(true);
-        doReturn(false).when(provider).directoryIsEmpty(targetPath);
         provider.move(mockPath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+
+        verifyStatic(never());
+        Files.exists(targetPath);
+        verify(mfs).invalidateTree("/foo/src");
+        verify(mfs).invalidateTree("/foo/dst");
     }
 
     @Test(expected = UnsupportedOperationException.class)
     public void testMoveFile_whenDifferentFilesystem() throws IOException {
-        mockStatic(Files.class);
-        PowerMockito.when(Files.exists(targetPath)).thenReturn(false);
-
-        doNothing().when(provider).guardFileExists(mockPath);
         doNothing().when(provider).guardAbsolutePath(mockPath);
         doNothing().when(provider).guardAbsolutePath(targetPath);
 
-        doReturn(false).when(provider).isSameFile(mockPath, targetPath);
-
-        when(Files.isDirectory(targetPath)).thenReturn(false);
-        when(Files.exists(targetPath)).thenReturn(false);
-
         doReturn(mockFileSystem).when(mockPath).getFileSystem();
         doReturn(differentMockFileSystem).when(targetPath).getFileSystem();
 
@@ -825,15 +1462,11 @@ public class GlusterFileSystemProviderTest extends TestCase {
         mockStatic(Files.class);
         PowerMockito.when(Files.exists(targetPath)).thenReturn(false);
 
-        doNothing().when(provider).guardFileExists(mockPath);
         doNothing().when(provider).guardAbsolutePath(mockPath);
         doNothing().when(provider).guardAbsolutePath(targetPath);
-        
-        doReturn(false).when(provider).isSameFile(mockPath, targetPath);
+
         GlusterFileSystem mfs = Mockito.mock(GlusterFileSystem.class);
 
-        when(Files.isDirectory(targetPath)).thenReturn(false);
-        when(Files.exists(targetPath)).thenReturn(false);
         String srcPath = "/foo/src";
         String dstPath = "/foo/dst";
         doReturn(srcPath).when(mockPath).getString();
@@ -843,27 +1476,25 @@ public class GlusterFileSystemProviderTest extends TestCase {
         doReturn(mfs).when(targetPath).getFileSystem();
 
         long volptr = 12345L;
-        doReturn(volptr).when(mfs).getVolptr();
+        doReturn(volptr).when(mfs).getVolptr(anyString());
         mockStatic(GLFS.class);
-        when(GLFS.glfs_rename(volptr, srcPath, dstPath)).thenReturn(0);
+        when(GLFS.glfsjni_rename(volptr, srcPath, dstPath)).thenReturn(0);
 
         provider.move(mockPath, targetPath);
 
-        verify(provider).guardFileExists(mockPath);
         verify(provider).guardAbsolutePath(mockPath);
         verify(provider).guardAbsolutePath(targetPath);
+        verify(provider, never()).isSameFile(mockPath, targetPath);
         verify(mockPath).getString();
         verify(targetPath).getString();
         verify(mockPath).getFileSystem();
         verify(targetPath).getFileSystem();
-        verify(mfs).getVolptr();
+        verify(mfs).getVolptr(anyString());
 
         verifyStatic();
-        Files.isDirectory(targetPath);
-        verifyStatic(times(2));
         Files.exists(targetPath);
         verifyStatic();
-        GLFS.glfs_rename(volptr, srcPath, dstPath);
+        GLFS.glfsjni_rename(volptr, srcPath, dstPath);
     }
     
     @Test(expected = NoSuchFileException.class)
@@ -929,66 +1560,46 @@ public class GlusterFileSystemProviderTest extends TestCase {
 
     @Test(expected = FileAlreadyExistsException.class)
     public void testCreateDirectory_whenFileOrDirectoryExists() throws IOException {
-        mockStatic(Files.class);
-        when(Files.exists(mockPath)).thenReturn(true);
-
-        provider.createDirectory(mockPath);
+        helperCreateDirectory(-UtilJNI.EEXIST);
     }
 
-    @Test(expected = IOException.class)
+    @Test(expected = NoSuchFileException.class)
     public void testCreateDirectory_whenParentDirectoryDoesNotExist() throws IOException {
-        mockStatic(Files.class);
-        GlusterPath parentPath = Mockito.mock(GlusterPath.class);
-        doReturn(parentPath).when(mockPath).getParent();
-        when(Files.exists(parentPath)).thenReturn(false);
-
-        provider.createDirectory(mockPath);
+        helperCreateDirectory(-UtilJNI.ENOENT);
     }
 
     @Test(expected = IOException.class)
     public void testCreateDirectory_whenCannotCreateDirectory() throws IOException {
-        helperCreateDirectory(true);
+        helperCreateDirectory(-5);
     }
 
     @Test
     public void testCreateDirectory() throws IOException {
-        helperCreateDirectory(false);
+        helperCreateDirectory(0);
     }
 
-    private void helperCreateDirectory(boolean errorHappens) throws IOException {
+    private void helperCreateDirectory(int ret) throws IOException {
         mockStatic(Files.class);
-        when(Files.exists(mockPath)).thenReturn(false);
-
-        GlusterPath parentPath = Mockito.mock(GlusterPath.class);
-        doReturn(parentPath).when(mockPath).getParent();
-        when(Files.exists(parentPath)).thenReturn(true);
+        mockStatic(UtilJNI.class);
 
         int mode = 0775; //using default file attribute to avoid testing parseAttrs redundantly
         long volptr = 1234L;
         String pathString = "foo";
         doReturn(pathString).when(mockPath).toString();
         doReturn(mockFileSystem).when(mockPath).getFileSystem();
-        doReturn(volptr).when(mockFileSystem).getVolptr();
+        doReturn(volptr).when(mockFileSystem).getVolptr(anyString());
         mockStatic(GLFS.class);
-        int ret = 0;
-        if (errorHappens) {
-            ret = -1;
-        }
-        when(GLFS.glfs_mkdir(volptr, pathString, mode)).thenReturn(ret);
+        when(GLFS.glfsjni_mkdir(volptr, pathString, mode)).thenReturn(ret);
 
         provider.createDirectory(mockPath);
 
-        if (!errorHappens) {
-            verifyStatic();
-            GLFS.glfs_mkdir(volptr, pathString, mode);
-            verifyStatic();
-            Files.exists(mockPath);
-            verifyStatic();
-            Files.exists(parentPath);
-            verify(mockPath).getFileSystem();
-            verify(mockFileSystem).getVolptr();
-            verify(mockPath).getParent();
-        }
+        verifyStatic();
+        GLFS.glfsjni_mkdir(volptr, pathString, mode);
+        verifyStatic(never());
+        Files.exists(any(Path.class));
+        verify(mockPath).getFileSystem();
+        verify(mockFileSystem).getVolptr(anyString());
+        verify(mockFileSystem).invalidate(pathString);
     }
 
     @Test
@@ -1052,16 +1663,10 @@ public class GlusterFileSystemProviderTest extends TestCase {
         doReturn(actualFileSystem).when(glusterPath).getFileSystem();
 
         long sameIno = 222L;
-        stat stat1 = new stat();
-        stat1.st_ino = sameIno;
+        GlusterFileAttributes stat1 = new GlusterFileAttributes(0, 0, 0, 0L, 0L, 0L, 0L, sameIno);
 
         long differentIno = 444L;
-        stat stat2 = new stat();
-        if (same) {
-            stat2.st_ino = sameIno;
-        } else {
-            stat2.st_ino = differentIno;
-        }
+        GlusterFileAttributes stat2 = new GlusterFileAttributes(0, 0, 0, 0L, 0L, 0L, 0L, same ? sameIno : differentIno);
 
         doReturn(stat1).when(provider).statPath(glusterPath);
         doReturn(stat2).when(provider).statPath(mockPath);
@@ -1089,7 +1694,7 @@ public class GlusterFileSystemProviderTest extends TestCase {
         when(GLFS.glfs_stat(volptr, pathString, stat)).thenReturn(-1);
 
         doReturn(mockFileSystem).when(mockPath).getFileSystem();
-        doReturn(volptr).when(mockFileSystem).getVolptr();
+        doReturn(volptr).when(mockFileSystem).getVolptr(anyString());
         doReturn(pathString).when(mockPath).getString();
 
         provider.statPath(mockPath);
@@ -1099,6 +1704,7 @@ public class GlusterFileSystemProviderTest extends TestCase {
     public void testStatPath() throws Exception {
         long volptr = 1234L;
         stat stat = new stat();
+        stat.st_ino = 99L;
 
         whenNew(stat.class).withNoArguments().thenReturn(stat);
 
@@ -1107,15 +1713,15 @@ public class GlusterFileSystemProviderTest extends TestCase {
         when(GLFS.glfs_stat(volptr, pathString, stat)).thenReturn(0);
 
         doReturn(mockFileSystem).when(mockPath).getFileSystem();
-        doReturn(volptr).when(mockFileSystem).getVolptr();
+        doReturn(volptr).when(mockFileSystem).getVolptr(anyString());
         doReturn(pathString).when(mockPath).getString();
 
-        stat ret = provider.statPath(mockPath);
+        GlusterFileAttributes ret = provider.statPath(mockPath);
 
-        assertTrue(ret == stat);
+        assertEquals(99L, ret.getInode());
 
         verify(mockPath).getFileSystem();
-        verify(mockFileSystem).getVolptr();
+        verify(mockFileSystem).getVolptr(anyString());
         verify(mockPath).getString();
 
         verifyStatic();
@@ -11,9 +11,11 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.IOException;
+import java.nio.file.ClosedFileSystemException;
 import java.nio.file.FileStore;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -39,6 +41,8 @@ public class GlusterFileSystemTest extends TestCase {
     private GlusterPath mockPath;
     @Mock
     private GlusterPathMatcher mockMatcher;
+    @Mock
+    private GlusterCompletionQueue mockCompletionQueue;
 
     private GlusterFileSystem fileSystem;
 
@@ -62,10 +66,224 @@ public class GlusterFileSystemTest extends TestCase {
     public void testClose() throws IOException {
         doReturn(0).when(mockFileSystemProvider).close(VOLPTR);
         fileSystem.close();
+        verify(mockFileSystemProvider).evict(fileSystem);
         verify(mockFileSystemProvider).close(VOLPTR);
         assertEquals(-1, fileSystem.getVolptr());
     }
 
+    @Test
+    public void testClose_whenThreadsFailToStop() throws IOException {
+        GlusterUpcallDispatcher dispatcher = mock(GlusterUpcallDispatcher.class);
+        GlusterCompletionQueue completionQueue = mock(GlusterCompletionQueue.class);
+        GlusterHandleCache handleCache = mock(GlusterHandleCache.class);
+        IOException interrupted = new IOException("interrupted");
+        doThrow(interrupted).when(dispatcher).close();
+        doThrow(new IOException("also interrupted")).when(completionQueue).close();
+        fileSystem.setUpcallDispatcher(dispatcher);
+        fileSystem.setCompletionQueue(completionQueue);
+        fileSystem.setHandleCaches(new GlusterHandleCache[]{handleCache});
+        fileSystem.setConnections(new long[]{VOLPTR, 1235L}, mock(GlusterConnectionPolicy.class));
+        doReturn(0).when(mockFileSystemProvider).close(anyLong());
+
+        try {
+            fileSystem.close();
+            fail();
+        } catch (IOException e) {
+            assertSame(interrupted, e);
+        }
+
+        verify(completionQueue).close();
+        verify(handleCache).close();
+        verify(mockFileSystemProvider).close(VOLPTR);
+        verify(mockFileSystemProvider).close(1235L);
+        assertFalse(fileSystem.isOpen());
+    }
+
+    @Test
+    public void testClose_whenStillReferenced() throws IOException {
+        assertTrue(fileSystem.retain());
+        fileSystem.close();
+        assertTrue(fileSystem.isOpen());
+        verify(mockFileSystemProvider, never()).evict(fileSystem);
+        verify(mockFileSystemProvider, never()).close(VOLPTR);
+    }
+
+    @Test
+    public void testClose_whenAlreadyClosed() throws IOException {
+        doReturn(0).when(mockFileSystemProvider).close(VOLPTR);
+        fileSystem.close();
+        fileSystem.close();
+        verify(mockFileSystemProvider).evict(fileSystem);
+        verify(mockFileSystemProvider).close(VOLPTR);
+        assertEquals(0, fileSystem.getReferences().get());
+    }
+
+    @Test
+    public void testRelease() {
+        assertTrue(fileSystem.retain());
+        assertFalse(fileSystem.release());
+        assertTrue(fileSystem.release());
+        assertFalse(fileSystem.release());
+        assertEquals(0, fileSystem.getReferences().get());
+    }
+
+    @Test
+    public void testRetain_whenClosed() throws IOException {
+        doReturn(0).when(mockFileSystemProvider).close(VOLPTR);
+        fileSystem.close();
+        assertFalse(fileSystem.retain());
+    }
+
+    @Test
+    public void testClose_whenCompletionQueueStarted() throws IOException {
+        fileSystem.setCompletionQueue(mockCompletionQueue);
+        doReturn(0).when(mockFileSystemProvider).close(VOLPTR);
+        fileSystem.close();
+        verify(mockCompletionQueue).close();
+        verify(mockFileSystemProvider).close(VOLPTR);
+    }
+
+    @Test(expected = ClosedFileSystemException.class)
+    public void testGetCompletionQueue_whenClosed() throws IOException {
+        doReturn(0).when(mockFileSystemProvider).close(VOLPTR);
+        fileSystem.close();
+        fileSystem.getCompletionQueue();
+    }
+
+    @Test
+    public void testClose_whenConnectionPool() throws IOException {
+        fileSystem.setConnections(new long[]{VOLPTR, 1235L, 1236L}, new GlusterConnectionPolicy.RoundRobin());
+        doReturn(0).when(mockFileSystemProvider).close(anyLong());
+        fileSystem.close();
+        verify(mockFileSystemProvider).close(VOLPTR);
+        verify(mockFileSystemProvider).close(1235L);
+        verify(mockFileSystemProvider).close(1236L);
+        assertNull(fileSystem.getVolptrs());
+    }
+
+    @Test
+    public void testAcquire_whenSingleConnection() {
+        assertEquals(0, fileSystem.acquire("/foo"));
+        fileSystem.release(0);
+        assertEquals(VOLPTR, fileSystem.getVolptr(0));
+        assertEquals(VOLPTR, fileSystem.getVolptr("/foo"));
+    }
+
+    @Test
+    public void testAcquireAndRelease() {
+        fileSystem.setConnections(new long[]{VOLPTR, 1235L}, new GlusterConnectionPolicy.LeastOutstanding());
+        assertEquals(0, fileSystem.acquire("/foo"));
+        assertEquals(1, fileSystem.acquire("/bar"));
+        assertEquals(1235L, fileSystem.getVolptr(1));
+        fileSystem.release(0);
+        assertEquals(0, fileSystem.getOutstanding().get(0));
+        assertEquals(1, fileSystem.getOutstanding().get(1));
+        assertEquals(VOLPTR, fileSystem.getVolptr("/baz"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        GlusterStatCache statCache = new GlusterStatCache(1000L, 10);
+        GlusterFileAttributes attributes = new GlusterFileAttributes(0644, 0, 0, 0L, 0L, 0L, 0L, 1L);
+        statCache.put("/foo", true, attributes);
+        statCache.put("/foo/bar", true, attributes);
+        statCache.put("/baz", true, attributes);
+        fileSystem.setStatCache(statCache);
+        fileSystem.invalidate("/baz/qux");
+        assertNull(statCache.get("/baz", true));
+        fileSystem.invalidateTree("/foo");
+        assertTrue(statCache.getEntries().isEmpty());
+    }
+
+    @Test
+    public void testInvalidate_whenNegativeCache() {
+        GlusterNegativeCache negativeCache = new GlusterNegativeCache(1000L, 10);
+        negativeCache.put("/foo", true);
+        negativeCache.put("/bar/baz", false);
+        fileSystem.setNegativeCache(negativeCache);
+        fileSystem.invalidate("/foo");
+        assertEquals(1, negativeCache.getEntryCount());
+        fileSystem.invalidateTree("/bar");
+        assertEquals(0, negativeCache.getEntryCount());
+    }
+
+    @Test
+    public void testEnableHandleCache() {
+        fileSystem.setConnections(new long[]{VOLPTR, 1235L}, new GlusterConnectionPolicy.RoundRobin());
+        fileSystem.enableHandleCache(50);
+        assertEquals(2, fileSystem.getHandleCaches().length);
+        assertEquals(1235L, fileSystem.getHandleCache(1235L).getVolptr());
+        assertEquals(50, fileSystem.getHandleCache(VOLPTR).getSize());
+        assertNull(fileSystem.getHandleCache(999L));
+    }
+
+    @Test
+    public void testInvalidateTree_whenHandleCache() throws IOException {
+        GlusterHandleCache handleCache = PowerMockito.mock(GlusterHandleCache.class);
+        fileSystem.setHandleCaches(new GlusterHandleCache[]{handleCache});
+        fileSystem.invalidateTree("/foo");
+        verify(handleCache).invalidateTree("/foo");
+        doReturn(0).when(mockFileSystemProvider).close(VOLPTR);
+        fileSystem.close();
+        verify(handleCache).close();
+    }
+
+    @Test
+    public void testUpcall() {
+        GlusterStatCache statCache = new GlusterStatCache(1000L, 10);
+        statCache.put("/dir", true, new GlusterFileAttributes(040755, 0, 0, 0L, 0L, 0L, 0L, 10L));
+        statCache.put("/dir/file", true, new GlusterFileAttributes(0644, 0, 0, 0L, 0L, 0L, 0L, 11L));
+        statCache.put("/other", true, new GlusterFileAttributes(0644, 0, 0, 0L, 0L, 0L, 0L, 12L));
+        GlusterNegativeCache negativeCache = new GlusterNegativeCache(1000L, 10);
+        negativeCache.put("/dir/new", true);
+        negativeCache.put("/elsewhere", true);
+        fileSystem.setStatCache(statCache);
+        fileSystem.setNegativeCache(negativeCache);
+
+        fileSystem.upcall(0x8, 11L, 10L, 0L);
+
+        assertNull(statCache.get("/dir/file", true));
+        assertNull(statCache.get("/dir", true));
+        assertNotNull(statCache.get("/other", true));
+        assertFalse(negativeCache.isMissing("/dir/new", true));
+        assertTrue(negativeCache.isMissing("/elsewhere", true));
+    }
+
+    @Test
+    public void testUpcall_whenRenamed() {
+        GlusterStatCache statCache = new GlusterStatCache(1000L, 10);
+        GlusterFileAttributes attributes = new GlusterFileAttributes(0644, 0, 0, 0L, 0L, 0L, 0L, 11L);
+        statCache.put("/dir", true, new GlusterFileAttributes(040755, 0, 0, 0L, 0L, 0L, 0L, 10L));
+        statCache.put("/dir/file", true, attributes);
+        GlusterHandleCache handleCache = PowerMockito.mock(GlusterHandleCache.class);
+        doReturn(Collections.<String>emptySet()).when(handleCache).pathsOf(anyLong());
+        fileSystem.setStatCache(statCache);
+        fileSystem.setHandleCaches(new GlusterHandleCache[]{handleCache});
+
+        fileSystem.upcall(GlusterUpcallDispatcher.UP_RENAME, 10L, 0L, 0L);
+
+        assertTrue(statCache.getEntries().isEmpty());
+        verify(handleCache).invalidateTree("/dir");
+    }
+
+    @Test
+    public void testUpcall_whenParentUnknown() {
+        GlusterNegativeCache negativeCache = new GlusterNegativeCache(1000L, 10);
+        negativeCache.put("/a", true);
+        fileSystem.setNegativeCache(negativeCache);
+        fileSystem.upcall(0x200, 20L, 21L, 0L);
+        assertTrue(negativeCache.isMissing("/a", true));
+    }
+
+    @Test
+    public void testClose_whenUpcallsEnabled() throws IOException {
+        GlusterUpcallDispatcher dispatcher = PowerMockito.mock(GlusterUpcallDispatcher.class);
+        fileSystem.setUpcallDispatcher(dispatcher);
+        doReturn(0).when(mockFileSystemProvider).close(VOLPTR);
+        fileSystem.close();
+        verify(dispatcher).close();
+    }
+
     @Test
     public void testIsOpen_whenOpen() {
         assertEquals(true, fileSystem.isOpen());
@@ -0,0 +1,186 @@
+package com.peircean.glusterfs;
+
+import com.peircean.libgfapi_jni.internal.GLFS;
+import com.peircean.libgfapi_jni.internal.structs.stat;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Collections;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({GLFS.class})
+public class GlusterHandleCacheTest extends TestCase {
+    public static final long VOLPTR = 1234L;
+    public static final long DIR = 501L;
+    public static final long FILE = 502L;
+    @Mock
+    private GlusterFileSystemProvider mockProvider;
+
+    private GlusterHandleCache cache(int size) {
+        GlusterFileSystem fileSystem = new GlusterFileSystem(mockProvider, "host", "vol", VOLPTR);
+        return new GlusterHandleCache(fileSystem, VOLPTR, size);
+    }
+
+    @Test
+    public void testStat_resolvesRelativeToParent() {
+        GlusterHandleCache cache = cache(10);
+        mockStatic(GLFS.class);
+        when(GLFS.glfs_h_lookupat(eq(VOLPTR), eq(0L), eq("/a/b"), any(stat.class), eq(1))).thenReturn(DIR);
+        when(GLFS.glfs_h_lookupat(eq(VOLPTR), eq(DIR), anyString(), any(stat.class), eq(0))).thenReturn(FILE);
+
+        assertEquals(0, cache.stat("/a/b/c", new stat(), false));
+        assertEquals(0, cache.stat("/a/b/d", new stat(), false));
+
+        verifyStatic();
+        GLFS.glfs_h_lookupat(eq(VOLPTR), eq(0L), eq("/a/b"), any(stat.class), eq(1));
+        verifyStatic();
+        GLFS.glfs_h_lookupat(eq(VOLPTR), eq(DIR), eq("c"), any(stat.class), eq(0));
+        verifyStatic(times(2));
+        GLFS.glfs_h_close(FILE);
+        verifyStatic(never());
+        GLFS.glfs_h_close(DIR);
+        GlusterHandleCache.Handle handle = cache.getHandles().get(new GlusterPath(cache.getFileSystem(), "/a/b"));
+        assertEquals(0, handle.getUsers());
+    }
+
+    @Test
+    public void testStat_whenAtRoot() {
+        GlusterHandleCache cache = cache(10);
+        mockStatic(GLFS.class);
+        when(GLFS.glfs_h_lookupat(eq(VOLPTR), eq(0L), eq("/foo"), any(stat.class), eq(1))).thenReturn(0L);
+
+        assertEquals(-1, cache.stat("/foo", new stat(), true));
+        assertTrue(cache.getHandles().isEmpty());
+    }
+
+    @Test
+    public void testStat_whenParentMissing() {
+        GlusterHandleCache cache = cache(10);
+        mockStatic(GLFS.class);
+        when(GLFS.glfs_h_lookupat(anyLong(), anyLong(), anyString(), any(stat.class), anyInt())).thenReturn(0L);
+
+        assertEquals(-1, cache.stat("/missing/foo", new stat(), true));
+
+        verifyStatic();
+        GLFS.glfs_h_lookupat(eq(VOLPTR), eq(0L), eq("/missing/foo"), any(stat.class), eq(1));
+        assertTrue(cache.getHandles().isEmpty());
+    }
+
+    @Test
+    public void testOpen() {
+        GlusterHandleCache cache = cache(10);
+        mockStatic(GLFS.class);
+        when(GLFS.glfs_h_lookupat(eq(VOLPTR), eq(0L), eq("/a"), any(stat.class), eq(1))).thenReturn(DIR);
+        when(GLFS.glfs_h_lookupat(eq(VOLPTR), eq(DIR), eq("f"), any(stat.class), eq(1))).thenReturn(FILE);
+        when(GLFS.glfs_h_open(VOLPTR, FILE, 2)).thenReturn(777L);
+
+        assertEquals(777L, cache.open("/a/f", 2));
+
+        verifyStatic();
+        GLFS.glfs_h_close(FILE);
+    }
+
+    @Test
+    public void testCreat() {
+        GlusterHandleCache cache = cache(10);
+        mockStatic(GLFS.class);
+        when(GLFS.glfs_h_lookupat(eq(VOLPTR), eq(0L), eq("/a"), any(stat.class), eq(1))).thenReturn(DIR);
+        when(GLFS.glfs_h_creat(eq(VOLPTR), eq(DIR), eq("f"), eq(2), eq(0644), any(stat.class))).thenReturn(FILE);
+        when(GLFS.glfs_h_open(VOLPTR, FILE, 2)).thenReturn(777L);
+
+        assertEquals(777L, cache.creat("/a/f", 2, 0644));
+
+        verifyStatic();
+        GLFS.glfs_h_close(FILE);
+    }
+
+    @Test
+    public void testCreat_whenExists() {
+        GlusterHandleCache cache = cache(10);
+        mockStatic(GLFS.class);
+        when(GLFS.glfs_h_creat(anyLong(), anyLong(), anyString(), anyInt(), anyInt(), any(stat.class))).thenReturn(0L);
+
+        assertEquals(0L, cache.creat("/f", 2, 0644));
+
+        verifyStatic(never());
+        GLFS.glfs_h_open(anyLong(), anyLong(), anyInt());
+    }
+
+    @Test
+    public void testAcquire_whenFull() {
+        GlusterHandleCache cache = cache(1);
+        mockStatic(GLFS.class);
+        when(GLFS.glfs_h_lookupat(eq(VOLPTR), eq(0L), eq("/a"), any(stat.class), eq(1))).thenReturn(DIR);
+        when(GLFS.glfs_h_lookupat(eq(VOLPTR), eq(0L), eq("/b"), any(stat.class), eq(1))).thenReturn(503L);
+
+        GlusterHandleCache.Handle a = cache.acquire(new GlusterPath(cache.getFileSystem(), "/a"));
+        cache.release(cache.acquire(new GlusterPath(cache.getFileSystem(), "/b")));
+
+        assertEquals(1, cache.getHandles().size());
+        assertTrue(a.isRetired());
+        verifyStatic(never());
+        GLFS.glfs_h_close(DIR);
+        cache.release(a);
+        verifyStatic();
+        GLFS.glfs_h_close(DIR);
+    }
+
+    @Test
+    public void testPathsOf() {
+        GlusterHandleCache cache = cache(10);
+        mockStatic(GLFS.class);
+        when(GLFS.glfs_h_lookupat(eq(VOLPTR), eq(0L), eq("/a"), any(stat.class), eq(1))).thenAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) {
+                ((stat) invocation.getArguments()[3]).st_ino = 77L;
+                return DIR;
+            }
+        });
+        cache.release(cache.acquire(new GlusterPath(cache.getFileSystem(), "/a")));
+
+        assertEquals(Collections.singleton("/a"), cache.pathsOf(77L));
+        assertTrue(cache.pathsOf(78L).isEmpty());
+    }
+
+    @Test
+    public void testInvalidateTree() {
+        GlusterHandleCache cache = cache(10);
+        mockStatic(GLFS.class);
+        when(GLFS.glfs_h_lookupat(eq(VOLPTR), eq(0L), anyString(), any(stat.class), eq(1))).thenReturn(DIR, 503L, 504L);
+        GlusterFileSystem fileSystem = cache.getFileSystem();
+        cache.release(cache.acquire(new GlusterPath(fileSystem, "/t")));
+        cache.release(cache.acquire(new GlusterPath(fileSystem, "/t/x")));
+        cache.release(cache.acquire(new GlusterPath(fileSystem, "/tx")));
+
+        cache.invalidateTree("/t");
+
+        assertEquals(1, cache.getHandles().size());
+        verifyStatic();
+        GLFS.glfs_h_close(DIR);
+        verifyStatic();
+        GLFS.glfs_h_close(503L);
+        verifyStatic(never());
+        GLFS.glfs_h_close(504L);
+        cache.close();
+        assertTrue(cache.getHandles().isEmpty());
+        verifyStatic();
+        GLFS.glfs_h_close(504L);
+    }
+}
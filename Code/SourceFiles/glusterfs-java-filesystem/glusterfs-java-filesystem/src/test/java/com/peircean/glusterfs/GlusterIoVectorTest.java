@@ -0,0 +1,113 @@
+package com.peircean.glusterfs;
+
+import com.peircean.libgfapi_jni.internal.UtilJNI;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({UtilJNI.class})
+public class GlusterIoVectorTest extends TestCase {
+
+    @Test
+    public void testStagingSize() {
+        ByteBuffer[] buffers = new ByteBuffer[]{ByteBuffer.allocate(3), ByteBuffer.allocateDirect(5), ByteBuffer.allocate(7)};
+        buffers[2].position(2);
+        assertEquals(8, GlusterIoVector.stagingSize(buffers, 0, 3, 100));
+        assertEquals(5, GlusterIoVector.stagingSize(buffers, 1, 2, 100));
+        assertEquals(0, GlusterIoVector.stagingSize(buffers, 1, 1, 100));
+        assertEquals(6, GlusterIoVector.stagingSize(buffers, 0, 3, 6));
+    }
+
+    @Test
+    public void testNew_forWrite_stagesHeapBuffers() {
+        ByteBuffer direct = ByteBuffer.allocateDirect(6);
+        direct.position(2);
+        ByteBuffer heap = ByteBuffer.wrap("abcdef".getBytes(), 1, 3);
+        ByteBuffer staging = ByteBuffer.allocateDirect(3);
+
+        mockStatic(UtilJNI.class);
+        when(UtilJNI.GetDirectBufferAddress(direct)).thenReturn(1000L);
+        when(UtilJNI.GetDirectBufferAddress(staging)).thenReturn(2000L);
+
+        GlusterIoVector vector = new GlusterIoVector(new ByteBuffer[]{heap, direct}, 0, 2, staging, true);
+
+        assertEquals(2, vector.getCount());
+        assertTrue(Arrays.equals(new long[]{2000L, 3, 1002L, 4}, vector.getIov()));
+        assertEquals(7, vector.remaining());
+        assertEquals('b', staging.get(0));
+        assertEquals('d', staging.get(2));
+        assertEquals(1, heap.position());
+    }
+
+    @Test
+    public void testNew_stopsWhereStagingIsFull() {
+        ByteBuffer first = ByteBuffer.wrap("abc".getBytes());
+        ByteBuffer second = ByteBuffer.wrap("defg".getBytes());
+        ByteBuffer third = ByteBuffer.wrap("h".getBytes());
+        ByteBuffer staging = ByteBuffer.allocateDirect(5);
+
+        mockStatic(UtilJNI.class);
+        when(UtilJNI.GetDirectBufferAddress(staging)).thenReturn(2000L);
+
+        GlusterIoVector vector = new GlusterIoVector(new ByteBuffer[]{first, second, third}, 0, 3, staging, true);
+
+        assertEquals(2, vector.getCount());
+        assertEquals(2000L, vector.getIov()[0]);
+        assertEquals(3, vector.getIov()[1]);
+        assertEquals(2003L, vector.getIov()[2]);
+        assertEquals(2, vector.getIov()[3]);
+        assertEquals(5, vector.remaining());
+        assertEquals('e', staging.get(4));
+
+        vector.complete(5);
+
+        assertFalse(first.hasRemaining());
+        assertEquals(2, second.position());
+        assertEquals(0, third.position());
+    }
+
+    @Test
+    public void testComplete_forRead_copiesStagedBytes() {
+        byte[] bytes = new byte[4];
+        ByteBuffer heap = ByteBuffer.wrap(bytes);
+        ByteBuffer direct = ByteBuffer.allocateDirect(4);
+        ByteBuffer staging = ByteBuffer.allocateDirect(4);
+        staging.put("wxyz".getBytes()).clear();
+
+        mockStatic(UtilJNI.class);
+        when(UtilJNI.GetDirectBufferAddress(direct)).thenReturn(1000L);
+        when(UtilJNI.GetDirectBufferAddress(staging)).thenReturn(2000L);
+
+        GlusterIoVector vector = new GlusterIoVector(new ByteBuffer[]{direct, heap}, 0, 2, staging, false);
+        vector.complete(6);
+
+        assertEquals(4, direct.position());
+        assertEquals(2, heap.position());
+        assertEquals("wx", new String(bytes, 0, 2));
+    }
+
+    @Test
+    public void testNew_limitsToIovMax() {
+        ByteBuffer[] buffers = new ByteBuffer[GlusterIoVector.IOV_MAX + 1];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.allocate(1);
+        }
+        ByteBuffer staging = ByteBuffer.allocateDirect(GlusterIoVector.IOV_MAX);
+
+        mockStatic(UtilJNI.class);
+
+        GlusterIoVector vector = new GlusterIoVector(buffers, 0, buffers.length, staging, true);
+
+        assertEquals(GlusterIoVector.IOV_MAX, vector.getCount());
+        assertEquals(GlusterIoVector.IOV_MAX, vector.remaining());
+    }
+}
@@ -0,0 +1,64 @@
+package com.peircean.glusterfs;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+
+public class GlusterNegativeCacheTest extends TestCase {
+    private GlusterNegativeCache cache = new GlusterNegativeCache(1000L, 3);
+
+    @Test
+    public void testIsMissing() {
+        assertFalse(cache.isMissing("/_SUCCESS", true));
+        cache.put("/_SUCCESS", true);
+        assertTrue(cache.isMissing("/_SUCCESS", true));
+        assertFalse(cache.isMissing("/_SUCCESS", false));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testIsMissing_whenExpired() {
+        GlusterNegativeCache cache = spy(new GlusterNegativeCache(1L, 3));
+        doReturn(0L).when(cache).now();
+        cache.put("/.lock", false);
+        doReturn(1000000L).when(cache).now();
+        assertFalse(cache.isMissing("/.lock", false));
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testPut_whenFull() {
+        cache.put("/a", true);
+        cache.put("/b", true);
+        cache.put("/c", true);
+        cache.put("/d", true);
+        assertEquals(3, cache.getEntryCount());
+        assertFalse(cache.isMissing("/a", true));
+    }
+
+    @Test
+    public void testInvalidate() {
+        cache.put("/a", true);
+        cache.put("/a", false);
+        cache.put("/b", true);
+        cache.invalidate("/a");
+        assertEquals(1, cache.getEntryCount());
+        assertTrue(cache.isMissing("/b", true));
+    }
+
+    @Test
+    public void testInvalidateTree() {
+        GlusterNegativeCache cache = new GlusterNegativeCache(1000L, 10);
+        cache.put("/t", true);
+        cache.put("/t/x", true);
+        cache.put("/t/x/y", false);
+        cache.put("/tx", true);
+        cache.invalidateTree("/t");
+        assertEquals(1, cache.getEntryCount());
+        assertTrue(cache.isMissing("/tx", true));
+    }
+}
@@ -527,6 +527,79 @@ public class GlusterPathTest extends TestCase {
         verify(mockWatchService).registerPath(path, kinds);
     }
 
+    @Test
+    public void testRegisterWatchService_whenFileTree() throws IOException {
+        GlusterPath path = spy(new GlusterPath(mockFileSystem, new String[]{"foo", "bar"}, true));
+        GlusterWatchService mockWatchService = mock(GlusterWatchService.class);
+        doNothing().when(path).guardRegisterWatchService(mockWatchService);
+        doNothing().when(path).guardRegisterWatchDirectory();
+        WatchEvent.Kind[] kinds = new WatchEvent.Kind[]{StandardWatchEventKinds.ENTRY_CREATE};
+        WatchKey mockKey = mock(WatchKey.class);
+        doReturn(mockKey).when(mockWatchService).registerTree(path, kinds);
+
+        WatchKey watchKey = path.register(mockWatchService, kinds, GlusterWatchEventModifier.FILE_TREE);
+
+        assertEquals(mockKey, watchKey);
+        verify(path).guardRegisterWatchService(mockWatchService);
+        verify(path).guardRegisterWatchDirectory();
+        verify(mockWatchService, never()).registerPath(any(GlusterPath.class), any(WatchEvent.Kind[].class));
+    }
+
+    @Test
+    public void testRegisterWatchService_whenFiltered() throws IOException {
+        GlusterPath path = spy(new GlusterPath(mockFileSystem, new String[]{"foo", "bar"}, true));
+        GlusterWatchService mockWatchService = mock(GlusterWatchService.class);
+        doNothing().when(path).guardRegisterWatchService(mockWatchService);
+        doNothing().when(path).guardRegisterWatchDirectory();
+        WatchEvent.Kind[] kinds = new WatchEvent.Kind[]{StandardWatchEventKinds.ENTRY_CREATE};
+        PathMatcher matcher = mock(PathMatcher.class);
+        WatchKey mockKey = mock(WatchKey.class);
+        doReturn(mockKey).when(mockWatchService).registerPath(path, matcher, kinds);
+
+        WatchKey watchKey = path.register(mockWatchService, kinds, new GlusterWatchFilter(matcher));
+
+        assertEquals(mockKey, watchKey);
+        verify(path).guardRegisterWatchService(mockWatchService);
+        verify(path).guardRegisterWatchDirectory();
+    }
+
+    @Test
+    public void testRegisterWatchService_whenFilteredTree() throws IOException {
+        GlusterPath path = spy(new GlusterPath(mockFileSystem, new String[]{"foo", "bar"}, true));
+        GlusterWatchService mockWatchService = mock(GlusterWatchService.class);
+        doNothing().when(path).guardRegisterWatchService(mockWatchService);
+        doNothing().when(path).guardRegisterWatchDirectory();
+        WatchEvent.Kind[] kinds = new WatchEvent.Kind[]{StandardWatchEventKinds.ENTRY_CREATE};
+        PathMatcher matcher = mock(PathMatcher.class);
+        WatchKey mockKey = mock(WatchKey.class);
+        doReturn(mockKey).when(mockWatchService).registerTree(path, matcher, kinds);
+
+        WatchKey watchKey = path.register(mockWatchService, kinds, new GlusterWatchFilter(matcher),
+                GlusterWatchEventModifier.FILE_TREE);
+
+        assertEquals(mockKey, watchKey);
+    }
+
+    @Test
+    public void testRegisterWatchService_whenNoModifiers() throws IOException {
+        GlusterPath path = spy(new GlusterPath(mockFileSystem, new String[]{"foo", "bar"}, true));
+        GlusterWatchService mockWatchService = mock(GlusterWatchService.class);
+        WatchEvent.Kind[] kinds = new WatchEvent.Kind[]{StandardWatchEventKinds.ENTRY_CREATE};
+        WatchKey mockKey = mock(WatchKey.class);
+        doReturn(mockKey).when(path).register(mockWatchService, kinds);
+
+        assertEquals(mockKey, path.register(mockWatchService, kinds, new WatchEvent.Modifier[0]));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testRegisterWatchService_whenUnknownModifier() throws IOException {
+        GlusterPath path = new GlusterPath(mockFileSystem, new String[]{"foo", "bar"}, true);
+        WatchEvent.Modifier modifier = mock(WatchEvent.Modifier.class);
+        doReturn("SENSITIVITY_HIGH").when(modifier).name();
+
+        path.register(mock(GlusterWatchService.class), new WatchEvent.Kind[0], modifier);
+    }
+
     @Test(expected = UnsupportedOperationException.class)
     public void testGuardRegisterWatchService() {
         GlusterPath path = spy(new GlusterPath(mockFileSystem, new String[]{}, false));
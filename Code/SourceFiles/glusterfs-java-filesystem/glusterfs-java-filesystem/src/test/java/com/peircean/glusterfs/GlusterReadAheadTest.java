@@ -0,0 +1,221 @@
+package com.peircean.glusterfs;
+
+import com.peircean.libgfapi_jni.internal.UtilJNI;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({UtilJNI.class})
+public class GlusterReadAheadTest {
+    static final long FILEPTR = 1234L;
+    static final int WINDOW = GlusterReadAhead.MIN_WINDOW;
+    /**
+     * The file being read, in which each byte is its offset modulo 251
+     */
+    static final byte[] CONTENTS = new byte[10 * WINDOW];
+
+    static {
+        for (int i = 0; i < CONTENTS.length; i++) {
+            CONTENTS[i] = (byte) (i % 251);
+        }
+    }
+
+    GlusterFileChannel channel;
+    GlusterCompletionQueue queue;
+    GlusterReadAhead readAhead;
+    long fileSize = CONTENTS.length;
+
+    @Before
+    public void setUp() throws IOException {
+        channel = mock(GlusterFileChannel.class);
+        GlusterFileSystem fileSystem = mock(GlusterFileSystem.class);
+        queue = mock(GlusterCompletionQueue.class);
+        doReturn(fileSystem).when(channel).getFileSystem();
+        doReturn(queue).when(fileSystem).getCompletionQueue();
+        doReturn(FILEPTR).when(channel).getFileptr();
+        doAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) {
+                return fill((ByteBuffer) invocation.getArguments()[0], (Long) invocation.getArguments()[1]);
+            }
+        }).when(channel).preadBuffer(any(ByteBuffer.class), anyLong());
+        PowerMockito.mockStatic(UtilJNI.class);
+        readAhead = new GlusterReadAhead(channel, 4 * WINDOW);
+    }
+
+    long fill(ByteBuffer buffer, long offset) {
+        int count = (int) Math.max(0, Math.min(buffer.remaining(), fileSize - offset));
+        buffer.put(CONTENTS, (int) offset, count);
+        return count;
+    }
+
+    void assertContents(ByteBuffer buffer, long offset) {
+        ByteBuffer read = buffer.duplicate();
+        read.flip();
+        assertEquals(ByteBuffer.wrap(CONTENTS, (int) offset, read.remaining()), read);
+    }
+
+    long readSequentially(long position, int times) throws IOException {
+        for (int i = 0; i < times; i++) {
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            long read = readAhead.read(buffer, position);
+            assertContents(buffer, position);
+            position += read;
+        }
+        return position;
+    }
+
+    GlusterReadAhead.Window capturePrefetch(long offset, long count) {
+        ArgumentCaptor<GlusterReadAhead.Window> window = ArgumentCaptor.forClass(GlusterReadAhead.Window.class);
+        verify(queue).pread(eq(FILEPTR), anyLong(), eq(count), eq(offset), window.capture());
+        return window.getValue();
+    }
+
+    void complete(GlusterReadAhead.Window window) {
+        window.completed(fill(window.buffer, window.offset));
+    }
+
+    @Test
+    public void testRead_whenNotYetSequential() throws IOException {
+        readSequentially(0, GlusterReadAhead.SEQUENTIAL_READS);
+
+        verify(channel, times(GlusterReadAhead.SEQUENTIAL_READS)).preadBuffer(any(ByteBuffer.class), anyLong());
+        verify(queue, never()).pread(anyLong(), anyLong(), anyLong(), anyLong(),
+                any(GlusterCompletionQueue.Completion.class));
+        assertNull(readAhead.getCurrent());
+    }
+
+    @Test
+    public void testRead_whenSequential() throws IOException {
+        long position = readSequentially(0, GlusterReadAhead.SEQUENTIAL_READS + 1);
+
+        GlusterReadAhead.Window current = readAhead.getCurrent();
+        assertEquals(2 * 8192, current.offset);
+        assertEquals(WINDOW, current.length);
+        GlusterReadAhead.Window ahead = capturePrefetch(2 * 8192 + WINDOW, WINDOW);
+        assertEquals(ahead, readAhead.getAhead());
+
+        readSequentially(position, WINDOW / 8192 - 1);
+        verify(channel, times(GlusterReadAhead.SEQUENTIAL_READS + 1)).preadBuffer(any(ByteBuffer.class), anyLong());
+    }
+
+    @Test
+    public void testRead_whenPrefetchUsed() throws IOException {
+        long position = readSequentially(0, GlusterReadAhead.SEQUENTIAL_READS + WINDOW / 8192);
+        GlusterReadAhead.Window ahead = capturePrefetch(2 * 8192 + WINDOW, WINDOW);
+        complete(ahead);
+
+        readSequentially(position, 1);
+
+        assertEquals(ahead, readAhead.getCurrent());
+        assertEquals(2 * WINDOW, readAhead.getWindow());
+        capturePrefetch(2 * 8192 + 2 * WINDOW, 2 * WINDOW);
+        verify(channel, times(GlusterReadAhead.SEQUENTIAL_READS + 1)).preadBuffer(any(ByteBuffer.class), anyLong());
+    }
+
+    @Test
+    public void testRead_whenReadSpansWindows() throws IOException {
+        long position = readSequentially(0, GlusterReadAhead.SEQUENTIAL_READS + 1);
+        complete(capturePrefetch(2 * 8192 + WINDOW, WINDOW));
+        ByteBuffer buffer = ByteBuffer.allocate(WINDOW);
+
+        assertEquals(WINDOW, readAhead.read(buffer, position));
+
+        assertContents(buffer, position);
+    }
+
+    @Test
+    public void testRead_whenPrefetchFailed() throws IOException {
+        long position = readSequentially(0, GlusterReadAhead.SEQUENTIAL_READS + WINDOW / 8192);
+        capturePrefetch(2 * 8192 + WINDOW, WINDOW).completed(-5);
+
+        readSequentially(position, 1);
+
+        assertEquals(position, readAhead.getCurrent().offset);
+        verify(channel, times(GlusterReadAhead.SEQUENTIAL_READS + 2)).preadBuffer(any(ByteBuffer.class), anyLong());
+    }
+
+    @Test
+    public void testRead_whenRandom() throws IOException {
+        readSequentially(0, GlusterReadAhead.SEQUENTIAL_READS + 1);
+        GlusterReadAhead.Window ahead = capturePrefetch(2 * 8192 + WINDOW, WINDOW);
+
+        readSequentially(5 * WINDOW, 1);
+
+        assertNull(readAhead.getCurrent());
+        assertNull(readAhead.getAhead());
+        assertEquals(1, readAhead.getSequential());
+        assertTrue(readAhead.getAbandoned().contains(ahead));
+
+        complete(ahead);
+        readAhead.close();
+        assertTrue(readAhead.getAbandoned().isEmpty());
+    }
+
+    @Test
+    public void testRead_whenEndOfFile() throws IOException {
+        fileSize = 3 * 8192 + 100;
+        long position = readSequentially(0, GlusterReadAhead.SEQUENTIAL_READS + 2);
+
+        assertEquals(fileSize, position);
+        assertEquals(8192 + 100, readAhead.getCurrent().length);
+        verify(queue, never()).pread(anyLong(), anyLong(), anyLong(), anyLong(),
+                any(GlusterCompletionQueue.Completion.class));
+        assertEquals(0, readAhead.read(ByteBuffer.allocate(8192), position));
+    }
+
+    @Test
+    public void testRead_whenLarge() throws IOException {
+        long position = readSequentially(0, GlusterReadAhead.SEQUENTIAL_READS);
+        ByteBuffer buffer = ByteBuffer.allocate(4 * WINDOW);
+
+        assertEquals(4 * WINDOW, readAhead.read(buffer, position));
+
+        assertNull(readAhead.getCurrent());
+        assertContents(buffer, position);
+    }
+
+    @Test
+    public void testRead_whenFailing() throws IOException {
+        readSequentially(0, GlusterReadAhead.SEQUENTIAL_READS);
+        doReturn(-1L).when(channel).preadBuffer(any(ByteBuffer.class), anyLong());
+
+        assertEquals(-1, readAhead.read(ByteBuffer.allocate(8192), 2 * 8192));
+        assertNull(readAhead.getCurrent());
+    }
+
+    @Test
+    public void testPrefetch_whenNoCompletionQueue() throws IOException {
+        doReturn(-1).when(queue).pread(anyLong(), anyLong(), anyLong(), anyLong(),
+                any(GlusterCompletionQueue.Completion.class));
+
+        readSequentially(0, GlusterReadAhead.SEQUENTIAL_READS + 1);
+
+        assertNull(readAhead.getAhead());
+        assertFalse(null == readAhead.getSpare());
+    }
+}
@@ -0,0 +1,88 @@
+package com.peircean.glusterfs;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+
+public class GlusterStatCacheTest extends TestCase {
+    private GlusterFileAttributes attributes = new GlusterFileAttributes(0644, 0, 0, 10L, 1L, 2L, 3L, 4L);
+    private GlusterStatCache cache = new GlusterStatCache(1000L, 3);
+
+    @Test
+    public void testPutAndGet() {
+        cache.put("/foo", true, attributes);
+        assertEquals(attributes, cache.get("/foo", true));
+        assertNull(cache.get("/foo", false));
+        assertNull(cache.get("/bar", true));
+    }
+
+    @Test
+    public void testGet_whenExpired() {
+        GlusterStatCache cache = spy(new GlusterStatCache(1L, 3));
+        doReturn(0L).when(cache).now();
+        cache.put("/foo", true, attributes);
+        doReturn(999999L).when(cache).now();
+        assertEquals(attributes, cache.get("/foo", true));
+        doReturn(1000000L).when(cache).now();
+        assertNull(cache.get("/foo", true));
+        assertTrue(cache.getEntries().isEmpty());
+    }
+
+    @Test
+    public void testPut_whenFull() {
+        cache.put("/a", true, attributes);
+        cache.put("/b", true, attributes);
+        cache.put("/c", true, attributes);
+        cache.get("/a", true);
+        cache.put("/d", true, attributes);
+        assertEquals(3, cache.getEntries().size());
+        assertNull(cache.get("/b", true));
+        assertEquals(attributes, cache.get("/a", true));
+    }
+
+    @Test
+    public void testInvalidate() {
+        cache.put("/foo/bar", true, attributes);
+        cache.put("/foo/bar", false, attributes);
+        cache.put("/foo", true, attributes);
+        cache.invalidate("/foo/bar");
+        assertTrue(cache.getEntries().isEmpty());
+    }
+
+    @Test
+    public void testInvalidateTree() {
+        GlusterStatCache cache = new GlusterStatCache(1000L, 10);
+        cache.put("/", true, attributes);
+        cache.put("/foo", false, attributes);
+        cache.put("/foo/bar", true, attributes);
+        cache.put("/foo/bar/baz", false, attributes);
+        cache.put("/foobar", true, attributes);
+        cache.invalidateTree("/foo");
+        assertEquals(1, cache.getEntries().size());
+        assertEquals(attributes, cache.get("/foobar", true));
+    }
+
+    @Test
+    public void testPathsOf() {
+        GlusterStatCache cache = new GlusterStatCache(1000L, 10);
+        GlusterFileAttributes other = new GlusterFileAttributes(0644, 0, 0, 10L, 1L, 2L, 3L, 5L);
+        cache.put("/foo", true, attributes);
+        cache.put("/foo", false, attributes);
+        cache.put("/link", true, attributes);
+        cache.put("/bar", true, other);
+        assertEquals(new HashSet<String>(Arrays.asList("/foo", "/link")), cache.pathsOf(4L));
+        assertTrue(cache.pathsOf(6L).isEmpty());
+    }
+
+    @Test
+    public void testParent() {
+        assertNull(GlusterStatCache.parent("/"));
+        assertEquals("/", GlusterStatCache.parent("/foo"));
+        assertEquals("/foo", GlusterStatCache.parent("/foo/bar"));
+    }
+}
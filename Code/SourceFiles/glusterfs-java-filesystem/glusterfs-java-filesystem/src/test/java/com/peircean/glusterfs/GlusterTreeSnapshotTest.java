@@ -0,0 +1,106 @@
+package com.peircean.glusterfs;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class GlusterTreeSnapshotTest extends TestCase {
+
+    @Test
+    public void testAdd() {
+        GlusterTreeSnapshot snapshot = new GlusterTreeSnapshot();
+        snapshot.add("2016/01/part-0001", 5000L, 10L);
+        snapshot.add("2016", 7000L, GlusterTreeSnapshot.DIRECTORY);
+
+        assertEquals(2, snapshot.getSize());
+        assertEquals("2016/01/part-0001", snapshot.name(0));
+        assertEquals(5000L, snapshot.mtime(0));
+        assertEquals(10L, snapshot.size(0));
+        assertFalse(snapshot.isDirectory(0));
+        assertTrue(snapshot.isDirectory(1));
+        assertEquals(0L, snapshot.mtime(1));
+    }
+
+    @Test
+    public void testAdd_whenFull() {
+        GlusterTreeSnapshot snapshot = new GlusterTreeSnapshot();
+        for (int i = 0; i < GlusterTreeSnapshot.INITIAL_CAPACITY * 40; i++) {
+            snapshot.add("file-" + i, i, i);
+        }
+        int last = GlusterTreeSnapshot.INITIAL_CAPACITY * 40 - 1;
+        assertEquals("file-" + last, snapshot.name(last));
+        assertEquals(last, snapshot.size(last));
+    }
+
+    @Test
+    public void testHash() {
+        assertEquals(0xcbf29ce484222325L, GlusterTreeSnapshot.hash(new byte[0]));
+        assertEquals(0xaf63dc4c8601ec8cL, GlusterTreeSnapshot.hash("a".getBytes()));
+    }
+
+    @Test
+    public void testSort() {
+        GlusterTreeSnapshot snapshot = new GlusterTreeSnapshot();
+        for (int i = 0; i < 1000; i++) {
+            snapshot.add("dir/file-" + i, i, i);
+        }
+        snapshot.sort();
+
+        assertEquals(1000, snapshot.getSize());
+        assertEquals(1000, snapshot.getHashes().length);
+        for (int i = 1; i < snapshot.getSize(); i++) {
+            assertTrue(GlusterTreeSnapshot.compare(snapshot, i - 1, snapshot, i) < 0);
+        }
+        for (int i = 0; i < snapshot.getSize(); i++) {
+            assertEquals("dir/file-" + snapshot.mtime(i), snapshot.name(i));
+            assertEquals(snapshot.mtime(i), snapshot.size(i));
+        }
+    }
+
+    @Test
+    public void testCompare() {
+        GlusterTreeSnapshot a = new GlusterTreeSnapshot();
+        a.add("x", 1L, 1L);
+        GlusterTreeSnapshot b = new GlusterTreeSnapshot();
+        b.add("y", 1L, 1L);
+        b.add("x", 2L, 2L);
+
+        assertEquals(0, GlusterTreeSnapshot.compare(a, 0, b, 1));
+        assertEquals(-GlusterTreeSnapshot.compare(a, 0, b, 0), GlusterTreeSnapshot.compare(b, 0, a, 0));
+        assertTrue(GlusterTreeSnapshot.compare(a, 0, b, 0) != 0);
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        GlusterTreeSnapshot snapshot = new GlusterTreeSnapshot();
+        snapshot.add("dir", 0, GlusterTreeSnapshot.DIRECTORY);
+        snapshot.add("dir/caf\u00e9", 5000L, 12L);
+        snapshot.sort();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        snapshot.write(new DataOutputStream(bytes));
+
+        GlusterTreeSnapshot read = GlusterTreeSnapshot.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(2, read.getSize());
+        for (int i = 0; i < 2; i++) {
+            assertEquals(snapshot.name(i), read.name(i));
+            assertEquals(snapshot.mtime(i), read.mtime(i));
+            assertEquals(snapshot.size(i), read.size(i));
+        }
+    }
+
+    @Test
+    public void testRead_whenCorrupt() {
+        try {
+            GlusterTreeSnapshot.read(new DataInputStream(new ByteArrayInputStream(new byte[]{0, 0, 0, 1, -1, -1, -1, -1})));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Corrupt snapshot"));
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.peircean.glusterfs;
+
+import com.peircean.glusterfs.borrowed.GlobPattern;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({GlusterTreeWatchKey.class, GlusterWatchKey.class, Files.class})
+public class GlusterTreeWatchKeyTest {
+    @Mock
+    GlusterFileSystem mockFileSystem;
+
+    GlusterPath root;
+    GlusterPath year;
+    GlusterDirectoryStream rootStream;
+    GlusterDirectoryStream yearStream;
+    long future;
+
+    @Before
+    public void setUp() throws IOException {
+        doReturn("/").when(mockFileSystem).getSeparator();
+        root = new GlusterPath(mockFileSystem, "/tree");
+        year = new GlusterPath(mockFileSystem, "/tree/2016");
+        rootStream = mock(GlusterDirectoryStream.class);
+        yearStream = mock(GlusterDirectoryStream.class);
+        future = System.currentTimeMillis() / 1000 + 100;
+        PowerMockito.mockStatic(Files.class);
+        when(Files.newDirectoryStream(root)).thenReturn(rootStream);
+        when(Files.newDirectoryStream(year)).thenReturn(yearStream);
+        when(Files.readAttributes(root, PosixFileAttributes.class)).thenReturn(directory(1L));
+    }
+
+    GlusterFileAttributes directory(long inode) {
+        return new GlusterFileAttributes(0040755, 0, 0, 4096, 0, 0, 0, inode);
+    }
+
+    GlusterFileAttributes file(long size, long mtime) {
+        return new GlusterFileAttributes(0100644, 0, 0, size, 0, 0, mtime, 10L + size);
+    }
+
+    GlusterDirectoryEntry entry(String path, GlusterFileAttributes attributes) {
+        return new GlusterDirectoryEntry(new GlusterPath(mockFileSystem, path), attributes);
+    }
+
+    GlusterTreeWatchKey firstScan(WatchEvent.Kind... kinds) {
+        List<GlusterDirectoryEntry> rootEntries = Arrays.asList(
+                entry("/tree/2016", directory(2L)),
+                entry("/tree/a", file(1L, 1L)));
+        List<GlusterDirectoryEntry> yearEntries = Arrays.asList(entry("/tree/2016/b", file(2L, future)));
+        doReturn(rootEntries.iterator()).when(rootStream).entryIterator();
+        doReturn(yearEntries.iterator()).when(yearStream).entryIterator();
+        GlusterTreeWatchKey key = new GlusterTreeWatchKey(root, kinds);
+        key.update();
+        return key;
+    }
+
+    @Test
+    public void testUpdate_whenFirstScan() {
+        GlusterTreeWatchKey key = firstScan(StandardWatchEventKinds.ENTRY_CREATE);
+
+        assertTrue(key.isReady());
+        List<WatchEvent<?>> events = key.pollEvents();
+        assertEquals(1, events.size());
+        assertEquals(StandardWatchEventKinds.ENTRY_CREATE, events.get(0).kind());
+        assertEquals(new GlusterPath(mockFileSystem, "2016/b"), events.get(0).context());
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), key.getInodes());
+        assertEquals(1L, key.getInode());
+        assertEquals(3, key.getSnapshot().getSize());
+        assertFalse(key.isSignalled());
+    }
+
+    @Test
+    public void testUpdate_whenTreeChanged() {
+        GlusterTreeWatchKey key = firstScan(StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        key.pollEvents();
+        key.reset();
+        List<GlusterDirectoryEntry> rootEntries = Arrays.asList(
+                entry("/tree/2016", directory(2L)),
+                entry("/tree/a", file(5L, 1L)));
+        List<GlusterDirectoryEntry> yearEntries = Arrays.asList(entry("/tree/2016/c", file(3L, future)));
+        doReturn(rootEntries.iterator()).when(rootStream).entryIterator();
+        doReturn(yearEntries.iterator()).when(yearStream).entryIterator();
+
+        assertTrue(key.update());
+
+        List<String> events = new ArrayList<>();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            events.add(event.kind().name() + " " + event.context());
+        }
+        assertEquals(3, events.size());
+        assertTrue(events.contains("ENTRY_MODIFY a"));
+        assertTrue(events.contains("ENTRY_DELETE 2016/b"));
+        assertTrue(events.contains("ENTRY_CREATE 2016/c"));
+    }
+
+    @Test
+    public void testUpdate_whenEventsNotYetPolled() {
+        GlusterTreeWatchKey key = firstScan(StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        List<GlusterDirectoryEntry> rootEntries = Arrays.asList(
+                entry("/tree/2016", directory(2L)),
+                entry("/tree/a", file(5L, 1L)));
+        doReturn(rootEntries.iterator()).when(rootStream).entryIterator();
+        doReturn(new ArrayList<GlusterDirectoryEntry>().iterator()).when(yearStream).entryIterator();
+
+        key.update();
+
+        List<WatchEvent<?>> events = key.pollEvents();
+        assertEquals(1, events.size());
+        assertEquals(StandardWatchEventKinds.ENTRY_MODIFY, events.get(0).kind());
+        assertEquals(new GlusterPath(mockFileSystem, "a"), events.get(0).context());
+    }
+
+    @Test
+    public void testUpdate_withFilter() {
+        List<GlusterDirectoryEntry> rootEntries = Arrays.asList(
+                entry("/tree/2016", directory(2L)),
+                entry("/tree/a.parquet", file(1L, future)),
+                entry("/tree/_temporary", file(3L, future)));
+        List<GlusterDirectoryEntry> yearEntries = Arrays.asList(entry("/tree/2016/b.parquet", file(2L, future)));
+        doReturn(rootEntries.iterator()).when(rootStream).entryIterator();
+        doReturn(yearEntries.iterator()).when(yearStream).entryIterator();
+        GlusterTreeWatchKey key = new GlusterTreeWatchKey(root, new WatchEvent.Kind[]{StandardWatchEventKinds.ENTRY_CREATE});
+        key.setFilter(new GlusterPathMatcher(GlobPattern.compile("*.parquet")));
+
+        assertTrue(key.update());
+
+        assertEquals(2, key.getSnapshot().getSize());
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), key.getInodes());
+        List<String> events = new ArrayList<>();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            events.add(event.context().toString());
+        }
+        assertEquals(2, events.size());
+        assertTrue(events.contains("a.parquet"));
+        assertTrue(events.contains("2016/b.parquet"));
+    }
+
+    @Test
+    public void testForget() {
+        GlusterTreeWatchKey key = firstScan(StandardWatchEventKinds.ENTRY_CREATE);
+
+        key.changeFilter(mock(PathMatcher.class));
+
+        assertNull(key.getSnapshot());
+        assertFalse(key.isScanning());
+    }
+
+    @Test
+    public void testUpdate_whenUnchanged() {
+        GlusterTreeWatchKey key = firstScan(StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        key.pollEvents();
+        key.reset();
+        firstScanEntries();
+
+        assertFalse(key.update());
+        assertTrue(key.pollEvents().isEmpty());
+    }
+
+    void firstScanEntries() {
+        doReturn(Arrays.asList(entry("/tree/2016", directory(2L)), entry("/tree/a", file(1L, 1L))).iterator())
+                .when(rootStream).entryIterator();
+        doReturn(Arrays.asList(entry("/tree/2016/b", file(2L, future))).iterator()).when(yearStream).entryIterator();
+    }
+
+    @Test
+    public void testUpdate_whenKindNotWatched() {
+        GlusterTreeWatchKey key = firstScan(StandardWatchEventKinds.ENTRY_CREATE);
+        key.pollEvents();
+        key.reset();
+        doReturn(Arrays.asList(entry("/tree/a", file(1L, 1L))).iterator()).when(rootStream).entryIterator();
+
+        assertFalse(key.update());
+        assertTrue(key.pollEvents().isEmpty());
+        assertEquals(1, key.getSnapshot().getSize());
+    }
+
+    @Test
+    public void testUpdate_whenRootUnreadable() throws IOException {
+        when(Files.newDirectoryStream(root)).thenThrow(new IOException());
+        GlusterTreeWatchKey key = new GlusterTreeWatchKey(root, new WatchEvent.Kind[]{StandardWatchEventKinds.ENTRY_CREATE});
+
+        assertFalse(key.update());
+        assertNull(key.getSnapshot());
+    }
+
+    @Test
+    public void testUpdate_whenSubdirectoryGone() throws IOException {
+        GlusterTreeWatchKey key = firstScan(StandardWatchEventKinds.ENTRY_DELETE);
+        assertTrue(key.getPending().isEmpty());
+        key.pollEvents();
+        key.reset();
+        firstScanEntries();
+        when(Files.newDirectoryStream(year)).thenThrow(new IOException());
+
+        assertTrue(key.update());
+
+        List<WatchEvent<?>> events = key.pollEvents();
+        assertEquals(1, events.size());
+        assertEquals(new GlusterPath(mockFileSystem, "2016/b"), events.get(0).context());
+    }
+
+    @Test
+    public void testUpdate_whenRestored() {
+        GlusterTreeSnapshot saved = new GlusterTreeSnapshot();
+        saved.add("2016", 0, GlusterTreeSnapshot.DIRECTORY);
+        saved.add("2016/b", future * 1000, 2L);
+        saved.add("a", 1000L, 1L);
+        saved.add("gone", 1000L, 1L);
+        saved.sort();
+        GlusterTreeWatchKey key = new GlusterTreeWatchKey(root, new WatchEvent.Kind[]{StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY});
+        key.restore(saved, 1234L);
+        assertEquals(1234L, key.getLastPolled());
+        assertSame(saved, key.toSnapshot());
+        firstScanEntries();
+
+        assertTrue(key.update());
+
+        List<WatchEvent<?>> events = key.pollEvents();
+        assertEquals(1, events.size());
+        assertEquals(StandardWatchEventKinds.ENTRY_DELETE, events.get(0).kind());
+        assertEquals(new GlusterPath(mockFileSystem, "gone"), events.get(0).context());
+        assertTrue(key.isDelivered());
+    }
+
+    @Test
+    public void testUpdate_whenSliceRunsOut() {
+        GlusterTreeWatchKey key = firstScan(StandardWatchEventKinds.ENTRY_CREATE);
+        key.pollEvents();
+        key.reset();
+        key.setScanSlice(1L);
+        doReturn(GlusterWatchKeyTest.slowEntries(entry("/tree/2016", directory(2L)), entry("/tree/a", file(1L, 1L))))
+                .when(rootStream).entryIterator();
+        doReturn(9L).when(rootStream).tell();
+        doReturn(GlusterWatchKeyTest.slowEntries(entry("/tree/2016/b", file(2L, future)), entry("/tree/2016/c", file(3L, future))))
+                .when(yearStream).entryIterator();
+
+        assertFalse(key.update());
+        assertTrue(key.isScanning());
+        assertEquals(9L, key.getCursor());
+        assertEquals("", key.getQueue().peek());
+
+        doReturn(GlusterWatchKeyTest.slowEntries(entry("/tree/a", file(1L, 1L)))).when(rootStream).entryIterator();
+        key.setScanSlice(0L);
+        assertTrue(key.update());
+
+        verify(rootStream).seek(9L);
+        assertFalse(key.isScanning());
+        List<WatchEvent<?>> events = key.pollEvents();
+        assertEquals(1, events.size());
+        assertEquals(new GlusterPath(mockFileSystem, "2016/c"), events.get(0).context());
+    }
+
+    @Test
+    public void testPollEvents_whenNotReady() {
+        GlusterTreeWatchKey key = firstScan(StandardWatchEventKinds.ENTRY_CREATE);
+        key.setReady(false);
+
+        assertTrue(key.pollEvents().isEmpty());
+        assertEquals(1, key.getPending().size());
+    }
+}
@@ -0,0 +1,116 @@
+package com.peircean.glusterfs;
+
+import com.peircean.libgfapi_jni.internal.GLFS;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.IOException;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({GLFS.class})
+public class GlusterUpcallDispatcherTest extends TestCase {
+    public static final long VOLPTR = 1234L;
+    @Mock
+    private GlusterFileSystem mockFileSystem;
+
+    private Answer<Integer> upcall(final long... values) {
+        return new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                System.arraycopy(values, 0, invocation.getArguments()[1], 0, values.length);
+                return 1;
+            }
+        };
+    }
+
+    @Test
+    public void testPoll() {
+        GlusterUpcallDispatcher dispatcher = new GlusterUpcallDispatcher(mockFileSystem, 10L);
+        doReturn(new long[]{VOLPTR, 1235L}).when(mockFileSystem).getVolptrs();
+        doReturn(VOLPTR).when(mockFileSystem).getVolptr(0);
+        doReturn(1235L).when(mockFileSystem).getVolptr(1);
+        mockStatic(GLFS.class);
+        when(GLFS.glfsjni_poll_upcall(eq(VOLPTR), any(long[].class)))
+                .thenAnswer(upcall(1, 0x8, 11, 10, 0))
+                .thenReturn(0);
+        when(GLFS.glfsjni_poll_upcall(eq(1235L), any(long[].class)))
+                .thenAnswer(upcall(2, 0, 0, 0, 0))
+                .thenReturn(0);
+
+        assertEquals(2, dispatcher.poll(new long[GlusterUpcallDispatcher.EVENT_SIZE]));
+
+        verify(mockFileSystem).upcall(0x8, 11L, 10L, 0L);
+        verify(mockFileSystem, times(1)).upcall(anyInt(), anyLong(), anyLong(), anyLong());
+        assertEquals(2, dispatcher.getEvents().get());
+    }
+
+    @Test
+    public void testDispatch_whenInvalidationFails() {
+        GlusterUpcallDispatcher dispatcher = new GlusterUpcallDispatcher(mockFileSystem, 10L);
+        doThrow(new IllegalStateException()).when(mockFileSystem).upcall(anyInt(), anyLong(), anyLong(), anyLong());
+        dispatcher.dispatch(new long[]{1, 0, 11, 0, 0});
+        assertEquals(1, dispatcher.getEvents().get());
+    }
+
+    @Test
+    public void testPoll_whenFailing() {
+        GlusterUpcallDispatcher dispatcher = new GlusterUpcallDispatcher(mockFileSystem, 10L);
+        doReturn(VOLPTR).when(mockFileSystem).getVolptr(0);
+        mockStatic(GLFS.class);
+        when(GLFS.glfsjni_poll_upcall(eq(VOLPTR), any(long[].class))).thenReturn(-2).thenReturn(0);
+
+        assertEquals(0, dispatcher.poll(new long[GlusterUpcallDispatcher.EVENT_SIZE]));
+        assertTrue(dispatcher.isFailing());
+        dispatcher.poll(new long[GlusterUpcallDispatcher.EVENT_SIZE]);
+        assertFalse(dispatcher.isFailing());
+    }
+
+    @Test
+    public void testDispatch_notifiesListeners() {
+        GlusterUpcallDispatcher dispatcher = new GlusterUpcallDispatcher(mockFileSystem, 10L);
+        GlusterUpcallDispatcher.Listener failing = mock(GlusterUpcallDispatcher.Listener.class);
+        GlusterUpcallDispatcher.Listener listener = mock(GlusterUpcallDispatcher.Listener.class);
+        doThrow(new IllegalStateException()).when(failing).upcall(anyInt(), anyLong(), anyLong(), anyLong());
+        dispatcher.addListener(failing);
+        dispatcher.addListener(listener);
+
+        dispatcher.dispatch(new long[]{1, 0x200, 11, 10, 0});
+        dispatcher.removeListener(listener);
+        dispatcher.dispatch(new long[]{1, 0x8, 11, 0, 0});
+
+        verify(listener).upcall(0x200, 11L, 10L, 0L);
+        verify(listener, never()).upcall(0x8, 11L, 0L, 0L);
+    }
+
+    @Test
+    public void testStartAndClose() throws IOException {
+        doReturn("host").when(mockFileSystem).getHost();
+        doReturn("vol").when(mockFileSystem).getVolname();
+        doReturn(VOLPTR).when(mockFileSystem).getVolptr(0);
+        mockStatic(GLFS.class);
+        when(GLFS.glfsjni_poll_upcall(eq(VOLPTR), any(long[].class))).thenReturn(0);
+        GlusterUpcallDispatcher dispatcher = new GlusterUpcallDispatcher(mockFileSystem, 5L);
+
+        dispatcher.start();
+        assertTrue(dispatcher.isRunning());
+        assertTrue(dispatcher.getThread().isDaemon());
+        assertEquals("gluster-upcalls-host:vol", dispatcher.getThread().getName());
+        dispatcher.close();
+
+        assertFalse(dispatcher.isRunning());
+        assertFalse(dispatcher.getThread().isAlive());
+    }
+}
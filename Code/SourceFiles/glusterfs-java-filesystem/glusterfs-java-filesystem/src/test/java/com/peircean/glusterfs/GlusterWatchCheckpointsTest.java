@@ -0,0 +1,133 @@
+package com.peircean.glusterfs;
+
+import junit.framework.TestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+
+import static org.mockito.Mockito.doReturn;
+
+@RunWith(MockitoJUnitRunner.class)
+public class GlusterWatchCheckpointsTest extends TestCase {
+    @Mock
+    private GlusterFileSystem mockFileSystem;
+    private Path directory;
+    private GlusterWatchCheckpoints checkpoints;
+    private GlusterPath path;
+    private WatchEvent.Kind[] kinds = new WatchEvent.Kind[]{StandardWatchEventKinds.ENTRY_CREATE};
+
+    @Before
+    public void setUp() throws IOException {
+        doReturn("/").when(mockFileSystem).getSeparator();
+        directory = Files.createTempDirectory("checkpoints");
+        checkpoints = new GlusterWatchCheckpoints(directory.resolve("watches"), "host:vol");
+        path = new GlusterPath(mockFileSystem, "/landing");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        delete(directory);
+    }
+
+    private void delete(Path p) throws IOException {
+        if (Files.isDirectory(p)) {
+            DirectoryStream<Path> children = Files.newDirectoryStream(p);
+            try {
+                for (Path child : children) {
+                    delete(child);
+                }
+            } finally {
+                children.close();
+            }
+        }
+        Files.delete(p);
+    }
+
+    @Test
+    public void testSaveAndRestore_whenTree() {
+        GlusterTreeWatchKey key = new GlusterTreeWatchKey(path, kinds);
+        GlusterTreeSnapshot snapshot = new GlusterTreeSnapshot();
+        snapshot.add("2016", 0, GlusterTreeSnapshot.DIRECTORY);
+        snapshot.add("2016/part-0001", 5000L, 10L);
+        snapshot.sort();
+        key.setSnapshot(snapshot);
+        key.setLastPolled(1234L);
+
+        assertTrue(checkpoints.save(key));
+
+        GlusterTreeWatchKey restored = new GlusterTreeWatchKey(path, kinds);
+        assertTrue(checkpoints.restore(restored));
+        assertEquals(1234L, restored.getLastPolled());
+        assertEquals(2, restored.getSnapshot().getSize());
+        for (int i = 0; i < 2; i++) {
+            assertEquals(0, GlusterTreeSnapshot.compare(snapshot, i, restored.getSnapshot(), i));
+            assertEquals(snapshot.mtime(i), restored.getSnapshot().mtime(i));
+            assertEquals(snapshot.size(i), restored.getSnapshot().size(i));
+        }
+    }
+
+    @Test
+    public void testSaveAndRestore_whenDirectory() {
+        GlusterWatchKey key = new GlusterWatchKey(path, kinds);
+        key.checkCreated(path.resolve("a"), 5000L);
+        key.setLastPolled(6000L);
+
+        assertTrue(checkpoints.save(key));
+
+        GlusterWatchKey restored = new GlusterWatchKey(path, kinds);
+        assertTrue(checkpoints.restore(restored));
+        assertEquals(6000L, restored.getLastPolled());
+        assertEquals(5000L, restored.getEvents().get(path.resolve("a")).getLastModified());
+        assertTrue(restored.isRestored());
+    }
+
+    @Test
+    public void testRestore_whenNoCheckpoint() {
+        assertFalse(checkpoints.restore(new GlusterTreeWatchKey(path, kinds)));
+    }
+
+    @Test
+    public void testRestore_whenOtherKind() {
+        GlusterTreeWatchKey key = new GlusterTreeWatchKey(path, kinds);
+        key.setSnapshot(new GlusterTreeSnapshot());
+        assertTrue(checkpoints.save(key));
+
+        assertFalse(checkpoints.restore(new GlusterWatchKey(path, kinds)));
+    }
+
+    @Test
+    public void testRestore_whenCorrupt() throws IOException {
+        GlusterTreeWatchKey key = new GlusterTreeWatchKey(path, kinds);
+        Files.createDirectories(checkpoints.getDirectory());
+        Files.write(checkpoints.fileOf(checkpoints.idOf(key)), new byte[]{1, 2, 3});
+
+        assertFalse(checkpoints.restore(key));
+        assertNull(key.getSnapshot());
+    }
+
+    @Test
+    public void testSave_whenNotScanned() {
+        assertFalse(checkpoints.save(new GlusterTreeWatchKey(path, kinds)));
+        assertFalse(Files.exists(checkpoints.getDirectory()));
+    }
+
+    @Test
+    public void testFileOf() {
+        GlusterTreeWatchKey tree = new GlusterTreeWatchKey(path, kinds);
+        GlusterWatchKey directory = new GlusterWatchKey(path, kinds);
+
+        assertEquals("host:vol tree /landing", checkpoints.idOf(tree));
+        assertFalse(checkpoints.fileOf(checkpoints.idOf(tree)).equals(checkpoints.fileOf(checkpoints.idOf(directory))));
+        assertTrue(checkpoints.fileOf("x").getFileName().toString().endsWith(GlusterWatchCheckpoints.SUFFIX));
+    }
+}
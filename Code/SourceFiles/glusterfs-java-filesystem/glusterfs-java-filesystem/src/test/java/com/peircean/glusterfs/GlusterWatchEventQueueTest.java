@@ -0,0 +1,185 @@
+package com.peircean.glusterfs;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class GlusterWatchEventQueueTest {
+    GlusterWatchEventQueue queue;
+    GlusterWatchKey key;
+    Path a;
+    Path b;
+
+    @Before
+    public void setUp() {
+        queue = new GlusterWatchEventQueue();
+        key = new GlusterWatchKey(mock(GlusterPath.class), new WatchEvent.Kind[]{StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE});
+        a = mock(Path.class);
+        b = mock(Path.class);
+    }
+
+    void assertEvent(WatchEvent<?> event, WatchEvent.Kind<?> kind, int count, Path context) {
+        assertEquals(kind, event.kind());
+        assertEquals(count, event.count());
+        assertEquals(context, event.context());
+    }
+
+    @Test
+    public void testOffer() {
+        assertTrue(queue.offer(StandardWatchEventKinds.ENTRY_CREATE, a, 5000L));
+        assertTrue(queue.offer(StandardWatchEventKinds.ENTRY_DELETE, b, 6000L));
+
+        List<WatchEvent<?>> events = queue.drain(key);
+
+        assertEquals(2, events.size());
+        assertEvent(events.get(0), StandardWatchEventKinds.ENTRY_CREATE, 1, a);
+        assertEquals(5000L, ((GlusterWatchEvent) events.get(0)).getLastModified());
+        assertEvent(events.get(1), StandardWatchEventKinds.ENTRY_DELETE, 1, b);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testOffer_whenCreatedThenModified() {
+        queue.offer(StandardWatchEventKinds.ENTRY_CREATE, a, 5000L);
+        queue.offer(StandardWatchEventKinds.ENTRY_MODIFY, a, 6000L);
+
+        List<WatchEvent<?>> events = queue.drain(key);
+
+        assertEquals(1, events.size());
+        assertEvent(events.get(0), StandardWatchEventKinds.ENTRY_CREATE, 1, a);
+        assertEquals(6000L, ((GlusterWatchEvent) events.get(0)).getLastModified());
+    }
+
+    @Test
+    public void testOffer_whenCreatedThenDeleted() {
+        queue.offer(StandardWatchEventKinds.ENTRY_CREATE, a, 5000L);
+
+        assertFalse(queue.offer(StandardWatchEventKinds.ENTRY_DELETE, a, 6000L));
+
+        assertTrue(queue.drain(key).isEmpty());
+    }
+
+    @Test
+    public void testOffer_whenDeletedThenCreated() {
+        queue.offer(StandardWatchEventKinds.ENTRY_DELETE, a, 5000L);
+        queue.offer(StandardWatchEventKinds.ENTRY_CREATE, a, 6000L);
+
+        List<WatchEvent<?>> events = queue.drain(key);
+
+        assertEquals(1, events.size());
+        assertEvent(events.get(0), StandardWatchEventKinds.ENTRY_MODIFY, 1, a);
+    }
+
+    @Test
+    public void testOffer_whenDeletedThenCreated_andModifyNotWatched() {
+        GlusterWatchKey landingZone = new GlusterWatchKey(mock(GlusterPath.class), new WatchEvent.Kind[]{
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE});
+        queue.offer(StandardWatchEventKinds.ENTRY_DELETE, a, 5000L);
+        queue.offer(StandardWatchEventKinds.ENTRY_CREATE, a, 6000L);
+        queue.offer(StandardWatchEventKinds.ENTRY_CREATE, b, 7000L);
+
+        List<WatchEvent<?>> events = queue.drain(landingZone);
+
+        assertEquals(3, events.size());
+        assertEvent(events.get(0), StandardWatchEventKinds.ENTRY_DELETE, 1, a);
+        assertEvent(events.get(1), StandardWatchEventKinds.ENTRY_CREATE, 1, a);
+        assertEquals(6000L, ((GlusterWatchEvent) events.get(1)).getLastModified());
+        assertEvent(events.get(2), StandardWatchEventKinds.ENTRY_CREATE, 1, b);
+    }
+
+    @Test
+    public void testOffer_whenDeletedCreatedAndDeletedAgain() {
+        GlusterWatchKey landingZone = new GlusterWatchKey(mock(GlusterPath.class), new WatchEvent.Kind[]{
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE});
+        queue.offer(StandardWatchEventKinds.ENTRY_DELETE, a, 5000L);
+        queue.offer(StandardWatchEventKinds.ENTRY_CREATE, a, 6000L);
+        queue.offer(StandardWatchEventKinds.ENTRY_DELETE, a, 7000L);
+
+        List<WatchEvent<?>> events = queue.drain(landingZone);
+
+        assertEquals(1, events.size());
+        assertEvent(events.get(0), StandardWatchEventKinds.ENTRY_DELETE, 1, a);
+    }
+
+    @Test
+    public void testOffer_whenModifiedAgain() {
+        queue.offer(StandardWatchEventKinds.ENTRY_MODIFY, a, 5000L);
+        queue.offer(StandardWatchEventKinds.ENTRY_MODIFY, a, 6000L);
+
+        List<WatchEvent<?>> events = queue.drain(key);
+
+        assertEquals(1, events.size());
+        assertEvent(events.get(0), StandardWatchEventKinds.ENTRY_MODIFY, 2, a);
+    }
+
+    @Test
+    public void testOffer_whenModifiedThenDeleted() {
+        queue.offer(StandardWatchEventKinds.ENTRY_MODIFY, a, 5000L);
+        queue.offer(StandardWatchEventKinds.ENTRY_MODIFY, a, 6000L);
+        queue.offer(StandardWatchEventKinds.ENTRY_DELETE, a, 7000L);
+
+        List<WatchEvent<?>> events = queue.drain(key);
+
+        assertEquals(1, events.size());
+        assertEvent(events.get(0), StandardWatchEventKinds.ENTRY_DELETE, 1, a);
+    }
+
+    @Test
+    public void testOffer_whenNotCoalescing() {
+        queue.setCoalesce(false);
+        queue.offer(StandardWatchEventKinds.ENTRY_CREATE, a, 5000L);
+        queue.offer(StandardWatchEventKinds.ENTRY_MODIFY, a, 6000L);
+        queue.offer(StandardWatchEventKinds.ENTRY_DELETE, a, 7000L);
+
+        List<WatchEvent<?>> events = queue.drain(key);
+
+        assertEquals(3, events.size());
+        assertEvent(events.get(0), StandardWatchEventKinds.ENTRY_CREATE, 1, a);
+        assertEvent(events.get(1), StandardWatchEventKinds.ENTRY_MODIFY, 1, a);
+        assertEvent(events.get(2), StandardWatchEventKinds.ENTRY_DELETE, 1, a);
+    }
+
+    @Test
+    public void testOffer_whenFull() {
+        queue.setMaxEvents(1);
+        queue.offer(StandardWatchEventKinds.ENTRY_CREATE, a, 5000L);
+        queue.offer(StandardWatchEventKinds.ENTRY_MODIFY, a, 6000L);
+        queue.offer(StandardWatchEventKinds.ENTRY_CREATE, b, 6000L);
+        queue.offer(StandardWatchEventKinds.ENTRY_DELETE, b, 7000L);
+
+        assertEquals(1, queue.size());
+        assertEquals(2, queue.getOverflow());
+        List<WatchEvent<?>> events = queue.drain(key);
+
+        assertEquals(2, events.size());
+        assertEvent(events.get(0), StandardWatchEventKinds.ENTRY_CREATE, 1, a);
+        assertEquals(StandardWatchEventKinds.OVERFLOW, events.get(1).kind());
+        assertEquals(2, events.get(1).count());
+        assertNull(events.get(1).context());
+        assertEquals(0, queue.getOverflow());
+    }
+
+    @Test
+    public void testDrain_whenKindNotWatched() {
+        key.setKinds(new WatchEvent.Kind[]{StandardWatchEventKinds.ENTRY_DELETE});
+        queue.setMaxEvents(1);
+        queue.offer(StandardWatchEventKinds.ENTRY_CREATE, a, 5000L);
+        queue.offer(StandardWatchEventKinds.ENTRY_CREATE, b, 5000L);
+
+        List<WatchEvent<?>> events = queue.drain(key);
+
+        assertEquals(1, events.size());
+        assertEquals(StandardWatchEventKinds.OVERFLOW, events.get(0).kind());
+    }
+}
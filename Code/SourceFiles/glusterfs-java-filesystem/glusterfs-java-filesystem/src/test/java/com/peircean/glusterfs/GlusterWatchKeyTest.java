@@ -4,6 +4,7 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
@@ -13,11 +14,15 @@ import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
+import java.nio.file.attribute.PosixFileAttributes;
 import java.util.*;
 
 import static junit.framework.Assert.*;
-import static org.mockito.Matchers.isA;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 import static org.powermock.api.mockito.PowerMockito.doReturn;
 import static org.powermock.api.mockito.PowerMockito.when;
@@ -28,10 +33,8 @@ public class GlusterWatchKeyTest {
     @Mock
     GlusterPath mockPath;
 
-    @Mock
-    WatchEvent.Kind mockKind;
-
-    WatchEvent.Kind[] mockKinds = new WatchEvent.Kind[]{mockKind};
+    WatchEvent.Kind[] mockKinds = new WatchEvent.Kind[]{StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE};
 
     GlusterWatchKey key;
 
@@ -81,18 +84,15 @@ public class GlusterWatchKeyTest {
         Path onePath = mock(Path.class);
         mockPaths.add(onePath);
 
-        LinkedList<Path> mockFiles = mock(LinkedList.class);
-        PowerMockito.whenNew(LinkedList.class).withNoArguments().thenReturn(mockFiles);
-
         Path mockEventPath = mock(Path.class);
         Set<Path> eventsKeys = new HashSet<Path>();
         eventsKeys.add(mockEventPath);
         HashMap<Path, GlusterWatchEvent> mockEvents = mock(HashMap.class);
         doReturn(eventsKeys).when(mockEvents).keySet();
-        doReturn(deleted).when(key).checkDeleted(mockFiles, mockEventPath);
+        doReturn(deleted).when(key).checkDeleted(any(Set.class), eq(mockEventPath));
         key.setEvents(mockEvents);
 
-        doReturn(existing).when(key).processExistingFile(mockFiles, onePath);
+        doReturn(existing).when(key).processExistingFile(any(Set.class), eq(onePath));
 
         DirectoryStream<Path> mockDirectoryStream = mock(DirectoryStream.class);
         doReturn(mockPaths.iterator()).when(mockDirectoryStream).iterator();
@@ -109,16 +109,215 @@ public class GlusterWatchKeyTest {
                 assertFalse(key.update());
         }
 
-        verify(mockFiles, never()).add(isA(Path.class));
         verify(mockDirectoryStream).iterator();
-        verify(key).processExistingFile(mockFiles, onePath);
+        verify(key).processExistingFile(any(Set.class), eq(onePath));
         verify(mockEvents).keySet();
-        verify(key).checkDeleted(mockFiles, mockEventPath);
+        verify(key).checkDeleted(any(Set.class), eq(mockEventPath));
 
         PowerMockito.verifyStatic();
         Files.newDirectoryStream(mockPath);
+    }
+
+    @Test
+    public void testUpdate_whenGlusterDirectoryStream() throws Exception {
+        GlusterPath entryPath = mock(GlusterPath.class);
+        GlusterFileAttributes attributes = mock(GlusterFileAttributes.class);
+        List<GlusterDirectoryEntry> entries = new ArrayList<>();
+        entries.add(new GlusterDirectoryEntry(entryPath, attributes));
+        GlusterDirectoryStream mockDirectoryStream = mock(GlusterDirectoryStream.class);
+        doReturn(entries.iterator()).when(mockDirectoryStream).entryIterator();
+        doReturn(true).when(key).processExistingFile(any(Set.class), eq(entryPath), eq(attributes));
+        PowerMockito.mockStatic(Files.class);
+        when(Files.newDirectoryStream(mockPath)).thenReturn(mockDirectoryStream);
+
+        doReturn(7L).when(attributes).getInode();
+        when(Files.readAttributes(mockPath, PosixFileAttributes.class))
+                .thenReturn(new GlusterFileAttributes(0040755, 0, 0, 10, 0, 0, 5, 3L));
+
+        assertTrue(key.update());
+
+        assertFalse(key.isSignalled());
+        assertEquals(new HashSet<Long>(Arrays.asList(3L, 7L)), key.getInodes());
+        verify(key).processExistingFile(any(Set.class), eq(entryPath), eq(attributes));
+        verify(key, never()).processExistingFile(any(Set.class), any(Path.class));
+        verify(mockDirectoryStream, never()).iterator();
+        verify(mockDirectoryStream).close();
+    }
+
+    @Test
+    public void testOpenDirectory_withFilter() throws Exception {
+        PathMatcher matcher = mock(PathMatcher.class);
+        key.setFilter(matcher);
+        Path parquet = mock(Path.class);
+        Path parquetName = mock(Path.class);
+        doReturn(parquetName).when(parquet).getFileName();
+        doReturn(true).when(matcher).matches(parquetName);
+        Path temporary = mock(Path.class);
+        doReturn(mock(Path.class)).when(temporary).getFileName();
+        DirectoryStream<Path> mockDirectoryStream = mock(DirectoryStream.class);
+        PowerMockito.mockStatic(Files.class);
+        when(Files.newDirectoryStream(any(Path.class), any(DirectoryStream.Filter.class))).thenReturn(mockDirectoryStream);
+
+        assertEquals(mockDirectoryStream, key.openDirectory());
+
+        ArgumentCaptor<DirectoryStream.Filter> filter = ArgumentCaptor.forClass(DirectoryStream.Filter.class);
+        PowerMockito.verifyStatic();
+        Files.newDirectoryStream(eq(mockPath), filter.capture());
+        assertTrue(filter.getValue().accept(parquet));
+        assertFalse(filter.getValue().accept(temporary));
+    }
+
+    @Test
+    public void testChangeFilter() {
+        PathMatcher matcher = mock(PathMatcher.class);
+        key.getEvents().put(mockPath, new GlusterWatchEvent(mockPath));
+        key.setDirModified(5);
+        key.setSignalled(false);
+
+        key.changeFilter(null);
+        assertEquals(1, key.getEvents().size());
+
+        key.changeFilter(matcher);
+
+        assertEquals(matcher, key.getFilter());
+        assertTrue(key.getEvents().isEmpty());
+        assertEquals(-1, key.getDirModified());
+        assertTrue(key.isSignalled());
+    }
+
+    /**
+     * @return entries that take a few milliseconds each to list, to run a scan past its slice
+     */
+    static Iterator<GlusterDirectoryEntry> slowEntries(final GlusterDirectoryEntry... entries) {
+        final Iterator<GlusterDirectoryEntry> iterator = Arrays.asList(entries).iterator();
+        return new Iterator<GlusterDirectoryEntry>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public GlusterDirectoryEntry next() {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return iterator.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Test
+    public void testUpdate_whenSliceRunsOut() throws Exception {
+        GlusterWatchKey key = new GlusterWatchKey(mockPath, mockKinds);
+        key.setScanSlice(1L);
+        GlusterDirectoryEntry first = new GlusterDirectoryEntry(mock(GlusterPath.class),
+                new GlusterFileAttributes(0100644, 0, 0, 10, 0, 0, 5, 7L));
+        GlusterDirectoryEntry second = new GlusterDirectoryEntry(mock(GlusterPath.class),
+                new GlusterFileAttributes(0100644, 0, 0, 10, 0, 0, 5, 8L));
+        GlusterDirectoryStream firstStream = mock(GlusterDirectoryStream.class);
+        doReturn(slowEntries(first, second)).when(firstStream).entryIterator();
+        doReturn(42L).when(firstStream).tell();
+        GlusterDirectoryStream secondStream = mock(GlusterDirectoryStream.class);
+        doReturn(slowEntries(second)).when(secondStream).entryIterator();
+        PowerMockito.mockStatic(Files.class);
+        when(Files.newDirectoryStream(mockPath)).thenReturn(firstStream).thenReturn(secondStream);
+        key.checkCreated(second.getPath(), 0L);
+        key.checkCreated(mockPath, 0L);
+
+        assertFalse(key.update());
+
+        assertTrue(key.isScanning());
+        assertEquals(42L, key.getCursor());
+        assertEquals(1, key.getScanFiles().size());
+        assertTrue(key.getInodes().isEmpty());
+        verify(firstStream).close();
+
+        key.setScanSlice(0L);
+        assertTrue(key.update());
+
+        verify(secondStream).seek(42L);
+        assertFalse(key.isScanning());
+        assertEquals(0L, key.getCursor());
+        assertEquals(new HashSet<Long>(Arrays.asList(7L, 8L)), key.getInodes());
+        assertEquals(StandardWatchEventKinds.ENTRY_DELETE, key.getEvents().get(mockPath).kind());
+    }
+
+    private void directoryUnchangedHelper(boolean stale, long sinceFullScan, boolean listed) throws IOException {
+        long now = System.currentTimeMillis();
+        PowerMockito.mockStatic(Files.class);
+        when(Files.readAttributes(mockPath, PosixFileAttributes.class))
+                .thenReturn(new GlusterFileAttributes(0040755, 0, 0, 10, 0, 7, 5, 3L));
+        when(Files.newDirectoryStream(mockPath)).thenThrow(new IOException());
+        key.setDirModified(5);
+        key.setDirChanged(7);
+        key.setDirTimesSeen(now - 60000);
+        key.setLastFullScan(now - sinceFullScan);
+        key.setStale(stale);
+
+        assertFalse(key.update());
+
+        assertEquals(3L, key.getInode());
+        PowerMockito.verifyStatic(listed ? times(1) : never());
+        Files.newDirectoryStream(mockPath);
+    }
+
+    @Test
+    public void testUpdate_whenDirectoryUnchanged() throws IOException {
+        directoryUnchangedHelper(false, 1000, false);
+    }
+
+    @Test
+    public void testUpdate_whenDirectoryUnchangedButStale() throws IOException {
+        directoryUnchangedHelper(true, 1000, true);
+        assertFalse(key.isStale());
+    }
+
+    @Test
+    public void testUpdate_whenFullScanDue() throws IOException {
+        directoryUnchangedHelper(false, GlusterWatchService.FULL_SCAN_PERIOD, true);
+    }
+
+    @Test
+    public void testIsUnchanged() {
+        GlusterFileAttributes dir = new GlusterFileAttributes(0040755, 0, 0, 10, 0, 7, 5, 3L);
+        assertFalse(key.isUnchanged(dir, 10000L));
+        assertEquals(10000L, key.getDirTimesSeen());
+        key.setLastFullScan(10000L);
+        assertFalse(key.isUnchanged(dir, 10500L));
+        key.setLastFullScan(11000L);
+        assertTrue(key.isUnchanged(dir, 11500L));
+        assertFalse(key.isUnchanged(new GlusterFileAttributes(0040755, 0, 0, 10, 0, 8, 5, 3L), 11600L));
+    }
+
+    @Test
+    public void testProcessExistingFile_withAttributes() {
+        Set<Path> files = new HashSet<>();
+        Path file = mock(Path.class);
+        GlusterFileAttributes attributes = new GlusterFileAttributes(0100644, 0, 0, 10, 0, 0, 5, 1);
+
+        assertFalse(key.processExistingFile(files, file, attributes));
+
+        assertTrue(files.contains(file));
+        assertEquals(5000, key.getEvents().get(file).getLastModified());
+    }
+
+    @Test
+    public void testProcessExistingFile_withAttributes_whenDirectory() {
+        Set<Path> files = new HashSet<>();
+        Path dir = mock(Path.class);
+        GlusterFileAttributes attributes = new GlusterFileAttributes(0040755, 0, 0, 10, 0, 0, 5, 1);
+
+        assertFalse(key.processExistingFile(files, dir, attributes));
 
-        PowerMockito.verifyNew(LinkedList.class);
+        assertTrue(files.isEmpty());
+        assertTrue(key.getEvents().isEmpty());
     }
 
     @Test
@@ -169,7 +368,67 @@ public class GlusterWatchKeyTest {
 
     @Test
     public void testFindPendingEvents() {
+        GlusterFileSystem fileSystem = mock(GlusterFileSystem.class);
+        doReturn("/").when(fileSystem).getSeparator();
+        GlusterPath dir = new GlusterPath(fileSystem, "/dir");
+        GlusterWatchKey key = new GlusterWatchKey(dir, new WatchEvent.Kind[]{StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE});
+        key.setLastPolled(1000L);
+        key.checkCreated(dir.resolve("a"), 5000L);
+        key.checkModified(key.getEvents().get(dir.resolve("a")), 6000L);
+        key.checkCreated(dir.resolve("b"), 5000L);
+        key.checkDeleted(new HashSet<Path>(), dir.resolve("b"));
+
+        LinkedList<WatchEvent<?>> events = key.findPendingEvents();
+
+        assertEquals(1, events.size());
+        assertEquals(StandardWatchEventKinds.ENTRY_CREATE, events.get(0).kind());
+        assertEquals(new GlusterPath(fileSystem, "a"), events.get(0).context());
+        assertTrue(key.getLastPolled() >= 6000L);
+        assertTrue(key.findPendingEvents().isEmpty());
+    }
+
+    @Test
+    public void testFindPendingEvents_whenOverflowed() {
+        GlusterFileSystem fileSystem = mock(GlusterFileSystem.class);
+        doReturn("/").when(fileSystem).getSeparator();
+        GlusterPath dir = new GlusterPath(fileSystem, "/dir");
+        GlusterWatchKey key = new GlusterWatchKey(dir, new WatchEvent.Kind[]{StandardWatchEventKinds.ENTRY_CREATE});
+        key.getPending().setMaxEvents(2);
+        key.setLastPolled(1000L);
+        for (int i = 0; i < 5; i++) {
+            key.checkCreated(dir.resolve("file-" + i), 5000L);
+        }
 
+        LinkedList<WatchEvent<?>> events = key.findPendingEvents();
+
+        assertEquals(3, events.size());
+        assertEquals(new GlusterPath(fileSystem, "file-1"), events.get(1).context());
+        assertEquals(StandardWatchEventKinds.OVERFLOW, events.get(2).kind());
+        assertEquals(3, events.get(2).count());
+        assertNull(events.get(2).context());
+    }
+
+    @Test
+    public void testCheck_whenKindNotWatched() {
+        GlusterFileSystem fileSystem = mock(GlusterFileSystem.class);
+        doReturn("/").when(fileSystem).getSeparator();
+        GlusterPath dir = new GlusterPath(fileSystem, "/dir");
+        GlusterWatchKey key = new GlusterWatchKey(dir, new WatchEvent.Kind[]{StandardWatchEventKinds.ENTRY_CREATE});
+        key.getPending().setMaxEvents(1);
+        key.setLastPolled(1000L);
+        assertTrue(key.checkCreated(dir.resolve("a"), 5000L));
+        key.findPendingEvents();
+
+        assertFalse(key.checkModified(key.getEvents().get(dir.resolve("a")), 6000L));
+        assertFalse(key.checkDeleted(new HashSet<Path>(), dir.resolve("a")));
+        assertTrue(key.getPending().isEmpty());
+        assertEquals(StandardWatchEventKinds.ENTRY_DELETE, key.getEvents().get(dir.resolve("a")).kind());
+
+        assertTrue(key.checkCreated(dir.resolve("b"), 7000L));
+        LinkedList<WatchEvent<?>> events = key.findPendingEvents();
+        assertEquals(1, events.size());
+        assertEquals(StandardWatchEventKinds.ENTRY_CREATE, events.get(0).kind());
     }
 
     @Test
@@ -178,6 +437,53 @@ public class GlusterWatchKeyTest {
         Assert.assertFalse(key.reset());
     }
 
+    @Test
+    public void testToSnapshot() {
+        GlusterFileSystem fileSystem = mock(GlusterFileSystem.class);
+        doReturn("/").when(fileSystem).getSeparator();
+        GlusterPath dir = new GlusterPath(fileSystem, "/dir");
+        GlusterWatchKey key = new GlusterWatchKey(dir, mockKinds);
+        key.checkCreated(dir.resolve("a"), 5000L);
+        key.checkCreated(dir.resolve("b"), 6000L);
+        key.getEvents().get(dir.resolve("b")).setKind(StandardWatchEventKinds.ENTRY_DELETE);
+
+        GlusterTreeSnapshot snapshot = key.toSnapshot();
+
+        assertEquals(1, snapshot.getSize());
+        assertEquals("a", snapshot.name(0));
+        assertEquals(5000L, snapshot.mtime(0));
+    }
+
+    @Test
+    public void testRestore() {
+        GlusterFileSystem fileSystem = mock(GlusterFileSystem.class);
+        doReturn("/").when(fileSystem).getSeparator();
+        GlusterPath dir = new GlusterPath(fileSystem, "/dir");
+        GlusterWatchKey key = new GlusterWatchKey(dir, mockKinds);
+        GlusterTreeSnapshot snapshot = new GlusterTreeSnapshot();
+        snapshot.add("a", 5000L, 0);
+
+        key.restore(snapshot, 7000L);
+
+        assertEquals(7000L, key.getLastPolled());
+        assertTrue(key.isRestored());
+        GlusterWatchEvent event = key.getEvents().get(dir.resolve("a"));
+        assertEquals(5000L, event.getLastModified());
+        assertEquals(new GlusterPath(fileSystem, "a"), event.context());
+    }
+
+    @Test
+    public void testCheckCreated_whenRestored() {
+        GlusterPath path = mock(GlusterPath.class);
+        GlusterPath fileName = mock(GlusterPath.class);
+        doReturn(fileName).when(path).getFileName();
+        key.setLastPolled(7000L);
+        key.setRestored(true);
+
+        assertTrue(key.checkCreated(path, 1000L));
+        assertEquals(7001L, key.getEvents().get(path).getLastModified());
+    }
+
     @Test
     public void testReset_whenReady() {
         WatchEvent.Kind[] kinds = new WatchEvent.Kind[]{mock(WatchEvent.Kind.class)};
@@ -4,24 +4,31 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.IOException;
 import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.PathMatcher;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.powermock.api.mockito.PowerMockito.doReturn;
 import static org.powermock.api.mockito.PowerMockito.mock;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({GlusterWatchService.class, Thread.class})
+@PrepareForTest({GlusterWatchService.class})
 public class GlusterWatchServiceTest {
 
     GlusterWatchService watchService = PowerMockito.spy(new GlusterWatchService());
@@ -34,7 +41,7 @@ public class GlusterWatchServiceTest {
     }
 
     @Test
-    public void testRegisterPath() {
+    public void testRegisterPath() throws Exception {
         watchService.setRunning(true);
         GlusterPath mockPath = mock(GlusterPath.class);
         WatchEvent.Kind mockKind = mock(WatchEvent.Kind.class);
@@ -42,6 +49,11 @@ public class GlusterWatchServiceTest {
         GlusterWatchKey event = watchService.getPaths().iterator().next();
         assertEquals(mockPath, event.getPath());
         assertEquals(mockKind, event.getKinds()[0]);
+        Thread scanner = watchService.getScanner();
+        assertTrue(scanner.isDaemon());
+        watchService.close();
+        scanner.join(5000);
+        assertFalse(scanner.isAlive());
     }
 
     @Test
@@ -57,6 +69,122 @@ public class GlusterWatchServiceTest {
 
     }
 
+    @Test
+    public void testRegisterPath_withFilter() {
+        watchService.setRunning(true);
+        watchService.setScanner(new Thread());
+        GlusterPath mockPath = mock(GlusterPath.class);
+        PathMatcher first = mock(PathMatcher.class);
+        PathMatcher second = mock(PathMatcher.class);
+
+        GlusterWatchKey key = (GlusterWatchKey) watchService.registerPath(mockPath, first,
+                StandardWatchEventKinds.ENTRY_CREATE);
+        assertEquals(first, key.getFilter());
+
+        Assert.assertSame(key, watchService.registerPath(mockPath, second, StandardWatchEventKinds.ENTRY_CREATE));
+        assertEquals(second, key.getFilter());
+    }
+
+    @Test
+    public void testRegisterTree() throws Exception {
+        watchService.setRunning(true);
+        GlusterPath mockPath = mock(GlusterPath.class);
+        WatchKey key = watchService.registerTree(mockPath, StandardWatchEventKinds.ENTRY_CREATE);
+        assertTrue(key instanceof GlusterTreeWatchKey);
+        assertEquals(key, watchService.getPaths().iterator().next());
+        watchService.close();
+        watchService.getScanner().join(5000);
+    }
+
+    @Test
+    public void testRegisterTree_whenDirectoryWatched() {
+        watchService.setRunning(true);
+        watchService.setScanner(new Thread());
+        GlusterPath mockPath = mock(GlusterPath.class);
+        GlusterWatchKey directoryKey = new GlusterWatchKey(mockPath, new WatchEvent.Kind[]{StandardWatchEventKinds.ENTRY_MODIFY});
+        watchService.getPaths().add(directoryKey);
+
+        WatchKey treeKey = watchService.registerTree(mockPath, StandardWatchEventKinds.ENTRY_CREATE);
+
+        assertFalse(directoryKey.isValid());
+        assertEquals(1, watchService.getPaths().size());
+        assertTrue(watchService.getPaths().iterator().next() instanceof GlusterTreeWatchKey);
+        Assert.assertSame(treeKey, watchService.registerTree(mockPath, StandardWatchEventKinds.ENTRY_DELETE));
+        assertEquals(StandardWatchEventKinds.ENTRY_DELETE, ((GlusterWatchKey) treeKey).getKinds()[0]);
+    }
+
+    @Test
+    public void testRegisterPath_whenCheckpointed() throws Exception {
+        GlusterFileSystem mockFileSystem = mock(GlusterFileSystem.class);
+        GlusterWatchCheckpoints mockCheckpoints = mock(GlusterWatchCheckpoints.class);
+        doReturn(mockCheckpoints).when(mockFileSystem).getWatchCheckpoints();
+        GlusterWatchService service = new GlusterWatchService(mockFileSystem);
+        service.setScanner(new Thread());
+        GlusterPath mockPath = mock(GlusterPath.class);
+
+        GlusterWatchKey key = (GlusterWatchKey) service.registerPath(mockPath, StandardWatchEventKinds.ENTRY_CREATE);
+        service.registerPath(mockPath, StandardWatchEventKinds.ENTRY_DELETE);
+
+        Mockito.verify(mockCheckpoints, Mockito.times(1)).restore(key);
+    }
+
+    @Test
+    public void testRegisterPath_withEventLimits() {
+        GlusterFileSystem mockFileSystem = mock(GlusterFileSystem.class);
+        doReturn(100).when(mockFileSystem).getWatchMaxEvents();
+        doReturn(false).when(mockFileSystem).isWatchCoalesceEvents();
+        GlusterWatchService service = new GlusterWatchService(mockFileSystem);
+        service.setScanner(new Thread());
+
+        GlusterWatchKey key = (GlusterWatchKey) service.registerPath(mock(GlusterPath.class),
+                StandardWatchEventKinds.ENTRY_CREATE);
+
+        assertEquals(100, key.getPending().getMaxEvents());
+        assertFalse(key.getPending().isCoalesce());
+    }
+
+    @Test
+    public void testCheckpoint() {
+        GlusterFileSystem mockFileSystem = mock(GlusterFileSystem.class);
+        GlusterWatchCheckpoints mockCheckpoints = mock(GlusterWatchCheckpoints.class);
+        doReturn(mockCheckpoints).when(mockFileSystem).getWatchCheckpoints();
+        GlusterWatchService service = new GlusterWatchService(mockFileSystem);
+        GlusterWatchKey key = new GlusterWatchKey(mock(GlusterPath.class), new WatchEvent.Kind[0]);
+
+        service.checkpoint(key);
+        Mockito.verify(mockCheckpoints, Mockito.never()).save(key);
+
+        key.setLastScanned(1L);
+        key.setDelivered(false);
+        service.checkpoint(key);
+        Mockito.verify(mockCheckpoints, Mockito.never()).save(key);
+
+        key.setDelivered(true);
+        doReturn(false).when(mockCheckpoints).save(key);
+        service.checkpoint(key);
+        assertTrue(key.isCheckpointDue());
+
+        doReturn(true).when(mockCheckpoints).save(key);
+        service.checkpoint(key);
+        assertFalse(key.isCheckpointDue());
+        service.checkpoint(key);
+        Mockito.verify(mockCheckpoints, Mockito.times(2)).save(key);
+    }
+
+    @Test
+    public void testScan_whenChanged() {
+        GlusterFileSystem mockFileSystem = mock(GlusterFileSystem.class);
+        GlusterWatchService service = new GlusterWatchService(mockFileSystem);
+        GlusterWatchKey mockKey = mock(GlusterWatchKey.class);
+        doReturn(new HashSet<Long>()).when(mockKey).getInodes();
+        doReturn(true).when(mockKey).update();
+
+        assertTrue(service.scan(mockKey));
+
+        Mockito.verify(mockKey).setDelivered(false);
+        Mockito.verify(mockKey).setCheckpointDue(true);
+    }
+
     @Test
     public void testClose_whenNotRunning() throws IOException {
         watchService.setRunning(false);
@@ -77,20 +205,22 @@ public class GlusterWatchServiceTest {
     }
 
     @Test
-    public void testPopPending_whenNonePending() {
-        WatchKey key = watchService.popPending();
-        assertEquals(null, key);
-        assertEquals(0, watchService.getPendingPaths().size());
+    public void testClose_wakesTakers() throws Exception {
+        watchService.setRunning(true);
+        watchService.close();
+        assertEquals(GlusterWatchService.CLOSED, watchService.getPendingPaths().peek());
+        try {
+            watchService.getPendingPaths().take();
+            watchService.popPending(GlusterWatchService.CLOSED);
+            Assert.fail();
+        } catch (ClosedWatchServiceException e) {
+            assertEquals(GlusterWatchService.CLOSED, watchService.getPendingPaths().peek());
+        }
     }
 
     @Test
-    public void testPopPending() {
-        GlusterPath mockPath = mock(GlusterPath.class);
-        GlusterWatchKey keyFix = new GlusterWatchKey(mockPath, new WatchEvent.Kind[]{StandardWatchEventKinds.ENTRY_CREATE});
-        watchService.getPendingPaths().add(keyFix);
-        WatchKey key = watchService.popPending();
-        assertEquals(keyFix, key);
-        assertEquals(0, watchService.getPendingPaths().size());
+    public void testPopPending_whenNonePending() {
+        assertNull(watchService.popPending(null));
     }
 
     @Test(expected = ClosedWatchServiceException.class)
@@ -106,119 +236,428 @@ public class GlusterWatchServiceTest {
         watchService.getPendingPaths().add(mockKey);
         WatchKey key = watchService.poll();
         assertEquals(mockKey, key);
+        assertEquals(0, watchService.getPendingPaths().size());
+        assertNull(watchService.poll());
     }
 
     @Test
-    public void testPoll_whenReadyAndEvent() {
-        watchService.setRunning(true);
+    public void testScanAll_whenReadyAndEvent() {
         GlusterWatchKey mockKey = mock(GlusterWatchKey.class);
         watchService.getPaths().add(mockKey);
-        doReturn(null).doReturn(mockKey).when(watchService).popPending();
         doReturn(true).when(mockKey).isValid();
         doReturn(true).when(mockKey).isReady();
         doReturn(true).when(mockKey).update();
 
-        WatchKey key = watchService.poll();
-
-        assertEquals(mockKey, key);
+        watchService.scanAll();
 
+        assertEquals(mockKey, watchService.getPendingPaths().peek());
+        assertTrue(watchService.getQueued().contains(mockKey));
         Mockito.verify(mockKey).isValid();
         Mockito.verify(mockKey).isReady();
         Mockito.verify(mockKey).update();
     }
 
     @Test
-    public void testPoll_whenReadyAndNoEvent() {
-        watchService.setRunning(true);
+    public void testScanAll_whenReadyAndNoEvent() {
         GlusterWatchKey mockKey = mock(GlusterWatchKey.class);
         watchService.getPaths().add(mockKey);
         doReturn(true).when(mockKey).isValid();
         doReturn(true).when(mockKey).isReady();
         doReturn(false).when(mockKey).update();
 
-        WatchKey key = watchService.poll();
-
-        assertEquals(null, key);
+        watchService.scanAll();
 
-        Mockito.verify(mockKey).isValid();
-        Mockito.verify(mockKey).isReady();
+        assertTrue(watchService.getPendingPaths().isEmpty());
         Mockito.verify(mockKey).update();
     }
 
+    @Test
+    public void testScanAll_whenAlreadyQueued() {
+        GlusterWatchKey mockKey = mock(GlusterWatchKey.class);
+        watchService.getPaths().add(mockKey);
+        watchService.enqueue(mockKey);
+        doReturn(true).when(mockKey).isValid();
+        doReturn(true).when(mockKey).isReady();
+
+        watchService.scanAll();
+
+        assertEquals(1, watchService.getPendingPaths().size());
+        Mockito.verify(mockKey, Mockito.never()).update();
+        assertEquals(mockKey, watchService.poll());
+        assertTrue(watchService.getQueued().isEmpty());
+    }
+
     @Test(expected = ClosedWatchServiceException.class)
-    public void testPollTimeout_whenClosed() {
-        long timeout = 150L;
-        TimeUnit unit = TimeUnit.MILLISECONDS;
-        doReturn(timeout).when(watchService).timeoutToMillis(timeout, unit);
+    public void testPollTimeout_whenClosed() throws InterruptedException {
         watchService.setRunning(false);
-        watchService.poll(timeout, unit);
+        watchService.poll(150L, TimeUnit.MILLISECONDS);
     }
 
     @Test
     public void testPollTimeout() throws InterruptedException {
-        long timeout = 150L;
-        TimeUnit unit = TimeUnit.MILLISECONDS;
-//        doReturn(timeout).when(watchService).timeoutToMillis(timeout, unit);
+        assertNull(watchService.poll(500L, TimeUnit.MICROSECONDS));
+        GlusterWatchKey mockKey = mock(GlusterWatchKey.class);
+        watchService.getPendingPaths().add(mockKey);
+        assertEquals(mockKey, watchService.poll(1L, TimeUnit.DAYS));
+    }
+
+    @Test(expected = ClosedWatchServiceException.class)
+    public void testTake_whenClosed() throws InterruptedException {
+        watchService.setRunning(false);
+        watchService.take();
+    }
 
-        WatchKey mockKey = mock(WatchKey.class);
-        PowerMockito.when(watchService.poll()).thenReturn(null).thenReturn(mockKey);
+    @Test
+    public void testTake() throws Exception {
+        final GlusterWatchKey mockKey = mock(GlusterWatchKey.class);
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                watchService.getPendingPaths().offer(mockKey);
+            }
+        };
+        producer.start();
+
+        assertEquals(mockKey, watchService.take());
+        producer.join();
+    }
 
-        PowerMockito.spy(Thread.class);
-        PowerMockito.doThrow(new InterruptedException()).when(Thread.class);
-        Thread.sleep(GlusterWatchService.PERIOD);
+    @Test(expected = InterruptedException.class)
+    public void testTake_whenInterrupted() throws Exception {
+        Thread.currentThread().interrupt();
+        watchService.take();
+    }
 
-        WatchKey key = watchService.poll(timeout, unit);
+    @Test
+    public void testTake_whenClosedWhileWaiting() throws Exception {
+        final GlusterWatchService service = new GlusterWatchService();
+        final ClosedWatchServiceException[] thrown = new ClosedWatchServiceException[1];
+        Thread taker = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    service.take();
+                } catch (ClosedWatchServiceException e) {
+                    thrown[0] = e;
+                } catch (InterruptedException e) {
+                    // fails below
+                }
+            }
+        };
+        taker.start();
+        Thread.sleep(50);
+
+        service.close();
+        taker.join(5000);
+
+        assertFalse(taker.isAlive());
+        Assert.assertNotNull(thrown[0]);
+    }
 
-        assertEquals(mockKey, key);
+    @Test
+    public void testScanner_queuesKeyWithEvents() throws Exception {
+        final GlusterWatchService service = new GlusterWatchService();
+        GlusterWatchKey mockKey = mock(GlusterWatchKey.class);
+        doReturn(true).when(mockKey).isValid();
+        doReturn(true).when(mockKey).isReady();
+        doReturn(true).when(mockKey).update();
+        service.getPaths().add(mockKey);
 
-        Mockito.verify(watchService, Mockito.times(2)).poll();
-//        Mockito.verify(watchService).timeoutToMillis(timeout, unit);
+        service.startScanner();
 
-        PowerMockito.verifyStatic(Mockito.times(1));
-        Thread.sleep(GlusterWatchService.PERIOD);
+        assertEquals(mockKey, service.poll(5, TimeUnit.SECONDS));
+        assertTrue(service.getScanner().isDaemon());
+        service.close();
+        service.getScanner().join(5000);
+        assertFalse(service.getScanner().isAlive());
     }
 
-    @Test(expected = ClosedWatchServiceException.class)
-    public void testTake_whenClosed() {
-        watchService.setRunning(false);
-        watchService.take();
+    private GlusterWatchService eventDrivenService(GlusterUpcallDispatcher dispatcher) {
+        GlusterFileSystem fileSystem = mock(GlusterFileSystem.class);
+        doReturn(dispatcher).when(fileSystem).getUpcallDispatcher();
+        doReturn(true).when(dispatcher).isRunning();
+        return new GlusterWatchService(fileSystem);
+    }
+
+    private GlusterWatchKey readyKey(boolean signalled, long lastScanned) {
+        GlusterWatchKey key = mock(GlusterWatchKey.class);
+        doReturn(true).when(key).isValid();
+        doReturn(true).when(key).isReady();
+        doReturn(signalled).when(key).isSignalled();
+        doReturn(lastScanned).when(key).getLastScanned();
+        doReturn(new HashSet<Long>()).when(key).getInodes();
+        return key;
     }
 
     @Test
-    public void testTake() throws Exception {
-        WatchKey mockKey = mock(WatchKey.class);
-        doReturn(null).doReturn(mockKey).when(watchService).poll();
+    public void testPoll_whenEventDriven() {
+        GlusterUpcallDispatcher dispatcher = mock(GlusterUpcallDispatcher.class);
+        GlusterWatchService service = eventDrivenService(dispatcher);
+        Mockito.verify(dispatcher).addListener(service.getListener());
+        GlusterWatchKey signalled = readyKey(true, System.currentTimeMillis());
+        GlusterWatchKey quiet = readyKey(false, System.currentTimeMillis());
+        GlusterWatchKey stale = readyKey(false, 0L);
+        service.getPaths().add(signalled);
+        service.getPaths().add(quiet);
+        service.getPaths().add(stale);
+
+        service.scanAll();
+
+        Mockito.verify(signalled).update();
+        Mockito.verify(quiet, Mockito.never()).update();
+        Mockito.verify(stale).update();
+    }
 
-        PowerMockito.spy(Thread.class);
-        PowerMockito.doThrow(new InterruptedException()).when(Thread.class);
-        Thread.sleep(GlusterWatchService.PERIOD);
+    @Test
+    public void testPoll_whenUpcallsFailing() {
+        GlusterUpcallDispatcher dispatcher = mock(GlusterUpcallDispatcher.class);
+        GlusterWatchService service = eventDrivenService(dispatcher);
+        doReturn(true).when(dispatcher).isFailing();
+        GlusterWatchKey quiet = readyKey(false, System.currentTimeMillis());
+        service.getPaths().add(quiet);
 
-        WatchKey key = watchService.take();
+        service.scanAll();
 
-        assertEquals(mockKey, key);
+        Mockito.verify(quiet).update();
+    }
+
+    @Test
+    public void testUpcall_signalsKeyOfInode() {
+        GlusterUpcallDispatcher dispatcher = mock(GlusterUpcallDispatcher.class);
+        GlusterWatchService service = eventDrivenService(dispatcher);
+        final GlusterWatchKey key = PowerMockito.spy(new GlusterWatchKey(mock(GlusterPath.class), new WatchEvent.Kind[0]));
+        key.setInodes(new HashSet<Long>(Arrays.asList(12L)));
+        service.index(12L, key);
+        Mockito.doAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                key.setInodes(new HashSet<Long>(Arrays.asList(10L, 11L)));
+                key.setSignalled(false);
+                return false;
+            }
+        }).when(key).update();
+        service.scan(key);
+
+        service.getListener().upcall(0x200, 20L, 10L, 0L);
+
+        assertTrue(key.isSignalled());
+        assertEquals(1, service.getWakeups().availablePermits());
+        assertTrue(service.getInodes().get(11L).contains(key));
+        assertFalse(service.getInodes().containsKey(12L));
+    }
+
+    @Test
+    public void testSignal_whenInodeInSeveralKeys() {
+        GlusterWatchKey directoryKey = new GlusterWatchKey(mock(GlusterPath.class), new WatchEvent.Kind[0]);
+        GlusterWatchKey treeKey = new GlusterTreeWatchKey(mock(GlusterPath.class), new WatchEvent.Kind[0]);
+        directoryKey.setSignalled(false);
+        treeKey.setSignalled(false);
+        watchService.index(10L, directoryKey);
+        watchService.index(10L, treeKey);
+
+        assertTrue(watchService.signal(10L));
+
+        assertTrue(directoryKey.isSignalled());
+        assertTrue(treeKey.isSignalled());
+    }
+
+    @Test
+    public void testScanAll_forgetsCancelledKey() {
+        GlusterWatchKey key = readyKey(false, 0L);
+        doReturn(false).when(key).isValid();
+        doReturn(new HashSet<Long>(Arrays.asList(10L))).when(key).getInodes();
+        GlusterWatchKey other = readyKey(false, System.currentTimeMillis());
+        watchService.getPaths().add(key);
+        watchService.index(10L, key);
+        watchService.index(10L, other);
+
+        watchService.scanAll();
+
+        assertFalse(watchService.getPaths().contains(key));
+        assertFalse(watchService.getInodes().get(10L).contains(key));
+        assertTrue(watchService.getInodes().get(10L).contains(other));
+        watchService.unindex(10L, other);
+        assertFalse(watchService.getInodes().containsKey(10L));
+    }
+
+    @Test
+    public void testScan_whenCancelledMeanwhile() {
+        GlusterWatchService service = eventDrivenService(mock(GlusterUpcallDispatcher.class));
+        final GlusterWatchKey key = PowerMockito.spy(new GlusterWatchKey(mock(GlusterPath.class), new WatchEvent.Kind[0]));
+        Mockito.doAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                key.setInodes(new HashSet<Long>(Arrays.asList(10L)));
+                key.cancel();
+                return false;
+            }
+        }).when(key).update();
+
+        service.scan(key);
+
+        assertFalse(service.getInodes().containsKey(10L));
+    }
+
+    @Test
+    public void testSignal_whenFileInode() {
+        GlusterWatchKey key = new GlusterWatchKey(mock(GlusterPath.class), new WatchEvent.Kind[0]);
+        key.setInode(10L);
+        key.setSignalled(false);
+        watchService.index(10L, key);
+        watchService.index(11L, key);
+
+        assertTrue(watchService.signal(10L));
+        assertTrue(key.isSignalled());
+        assertFalse(key.isStale());
+        assertTrue(watchService.signal(11L));
+        assertTrue(key.isStale());
+        assertFalse(watchService.signal(12L));
+    }
+
+    @Test
+    public void testClose_removesListener() throws IOException {
+        GlusterUpcallDispatcher dispatcher = mock(GlusterUpcallDispatcher.class);
+        GlusterWatchService service = eventDrivenService(dispatcher);
+        service.close();
+        Mockito.verify(dispatcher).removeListener(service.getListener());
+    }
+
+    @Test
+    public void testNeedsScan_whenPolling() {
+        GlusterWatchKey key = new GlusterWatchKey(mock(GlusterPath.class), new WatchEvent.Kind[0]);
+        key.setNextScan(1000L);
+        assertFalse(watchService.needsScan(key, false, 999L));
+        assertTrue(watchService.needsScan(key, false, 1000L));
+    }
+
+    @Test
+    public void testReschedule() {
+        GlusterWatchKey key = new GlusterWatchKey(mock(GlusterPath.class), new WatchEvent.Kind[0]);
+        key.setMinInterval(50L);
+        key.setMaxInterval(300L);
+        key.setInterval(100L);
+
+        watchService.reschedule(key, false, 1000L);
+        assertEquals(200L, key.getInterval());
+        assertEquals(1200L, key.getNextScan());
+
+        watchService.reschedule(key, false, 2000L);
+        assertEquals(300L, key.getInterval());
+
+        watchService.reschedule(key, true, 3000L);
+        assertEquals(50L, key.getInterval());
+        assertEquals(3050L, key.getNextScan());
+    }
+
+    @Test
+    public void testScanAll_backsOffQuietKeys() {
+        GlusterWatchKey key = PowerMockito.spy(new GlusterWatchKey(mock(GlusterPath.class), new WatchEvent.Kind[0]));
+        doReturn(false).when(key).update();
+        watchService.getPaths().add(key);
+        long interval = key.getInterval();
+
+        long wait = watchService.scanAll();
+
+        assertEquals(2 * interval, key.getInterval());
+        assertTrue(wait > 0);
+        assertTrue(wait <= GlusterWatchService.PERIOD);
+        watchService.scanAll();
+        Mockito.verify(key, Mockito.times(1)).update();
+    }
+
+    @Test
+    public void testScanAll_whenOverBudget() {
+        int budget = GlusterWatchService.SCAN_BUDGET;
+        GlusterWatchService.SCAN_BUDGET = 2;
+        try {
+            GlusterWatchKey late = readyKey(false, 0L);
+            doReturn(300L).when(late).getNextScan();
+            GlusterWatchKey overdue = readyKey(false, 0L);
+            doReturn(100L).when(overdue).getNextScan();
+            GlusterWatchKey signalled = readyKey(true, 0L);
+            doReturn(500L).when(signalled).getNextScan();
+            watchService.getPaths().add(late);
+            watchService.getPaths().add(overdue);
+            watchService.getPaths().add(signalled);
+
+            assertEquals(0L, watchService.scanAll());
+
+            Mockito.verify(signalled).update();
+            Mockito.verify(overdue).update();
+            Mockito.verify(late, Mockito.never()).update();
+        } finally {
+            GlusterWatchService.SCAN_BUDGET = budget;
+        }
+    }
+
+    @Test
+    public void testTimeUntilDue() {
+        GlusterWatchKey soon = readyKey(false, 0L);
+        doReturn(1030L).when(soon).getNextScan();
+        GlusterWatchKey notReady = readyKey(false, 0L);
+        doReturn(false).when(notReady).isReady();
+        watchService.getPaths().add(soon);
+        watchService.getPaths().add(notReady);
+
+        assertEquals(30L, watchService.timeUntilDue(false, 1000L));
+        assertEquals(0L, watchService.timeUntilDue(false, 2000L));
+        watchService.getPaths().remove(soon);
+        assertEquals(GlusterWatchService.PERIOD, watchService.timeUntilDue(false, 1000L));
+    }
+
+    @Test
+    public void testNeedsScan_whenScanning() {
+        GlusterWatchKey key = mock(GlusterWatchKey.class);
+        doReturn(true).when(key).isScanning();
+        doReturn(Long.MAX_VALUE).when(key).getNextScan();
+        assertTrue(watchService.needsScan(key, false, 0L));
+        assertTrue(watchService.needsScan(key, true, 0L));
+    }
+
+    @Test
+    public void testReschedule_whenScanning() {
+        GlusterWatchKey key = PowerMockito.spy(new GlusterWatchKey(mock(GlusterPath.class), new WatchEvent.Kind[0]));
+        doReturn(true).when(key).isScanning();
+        key.setInterval(400L);
 
-        Mockito.verify(watchService, Mockito.times(2)).poll();
-
-        PowerMockito.verifyStatic();
-        Thread.sleep(GlusterWatchService.PERIOD);
-    }
-
-    @Test
-    public void testTimeoutToMillis() {
-        long time = 12345L;
-        Assert.assertEquals(-1,
-                watchService.timeoutToMillis(time, TimeUnit.NANOSECONDS));
-        Assert.assertEquals(-1,
-                watchService.timeoutToMillis(time, TimeUnit.MICROSECONDS));
-        Assert.assertEquals(time,
-                watchService.timeoutToMillis(time, TimeUnit.MILLISECONDS));
-        Assert.assertEquals(time * GlusterWatchService.MILLIS_PER_SECOND,
-                watchService.timeoutToMillis(time, TimeUnit.SECONDS));
-        Assert.assertEquals(time * GlusterWatchService.MILLIS_PER_MINUTE,
-                watchService.timeoutToMillis(time, TimeUnit.MINUTES));
-        Assert.assertEquals(time * GlusterWatchService.MILLIS_PER_HOUR,
-                watchService.timeoutToMillis(time, TimeUnit.HOURS));
-        Assert.assertEquals(time * GlusterWatchService.MILLIS_PER_DAY,
-                watchService.timeoutToMillis(time, TimeUnit.DAYS));
+        watchService.reschedule(key, false, 1000L);
+
+        assertEquals(400L, key.getInterval());
+        assertEquals(1000L, key.getNextScan());
+    }
+
+    @Test
+    public void testScanAll_whenAlreadyScanning() {
+        GlusterWatchKey key = readyKey(false, 0L);
+        watchService.getPaths().add(key);
+        watchService.getScanning().add(key);
+
+        watchService.scanAll();
+
+        Mockito.verify(key, Mockito.never()).update();
+    }
+
+    @Test
+    public void testStartScanner_whenWorkers() throws Exception {
+        GlusterFileSystem mockFileSystem = mock(GlusterFileSystem.class);
+        doReturn(2).when(mockFileSystem).getWatchScanThreads();
+        GlusterWatchService service = new GlusterWatchService(mockFileSystem);
+        GlusterWatchKey key = readyKey(false, 0L);
+        doReturn(true).when(key).update();
+        service.getPaths().add(key);
+
+        service.startScanner();
+
+        assertEquals(key, service.poll(5, TimeUnit.SECONDS));
+        assertTrue(service.getScanner().isDaemon());
+        service.close();
+        service.getScanner().join(5000);
+        assertTrue(service.getWorkers().awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(service.getScanning().isEmpty());
     }
 }
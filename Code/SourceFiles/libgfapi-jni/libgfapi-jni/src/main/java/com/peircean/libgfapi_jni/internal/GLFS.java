@@ -121,6 +121,145 @@ public class GLFS {
             int flags
     );
 
+    //    ssize_t glfs_write (glfs_fd_t *fd, const void *buf, size_t count, int flags);
+    //    buf is the native address of a direct ByteBuffer, already advanced to its position
+    @JniMethod(cast = "ssize_t")
+    public static final native long glfs_write(
+            @JniArg(cast = "glfs_fd_t *") long fd,
+            @JniArg(cast = "const void *") long buf,
+            @JniArg(cast = "size_t") long count,
+            int flags);
+
+    //    ssize_t glfs_read (glfs_fd_t *fd, void *buf, size_t count, int flags);
+    //    buf is the native address of a direct ByteBuffer, already advanced to its position
+    @JniMethod(cast = "ssize_t")
+    public static final native long glfs_read(
+            @JniArg(cast = "glfs_fd_t *") long fd,
+            @JniArg(cast = "void *") long buf,
+            @JniArg(cast = "size_t") long count,
+            int flags
+    );
+
+    //    ssize_t glfs_pread (glfs_fd_t *fd, void *buf, size_t count, off_t offset, int flags);
+    @JniMethod(cast = "ssize_t")
+    public static final native long glfs_pread(
+            @JniArg(cast = "glfs_fd_t *") long fd,
+            @JniArg(cast = "void *") long buf,
+            @JniArg(cast = "size_t") long count,
+            @JniArg(cast = "off_t") long offset,
+            int flags
+    );
+
+    //    ssize_t glfs_pwrite (glfs_fd_t *fd, const void *buf, size_t count, off_t offset, int flags);
+    @JniMethod(cast = "ssize_t")
+    public static final native long glfs_pwrite(
+            @JniArg(cast = "glfs_fd_t *") long fd,
+            @JniArg(cast = "const void *") long buf,
+            @JniArg(cast = "size_t") long count,
+            @JniArg(cast = "off_t") long offset,
+            int flags
+    );
+
+    //    ssize_t glfs_readv (glfs_fd_t *fd, const struct iovec *iov, int iovcnt, int flags);
+    //    iov holds iovcnt (address, length) pairs, which is the layout of struct iovec on LP64
+    @JniMethod(cast = "ssize_t")
+    public static final native long glfs_readv(
+            @JniArg(cast = "glfs_fd_t *") long fd,
+            @JniArg(cast = "const struct iovec *", flags = NO_OUT) long[] iov,
+            int iovcnt,
+            int flags
+    );
+
+    //    ssize_t glfs_writev (glfs_fd_t *fd, const struct iovec *iov, int iovcnt, int flags);
+    @JniMethod(cast = "ssize_t")
+    public static final native long glfs_writev(
+            @JniArg(cast = "glfs_fd_t *") long fd,
+            @JniArg(cast = "const struct iovec *", flags = NO_OUT) long[] iov,
+            int iovcnt,
+            int flags
+    );
+
+    //    ssize_t glfs_preadv (glfs_fd_t *fd, const struct iovec *iov, int iovcnt, off_t offset, int flags);
+    @JniMethod(cast = "ssize_t")
+    public static final native long glfs_preadv(
+            @JniArg(cast = "glfs_fd_t *") long fd,
+            @JniArg(cast = "const struct iovec *", flags = NO_OUT) long[] iov,
+            int iovcnt,
+            @JniArg(cast = "off_t") long offset,
+            int flags
+    );
+
+    //    ssize_t glfs_pwritev (glfs_fd_t *fd, const struct iovec *iov, int iovcnt, off_t offset, int flags);
+    @JniMethod(cast = "ssize_t")
+    public static final native long glfs_pwritev(
+            @JniArg(cast = "glfs_fd_t *") long fd,
+            @JniArg(cast = "const struct iovec *", flags = NO_OUT) long[] iov,
+            int iovcnt,
+            @JniArg(cast = "off_t") long offset,
+            int flags
+    );
+
+    //    completion queue that the async callbacks report to, see glfsjni-async.h
+    @JniMethod(cast = "glfsjni_queue *")
+    public static final native long glfsjni_queue_new();
+
+    @JniMethod
+    public static final native void glfsjni_queue_free(
+            @JniArg(cast = "glfsjni_queue *") long queue);
+
+    //    blocks up to timeoutMillis, then fills completions with up to max (token, result or -errno) pairs
+    @JniMethod
+    public static final native int glfsjni_queue_take(
+            @JniArg(cast = "glfsjni_queue *") long queue,
+            @JniArg(cast = "jlong *", flags = NO_IN) long[] completions,
+            int max,
+            int timeoutMillis);
+
+    @JniMethod
+    public static final native void glfsjni_queue_wakeup(
+            @JniArg(cast = "glfsjni_queue *") long queue);
+
+    //    int glfs_pread_async (glfs_fd_t *fd, void *buf, size_t count, off_t offset, int flags, glfs_io_cbk fn, void *data);
+    //    completion is reported on queue under token
+    @JniMethod(accessor = "glfsjni_pread_async")
+    public static final native int glfs_pread_async(
+            @JniArg(cast = "glfs_fd_t *") long fd,
+            @JniArg(cast = "void *") long buf,
+            @JniArg(cast = "size_t") long count,
+            @JniArg(cast = "off_t") long offset,
+            int flags,
+            @JniArg(cast = "glfsjni_queue *") long queue,
+            long token
+    );
+
+    //    int glfs_pwrite_async (glfs_fd_t *fd, const void *buf, int count, off_t offset, int flags, glfs_io_cbk fn, void *data);
+    //    completion is reported on queue under token
+    @JniMethod(accessor = "glfsjni_pwrite_async")
+    public static final native int glfs_pwrite_async(
+            @JniArg(cast = "glfs_fd_t *") long fd,
+            @JniArg(cast = "const void *") long buf,
+            int count,
+            @JniArg(cast = "off_t") long offset,
+            int flags,
+            @JniArg(cast = "glfsjni_queue *") long queue,
+            long token
+    );
+
+    //    ssize_t glfs_copy_file_range (glfs_fd_t *glfd_in, off64_t *off_in, glfs_fd_t *glfd_out, off64_t *off_out,
+    //                                  size_t len, unsigned int flags, struct stat *statbuf,
+    //                                  struct glfs_stat *prestat, struct glfs_stat *poststat);
+    //    looked up at runtime, see glfsjni-copy.h.  returns COPY_UNSUPPORTED when the server can't do the copy
+    @JniMethod(cast = "ssize_t", accessor = "glfsjni_copy_file_range")
+    public static final native long glfs_copy_file_range(
+            @JniArg(cast = "glfs_fd_t *") long fdIn,
+            @JniArg(cast = "off_t") long offsetIn,
+            @JniArg(cast = "glfs_fd_t *") long fdOut,
+            @JniArg(cast = "off_t") long offsetOut,
+            @JniArg(cast = "size_t") long length
+    );
+
+    public static final long COPY_UNSUPPORTED = -2;
+
     @JniMethod(cast = "off_t")
     public static final native int glfs_lseek(
             @JniArg(cast = "glfs_fd_t *") long fd,
@@ -193,6 +332,24 @@ public class GLFS {
             @JniArg(cast = "struct dirent **") long result
     );
 
+    //    int glfs_readdirplus_r (glfs_fd_t *fd, struct stat *stat, struct dirent *ext, struct dirent **res);
+    @JniMethod
+    public static final native int glfs_readdirplus_r(
+            @JniArg(cast = "glfs_fd_t *") long fd,
+            @JniArg(flags = NO_IN) stat stat,
+            @JniArg(flags = NO_IN) dirent dirent,
+            @JniArg(cast = "struct dirent **") long result
+    );
+
+    //    packs whole entries into buf as (d_ino:8, d_type:1, namelen:2, name) records in native byte order, skipping
+    //    "." and "..".  returns the bytes used, 0 at the end of the directory or -1 on error, see glfsjni-dir.h
+    @JniMethod(accessor = "glfsjni_readdir_batch")
+    public static final native int glfs_readdir_batch(
+            @JniArg(cast = "glfs_fd_t *") long fd,
+            @JniArg(cast = "char *") long buf,
+            int size
+    );
+
     //    long glfs_telldir (glfs_fd_t *fd);
     public static final native long glfs_telldir(
             @JniArg(cast = "glfs_fd_t *") long fd
@@ -223,6 +380,87 @@ public class GLFS {
             @JniArg(cast = "const char *") String newpath
     );
 
+    //    takes one pending cache invalidation, filling event with {reason, flags, inode, parent inode, old parent inode};
+    //    returns 1 when one was taken, 0 when none is pending, or -errno; see glfsjni-upcall.h
+    @JniMethod
+    public static final native int glfsjni_poll_upcall(
+            @JniArg(cast = "glfs_t *") long fs,
+            @JniArg(cast = "jlong *", flags = NO_IN) long[] event
+    );
+
+    //    struct glfs_object *glfs_h_lookupat (struct glfs *fs, struct glfs_object *parent, const char *path,
+    //                                         struct stat *stat, int follow);
+    //    a parent of 0 resolves path from the root of the volume
+    @JniMethod(cast = "struct glfs_object *")
+    public static final native long glfs_h_lookupat(
+            @JniArg(cast = "glfs_t *") long fs,
+            @JniArg(cast = "struct glfs_object *") long parent,
+            @JniArg(cast = "const char *") String path,
+            @JniArg(flags = NO_IN) stat stat,
+            int follow
+    );
+
+    //    int glfs_h_stat (struct glfs *fs, struct glfs_object *object, struct stat *stat);
+    @JniMethod
+    public static final native int glfs_h_stat(
+            @JniArg(cast = "glfs_t *") long fs,
+            @JniArg(cast = "struct glfs_object *") long object,
+            @JniArg(flags = NO_IN) stat stat
+    );
+
+    //    struct glfs_fd *glfs_h_open (struct glfs *fs, struct glfs_object *object, int flags);
+    @JniMethod(cast = "glfs_fd_t *")
+    public static final native long glfs_h_open(
+            @JniArg(cast = "glfs_t *") long fs,
+            @JniArg(cast = "struct glfs_object *") long object,
+            int flags
+    );
+
+    //    struct glfs_object *glfs_h_creat (struct glfs *fs, struct glfs_object *parent, const char *path, int flags,
+    //                                      mode_t mode, struct stat *sb);
+    @JniMethod(cast = "struct glfs_object *")
+    public static final native long glfs_h_creat(
+            @JniArg(cast = "glfs_t *") long fs,
+            @JniArg(cast = "struct glfs_object *") long parent,
+            @JniArg(cast = "const char *") String path,
+            int flags,
+            @JniArg(cast = "mode_t") int mode,
+            @JniArg(flags = NO_IN) stat stat
+    );
+
+    //    int glfs_h_close (struct glfs_object *object);
+    @JniMethod
+    public static final native int glfs_h_close(
+            @JniArg(cast = "struct glfs_object *") long object
+    );
+
+    //    the glfsjni_ namespace calls below return 0, or -errno on failure; see glfsjni-errno.h
+    @JniMethod
+    public static final native int glfsjni_mkdir(
+            @JniArg(cast = "glfs_t *") long fs,
+            @JniArg(cast = "const char *") String path,
+            int mode
+    );
+
+    @JniMethod
+    public static final native int glfsjni_rmdir(
+            @JniArg(cast = "glfs_t *") long fs,
+            @JniArg(cast = "const char *") String path
+    );
+
+    @JniMethod
+    public static final native int glfsjni_unlink(
+            @JniArg(cast = "glfs_t *") long fs,
+            @JniArg(cast = "const char *") String path
+    );
+
+    @JniMethod
+    public static final native int glfsjni_rename(
+            @JniArg(cast = "glfs_t *") long fs,
+            @JniArg(cast = "const char *") String oldpath,
+            @JniArg(cast = "const char *") String newpath
+    );
+
     //  int glfs_chmod (glfs_t *fs, const char *path, int mode);
     public static final native int glfs_chmod(
             @JniArg(cast = "glfs_t *") long fs,
@@ -6,6 +6,8 @@ import org.fusesource.hawtjni.runtime.JniClass;
 import org.fusesource.hawtjni.runtime.JniMethod;
 
 import static org.fusesource.hawtjni.runtime.MethodFlag.CONSTANT_GETTER;
+import static org.fusesource.hawtjni.runtime.MethodFlag.JNI;
+import static org.fusesource.hawtjni.runtime.MethodFlag.POINTER_RETURN;
 
 @JniClass
 public class UtilJNI {
@@ -14,6 +16,17 @@ public class UtilJNI {
         GLFS.LIBRARY.load();
     }
 
+    /**
+     * Linux errno values, as reported by gfapi calls through {@link #errno()}
+     */
+    public static final int EPERM = 1;
+    public static final int ENOENT = 2;
+    public static final int EACCES = 13;
+    public static final int EEXIST = 17;
+    public static final int ENOTDIR = 20;
+    public static final int EISDIR = 21;
+    public static final int ENOTEMPTY = 39;
+
     @JniMethod(flags = {CONSTANT_GETTER})
     public static final native int errno();
 
@@ -29,6 +42,13 @@ public class UtilJNI {
             @JniArg(cast = "const void *", flags = {ArgFlag.NO_OUT, ArgFlag.CRITICAL}) long src,
             @JniArg(cast = "size_t") long size);
 
+    /**
+     * @return the native address of a direct buffer's storage (ignoring its position), or 0 for a heap buffer
+     */
+    @JniMethod(cast = "void *", flags = {JNI, POINTER_RETURN})
+    public static final native long GetDirectBufferAddress(
+            @JniArg(cast = "jobject") Object buf);
+
     public static String strerror() {
         return string(strerror_jni(errno()));
     }
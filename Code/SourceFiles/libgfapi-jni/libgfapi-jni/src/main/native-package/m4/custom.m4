@@ -47,7 +47,7 @@ AC_DEFUN([CUSTOM_M4_SETUP],
       CFLAGS="$CFLAGS -I${withval}/include"
       CXXFLAGS="$CXXFLAGS -I${withval}/include"
       AC_SUBST(CXXFLAGS)
-      LDFLAGS="$LDFLAGS -lgfapi -L${withval}/lib"
+      LDFLAGS="$LDFLAGS -lgfapi -lpthread -ldl -L${withval}/lib"
       AC_SUBST(LDFLAGS)
     ],[
     ]
@@ -58,5 +58,13 @@ AC_DEFUN([CUSTOM_M4_SETUP],
   dnl
   AC_CHECK_HEADER([glusterfs/api/glfs.h],,AC_MSG_ERROR([cannot find headers for glfs.h]))
   AC_CHECK_LIB([gfapi],[glfs_new],,AC_MSG_ERROR([cannot find the glfs library]))
+  AC_CHECK_LIB([gfapi],[glfs_upcall_get_reason],,AC_MSG_ERROR([libgfapi from gluster 3.7.16 or newer is required]))
+
+  dnl
+  dnl Gluster 6 added stats to the async io callback, along with struct glfs_stat.
+  dnl
+  AC_CHECK_TYPE([struct glfs_stat],
+    [AC_DEFINE([GLFSJNI_IO_CBK_HAS_STAT], [1], [Define if glfs_io_cbk takes pre- and post-operation stats])],,
+    [#include <glusterfs/api/glfs.h>])
   
 ])
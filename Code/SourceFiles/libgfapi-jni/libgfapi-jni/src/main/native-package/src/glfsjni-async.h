@@ -0,0 +1,191 @@
+/*
+    Copyright (c) 2013 Louis Zuckerman All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are
+    met:
+
+       * Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+       * Redistributions in binary form must reproduce the above
+    copyright notice, this list of conditions and the following disclaimer
+    in the documentation and/or other materials provided with the
+    distribution.
+       * Neither the names of the authors nor the names of
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+    "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+    LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+    A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+    OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+    SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+    LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+    DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+    THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+    (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+    OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+#ifndef GLFSJNI_ASYNC_H
+#define GLFSJNI_ASYNC_H
+
+#include <errno.h>
+#include <pthread.h>
+#include <stdlib.h>
+#include <sys/time.h>
+
+/*
+ * libgfapi calls async callbacks on its own event threads.  Rather than attaching those threads to the JVM, the
+ * callback appends (token, result) to a completion queue which a single java thread drains in batches with
+ * glfsjni_queue_take.  A negative result is -errno.
+ *
+ * Gluster 6 added pre- and post-operation stats to glfs_io_cbk.  configure defines GLFSJNI_IO_CBK_HAS_STAT when the
+ * installed glfs.h has struct glfs_stat, which came with that change, and the callback is declared to match.
+ */
+
+typedef struct glfsjni_request {
+    struct glfsjni_queue *queue;
+    jlong token;
+    jlong result;
+    struct glfsjni_request *next;
+} glfsjni_request;
+
+typedef struct glfsjni_queue {
+    pthread_mutex_t lock;
+    pthread_cond_t cond;
+    glfsjni_request *head;
+    glfsjni_request *tail;
+    int woken;
+} glfsjni_queue;
+
+static glfsjni_queue *glfsjni_queue_new(void) {
+    glfsjni_queue *queue = calloc(1, sizeof(glfsjni_queue));
+    if (queue) {
+        pthread_mutex_init(&queue->lock, NULL);
+        pthread_cond_init(&queue->cond, NULL);
+    }
+    return queue;
+}
+
+static void glfsjni_queue_free(glfsjni_queue *queue) {
+    glfsjni_request *request;
+    while ((request = queue->head)) {
+        queue->head = request->next;
+        free(request);
+    }
+    pthread_cond_destroy(&queue->cond);
+    pthread_mutex_destroy(&queue->lock);
+    free(queue);
+}
+
+static void glfsjni_io_complete(glfsjni_request *request, ssize_t ret) {
+    glfsjni_queue *queue = request->queue;
+    request->result = ret < 0 ? -errno : ret;
+    request->next = NULL;
+    pthread_mutex_lock(&queue->lock);
+    if (queue->tail) {
+        queue->tail->next = request;
+    } else {
+        queue->head = request;
+    }
+    queue->tail = request;
+    pthread_cond_signal(&queue->cond);
+    pthread_mutex_unlock(&queue->lock);
+}
+
+#ifdef GLFSJNI_IO_CBK_HAS_STAT
+static void glfsjni_io_cbk(glfs_fd_t *fd, ssize_t ret, struct glfs_stat *prestat, struct glfs_stat *poststat,
+                           void *data) {
+    glfsjni_io_complete(data, ret);
+}
+#else
+static void glfsjni_io_cbk(glfs_fd_t *fd, ssize_t ret, void *data) {
+    glfsjni_io_complete(data, ret);
+}
+#endif
+
+static glfsjni_request *glfsjni_request_new(glfsjni_queue *queue, jlong token) {
+    glfsjni_request *request = calloc(1, sizeof(glfsjni_request));
+    if (request) {
+        request->queue = queue;
+        request->token = token;
+    } else {
+        errno = ENOMEM;
+    }
+    return request;
+}
+
+static int glfsjni_pread_async(glfs_fd_t *fd, void *buf, size_t count, off_t offset, int flags,
+                               glfsjni_queue *queue, jlong token) {
+    int ret;
+    glfsjni_request *request = glfsjni_request_new(queue, token);
+    if (!request) {
+        return -1;
+    }
+    ret = glfs_pread_async(fd, buf, count, offset, flags, glfsjni_io_cbk, request);
+    if (ret < 0) {
+        free(request);
+    }
+    return ret;
+}
+
+static int glfsjni_pwrite_async(glfs_fd_t *fd, const void *buf, int count, off_t offset, int flags,
+                                glfsjni_queue *queue, jlong token) {
+    int ret;
+    glfsjni_request *request = glfsjni_request_new(queue, token);
+    if (!request) {
+        return -1;
+    }
+    ret = glfs_pwrite_async(fd, buf, count, offset, flags, glfsjni_io_cbk, request);
+    if (ret < 0) {
+        free(request);
+    }
+    return ret;
+}
+
+/* waits up to timeout_millis for completions, then copies up to max (token, result) pairs out */
+static int glfsjni_queue_take(glfsjni_queue *queue, jlong *completions, int max, int timeout_millis) {
+    struct timeval now;
+    struct timespec deadline;
+    int count = 0;
+
+    gettimeofday(&now, NULL);
+    deadline.tv_sec = now.tv_sec + timeout_millis / 1000;
+    deadline.tv_nsec = now.tv_usec * 1000L + (timeout_millis % 1000) * 1000000L;
+    if (deadline.tv_nsec >= 1000000000L) {
+        deadline.tv_sec++;
+        deadline.tv_nsec -= 1000000000L;
+    }
+
+    pthread_mutex_lock(&queue->lock);
+    while (!queue->head && !queue->woken) {
+        if (ETIMEDOUT == pthread_cond_timedwait(&queue->cond, &queue->lock, &deadline)) {
+            break;
+        }
+    }
+    queue->woken = 0;
+    while (queue->head && count < max) {
+        glfsjni_request *request = queue->head;
+        queue->head = request->next;
+        if (!queue->head) {
+            queue->tail = NULL;
+        }
+        completions[2 * count] = request->token;
+        completions[2 * count + 1] = request->result;
+        free(request);
+        count++;
+    }
+    pthread_mutex_unlock(&queue->lock);
+    return count;
+}
+
+static void glfsjni_queue_wakeup(glfsjni_queue *queue) {
+    pthread_mutex_lock(&queue->lock);
+    queue->woken = 1;
+    pthread_cond_signal(&queue->cond);
+    pthread_mutex_unlock(&queue->lock);
+}
+
+#endif /* GLFSJNI_ASYNC_H */
@@ -0,0 +1,74 @@
+/*
+    Copyright (c) 2013 Louis Zuckerman All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are
+    met:
+
+       * Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+       * Redistributions in binary form must reproduce the above
+    copyright notice, this list of conditions and the following disclaimer
+    in the documentation and/or other materials provided with the
+    distribution.
+       * Neither the names of the authors nor the names of
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+    "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+    LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+    A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+    OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+    SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+    LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+    DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+    THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+    (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+    OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+#ifndef GLFSJNI_COPY_H
+#define GLFSJNI_COPY_H
+
+#include <dlfcn.h>
+#include <errno.h>
+#include <sys/stat.h>
+
+/* returned when the server can't copy for us and the caller should stream the data itself */
+#define GLFSJNI_COPY_UNSUPPORTED -2
+
+typedef ssize_t (*glfsjni_copy_file_range_fn)(glfs_fd_t *glfd_in, off_t *off_in, glfs_fd_t *glfd_out, off_t *off_out,
+                                              size_t len, unsigned int flags, struct stat *statbuf,
+                                              void *prestat, void *poststat);
+
+/*
+ * glfs_copy_file_range only exists in newer libgfapi, so it is looked up in the already loaded library instead of
+ * being linked against.  Offsets are passed by value; the caller keeps track of how far the copy has got.
+ */
+static ssize_t glfsjni_copy_file_range(glfs_fd_t *in, off_t off_in, glfs_fd_t *out, off_t off_out, size_t len) {
+    static glfsjni_copy_file_range_fn copy_file_range = NULL;
+    static int resolved = 0;
+    struct stat statbuf;
+    ssize_t ret;
+
+    if (!resolved) {
+        void *gfapi = dlopen("libgfapi.so.0", RTLD_LAZY | RTLD_NOLOAD);
+        if (gfapi) {
+            copy_file_range = (glfsjni_copy_file_range_fn) dlsym(gfapi, "glfs_copy_file_range");
+        }
+        resolved = 1;
+    }
+    if (!copy_file_range) {
+        errno = ENOSYS;
+        return GLFSJNI_COPY_UNSUPPORTED;
+    }
+    ret = copy_file_range(in, &off_in, out, &off_out, len, 0, &statbuf, NULL, NULL);
+    if (ret < 0 && (ENOSYS == errno || EOPNOTSUPP == errno || EXDEV == errno)) {
+        return GLFSJNI_COPY_UNSUPPORTED;
+    }
+    return ret;
+}
+
+#endif /* GLFSJNI_COPY_H */
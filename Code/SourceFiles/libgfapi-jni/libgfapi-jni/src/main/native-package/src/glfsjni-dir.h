@@ -0,0 +1,83 @@
+/*
+    Copyright (c) 2013 Louis Zuckerman All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are
+    met:
+
+       * Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+       * Redistributions in binary form must reproduce the above
+    copyright notice, this list of conditions and the following disclaimer
+    in the documentation and/or other materials provided with the
+    distribution.
+       * Neither the names of the authors nor the names of
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+    "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+    LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+    A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+    OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+    SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+    LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+    DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+    THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+    (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+    OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+#ifndef GLFSJNI_DIR_H
+#define GLFSJNI_DIR_H
+
+#include <errno.h>
+#include <string.h>
+
+/* each entry is packed as d_ino (8 bytes), d_type (1 byte), name length (2 bytes) and the unterminated name */
+#define GLFSJNI_DIRENT_HEADER 11
+
+/*
+ * Reads as many whole entries as fit in buf, skipping "." and "..".  An entry that doesn't fit is left for the next
+ * call by seeking back to it.  Returns the number of bytes used, 0 at the end of the directory or -1 on error.
+ */
+static int glfsjni_readdir_batch(glfs_fd_t *fd, char *buf, int size) {
+    struct dirent entry;
+    struct dirent *result;
+    int used = 0;
+
+    for (;;) {
+        long pos = glfs_telldir(fd);
+        unsigned short namelen;
+        jlong ino;
+
+        if (0 != glfs_readdir_r(fd, &entry, &result)) {
+            return used > 0 ? used : -1;
+        }
+        if (!result) {
+            break;
+        }
+        if (!strcmp(entry.d_name, ".") || !strcmp(entry.d_name, "..")) {
+            continue;
+        }
+        namelen = (unsigned short) strlen(entry.d_name);
+        if (used + GLFSJNI_DIRENT_HEADER + namelen > size) {
+            glfs_seekdir(fd, pos);
+            if (0 == used) {
+                errno = EINVAL;
+                return -1;
+            }
+            break;
+        }
+        ino = entry.d_ino;
+        memcpy(buf + used, &ino, 8);
+        buf[used + 8] = (char) entry.d_type;
+        memcpy(buf + used + 9, &namelen, 2);
+        memcpy(buf + used + GLFSJNI_DIRENT_HEADER, entry.d_name, namelen);
+        used += GLFSJNI_DIRENT_HEADER + namelen;
+    }
+    return used;
+}
+
+#endif /* GLFSJNI_DIR_H */
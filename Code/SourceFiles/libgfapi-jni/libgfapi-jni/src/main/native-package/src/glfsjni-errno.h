@@ -0,0 +1,59 @@
+/*
+    Copyright (c) 2013 Louis Zuckerman All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are
+    met:
+
+       * Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+       * Redistributions in binary form must reproduce the above
+    copyright notice, this list of conditions and the following disclaimer
+    in the documentation and/or other materials provided with the
+    distribution.
+       * Neither the names of the authors nor the names of
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+    "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+    LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+    A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+    OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+    SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+    LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+    DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+    THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+    (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+    OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+#ifndef GLFSJNI_ERRNO_H
+#define GLFSJNI_ERRNO_H
+
+#include <errno.h>
+
+/*
+ * Namespace operations that return 0, or -errno on failure, so the caller learns why a call failed from the same
+ * JNI crossing instead of reading errno afterwards.
+ */
+#define GLFSJNI_ERRNO(ret) ((ret) < 0 ? -errno : (ret))
+
+static int glfsjni_mkdir(glfs_t *fs, const char *path, int mode) {
+    return GLFSJNI_ERRNO(glfs_mkdir(fs, path, mode));
+}
+
+static int glfsjni_rmdir(glfs_t *fs, const char *path) {
+    return GLFSJNI_ERRNO(glfs_rmdir(fs, path));
+}
+
+static int glfsjni_unlink(glfs_t *fs, const char *path) {
+    return GLFSJNI_ERRNO(glfs_unlink(fs, path));
+}
+
+static int glfsjni_rename(glfs_t *fs, const char *oldpath, const char *newpath) {
+    return GLFSJNI_ERRNO(glfs_rename(fs, oldpath, newpath));
+}
+
+#endif /* GLFSJNI_ERRNO_H */
@@ -0,0 +1,86 @@
+/*
+    Copyright (c) 2013 Louis Zuckerman All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are
+    met:
+
+       * Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+       * Redistributions in binary form must reproduce the above
+    copyright notice, this list of conditions and the following disclaimer
+    in the documentation and/or other materials provided with the
+    distribution.
+       * Neither the names of the authors nor the names of
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+    "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+    LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+    A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+    OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+    SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+    LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+    DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+    THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+    (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+    OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+#ifndef GLFSJNI_UPCALL_H
+#define GLFSJNI_UPCALL_H
+
+/*
+ * Cache invalidation notifications.  libgfapi queues an upcall whenever another client changes an inode this client
+ * has looked up, provided the volume has features.cache-invalidation on.  Upcalls identify inodes by gfid; they are
+ * handed to Java as the inode numbers glfs_stat reports for the same gfids, so that they can be matched against
+ * cached stat results without another round trip.
+ */
+#define GLFSJNI_UPCALL_SIZE 5
+
+/* the same folding of a gfid that gluster uses for st_ino */
+static jlong glfsjni_gfid_ino(struct glfs_object *object) {
+    unsigned char gfid[GFAPI_HANDLE_LENGTH];
+    jlong ino = 0;
+    int i;
+
+    if (NULL == object || glfs_h_extract_handle(object, gfid, GFAPI_HANDLE_LENGTH) < 0) {
+        return 0;
+    }
+    for (i = 8; i < 16; i++) {
+        ino = (ino << 8) | gfid[i];
+    }
+    return ino;
+}
+
+/*
+ * Takes one pending upcall, filling event with { reason, flags, inode, parent inode, old parent inode }; inodes
+ * that the upcall doesn't carry are 0.  Returns 1 when an upcall was taken, 0 when none is pending and -errno on
+ * failure.
+ */
+static int glfsjni_poll_upcall(glfs_t *fs, jlong *event) {
+    struct glfs_upcall *upcall = NULL;
+    struct glfs_upcall_inode *inode;
+
+    if (glfs_h_poll_upcall(fs, &upcall) < 0) {
+        return -errno;
+    }
+    if (NULL == upcall) {
+        return 0;
+    }
+    memset(event, 0, GLFSJNI_UPCALL_SIZE * sizeof(jlong));
+    event[0] = glfs_upcall_get_reason(upcall);
+    if (GLFS_UPCALL_INODE_INVALIDATE == event[0]) {
+        inode = glfs_upcall_get_event(upcall);
+        event[1] = glfs_upcall_inode_get_flags(inode);
+        event[2] = glfsjni_gfid_ino(glfs_upcall_inode_get_object(inode));
+        event[3] = glfsjni_gfid_ino(glfs_upcall_inode_get_pobject(inode));
+        event[4] = glfsjni_gfid_ino(glfs_upcall_inode_get_oldpobject(inode));
+    }
+    glfs_free(upcall);
+    return 1;
+}
+
+#endif /* GLFSJNI_UPCALL_H */
@@ -40,6 +40,14 @@
 #include "hawtjni.h"
 #include <string.h>
 #include <sys/errno.h>
+#include <sys/uio.h>
 #include <glusterfs/api/glfs.h>
+#include <glusterfs/api/glfs-handles.h>
+
+#include "glfsjni-async.h"
+#include "glfsjni-dir.h"
+#include "glfsjni-copy.h"
+#include "glfsjni-errno.h"
+#include "glfsjni-upcall.h"
 
 #endif /* LIBGFAPIJNI_H */
@@ -35,6 +35,7 @@ import com.peircean.libgfapi_jni.internal.structs.statvfs;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Properties;
 
 import static com.peircean.libgfapi_jni.internal.GLFS.*;
@@ -108,6 +109,13 @@ public class GLFSTest {
     }
 
     @Test(dependsOnMethods = "testMkdir")
+    public void testMkdir_existing() {
+        int ret = glfsjni_mkdir(vol, DIR_PATH, 0777);
+        System.out.println("CREATE EXISTING STATUS: " + ret);
+        assertEquals(-UtilJNI.EEXIST, ret);
+    }
+
+    @Test(dependsOnMethods = "testMkdir_existing")
     public void testOpen_nonExisting() {
         file = glfs_open(vol, FILE_PATH, 0);
         System.out.println("OPEN: " + file);
@@ -188,6 +196,47 @@ public class GLFSTest {
     }
 
     @Test(dependsOnMethods = "testRead")
+    public void testRead_direct() {
+        String helloWorld = HELLO_ + WORLD;
+        int length = helloWorld.length();
+        glfs_lseek(file, 0, 0);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length + 1);
+        buffer.position(1);
+        long address = UtilJNI.GetDirectBufferAddress(buffer);
+        long read = glfs_read(file, address + buffer.position(), buffer.remaining(), 0);
+
+        byte[] content = new byte[length];
+        buffer.get(content);
+        String readValue = new String(content);
+        System.out.println("READ DIRECT val: " + readValue);
+
+        assertTrue(0 != address);
+        assertEquals(length, read);
+        assertEquals(helloWorld, readValue);
+    }
+
+    @Test(dependsOnMethods = "testRead_direct")
+    public void testPwritePread() {
+        byte[] content = WORLD.getBytes();
+        long offset = HELLO_.length();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(content.length + 2);
+        buffer.put(content).flip();
+        long address = UtilJNI.GetDirectBufferAddress(buffer);
+        long write = glfs_pwrite(file, address, content.length, offset, 0);
+        System.out.println("PWRITE: " + write);
+        assertEquals(content.length, write);
+
+        buffer.clear();
+        long pread = glfs_pread(file, address + 1, content.length, offset, 0);
+        System.out.println("PREAD: " + pread);
+        assertEquals(content.length, pread);
+        byte[] read = new byte[content.length];
+        buffer.position(1);
+        buffer.get(read);
+        assertEquals(WORLD, new String(read));
+    }
+
+    @Test(dependsOnMethods = "testPwritePread")
     public void testStats() {
         int statR = GLFS.glfs_stat(vol, FILE_PATH, stat);
         stat lstat = new stat();
@@ -209,6 +258,47 @@ public class GLFSTest {
     }
 
     @Test(dependsOnMethods = "testStats")
+    public void testHandles() {
+        stat dirStat = new stat();
+        long dirObject = glfs_h_lookupat(vol, 0, DIR_PATH, dirStat, 1);
+        System.out.println("H_LOOKUPAT DIR: " + dirObject);
+        assertTrue(0 != dirObject);
+
+        stat fileStat = new stat();
+        long fileObject = glfs_h_lookupat(vol, dirObject, "bar", fileStat, 1);
+        System.out.println("H_LOOKUPAT FILE: " + fileObject);
+        assertTrue(0 != fileObject);
+        assertEquals(stat.st_ino, fileStat.st_ino);
+
+        stat handleStat = new stat();
+        assertEquals(0, glfs_h_stat(vol, fileObject, handleStat));
+        assertEquals(11, handleStat.st_size);
+
+        long fd = glfs_h_open(vol, fileObject, GlusterOpenOption.O_RDONLY);
+        System.out.println("H_OPEN: " + fd);
+        assertTrue(0 != fd);
+        assertEquals(0, glfs_close(fd));
+
+        long created = glfs_h_creat(vol, dirObject, "handle", GlusterOpenOption.O_RDWR, 0644, new stat());
+        System.out.println("H_CREAT: " + created);
+        assertTrue(0 != created);
+
+        assertEquals(0, glfs_h_close(created));
+        assertEquals(0, glfs_h_close(fileObject));
+        assertEquals(0, glfs_h_close(dirObject));
+        assertEquals(0, glfs_unlink(vol, DIR_PATH + "handle"));
+    }
+
+    @Test(dependsOnMethods = "testHandles")
+    public void testPollUpcall() {
+        long[] event = new long[5];
+        int ret = glfsjni_poll_upcall(vol, event);
+        System.out.println("POLL_UPCALL: " + ret);
+        // nothing else is changing the volume, and upcalls are only queued with features.cache-invalidation on
+        assertTrue(ret <= 0);
+    }
+
+    @Test(dependsOnMethods = "testPollUpcall")
     public void testChmod() {
         int ret = glfs_chmod(vol, FILE_PATH, 0664);
         stat newStat = new stat();
@@ -329,6 +419,19 @@ public class GLFSTest {
     }
 
     @Test(dependsOnMethods = "testSeekdir")
+    public void testReaddirplus() {
+        glfs_seekdir(dir, 0l);
+        dirent dirstruct = new dirent();
+        stat stat = new stat();
+        long next = dirent.malloc(dirent.SIZE_OF);
+        int read = glfs_readdirplus_r(dir, stat, dirstruct, next);
+        dirent.free(next);
+        System.out.println("READDIRPLUS: " + dirstruct + " " + stat);
+        assertEquals(0, read);
+        assertTrue(stat.st_mode != 0);
+    }
+
+    @Test(dependsOnMethods = "testReaddirplus")
     public void testClosedir() {
         long close = glfs_closedir(dir);
         System.out.println("CLOSEDIR: " + close);
@@ -357,6 +460,16 @@ public class GLFSTest {
     }
 
     @Test(dependsOnMethods = "testRmdir_NotEmpty")
+    public void testUnlink_directory() {
+        int unl = glfsjni_unlink(vol, DIR_PATH);
+        System.out.println("UNLINK DIR: " + unl);
+        assertEquals(-UtilJNI.EISDIR, unl);
+        int ret = glfsjni_rmdir(vol, DIR_PATH);
+        System.out.println("REMOVE NOT EMPTY: " + ret);
+        assertEquals(-UtilJNI.ENOTEMPTY, ret);
+    }
+
+    @Test(dependsOnMethods = "testUnlink_directory")
     public void testUnlink() {
         int unl = glfs_unlink(vol, FILE_PATH_RENAMED);
         System.out.println("UNLINK: " + unl);